@@ -0,0 +1,106 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+/**
+ * {@link MessageHandler} for benchmarks. Counts received messages and otherwise does nothing.
+ */
+class BenchmarkMessageHandler implements MessageHandler {
+
+	int messagesReceived;
+	MqttChannel lastChannelOpened;
+
+	@Override
+	public void connect(MqttChannel channel, ConnectMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void connAck(MqttChannel channel, ConnAckMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void publish(MqttChannel channel, PubMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void pubAck(MqttChannel channel, PubAckMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void pubRec(MqttChannel channel, PubRecMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void pubRel(MqttChannel channel, PubRelMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void pubComp(MqttChannel channel, PubCompMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void subscribe(MqttChannel channel, SubscribeMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void subAck(MqttChannel channel, SubAckMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void unsubscribe(MqttChannel channel, UnsubscribeMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void unsubAck(MqttChannel channel, UnsubAckMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void disconnect(MqttChannel channel, DisconnectMessage message) throws Exception {
+		messagesReceived++;
+	}
+
+	@Override
+	public void channelOpened(MqttChannel channel) {
+		lastChannelOpened = channel;
+	}
+
+	@Override
+	public void channelClosed(MqttChannel channel, Throwable cause) {
+	}
+
+	@Override
+	public void channelAttached(MqttChannel channel) {
+	}
+
+	@Override
+	public void channelDetached(MqttChannel channel) {
+	}
+
+	@Override
+	public void messageSent(MqttChannel channel, MqttMessage message) {
+	}
+}
@@ -0,0 +1,109 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+
+import net.xenqtt.client.MessageStats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of commands through a blocking {@link ChannelManagerImpl}. Each operation is a full round trip from the calling thread to the IO thread and back.
+ * Run with JMH's {@code -t} option to measure contention on the command queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelManagerBenchmark {
+
+	ServerSocketChannel server;
+	ChannelManagerImpl clientManager;
+	ChannelManagerImpl brokerManager;
+	MqttChannelRef clientChannel;
+	PubMessage recycledMessage;
+
+	@Setup
+	public void setup() throws Exception {
+
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+
+		clientManager = new ChannelManagerImpl(0, 0);
+		clientManager.init();
+		brokerManager = new ChannelManagerImpl(0);
+		brokerManager.init();
+
+		clientChannel = clientManager.newClientChannel("127.0.0.1", server.socket().getLocalPort(), new BenchmarkMessageHandler());
+		brokerManager.newBrokerChannel(server.accept(), new BenchmarkMessageHandler());
+
+		recycledMessage = new PubMessage(QoS.AT_MOST_ONCE, false, new EncodedTopic("grand/foo/bar/baz"), 0, new byte[64]);
+		recycledMessage.setRecycler(new MessageRecycler() {
+			@Override
+			public void recycle(MqttMessage message) {
+			}
+		});
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+
+		clientManager.shutdown();
+		brokerManager.shutdown();
+		server.close();
+	}
+
+	/**
+	 * A command that does almost no work on the IO thread so this measures the overhead of the command queue and thread handoff
+	 */
+	@Benchmark
+	public MessageStats getStats() {
+		return clientManager.getStats(false);
+	}
+
+	/**
+	 * A blocking QoS 0 send which returns when the message has been written to the socket
+	 */
+	@Benchmark
+	public MqttMessage sendQos0() {
+		return clientManager.send(clientChannel, new PubMessage(QoS.AT_MOST_ONCE, false, "grand/foo/bar/baz", 0, new byte[64]));
+	}
+
+	/**
+	 * A blocking QoS 0 send of the same recycled message every time so only the command and the IO thread handoff allocate. Only valid with 1 benchmark
+	 * thread.
+	 */
+	@Benchmark
+	public MqttMessage sendQos0Recycled() {
+		return clientManager.send(clientChannel, recycledMessage);
+	}
+}
@@ -0,0 +1,111 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes a {@link PubMessage} through one {@link AbstractMqttChannel} and reads it from another over a loopback {@link SocketChannel} pair. Both channels
+ * are driven directly by the benchmark thread so no {@link ChannelManagerImpl} or thread handoff is involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelReadWriteBenchmark {
+
+	@Param({ "0", "64", "1024", "65536" })
+	int payloadSize;
+
+	@Param({ "false", "true" })
+	boolean directFrames;
+
+	Selector selector;
+	ServerSocketChannel server;
+	BenchmarkMessageHandler handler = new BenchmarkMessageHandler();
+	MqttBrokerChannel writer;
+	MqttBrokerChannel reader;
+	FrameBuffers frameBuffers;
+	PubMessage message;
+
+	@Setup
+	public void setup() throws Exception {
+
+		frameBuffers = new FrameBuffers(directFrames);
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+
+		SocketChannel writeSocket = SocketChannel.open(server.socket().getLocalSocketAddress());
+		SocketChannel readSocket = server.accept();
+		writeSocket.socket().setTcpNoDelay(true);
+
+		MessageStatsImpl stats = new MessageStatsImpl(new HashSet<MqttChannel>());
+		writer = new MqttBrokerChannel(writeSocket, handler, selector, 0, stats);
+		reader = new MqttBrokerChannel(readSocket, handler, selector, 0, stats);
+
+		message = new PubMessage(QoS.AT_MOST_ONCE, false, "grand/foo/bar/baz", 0, new byte[payloadSize]);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+
+		writer.close();
+		reader.close();
+		server.close();
+		selector.close();
+	}
+
+	/**
+	 * Sends the message the way {@link ChannelManagerImpl#send(MqttChannelRef, MqttMessage)} does, copying it to a pooled direct buffer when direct frames are
+	 * enabled
+	 */
+	@Benchmark
+	public int writeRead() {
+
+		int expected = handler.messagesReceived + 1;
+		message.copyToDirectFrame(frameBuffers);
+		writer.send(message, null);
+		while (handler.messagesReceived < expected) {
+			if (!writer.write(0) || !reader.read(0)) {
+				throw new IllegalStateException("Channel closed");
+			}
+		}
+
+		return handler.messagesReceived;
+	}
+}
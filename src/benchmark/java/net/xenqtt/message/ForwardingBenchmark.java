@@ -0,0 +1,147 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Forwards QoS 0 PUBLISH frames from one {@link AbstractMqttChannel} to another the way a proxy does, either as {@link PubMessage}s read one at a time or
+ * as frames read many at a time and passed to {@link MqttChannel#sendFrame(ByteBuffer)} by a {@link PublishForwardingHandler}. The publisher and subscriber are raw loopback sockets so only the
+ * forwarding channels are measured. All channels are driven directly by the benchmark thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForwardingBenchmark {
+
+	private static final int BURST_SIZE = 100;
+
+	@Param({ "16", "256", "1024" })
+	int payloadSize;
+
+	@Param({ "false", "true" })
+	boolean passThrough;
+
+	Selector selector;
+	ServerSocketChannel server;
+	SocketChannel publisher;
+	SocketChannel subscriber;
+	MqttBrokerChannel in;
+	MqttBrokerChannel out;
+	ByteBuffer burst;
+	ByteBuffer sink = ByteBuffer.allocateDirect(1 << 16);
+
+	@Setup
+	public void setup() throws Exception {
+
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+
+		publisher = SocketChannel.open(server.socket().getLocalSocketAddress());
+		SocketChannel inSocket = server.accept();
+		SocketChannel outSocket = SocketChannel.open(server.socket().getLocalSocketAddress());
+		subscriber = server.accept();
+		publisher.configureBlocking(false);
+		subscriber.configureBlocking(false);
+		outSocket.socket().setTcpNoDelay(true);
+
+		MessageStatsImpl stats = new MessageStatsImpl(new HashSet<MqttChannel>());
+		in = new MqttBrokerChannel(inSocket, passThrough ? new PassThroughForwarder() : new Forwarder(), selector, 0, stats);
+		out = new MqttBrokerChannel(outSocket, new BenchmarkMessageHandler(), selector, 0, stats);
+
+		ByteBuffer frame = new PubMessage(QoS.AT_MOST_ONCE, false, "grand/foo/bar/baz", 0, new byte[payloadSize]).buffer;
+		burst = ByteBuffer.allocateDirect(frame.limit() * BURST_SIZE);
+		for (int i = 0; i < BURST_SIZE; i++) {
+			burst.put(frame.duplicate());
+		}
+		burst.flip();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+
+		in.close();
+		out.close();
+		publisher.close();
+		subscriber.close();
+		server.close();
+		selector.close();
+	}
+
+	/**
+	 * Publishes {@value #BURST_SIZE} messages and forwards them until the subscriber has read every byte
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BURST_SIZE)
+	public long forward() throws Exception {
+
+		burst.rewind();
+		long received = 0;
+		while (received < burst.limit()) {
+			if (burst.hasRemaining()) {
+				publisher.write(burst);
+			}
+			if (!in.read(0) || !out.write(0)) {
+				throw new IllegalStateException("Channel closed");
+			}
+			sink.clear();
+			received += subscriber.read(sink);
+		}
+
+		return received;
+	}
+
+	private class Forwarder extends BenchmarkMessageHandler {
+
+		@Override
+		public void publish(MqttChannel channel, PubMessage message) throws Exception {
+			out.send(message);
+		}
+	}
+
+	private final class PassThroughForwarder extends Forwarder implements PublishForwardingHandler {
+
+		@Override
+		public boolean forwardPublish(MqttChannel channel, String topicName, ByteBuffer frame) throws Exception {
+			return out.sendFrame(frame);
+		}
+	}
+}
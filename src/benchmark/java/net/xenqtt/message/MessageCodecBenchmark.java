@@ -0,0 +1,161 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encode and decode of every message type except {@link PubMessage} which has its own {@link PubMessageCodecBenchmark benchmark}. Decoding reads every field
+ * because messages parse lazily.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+	@Param({ "CONNECT", "CONNACK", "PUBACK", "PUBREC", "PUBREL", "PUBCOMP", "SUBSCRIBE", "SUBACK", "UNSUBSCRIBE", "UNSUBACK", "PINGREQ", "PINGRESP",
+			"DISCONNECT" })
+	MessageType messageType;
+
+	String[] topics = new String[] { "grand/foo/bar", "grand/+/bar", "grand/#" };
+	QoS[] qoses = new QoS[] { QoS.AT_LEAST_ONCE, QoS.AT_MOST_ONCE, QoS.AT_LEAST_ONCE };
+
+	ByteBuffer encoded;
+	int remainingLength;
+
+	@Setup
+	public void setup() {
+
+		MqttMessage message = encode();
+		encoded = message.buffer.duplicate();
+		encoded.rewind();
+		remainingLength = message.getRemainingLength();
+	}
+
+	@Benchmark
+	public MqttMessage encode() {
+
+		switch (messageType) {
+		case CONNECT:
+			return new ConnectMessage("benchmarkClient", false, 300, "user", "password", "will/topic", "will message", QoS.AT_LEAST_ONCE, false);
+		case CONNACK:
+			return new ConnAckMessage(ConnectReturnCode.ACCEPTED);
+		case PUBACK:
+			return new PubAckMessage(1);
+		case PUBREC:
+			return new PubRecMessage(1);
+		case PUBREL:
+			return new PubRelMessage(1);
+		case PUBCOMP:
+			return new PubCompMessage(1);
+		case SUBSCRIBE:
+			return new SubscribeMessage(1, topics, qoses);
+		case SUBACK:
+			return new SubAckMessage(1, qoses);
+		case UNSUBSCRIBE:
+			return new UnsubscribeMessage(1, topics);
+		case UNSUBACK:
+			return new UnsubAckMessage(1);
+		case PINGREQ:
+			return new PingReqMessage();
+		case PINGRESP:
+			return new PingRespMessage();
+		case DISCONNECT:
+			return new DisconnectMessage();
+		default:
+			throw new IllegalStateException("Unsupported message type: " + messageType);
+		}
+	}
+
+	@Benchmark
+	public void decode(Blackhole blackhole) {
+
+		ByteBuffer buffer = encoded.duplicate();
+		switch (messageType) {
+		case CONNECT:
+			ConnectMessage connect = new ConnectMessage(buffer, remainingLength, 0);
+			blackhole.consume(connect.getClientId());
+			blackhole.consume(connect.getUserName());
+			blackhole.consume(connect.getPassword());
+			blackhole.consume(connect.getWillTopic());
+			blackhole.consume(connect.getWillMessage());
+			blackhole.consume(connect.getKeepAliveSeconds());
+			break;
+		case CONNACK:
+			blackhole.consume(new ConnAckMessage(buffer, 0).getReturnCode());
+			break;
+		case PUBACK:
+			blackhole.consume(new PubAckMessage(buffer, 0).getMessageId());
+			break;
+		case PUBREC:
+			blackhole.consume(new PubRecMessage(buffer, 0).getMessageId());
+			break;
+		case PUBREL:
+			blackhole.consume(new PubRelMessage(buffer, 0).getMessageId());
+			break;
+		case PUBCOMP:
+			blackhole.consume(new PubCompMessage(buffer, 0).getMessageId());
+			break;
+		case SUBSCRIBE:
+			SubscribeMessage subscribe = new SubscribeMessage(buffer, remainingLength, 0);
+			blackhole.consume(subscribe.getMessageId());
+			blackhole.consume(subscribe.getTopics());
+			blackhole.consume(subscribe.getRequestedQoSes());
+			break;
+		case SUBACK:
+			SubAckMessage subAck = new SubAckMessage(buffer, remainingLength, 0);
+			blackhole.consume(subAck.getMessageId());
+			blackhole.consume(subAck.getGrantedQoses());
+			break;
+		case UNSUBSCRIBE:
+			UnsubscribeMessage unsubscribe = new UnsubscribeMessage(buffer, remainingLength, 0);
+			blackhole.consume(unsubscribe.getMessageId());
+			blackhole.consume(unsubscribe.getTopics());
+			break;
+		case UNSUBACK:
+			blackhole.consume(new UnsubAckMessage(buffer, 0).getMessageId());
+			break;
+		case PINGREQ:
+			blackhole.consume(new PingReqMessage(buffer, 0).getMessageType());
+			break;
+		case PINGRESP:
+			blackhole.consume(new PingRespMessage(buffer, 0).getMessageType());
+			break;
+		case DISCONNECT:
+			blackhole.consume(new DisconnectMessage(buffer, 0).getMessageType());
+			break;
+		default:
+			throw new IllegalStateException("Unsupported message type: " + messageType);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encode and decode of {@link PubMessage} across payload sizes. Decoding reads every field because {@link PubMessage} parses lazily.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PubMessageCodecBenchmark {
+
+	@Param({ "0", "64", "1024", "65536" })
+	int payloadSize;
+
+	@Param({ "AT_MOST_ONCE", "AT_LEAST_ONCE" })
+	QoS qos;
+
+	String topicName = "grand/foo/bar/baz";
+	EncodedTopic encodedTopic = new EncodedTopic(topicName);
+	byte[] payload;
+	ByteBuffer encoded;
+	int remainingLength;
+
+	@Setup
+	public void setup() {
+
+		payload = new byte[payloadSize];
+		for (int i = 0; i < payloadSize; i++) {
+			payload[i] = (byte) i;
+		}
+
+		PubMessage message = new PubMessage(qos, false, topicName, 1, payload);
+		encoded = message.buffer.duplicate();
+		encoded.rewind();
+		remainingLength = message.getRemainingLength();
+	}
+
+	@Benchmark
+	public PubMessage encode() {
+		return new PubMessage(qos, false, topicName, 1, payload);
+	}
+
+	@Benchmark
+	public PubMessage encodeEncodedTopic() {
+		return new PubMessage(qos, false, encodedTopic, 1, payload);
+	}
+
+	@Benchmark
+	public void decode(Blackhole blackhole) {
+
+		PubMessage message = new PubMessage(encoded.duplicate(), remainingLength, 0);
+		blackhole.consume(message.getTopicName());
+		blackhole.consume(message.getMessageId());
+		blackhole.consume(message.getPayload());
+	}
+}
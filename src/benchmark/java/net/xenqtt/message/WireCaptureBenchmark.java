@@ -0,0 +1,87 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Records frames to a {@link WireCapture} from several threads at once, each thread taking a ring the way a {@link ChannelManagerImpl} does. Compare ring
+ * counts to see how much threads that share a ring contend on its lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class WireCaptureBenchmark {
+
+	@Param({ "1", "2", "8", "32" })
+	int ringCount;
+
+	File file;
+	WireCapture capture;
+
+	@Setup
+	public void setup() throws Exception {
+
+		file = File.createTempFile("xenqtt", ".capture");
+		capture = new WireCapture(file, 64 << 20, 4096, ringCount);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+
+		capture.close();
+		file.delete();
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		WireCapture.Ring ring;
+		ByteBuffer frame;
+
+		@Setup
+		public void setup(WireCaptureBenchmark benchmark) {
+
+			ring = benchmark.capture.nextRing();
+			frame = new PubMessage(QoS.AT_MOST_ONCE, false, "grand/foo/bar", 0, new byte[64]).buffer;
+		}
+	}
+
+	@Benchmark
+	public void record(ThreadState state) {
+		state.ring.record(System.currentTimeMillis(), true, 1883, 50000, state.frame, state.frame.limit());
+	}
+}
@@ -0,0 +1,152 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.mockbroker;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.List;
+
+import net.xenqtt.client.ChannelStats;
+import net.xenqtt.message.BlockingCommand;
+import net.xenqtt.message.MessageHandler;
+import net.xenqtt.message.MqttChannel;
+import net.xenqtt.message.MqttMessage;
+
+/**
+ * {@link MqttChannel} that discards everything sent to it. Used to benchmark broker logic without any IO.
+ */
+final class NullMqttChannel implements MqttChannel {
+
+	int messagesSent;
+
+	@Override
+	public void deregister() {
+	}
+
+	@Override
+	public boolean register(Selector selector, MessageHandler handler) {
+		return true;
+	}
+
+	@Override
+	public boolean finishConnect() {
+		return true;
+	}
+
+	@Override
+	public boolean read(long now) {
+		return true;
+	}
+
+	@Override
+	public void pauseRead() {
+	}
+
+	@Override
+	public void resumeRead() {
+	}
+
+	@Override
+	public boolean send(MqttMessage message) {
+		messagesSent++;
+		return true;
+	}
+
+	@Override
+	public boolean send(MqttMessage message, BlockingCommand<MqttMessage> blockingCommand) {
+		messagesSent++;
+		return true;
+	}
+
+	@Override
+	public boolean sendFrame(ByteBuffer frame) {
+		messagesSent++;
+		return true;
+	}
+
+	@Override
+	public boolean write(long now) {
+		return true;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public void close(Throwable cause) {
+	}
+
+	@Override
+	public boolean isOpen() {
+		return true;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return true;
+	}
+
+	@Override
+	public boolean isConnectionPending() {
+		return false;
+	}
+
+	@Override
+	public long houseKeeping(long now) {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int sendQueueDepth() {
+		return 0;
+	}
+
+	@Override
+	public boolean isSendQueueFull() {
+		return false;
+	}
+
+	@Override
+	public int inFlightMessageCount() {
+		return 0;
+	}
+
+	@Override
+	public void cancelBlockingCommands() {
+	}
+
+	@Override
+	public List<MqttMessage> getUnsentMessages() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public String getRemoteAddress() {
+		return "null";
+	}
+
+	@Override
+	public String getLocalAddress() {
+		return "null";
+	}
+
+	@Override
+	public ChannelStats getStats(boolean reset) {
+		return null;
+	}
+}
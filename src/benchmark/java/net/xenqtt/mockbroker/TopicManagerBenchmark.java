@@ -0,0 +1,116 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.mockbroker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.PubMessage;
+import net.xenqtt.message.QoS;
+import net.xenqtt.message.SubscribeMessage;
+import net.xenqtt.message.UnsubscribeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Subscribe and publish matching in the mock broker's {@link TopicManager} with many clients and topics. Each client subscribes at QoS 0 to one standard
+ * topic and one wildcard topic so every publish is delivered to the subscribers of both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicManagerBenchmark {
+
+	@Param({ "100", "10000" })
+	int clientCount;
+
+	@Param({ "10", "1000" })
+	int topicCount;
+
+	Map<String, Client> clientById = new HashMap<String, Client>();
+	TopicManager topicManager = new TopicManager(clientById);
+	Client subscriber;
+	String[] topicNames;
+	byte[] payload = new byte[64];
+	int nextTopic;
+
+	@Setup
+	public void setup() {
+
+		topicNames = new String[topicCount];
+		for (int i = 0; i < topicCount; i++) {
+			topicNames[i] = "grand/" + i + "/data";
+		}
+
+		for (int i = 0; i < clientCount; i++) {
+			Client client = newClient("client" + i);
+			int topic = i % topicCount;
+			topicManager.subscribe(client, new SubscribeMessage(1, new String[] { topicNames[topic], "grand/" + topic + "/#" }, new QoS[] {
+					QoS.AT_MOST_ONCE, QoS.AT_MOST_ONCE }));
+		}
+
+		subscriber = newClient("subscriber");
+	}
+
+	@Benchmark
+	public void publish() {
+
+		String topicName = topicNames[nextTopic++ % topicCount];
+		topicManager.publish(new PubMessage(QoS.AT_MOST_ONCE, false, topicName, 0, payload));
+	}
+
+	@Benchmark
+	public void subscribeUnsubscribeStandard() {
+
+		String[] topics = new String[] { topicNames[nextTopic++ % topicCount] };
+		topicManager.subscribe(subscriber, new SubscribeMessage(1, topics, new QoS[] { QoS.AT_MOST_ONCE }));
+		topicManager.unsubscribe(subscriber, new UnsubscribeMessage(2, topics));
+	}
+
+	@Benchmark
+	public void subscribeUnsubscribeWildcard() {
+
+		String[] topics = new String[] { "grand/+/data" };
+		topicManager.subscribe(subscriber, new SubscribeMessage(1, topics, new QoS[] { QoS.AT_MOST_ONCE }));
+		topicManager.unsubscribe(subscriber, new UnsubscribeMessage(2, topics));
+	}
+
+	private Client newClient(String clientId) {
+
+		Client client = new Client(new NullMqttChannel(), new NullBrokerEvents(), 50);
+		client.clientId = clientId;
+		client.cleanSession = true;
+		clientById.put(clientId, client);
+		topicManager.connected(client, new ConnectMessage(clientId, true, 0));
+
+		return client;
+	}
+}
@@ -0,0 +1,433 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import net.xenqtt.Log;
+import net.xenqtt.client.AsyncClientListener;
+import net.xenqtt.client.AsyncMqttClient;
+import net.xenqtt.client.MqttClient;
+import net.xenqtt.client.MqttClientConfig;
+import net.xenqtt.client.MqttClientListener;
+import net.xenqtt.client.PublishMessage;
+import net.xenqtt.client.Subscription;
+import net.xenqtt.client.SyncMqttClient;
+import net.xenqtt.message.ConnectReturnCode;
+import net.xenqtt.message.QoS;
+import net.xenqtt.mockbroker.MockBroker;
+import net.xenqtt.proxy.ProxyBroker;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * End to end throughput and latency of publishing through the real clients to a {@link MockBroker}, both directly and through a {@link ProxyBroker}, all
+ * in-process on loopback. Sweeps client count, QoS, payload size, and sync vs async clients and writes a JSON report that can be diffed between releases.
+ * <p>
+ * Run with: mvn -Pbenchmark test-compile exec:exec -Dbenchmark.main=net.xenqtt.test.EndToEndBenchmark -Dbenchmark.args="[reportFile] [messagesPerClient]"
+ * <p>
+ * For each scenario the report has:
+ * <ul>
+ * <li>msgsPerSecond - messages acked per second across all clients</li>
+ * <li>ackLatencyMicros - percentiles of the time from calling {@link MqttClient#publish(PublishMessage) publish} until the publish is complete. For QoS 0
+ * this is when the message is written to the socket by the sync client or queued for sending by the async client; for QoS 1 it is when the PUBACK is
+ * received.</li>
+ * <li>bytesAllocatedPerMsg - bytes allocated by all threads in the JVM during the measurement divided by the message count. -1 if the JVM does not support
+ * thread allocation counters.</li>
+ * </ul>
+ */
+public final class EndToEndBenchmark {
+
+	private static final int[] CLIENT_COUNTS = { 1, 8 };
+	private static final QoS[] QOS_LEVELS = { QoS.AT_MOST_ONCE, QoS.AT_LEAST_ONCE };
+	private static final int[] PAYLOAD_SIZES = { 64, 4096 };
+	private static final boolean[] ASYNC = { false, true };
+	private static final String[] TARGETS = { "broker", "proxy" };
+
+	private static final int ASYNC_WINDOW = 100;
+	private static final int WARMUP_DIVISOR = 10;
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final int messagesPerClient;
+	private final List<String> results = new ArrayList<String>();
+
+	private MockBroker broker;
+	private ProxyBroker proxy;
+
+	private EndToEndBenchmark(int messagesPerClient) {
+		this.messagesPerClient = messagesPerClient;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		File reportFile = new File(args.length > 0 ? args[0] : "target/e2e-result.json");
+		int messagesPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+		// the mock broker logs every message at info which would swamp the measurements
+		Logger.getLogger("xenqtt").setLevel(Level.WARN);
+
+		EndToEndBenchmark benchmark = new EndToEndBenchmark(messagesPerClient);
+		benchmark.run();
+		benchmark.writeReport(reportFile);
+
+		System.out.println("Benchmark report saved to " + reportFile.getAbsolutePath());
+	}
+
+	private void run() throws Exception {
+
+		broker = new MockBroker(null, 0, 0, true, false, false, 50);
+		broker.init();
+		proxy = new ProxyBroker(broker.getURI(), 0, 0xffff);
+		proxy.init();
+
+		try {
+			for (String target : TARGETS) {
+				String uri = "broker".equals(target) ? broker.getURI() : proxy.getURI();
+				for (int clientCount : CLIENT_COUNTS) {
+					for (QoS qos : QOS_LEVELS) {
+						for (int payloadSize : PAYLOAD_SIZES) {
+							for (boolean async : ASYNC) {
+								Scenario scenario = new Scenario(target, uri, clientCount, qos, payloadSize, async);
+								String result = scenario.run();
+								System.out.println(result);
+								results.add(result);
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			proxy.shutdown(5000);
+			broker.shutdown(5000);
+		}
+	}
+
+	private void writeReport(File reportFile) throws Exception {
+
+		File dir = reportFile.getAbsoluteFile().getParentFile();
+		if (dir != null) {
+			dir.mkdirs();
+		}
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+		try {
+			out.write("{\n");
+			out.write(String.format("  \"javaVersion\": \"%s\",\n", System.getProperty("java.version")));
+			out.write(String.format("  \"osName\": \"%s\",\n", System.getProperty("os.name")));
+			out.write(String.format("  \"availableProcessors\": %d,\n", Runtime.getRuntime().availableProcessors()));
+			out.write(String.format("  \"messagesPerClient\": %d,\n", messagesPerClient));
+			out.write("  \"scenarios\": [\n");
+			for (int i = 0; i < results.size(); i++) {
+				out.write("    ");
+				out.write(results.get(i));
+				out.write(i < results.size() - 1 ? ",\n" : "\n");
+			}
+			out.write("  ]\n");
+			out.write("}\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return Total bytes allocated by all live threads or -1 if this JVM does not support thread allocation counters
+	 */
+	@SuppressWarnings("restriction")
+	private static long allocatedBytes() {
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+		if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+
+		long total = 0;
+		for (long id : bean.getAllThreadIds()) {
+			long bytes = bean.getThreadAllocatedBytes(id);
+			if (bytes > 0) {
+				total += bytes;
+			}
+		}
+
+		return total;
+	}
+
+	private final class Scenario {
+
+		private final String target;
+		private final String uri;
+		private final int clientCount;
+		private final QoS qos;
+		private final int payloadSize;
+		private final boolean async;
+
+		Scenario(String target, String uri, int clientCount, QoS qos, int payloadSize, boolean async) {
+			this.target = target;
+			this.uri = uri;
+			this.clientCount = clientCount;
+			this.qos = qos;
+			this.payloadSize = payloadSize;
+			this.async = async;
+		}
+
+		String run() throws Exception {
+
+			Publisher[] publishers = new Publisher[clientCount];
+			for (int i = 0; i < clientCount; i++) {
+				publishers[i] = async ? new AsyncPublisher(i) : new SyncPublisher(i);
+			}
+
+			try {
+				runAll(publishers, messagesPerClient / WARMUP_DIVISOR);
+
+				// threads that exit during the measurement are not counted so do this after all the client threads have started
+				long allocatedBefore = allocatedBytes();
+				long start = System.nanoTime();
+				runAll(publishers, messagesPerClient);
+				long elapsed = System.nanoTime() - start;
+				long allocatedAfter = allocatedBytes();
+
+				long[] latencies = new long[clientCount * messagesPerClient];
+				for (int i = 0; i < clientCount; i++) {
+					System.arraycopy(publishers[i].latencies, 0, latencies, i * messagesPerClient, messagesPerClient);
+				}
+
+				return toJson(latencies, elapsed, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore);
+			} finally {
+				for (Publisher publisher : publishers) {
+					publisher.close();
+				}
+			}
+		}
+
+		private void runAll(Publisher[] publishers, int messageCount) throws Exception {
+
+			Thread[] threads = new Thread[publishers.length];
+			for (int i = 0; i < publishers.length; i++) {
+				publishers[i].messageCount = messageCount;
+				threads[i] = new Thread(publishers[i], "EndToEndBenchmark-" + i);
+				threads[i].start();
+			}
+
+			for (int i = 0; i < publishers.length; i++) {
+				threads[i].join();
+				if (publishers[i].failure != null) {
+					throw publishers[i].failure;
+				}
+			}
+		}
+
+		private String toJson(long[] latencies, long elapsedNanos, long allocatedBytes) {
+
+			Arrays.sort(latencies);
+
+			long messageCount = latencies.length;
+			StringBuilder buf = new StringBuilder();
+			buf.append(String.format(Locale.US, "{\"target\": \"%s\", \"clients\": %d, \"qos\": %d, \"payloadSize\": %d, \"mode\": \"%s\"", target, clientCount,
+					qos.value(), payloadSize, async ? "async" : "sync"));
+			buf.append(String.format(Locale.US, ", \"msgsPerSecond\": %.1f", messageCount * 1000000000.0 / elapsedNanos));
+			buf.append(", \"ackLatencyMicros\": {");
+			for (double percentile : PERCENTILES) {
+				int index = (int) Math.min(messageCount - 1, Math.ceil(percentile / 100 * messageCount) - 1);
+				buf.append(String.format(Locale.US, "\"p%s\": %.1f, ", percentile == (long) percentile ? Long.toString((long) percentile) : Double.toString(percentile),
+						latencies[Math.max(0, index)] / 1000.0));
+			}
+			buf.append(String.format(Locale.US, "\"max\": %.1f}", latencies[latencies.length - 1] / 1000.0));
+			buf.append(String.format(Locale.US, ", \"bytesAllocatedPerMsg\": %.1f}", allocatedBytes < 0 ? -1.0 : (double) allocatedBytes / messageCount));
+
+			return buf.toString();
+		}
+
+		/**
+		 * Publishes {@link #messageCount} messages on its own thread and records the latency of each one
+		 */
+		private abstract class Publisher implements Runnable {
+
+			final long[] latencies = new long[messagesPerClient];
+			final byte[] payload = new byte[payloadSize];
+			final String topic;
+			MqttClient client;
+			int messageCount;
+			volatile Exception failure;
+
+			Publisher(int index) {
+				this.topic = "benchmark/" + index;
+			}
+
+			@Override
+			public final void run() {
+				try {
+					publish();
+				} catch (Exception e) {
+					failure = e;
+				}
+			}
+
+			abstract void publish() throws Exception;
+
+			void connect(String clientId) {
+				// the proxy does not allow clean sessions
+				ConnectReturnCode returnCode = client.connect(clientId, "broker".equals(target));
+				if (returnCode != null && returnCode != ConnectReturnCode.ACCEPTED) {
+					throw new IllegalStateException("Connect failed for client " + clientId + ": " + returnCode);
+				}
+			}
+
+			void close() {
+				try {
+					client.disconnect();
+				} catch (Exception e) {
+					Log.error(e, "Failed to disconnect benchmark client");
+					client.close();
+				}
+			}
+		}
+
+		private final class SyncPublisher extends Publisher implements MqttClientListener {
+
+			SyncPublisher(int index) {
+				super(index);
+				client = new SyncMqttClient(uri, this, 1, new MqttClientConfig().setBlockingTimeoutSeconds(30));
+				connect(clientId(index));
+			}
+
+			@Override
+			void publish() {
+				for (int i = 0; i < messageCount; i++) {
+					long start = System.nanoTime();
+					client.publish(new PublishMessage(topic, qos, payload));
+					latencies[i] = System.nanoTime() - start;
+				}
+			}
+
+			@Override
+			public void publishReceived(MqttClient client, PublishMessage message) {
+				message.ack();
+			}
+
+			@Override
+			public void disconnected(MqttClient client, Throwable cause, boolean reconnecting) {
+			}
+		}
+
+		private final class AsyncPublisher extends Publisher implements AsyncClientListener {
+
+			private final CountDownLatch connectLatch = new CountDownLatch(1);
+			private final Semaphore window = new Semaphore(ASYNC_WINDOW);
+			private volatile CountDownLatch publishedLatch;
+
+			AsyncPublisher(int index) throws InterruptedException {
+				super(index);
+				client = new AsyncMqttClient(uri, this, 1);
+				connect(clientId(index));
+				if (!connectLatch.await(30, TimeUnit.SECONDS)) {
+					throw new IllegalStateException("Timed out waiting for client to connect");
+				}
+			}
+
+			@Override
+			void publish() throws InterruptedException {
+
+				// the async client does not call published() for QoS 0 so only the time to queue the message is measured
+				if (qos == QoS.AT_MOST_ONCE) {
+					for (int i = 0; i < messageCount; i++) {
+						long start = System.nanoTime();
+						client.publish(new PublishMessage(topic, qos, payload));
+						latencies[i] = System.nanoTime() - start;
+					}
+					return;
+				}
+
+				publishedLatch = new CountDownLatch(messageCount);
+				for (int i = 0; i < messageCount; i++) {
+					window.acquire();
+					TimedPublishMessage message = new TimedPublishMessage(topic, qos, payload, i);
+					message.start = System.nanoTime();
+					client.publish(message);
+				}
+
+				if (!publishedLatch.await(30, TimeUnit.SECONDS)) {
+					throw new IllegalStateException("Timed out waiting for messages to be published");
+				}
+			}
+
+			@Override
+			public void published(MqttClient client, PublishMessage message) {
+
+				TimedPublishMessage timedMessage = (TimedPublishMessage) message;
+				latencies[timedMessage.index] = System.nanoTime() - timedMessage.start;
+				window.release();
+				publishedLatch.countDown();
+			}
+
+			@Override
+			public void connected(MqttClient client, ConnectReturnCode returnCode) {
+				if (returnCode == ConnectReturnCode.ACCEPTED) {
+					connectLatch.countDown();
+				}
+			}
+
+			@Override
+			public void subscribed(MqttClient client, Subscription[] requestedSubscriptions, Subscription[] grantedSubscriptions, boolean requestsGranted) {
+			}
+
+			@Override
+			public void unsubscribed(MqttClient client, String[] topics) {
+			}
+
+			@Override
+			public void publishReceived(MqttClient client, PublishMessage message) {
+				message.ack();
+			}
+
+			@Override
+			public void disconnected(MqttClient client, Throwable cause, boolean reconnecting) {
+			}
+		}
+
+		private String clientId(int index) {
+			return String.format("%s-%s-%d-%d-%d", target, async ? "async" : "sync", qos.value(), payloadSize, index);
+		}
+	}
+
+	private static final class TimedPublishMessage extends PublishMessage {
+
+		private final int index;
+		private long start;
+
+		TimedPublishMessage(String topicName, QoS qos, byte[] payload, int index) {
+			super(topicName, qos, payload);
+			this.index = index;
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link LogDelegate} that hands log events to a background thread which passes them on to another delegate. Events are held in a bounded ring buffer. When
+ * the buffer is full events are dropped, and the number dropped is logged later, instead of blocking the thread that is logging. This keeps appender I/O, such
+ * as writing to disk, off of the IO threads.
+ * <p>
+ * Messages are formatted by the thread that logs them because the parameters, typically channels and messages, may change or be reused as soon as the logging
+ * method returns.
+ */
+final class AsyncLogDelegate implements LogDelegate {
+
+	private static final int TRACE = 0;
+	private static final int DEBUG = 1;
+	private static final int INFO = 2;
+	private static final int WARN = 3;
+	private static final int ERROR = 4;
+	private static final int FATAL = 5;
+
+	private static final long STOP_CHECK_MILLIS = 100;
+
+	private final LogDelegate delegate;
+	private final BlockingQueue<Event> events;
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread thread;
+	private volatile boolean stopped;
+
+	/**
+	 * @param delegate
+	 *            The delegate the background thread logs to
+	 * @param capacity
+	 *            The maximum number of events that may be waiting to be logged
+	 */
+	AsyncLogDelegate(LogDelegate delegate, int capacity) {
+		this.delegate = delegate;
+		this.events = new ArrayBlockingQueue<Event>(capacity);
+		this.thread = new ConfigurableThreadFactory("XenqttLog", true).newThread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		});
+		thread.start();
+	}
+
+	/**
+	 * Stops the background thread after it logs all events that are waiting
+	 */
+	void shutdown() throws InterruptedException {
+		// the thread is not interrupted because that would also interrupt whatever IO the delegate is doing
+		stopped = true;
+		thread.join();
+	}
+
+	/**
+	 * @return The number of events that have been dropped because the buffer was full
+	 */
+	long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isTraceEnabled()
+	 */
+	@Override
+	public boolean isTraceEnabled() {
+		return delegate.isTraceEnabled();
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isDebugEnabled()
+	 */
+	@Override
+	public boolean isDebugEnabled() {
+		return delegate.isDebugEnabled();
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isInfoEnabled()
+	 */
+	@Override
+	public boolean isInfoEnabled() {
+		return delegate.isInfoEnabled();
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isWarnEnabled()
+	 */
+	@Override
+	public boolean isWarnEnabled() {
+		return delegate.isWarnEnabled();
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isErrorEnabled()
+	 */
+	@Override
+	public boolean isErrorEnabled() {
+		return delegate.isErrorEnabled();
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isFatalEnabled()
+	 */
+	@Override
+	public boolean isFatalEnabled() {
+		return delegate.isFatalEnabled();
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#trace(java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void trace(String message, Object... parameters) {
+		if (delegate.isTraceEnabled()) {
+			enqueue(TRACE, null, message, parameters);
+		}
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#debug(java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void debug(String message, Object... parameters) {
+		if (delegate.isDebugEnabled()) {
+			enqueue(DEBUG, null, message, parameters);
+		}
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#info(java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void info(String message, Object... parameters) {
+		if (delegate.isInfoEnabled()) {
+			enqueue(INFO, null, message, parameters);
+		}
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#warn(java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void warn(String message, Object... parameters) {
+		if (delegate.isWarnEnabled()) {
+			enqueue(WARN, null, message, parameters);
+		}
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#warn(java.lang.Throwable, java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void warn(Throwable t, String message, Object... parameters) {
+		if (delegate.isWarnEnabled()) {
+			enqueue(WARN, t, message, parameters);
+		}
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#error(java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void error(String message, Object... parameters) {
+		if (delegate.isErrorEnabled()) {
+			enqueue(ERROR, null, message, parameters);
+		}
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#error(java.lang.Throwable, java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void error(Throwable t, String message, Object... parameters) {
+		if (delegate.isErrorEnabled()) {
+			enqueue(ERROR, t, message, parameters);
+		}
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#fatal(java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void fatal(String message, Object... parameters) {
+		if (delegate.isFatalEnabled()) {
+			enqueue(FATAL, null, message, parameters);
+		}
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#fatal(java.lang.Throwable, java.lang.String, java.lang.Object[])
+	 */
+	@Override
+	public void fatal(Throwable t, String message, Object... parameters) {
+		if (delegate.isFatalEnabled()) {
+			enqueue(FATAL, t, message, parameters);
+		}
+	}
+
+	private void enqueue(int level, Throwable t, String message, Object[] parameters) {
+
+		if (!events.offer(new Event(level, t, LogFormatter.format(message, parameters)))) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	private void drain() {
+
+		long droppedReported = 0;
+		for (;;) {
+			Event event;
+			try {
+				event = events.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (event == null) {
+				if (stopped) {
+					return;
+				}
+				continue;
+			}
+
+			long droppedNow = dropped.get();
+			if (droppedNow != droppedReported) {
+				delegate.warn("%s log events were dropped because the log buffer was full", droppedNow - droppedReported);
+				droppedReported = droppedNow;
+			}
+
+			try {
+				log(event);
+			} catch (RuntimeException e) {
+				// keep the thread alive no matter what the delegate does
+			}
+		}
+	}
+
+	private void log(Event event) {
+
+		switch (event.level) {
+		case TRACE:
+			delegate.trace("%s", event.message);
+			break;
+		case DEBUG:
+			delegate.debug("%s", event.message);
+			break;
+		case INFO:
+			delegate.info("%s", event.message);
+			break;
+		case WARN:
+			delegate.warn(event.throwable, "%s", event.message);
+			break;
+		case ERROR:
+			delegate.error(event.throwable, "%s", event.message);
+			break;
+		default:
+			delegate.fatal(event.throwable, "%s", event.message);
+			break;
+		}
+	}
+
+	private static final class Event {
+
+		private final int level;
+		private final Throwable throwable;
+		private final String message;
+
+		Event(int level, Throwable throwable, String message) {
+			this.level = level;
+			this.throwable = throwable;
+			this.message = message;
+		}
+	}
+}
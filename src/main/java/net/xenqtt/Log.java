@@ -25,9 +25,20 @@ package net.xenqtt;
  * At present the fallback logging mechanism writes all {@code trace}, {@code debug}, and {@code info} logging events to standard out and all {@code warn},
  * {@code error}, and {@code fatal} logging events to standard error.
  * </p>
+ * 
+ * <p>
+ * The {@code trace}, {@code debug}, and {@code info} methods have overloads for up to 3 parameters which do not allocate anything when the level is disabled.
+ * Setting the {@value #ASYNC_CAPACITY_PROPERTY} system property to a positive number hands log events to a background thread through a buffer of that many
+ * events so logging never blocks the calling thread on appender I/O. Events are dropped, and counted, if the buffer is full.
+ * </p>
  */
 public final class Log {
 
+	/**
+	 * System property that enables asynchronous logging when set to the capacity of the event buffer
+	 */
+	public static final String ASYNC_CAPACITY_PROPERTY = "xenqtt.log.asyncCapacity";
+
 	private static LogDelegate DELEGATE;
 
 	static {
@@ -36,11 +47,47 @@ public final class Log {
 		} catch (NoClassDefFoundError ignore) {
 			DELEGATE = new NullLogDelegate();
 		}
+
+		int asyncCapacity = Integer.getInteger(ASYNC_CAPACITY_PROPERTY, 0);
+		if (asyncCapacity > 0) {
+			final AsyncLogDelegate async = new AsyncLogDelegate(DELEGATE, asyncCapacity);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						async.shutdown();
+					} catch (InterruptedException ignore) {
+					}
+				}
+			});
+			DELEGATE = async;
+		}
 	}
 
 	private Log() {
 	}
 
+	/**
+	 * @return True if messages at the TRACE log level are logged. Use this to avoid building expensive parameters for messages that will not be logged.
+	 */
+	public static boolean isTraceEnabled() {
+		return DELEGATE.isTraceEnabled();
+	}
+
+	/**
+	 * @return True if messages at the DEBUG log level are logged. Use this to avoid building expensive parameters for messages that will not be logged.
+	 */
+	public static boolean isDebugEnabled() {
+		return DELEGATE.isDebugEnabled();
+	}
+
+	/**
+	 * @return True if messages at the INFO log level are logged. Use this to avoid building expensive parameters for messages that will not be logged.
+	 */
+	public static boolean isInfoEnabled() {
+		return DELEGATE.isInfoEnabled();
+	}
+
 	/**
 	 * Log a message at the TRACE log level, if possible.
 	 * 
@@ -53,6 +100,50 @@ public final class Log {
 		DELEGATE.trace(message, parameters);
 	}
 
+	/**
+	 * Log a message with no parameters at the TRACE log level, if possible.
+	 * 
+	 * @see #trace(String, Object...)
+	 */
+	public static void trace(String message) {
+		if (DELEGATE.isTraceEnabled()) {
+			DELEGATE.trace(message);
+		}
+	}
+
+	/**
+	 * Log a message with 1 parameter at the TRACE log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #trace(String, Object...)
+	 */
+	public static void trace(String message, Object parameter1) {
+		if (DELEGATE.isTraceEnabled()) {
+			DELEGATE.trace(message, parameter1);
+		}
+	}
+
+	/**
+	 * Log a message with 2 parameters at the TRACE log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #trace(String, Object...)
+	 */
+	public static void trace(String message, Object parameter1, Object parameter2) {
+		if (DELEGATE.isTraceEnabled()) {
+			DELEGATE.trace(message, parameter1, parameter2);
+		}
+	}
+
+	/**
+	 * Log a message with 3 parameters at the TRACE log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #trace(String, Object...)
+	 */
+	public static void trace(String message, Object parameter1, Object parameter2, Object parameter3) {
+		if (DELEGATE.isTraceEnabled()) {
+			DELEGATE.trace(message, parameter1, parameter2, parameter3);
+		}
+	}
+
 	/**
 	 * Log a message at the DEBUG log level, if possible.
 	 * 
@@ -65,6 +156,50 @@ public final class Log {
 		DELEGATE.debug(message, parameters);
 	}
 
+	/**
+	 * Log a message with no parameters at the DEBUG log level, if possible.
+	 * 
+	 * @see #debug(String, Object...)
+	 */
+	public static void debug(String message) {
+		if (DELEGATE.isDebugEnabled()) {
+			DELEGATE.debug(message);
+		}
+	}
+
+	/**
+	 * Log a message with 1 parameter at the DEBUG log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #debug(String, Object...)
+	 */
+	public static void debug(String message, Object parameter1) {
+		if (DELEGATE.isDebugEnabled()) {
+			DELEGATE.debug(message, parameter1);
+		}
+	}
+
+	/**
+	 * Log a message with 2 parameters at the DEBUG log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #debug(String, Object...)
+	 */
+	public static void debug(String message, Object parameter1, Object parameter2) {
+		if (DELEGATE.isDebugEnabled()) {
+			DELEGATE.debug(message, parameter1, parameter2);
+		}
+	}
+
+	/**
+	 * Log a message with 3 parameters at the DEBUG log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #debug(String, Object...)
+	 */
+	public static void debug(String message, Object parameter1, Object parameter2, Object parameter3) {
+		if (DELEGATE.isDebugEnabled()) {
+			DELEGATE.debug(message, parameter1, parameter2, parameter3);
+		}
+	}
+
 	/**
 	 * Log a message at the INFO log level, if possible.
 	 * 
@@ -77,6 +212,50 @@ public final class Log {
 		DELEGATE.info(message, parameters);
 	}
 
+	/**
+	 * Log a message with no parameters at the INFO log level, if possible.
+	 * 
+	 * @see #info(String, Object...)
+	 */
+	public static void info(String message) {
+		if (DELEGATE.isInfoEnabled()) {
+			DELEGATE.info(message);
+		}
+	}
+
+	/**
+	 * Log a message with 1 parameter at the INFO log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #info(String, Object...)
+	 */
+	public static void info(String message, Object parameter1) {
+		if (DELEGATE.isInfoEnabled()) {
+			DELEGATE.info(message, parameter1);
+		}
+	}
+
+	/**
+	 * Log a message with 2 parameters at the INFO log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #info(String, Object...)
+	 */
+	public static void info(String message, Object parameter1, Object parameter2) {
+		if (DELEGATE.isInfoEnabled()) {
+			DELEGATE.info(message, parameter1, parameter2);
+		}
+	}
+
+	/**
+	 * Log a message with 3 parameters at the INFO log level, if possible. No parameter array is allocated unless the level is enabled.
+	 * 
+	 * @see #info(String, Object...)
+	 */
+	public static void info(String message, Object parameter1, Object parameter2, Object parameter3) {
+		if (DELEGATE.isInfoEnabled()) {
+			DELEGATE.info(message, parameter1, parameter2, parameter3);
+		}
+	}
+
 	/**
 	 * Log a message at the WARN log level, if possible.
 	 * 
@@ -41,6 +41,54 @@ final class Log4jLogDelegate implements LogDelegate {
 		fatalEnabled = Level.FATAL.isGreaterOrEqual(effectiveLevel);
 	}
 
+	/**
+	 * @see net.xenqtt.LogDelegate#isTraceEnabled()
+	 */
+	@Override
+	public boolean isTraceEnabled() {
+		return traceEnabled;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isDebugEnabled()
+	 */
+	@Override
+	public boolean isDebugEnabled() {
+		return debugEnabled;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isInfoEnabled()
+	 */
+	@Override
+	public boolean isInfoEnabled() {
+		return infoEnabled;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isWarnEnabled()
+	 */
+	@Override
+	public boolean isWarnEnabled() {
+		return warnEnabled;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isErrorEnabled()
+	 */
+	@Override
+	public boolean isErrorEnabled() {
+		return errorEnabled;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isFatalEnabled()
+	 */
+	@Override
+	public boolean isFatalEnabled() {
+		return fatalEnabled;
+	}
+
 	/**
 	 * Log a message at the TRACE log level, if possible.
 	 * 
@@ -52,7 +100,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void trace(String message, Object... parameters) {
 		if (traceEnabled) {
-			log.trace(String.format(message, parameters));
+			log.trace(LogFormatter.format(message, parameters));
 		}
 	}
 
@@ -67,7 +115,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void debug(String message, Object... parameters) {
 		if (debugEnabled) {
-			log.debug(String.format(message, parameters));
+			log.debug(LogFormatter.format(message, parameters));
 		}
 	}
 
@@ -82,7 +130,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void info(String message, Object... parameters) {
 		if (infoEnabled) {
-			log.info(String.format(message, parameters));
+			log.info(LogFormatter.format(message, parameters));
 		}
 	}
 
@@ -97,7 +145,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void warn(String message, Object... parameters) {
 		if (warnEnabled) {
-			log.warn(String.format(message, parameters));
+			log.warn(LogFormatter.format(message, parameters));
 		}
 	}
 
@@ -114,7 +162,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void warn(Throwable t, String message, Object... parameters) {
 		if (warnEnabled) {
-			log.warn(String.format(message, parameters), t);
+			log.warn(LogFormatter.format(message, parameters), t);
 		}
 	}
 
@@ -129,7 +177,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void error(String message, Object... parameters) {
 		if (errorEnabled) {
-			log.error(String.format(message, parameters));
+			log.error(LogFormatter.format(message, parameters));
 		}
 	}
 
@@ -146,7 +194,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void error(Throwable t, String message, Object... parameters) {
 		if (errorEnabled) {
-			log.error(String.format(message, parameters), t);
+			log.error(LogFormatter.format(message, parameters), t);
 		}
 	}
 
@@ -161,7 +209,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void fatal(String message, Object... parameters) {
 		if (fatalEnabled) {
-			log.fatal(String.format(message, parameters));
+			log.fatal(LogFormatter.format(message, parameters));
 		}
 	}
 
@@ -178,7 +226,7 @@ final class Log4jLogDelegate implements LogDelegate {
 	@Override
 	public void fatal(Throwable t, String message, Object... parameters) {
 		if (fatalEnabled) {
-			log.fatal(String.format(message, parameters), t);
+			log.fatal(LogFormatter.format(message, parameters), t);
 		}
 	}
 
@@ -20,6 +20,36 @@ package net.xenqtt;
  */
 interface LogDelegate {
 
+	/**
+	 * @return True if messages at the TRACE log level are logged
+	 */
+	boolean isTraceEnabled();
+
+	/**
+	 * @return True if messages at the DEBUG log level are logged
+	 */
+	boolean isDebugEnabled();
+
+	/**
+	 * @return True if messages at the INFO log level are logged
+	 */
+	boolean isInfoEnabled();
+
+	/**
+	 * @return True if messages at the WARN log level are logged
+	 */
+	boolean isWarnEnabled();
+
+	/**
+	 * @return True if messages at the ERROR log level are logged
+	 */
+	boolean isErrorEnabled();
+
+	/**
+	 * @return True if messages at the FATAL log level are logged
+	 */
+	boolean isFatalEnabled();
+
 	/**
 	 * Log a message at the TRACE log level, if possible.
 	 * 
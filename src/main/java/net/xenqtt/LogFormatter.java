@@ -0,0 +1,72 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt;
+
+/**
+ * Formats log messages. Xenqtt only uses the {@code %s}, {@code %d}, {@code %%}, and {@code %n} format specifiers so those are handled here without the
+ * overhead of {@link String#format(String, Object...)}, which parses the format into a list of specifiers and creates a {@link java.util.Formatter} for every
+ * message. Any other specifier falls back to {@link String#format(String, Object...)}.
+ */
+final class LogFormatter {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private LogFormatter() {
+	}
+
+	/**
+	 * @return The message with each format specifier replaced by the next parameter
+	 */
+	static String format(String message, Object... parameters) {
+
+		int index = message.indexOf('%');
+		if (index < 0) {
+			return message;
+		}
+
+		StringBuilder builder = new StringBuilder(message.length() + 16 * parameters.length);
+		int start = 0;
+		int parameterIndex = 0;
+		for (; index >= 0; index = message.indexOf('%', start)) {
+
+			if (index == message.length() - 1) {
+				return String.format(message, parameters);
+			}
+
+			builder.append(message, start, index);
+
+			char c = message.charAt(index + 1);
+			if (c == 's' || c == 'd') {
+				if (parameterIndex >= parameters.length) {
+					return String.format(message, parameters);
+				}
+				builder.append(parameters[parameterIndex++]);
+			} else if (c == '%') {
+				builder.append('%');
+			} else if (c == 'n') {
+				builder.append(LINE_SEPARATOR);
+			} else {
+				return String.format(message, parameters);
+			}
+
+			start = index + 2;
+		}
+
+		builder.append(message, start, message.length());
+
+		return builder.toString();
+	}
+}
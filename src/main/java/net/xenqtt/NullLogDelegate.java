@@ -20,6 +20,54 @@ package net.xenqtt;
  */
 final class NullLogDelegate implements LogDelegate {
 
+	/**
+	 * @see net.xenqtt.LogDelegate#isTraceEnabled()
+	 */
+	@Override
+	public boolean isTraceEnabled() {
+		return false;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isDebugEnabled()
+	 */
+	@Override
+	public boolean isDebugEnabled() {
+		return false;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isInfoEnabled()
+	 */
+	@Override
+	public boolean isInfoEnabled() {
+		return false;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isWarnEnabled()
+	 */
+	@Override
+	public boolean isWarnEnabled() {
+		return false;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isErrorEnabled()
+	 */
+	@Override
+	public boolean isErrorEnabled() {
+		return false;
+	}
+
+	/**
+	 * @see net.xenqtt.LogDelegate#isFatalEnabled()
+	 */
+	@Override
+	public boolean isFatalEnabled() {
+		return false;
+	}
+
 	/**
 	 * @see net.xenqtt.LogDelegate#trace(java.lang.String, java.lang.Object[])
 	 */
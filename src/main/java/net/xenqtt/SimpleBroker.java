@@ -21,12 +21,17 @@ import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
+import net.xenqtt.client.ChannelStats;
 import net.xenqtt.message.ChannelManager;
 import net.xenqtt.message.ChannelManagerImpl;
 import net.xenqtt.message.MessageHandler;
 import net.xenqtt.message.MqttMessage;
+import net.xenqtt.message.SlowConsumerPolicy;
+import net.xenqtt.message.WireCapture;
+import net.xenqtt.metrics.MetricsExporter;
 
 /**
  * Simple broker implementation. Can be used as the base class for more advanced broker implementations. Handles accepting new connections and adding them to a
@@ -143,6 +148,63 @@ public class SimpleBroker {
 		return port;
 	}
 
+	/**
+	 * @param reset
+	 *            If true the byte and message counts will be reset to 0 so the next time they are retrieved they will be for the time between the 2 calls to
+	 *            this method.
+	 * 
+	 * @return A snapshot of the statistics for each connection open to this broker
+	 */
+	public List<ChannelStats> getChannelStats(boolean reset) {
+		return manager.getChannelStats(reset);
+	}
+
+	/**
+	 * Registers this broker's metrics with the specified exporter
+	 * 
+	 * @param exporter
+	 *            The exporter to register with
+	 * @param name
+	 *            The name to identify this broker's metrics by
+	 */
+	public void exportMetrics(MetricsExporter exporter, String name) {
+		exporter.register("ChannelManager", name, manager);
+	}
+
+	/**
+	 * Records the frames sent and received by connections accepted after this is called to the specified capture. The caller remains responsible for closing
+	 * the capture after this broker is shut down.
+	 * 
+	 * @param wireCapture
+	 *            The capture to record to. {@code null} to stop recording new connections.
+	 */
+	public void setWireCapture(WireCapture wireCapture) {
+		if (manager instanceof ChannelManagerImpl) {
+			((ChannelManagerImpl) manager).setWireCapture(wireCapture);
+		}
+	}
+
+	/**
+	 * Limits the send queue of each connection accepted after this is called so a client that reads slower than messages are sent to it cannot make the broker
+	 * queue messages without bound.
+	 * 
+	 * @see ChannelManagerImpl#setSendQueueLimits(int, long, SlowConsumerPolicy)
+	 */
+	public void setSendQueueLimits(int maxMessages, long maxBytes, SlowConsumerPolicy policy) {
+		if (manager instanceof ChannelManagerImpl) {
+			((ChannelManagerImpl) manager).setSendQueueLimits(maxMessages, maxBytes, policy);
+		}
+	}
+
+	/**
+	 * Called on the server thread for each accepted connection. Extensions may override this to spread new connections over other managers.
+	 * 
+	 * @return The {@link ChannelManager} to add the next accepted connection to. This implementation always returns {@link #manager}.
+	 */
+	protected ChannelManager getAcceptManager() {
+		return manager;
+	}
+
 	private void doIo() {
 
 		try {
@@ -153,7 +215,7 @@ public class SimpleBroker {
 				readyLatch.countDown();
 				for (;;) {
 					SocketChannel client = server.accept();
-					manager.newBrokerChannel(client, messageHandler);
+					getAcceptManager().newBrokerChannel(client, messageHandler);
 				}
 			} finally {
 				server.close();
@@ -17,6 +17,7 @@ package net.xenqtt.application;
 
 import net.xenqtt.AppContext;
 import net.xenqtt.XenqttUtil;
+import net.xenqtt.metrics.MetricsExporter;
 import net.xenqtt.mockbroker.MockBroker;
 
 /**
@@ -25,6 +26,7 @@ import net.xenqtt.mockbroker.MockBroker;
 public final class MockBrokerApplication extends AbstractXenqttApplication {
 
 	private MockBroker broker;
+	private MetricsExporter metricsExporter;
 
 	/**
 	 * @see net.xenqtt.application.XenqttApplication#start(net.xenqtt.AppContext)
@@ -37,6 +39,7 @@ public final class MockBrokerApplication extends AbstractXenqttApplication {
 		int maxInFlightMessages = arguments.getArgAsInt("m", 50);
 		boolean allowAnonymousAccess = arguments.isFlagSpecified("a");
 		boolean ignoreCredentials = arguments.isFlagSpecified("i");
+		int metricsPort = arguments.getArgAsInt("x", -1);
 
 		broker = new MockBroker(null, timeout, port, allowAnonymousAccess, ignoreCredentials, false, maxInFlightMessages);
 
@@ -51,6 +54,12 @@ public final class MockBrokerApplication extends AbstractXenqttApplication {
 		}
 
 		broker.init();
+
+		if (metricsPort >= 0) {
+			metricsExporter = new MetricsExporter(metricsPort);
+			broker.exportMetrics(metricsExporter, "mockbroker");
+			metricsExporter.init();
+		}
 	}
 
 	/**
@@ -60,6 +69,10 @@ public final class MockBrokerApplication extends AbstractXenqttApplication {
 	public void stop() {
 
 		broker.shutdown(15000);
+
+		if (metricsExporter != null) {
+			metricsExporter.shutdown();
+		}
 	}
 
 	/**
@@ -67,7 +80,7 @@ public final class MockBrokerApplication extends AbstractXenqttApplication {
 	 */
 	@Override
 	public String getOptsText() {
-		return "[-t timeout] [-p port] [-a] [-i] [-u user1:pass1,...usern:passn]";
+		return "[-t timeout] [-p port] [-a] [-i] [-u user1:pass1,...usern:passn] [-x metricsPort]";
 	}
 
 	/**
@@ -83,6 +96,8 @@ public final class MockBrokerApplication extends AbstractXenqttApplication {
 				+ "\n       access when the connect message contains no credentials. Specify -a for that feature." //
 				+ "\n\t-m : Max in-flight messages to a client. Defaults to 50." //
 				+ "\n\t-u user:pass... : Credentials (usernames and passwords) a client can use to connet." //
+				+ "\n\t-x metricsPort : Port to serve Prometheus metrics on at http://127.0.0.1:<metricsPort>/metrics." //
+				+ "\n       Metrics are also published as JMX MBeans. Disabled by default." //
 		;
 	}
 
@@ -15,8 +15,23 @@
  */
 package net.xenqtt.application;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
 import net.xenqtt.AppContext;
+import net.xenqtt.message.SlowConsumerPolicy;
+import net.xenqtt.message.WireCapture;
+import net.xenqtt.metrics.MetricsExporter;
+import net.xenqtt.proxy.DistributionStrategy;
 import net.xenqtt.proxy.ProxyBroker;
+import net.xenqtt.proxy.ProxyStandby;
+import net.xenqtt.proxy.SessionJournal;
+import net.xenqtt.proxy.SessionReplicator;
 
 /**
  * A {@link XenqttApplication} is that acts as an MQTT proxy to allow a cluster of servers to act as a single MQTT proxy. All connections to this proxy that
@@ -24,7 +39,15 @@ import net.xenqtt.proxy.ProxyBroker;
  */
 public final class ProxyApplication extends AbstractXenqttApplication {
 
+	private static final int MAX_CAPTURED_FRAME_BYTES = 4096;
+	private static final int RINGS_PER_PROCESSOR = 4;
+
 	private ProxyBroker broker;
+	private MetricsExporter metricsExporter;
+	private WireCapture wireCapture;
+	private SessionJournal sessionJournal;
+	private SessionReplicator sessionReplicator;
+	private ProxyStandby standby;
 
 	/**
 	 * @see net.xenqtt.application.XenqttApplication#start(net.xenqtt.AppContext)
@@ -39,8 +62,123 @@ public final class ProxyApplication extends AbstractXenqttApplication {
 			throw new IllegalArgumentException("Max in flight broker messages must be > 0 and <= 65535");
 		}
 
+		int metricsPort = arguments.getArgAsInt("x", -1);
+		int ioThreads = arguments.getArgAsInt("t", Runtime.getRuntime().availableProcessors());
+		if (ioThreads < 0) {
+			throw new IllegalArgumentException("IO threads must be >= 0");
+		}
+		int publishConnections = arguments.getArgAsInt("u", 0);
+		if (publishConnections < 0 || publishConnections > 64) {
+			throw new IllegalArgumentException("Publish connections must be >= 0 and <= 64");
+		}
+		DistributionStrategy distributionStrategy = DistributionStrategy.getStrategy(arguments.getArgAsString("d", "leastbusy"));
+		int resumePercent = arguments.getArgAsInt("l", 100);
+		if (resumePercent < 1 || resumePercent > 100) {
+			throw new IllegalArgumentException("Resume percent must be > 0 and <= 100");
+		}
+		int maxInFlightKb = arguments.getArgAsInt("k", 0);
+		if (maxInFlightKb < 0) {
+			throw new IllegalArgumentException("Max in flight kilobytes must be >= 0");
+		}
+		boolean fairShare = arguments.isFlagSpecified("f");
+		int maxQueuedMessages = arguments.getArgAsInt("q", 0);
+		if (maxQueuedMessages < 0) {
+			throw new IllegalArgumentException("Max queued messages must be >= 0");
+		}
+		int maxQueuedKb = arguments.getArgAsInt("s", 0);
+		if (maxQueuedKb < 0) {
+			throw new IllegalArgumentException("Max queued kilobytes must be >= 0");
+		}
+		SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.getPolicy(arguments.getArgAsString("o", "pause"));
+		String journalFile = arguments.getArgAsString("j", null);
+		String replication = arguments.getArgAsString("r", null);
+		String replicationBindAddress = null;
+		int replicationPort = -1;
+		if (replication != null) {
+			int colon = replication.lastIndexOf(':');
+			if (colon == 0) {
+				throw new IllegalArgumentException("Replication must be [bindAddress:]replicationPort");
+			}
+			replicationBindAddress = colon < 0 ? null : replication.substring(0, colon);
+			replicationPort = Integer.parseInt(replication.substring(colon + 1));
+		}
+		String secretFile = arguments.getArgAsString("a", null);
+		String replicationSecret = secretFile == null ? null : readSecret(secretFile);
+		if (replicationBindAddress != null && replicationSecret == null && !isLoopbackAddress(replicationBindAddress)) {
+			throw new IllegalArgumentException("Replication to a bind address other than loopback requires a secret file (-a)");
+		}
+		boolean recordPasswords = arguments.isFlagSpecified("n");
+		String primary = arguments.getArgAsString("y", null);
+		String primaryHost = null;
+		int primaryPort = 0;
+		if (primary != null) {
+			int colon = primary.lastIndexOf(':');
+			if (colon < 1) {
+				throw new IllegalArgumentException("Primary must be host:replicationPort");
+			}
+			primaryHost = primary.substring(0, colon);
+			primaryPort = Integer.parseInt(primary.substring(colon + 1));
+		}
+		int takeoverMillis = arguments.getArgAsInt("z", (int) ProxyStandby.DEFAULT_TAKEOVER_MILLIS);
+		if (takeoverMillis < 1) {
+			throw new IllegalArgumentException("Takeover millis must be > 0");
+		}
+		String captureFile = arguments.getArgAsString("w", null);
+		int captureSizeMb = arguments.getArgAsInt("c", 64);
+		if (captureSizeMb < 1 || captureSizeMb > 1024) {
+			throw new IllegalArgumentException("Capture size must be > 0 and <= 1024");
+		}
+
 		broker = new ProxyBroker(brokerUri, port, maxInFlightBrokerMessages);
-		broker.init();
+		broker.setIoThreads(ioThreads);
+		broker.setPublishConnections(publishConnections);
+		broker.setDistributionStrategy(distributionStrategy);
+		broker.setFlowControl(resumePercent, maxInFlightKb * 1024L, fairShare);
+		broker.setSendQueueLimits(maxQueuedMessages, maxQueuedKb * 1024L, slowConsumerPolicy);
+		if (journalFile != null) {
+			try {
+				sessionJournal = new SessionJournal(new File(journalFile));
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to open session journal: " + journalFile, e);
+			}
+		} else if (replicationPort >= 0 || primary != null) {
+			sessionJournal = new SessionJournal();
+		}
+		if (sessionJournal != null) {
+			sessionJournal.setRecordPasswords(recordPasswords);
+			broker.setSessionJournal(sessionJournal);
+		}
+		if (captureFile != null) {
+			try {
+				// one ring for the accepting manager and one for each IO thread, each ring holding at least a few maximum size frames. Without the pool
+				// every session has its own IO thread, so use enough rings that the threads running at once seldom share one.
+				int recordingThreads = ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors() * RINGS_PER_PROCESSOR;
+				int rings = Math.min(recordingThreads + 1, (captureSizeMb << 20) / (MAX_CAPTURED_FRAME_BYTES * 16));
+				wireCapture = new WireCapture(new File(captureFile), captureSizeMb << 20, MAX_CAPTURED_FRAME_BYTES, rings);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to open wire capture file: " + captureFile, e);
+			}
+			broker.setWireCapture(wireCapture);
+		}
+		if (primary != null) {
+			standby = new ProxyStandby(primaryHost, primaryPort, broker, sessionJournal, takeoverMillis);
+			standby.setSecret(replicationSecret);
+			standby.init();
+		} else {
+			broker.init();
+		}
+		if (replicationPort >= 0) {
+			sessionReplicator = new SessionReplicator(sessionJournal, replicationPort);
+			sessionReplicator.setBindAddress(replicationBindAddress);
+			sessionReplicator.setSecret(replicationSecret);
+			sessionReplicator.init();
+		}
+
+		if (metricsPort >= 0) {
+			metricsExporter = new MetricsExporter(metricsPort);
+			broker.exportMetrics(metricsExporter, "proxy");
+			metricsExporter.init();
+		}
 	}
 
 	/**
@@ -49,13 +187,71 @@ public final class ProxyApplication extends AbstractXenqttApplication {
 	@Override
 	public void stop() {
 
-		if (broker != null) {
+		if (standby != null) {
+			standby.shutdown();
+		}
+
+		if (broker != null && (standby == null || standby.isActive())) {
 			broker.shutdown(15000);
 		}
+
+		if (sessionReplicator != null) {
+			sessionReplicator.close();
+		}
+
+		if (metricsExporter != null) {
+			metricsExporter.shutdown();
+		}
+
+		if (wireCapture != null) {
+			try {
+				wireCapture.close();
+			} catch (IOException ignore) {
+			}
+		}
+
+		if (sessionJournal != null) {
+			try {
+				sessionJournal.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	private static boolean isLoopbackAddress(String address) {
+
+		try {
+			return InetAddress.getByName(address).isLoopbackAddress();
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Unknown replication bind address: " + address, e);
+		}
+	}
+
+	private static String readSecret(String secretFile) {
+
+		try {
+			InputStream in = new FileInputStream(secretFile);
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1024];
+				for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+					bytes.write(buffer, 0, count);
+				}
+				String secret = bytes.toString("UTF-8").trim();
+				if (secret.isEmpty()) {
+					throw new IllegalArgumentException("Replication secret file is empty: " + secretFile);
+				}
+				return secret;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read replication secret file: " + secretFile, e);
+		}
 	}
 
 	/**
-	 * @return The URI to connect to the proxy. Not valid until after {@link #start(AppContext)} is called.
+	 * @return The URI to connect to the proxy. Not valid until after {@link #start(AppContext)} is called or, for a standby, until it takes over.
 	 */
 	public String getProxyURI() {
 		return broker.getURI();
@@ -66,7 +262,7 @@ public final class ProxyApplication extends AbstractXenqttApplication {
 	 */
 	@Override
 	public String getOptsText() {
-		return "-b brokerUri [-p port] [-m maxInFlight]";
+		return "-b brokerUri [-p port] [-m maxInFlight] [-x metricsPort] [-t ioThreads] [-u publishConnections] [-d distribution] [-l resumePercent] [-k maxInFlightKb] [-f] [-q maxQueued] [-s maxQueuedKb] [-o slowConsumerPolicy] [-j journalFile] [-n] [-r [bindAddress:]replicationPort] [-y primaryHost:replicationPort [-z takeoverMillis]] [-a secretFile] [-w captureFile [-c captureSizeMb]]";
 	}
 
 	/**
@@ -76,9 +272,62 @@ public final class ProxyApplication extends AbstractXenqttApplication {
 	public String getOptsUsageText() {
 		return "\n\t-b brokerUri : URI of the broker to connect to. For example: tcp://q.m2m.io:1883. Required." //
 				+ "\n\t-p port : Port to listen on. Defaults to 1883." //
-				+ "\n\t-m maxInFlight : Maximum number of in-flight messages to the broker per cluster. This" //
+				+ "\n\t-m maxInFlight : Maximum number of in-flight messages per connection to the broker. This" //
 				+ "\n\t                 should not be changed unless you really understand what you are doing." //
 				+ "\n\t                 Defaults to 65535." //
+				+ "\n\t-x metricsPort : Port to serve Prometheus metrics on at http://127.0.0.1:<metricsPort>/metrics." //
+				+ "\n\t                 Metrics are also published as JMX MBeans. Disabled by default." //
+				+ "\n\t-t ioThreads : Number of IO threads shared by the connections to the broker. Each client ID uses" //
+				+ "\n\t                 one thread for all its connections. 0 gives each client ID its own thread." //
+				+ "\n\t                 Defaults to the number of processors." //
+				+ "\n\t-u publishConnections : Number of extra connections per client ID used only to publish to the" //
+				+ "\n\t                 broker. Each has its own in-flight window and message IDs. Messages for a" //
+				+ "\n\t                 topic always use the same connection so they stay in order. Subscriptions" //
+				+ "\n\t                 stay on the main connection. The connections use the client ID with a" //
+				+ "\n\t                 -pub-n suffix. Defaults to 0." //
+				+ "\n\t-d distribution : How messages from the broker are spread over the clients with a client ID." //
+				+ "\n\t                 leastbusy checks every client and picks the one with the fewest pending" //
+				+ "\n\t                 messages. twochoices picks the less busy of two random clients and suits" //
+				+ "\n\t                 large clusters. roundrobin ignores load. topichash sends each topic to" //
+				+ "\n\t                 the same client to keep its messages in order. Defaults to leastbusy." //
+				+ "\n\t-l resumePercent : When clients are paused because too much is in-flight to the broker, resume" //
+				+ "\n\t                 once it falls to this percent of the limit. Lower values resume in larger" //
+				+ "\n\t                 batches. Defaults to 100 which resumes as soon as one message is acked." //
+				+ "\n\t-k maxInFlightKb : Also pause clients when this many kilobytes of QoS 1 messages are in-flight" //
+				+ "\n\t                 to the broker per client ID. Disabled by default." //
+				+ "\n\t-f : Pause a client on its own when it holds more than an equal share of its client ID's" //
+				+ "\n\t                 in-flight messages so one busy client cannot stall the rest." //
+				+ "\n\t-q maxQueued : Maximum number of messages waiting to be written to a client. Disabled by default." //
+				+ "\n\t-s maxQueuedKb : Maximum kilobytes of messages waiting to be written to a client. Disabled by" //
+				+ "\n\t                 default." //
+				+ "\n\t-o slowConsumerPolicy : What to do when a client's queue is at -q or -s. pause stops reading" //
+				+ "\n\t                 from the broker while every client with the client ID is full. dropqos0" //
+				+ "\n\t                 also drops QoS 0 messages to the full client. disconnect closes the full" //
+				+ "\n\t                 client. Defaults to pause." //
+				+ "\n\t-j journalFile : Record the message IDs in-flight to the broker in this file. After a restart" //
+				+ "\n\t                 with the same file, messages resent by clients go to the broker with the" //
+				+ "\n\t                 IDs they had before so the broker sees redeliveries. Disabled by default." //
+				+ "\n\t-n : Also record the broker password of each session in the journal and send it to the" //
+				+ "\n\t                 standby. Without it a standby that takes over connects those sessions to" //
+				+ "\n\t                 the broker without a password until their clients reconnect." //
+				+ "\n\t-r [bindAddress:]replicationPort : Stream the sessions and their in-flight message IDs to a" //
+				+ "\n\t                 standby proxy that connects to this port. Only listens on the loopback" //
+				+ "\n\t                 address unless bindAddress is given. 0.0.0.0 listens on all interfaces." //
+				+ "\n\t                 A bindAddress other than loopback requires -a." //
+				+ "\n\t                 Disabled by default." //
+				+ "\n\t-y primaryHost:replicationPort : Run as a standby for the primary proxy with -r at this" //
+				+ "\n\t                 address. The standby does not accept clients until the primary fails. It" //
+				+ "\n\t                 then connects each session the primary had to the broker and takes over." //
+				+ "\n\t-z takeoverMillis : Milliseconds a standby waits without hearing from the primary before it" //
+				+ "\n\t                 takes over. Defaults to 3000." //
+				+ "\n\t-a secretFile : File holding a secret shared by the primary and the standby. The primary only" //
+				+ "\n\t                 replicates to a standby that proves it knows the secret. Use the same file" //
+				+ "\n\t                 with -r and -y. Disabled by default." //
+				+ "\n\t-w captureFile : Record every frame sent and received by the proxy to this file. Frames are" //
+				+ "\n\t                 truncated to 4096 bytes. Decode the file with the wirecapture application." //
+				+ "\n\t                 Disabled by default." //
+				+ "\n\t-c captureSizeMb : Size of the capture file in megabytes. The oldest frames are overwritten" //
+				+ "\n\t                   when it is full. Defaults to 64." //
 		;
 	}
 
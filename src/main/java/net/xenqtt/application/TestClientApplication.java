@@ -82,6 +82,12 @@ public final class TestClientApplication extends AbstractXenqttApplication {
 	 */
 	@Override
 	public String getDescription() {
-		return getSummary();
+		return getSummary() + " Set client.publishRate to publish open loop at that many messages per second across all " //
+				+ "publishers, with client.arrivals=constant or poisson, instead of waiting for each publish to complete. Latency " //
+				+ "is then measured from when each message was due rather than when it was sent." //
+				+ " To replay production traffic instead of publishing generated messages set client.replayFile " //
+				+ "in the configuration to a capture file recorded by the proxy. Each captured connection is replayed by its own " //
+				+ "publisher. client.replaySpeed scales the time between messages (1, 10, max, etc), client.replayPort limits " //
+				+ "the replay to connections on one port, and client.replayClientIds=true connects with the captured client IDs.";
 	}
 }
@@ -0,0 +1,98 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.application;
+
+import java.io.File;
+import java.util.List;
+
+import net.xenqtt.AppContext;
+import net.xenqtt.message.CapturedFrame;
+import net.xenqtt.message.WireCapture;
+
+/**
+ * A {@link XenqttApplication} that decodes a {@link WireCapture} file and prints each frame in it
+ */
+public final class WireCaptureApplication extends AbstractXenqttApplication {
+
+	/**
+	 * @see net.xenqtt.application.XenqttApplication#start(net.xenqtt.AppContext)
+	 */
+	@Override
+	public void start(AppContext appContext) {
+
+		String fileName = appContext.getArgAsString("f");
+		int port = appContext.getArgAsInt("p", -1);
+
+		List<CapturedFrame> frames;
+		try {
+			frames = WireCapture.read(new File(fileName));
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to read wire capture file: " + fileName, e);
+		}
+
+		for (CapturedFrame frame : frames) {
+			if (port < 0 || frame.getLocalPort() == port || frame.getRemotePort() == port) {
+				System.out.println(frame);
+			}
+		}
+
+		appContext.applicationDone();
+	}
+
+	/**
+	 * @see net.xenqtt.application.XenqttApplication#stop()
+	 */
+	@Override
+	public void stop() {
+		// ignore
+	}
+
+	/**
+	 * @see net.xenqtt.application.XenqttApplication#getOptsText()
+	 */
+	@Override
+	public String getOptsText() {
+		return "-f captureFile [-p port]";
+	}
+
+	/**
+	 * @see net.xenqtt.application.XenqttApplication#getOptsUsageText()
+	 */
+	@Override
+	public String getOptsUsageText() {
+		return "\n\t-f captureFile : The wire capture file to decode. Required." //
+				+ "\n\t-p port : Only show frames for connections with this local or remote port. Defaults to all." //
+		;
+	}
+
+	/**
+	 * @see net.xenqtt.application.XenqttApplication#getSummary()
+	 */
+	@Override
+	public String getSummary() {
+		return "Decodes a wire capture file recorded by the proxy.";
+	}
+
+	/**
+	 * @see net.xenqtt.application.XenqttApplication#getDescription()
+	 */
+	@Override
+	public String getDescription() {
+		return "Prints each frame in a wire capture file, oldest first. Each line shows the time the frame was sent "//
+				+ "or received, the local and remote ports of the connection, the message type, and the frame bytes. "//
+				+ "PUBLISH frames also show their topic.";
+	}
+}
@@ -15,6 +15,7 @@
  */
 package net.xenqtt.client;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
@@ -43,6 +44,7 @@ import net.xenqtt.message.MessageHandler;
 import net.xenqtt.message.MqttChannel;
 import net.xenqtt.message.MqttChannelRef;
 import net.xenqtt.message.MqttMessage;
+import net.xenqtt.message.PayloadStreamHandler;
 import net.xenqtt.message.PubAckMessage;
 import net.xenqtt.message.PubCompMessage;
 import net.xenqtt.message.PubMessage;
@@ -354,7 +356,10 @@ abstract class AbstractMqttClient implements MqttClient {
 				messageHandler = new AsyncMessageHandler();
 				dataByMessageId = asyncClientListener == null ? null : new ConcurrentHashMap<Integer, Object>();
 				int blockingTimeoutSeconds = asyncClientListener == null ? config.getBlockingTimeoutSeconds() : -1;
-				manager = new ChannelManagerImpl(config.getMessageResendIntervalSeconds(), blockingTimeoutSeconds);
+				ChannelManagerImpl manager = new ChannelManagerImpl(config.getMessageResendIntervalSeconds(), blockingTimeoutSeconds);
+				manager.setIoLoopListener(config.getIoLoopListener(), config.getIoLoopBudgetMillis());
+				manager.setDirectFrames(config.isDirectFrames());
+				this.manager = manager;
 				manager.init();
 				channel = manager.newClientChannel(brokerUri, messageHandler);
 	}
@@ -445,9 +450,14 @@ abstract class AbstractMqttClient implements MqttClient {
 		mqttClientListener.disconnected(this, cause, reconnecting);
 	}
 
-	private final class AsyncMessageHandler implements MessageHandler {
+	private final class AsyncMessageHandler implements PayloadStreamHandler {
 
 		private final MqttClient client = AbstractMqttClient.this;
+		private final PublishStreamListener streamListener = mqttClientListener instanceof PublishStreamListener ? (PublishStreamListener) mqttClientListener
+				: null;
+
+		// the message being streamed to the stream listener. Only used by the IO thread.
+		private PublishMessage streamedPublish;
 
 		/**
 		 * @see net.xenqtt.message.MessageHandler#connect(net.xenqtt.message.MqttChannel, net.xenqtt.message.ConnectMessage)
@@ -523,6 +533,52 @@ abstract class AbstractMqttClient implements MqttClient {
 			debugMessageReceivedIfApplicable(channel, message);
 		}
 
+		/**
+		 * @see net.xenqtt.message.PayloadStreamHandler#getStreamingThreshold()
+		 */
+		@Override
+		public int getStreamingThreshold() {
+			return streamListener == null ? Integer.MAX_VALUE : streamListener.getStreamingThreshold();
+		}
+
+		/**
+		 * @see net.xenqtt.message.PayloadStreamHandler#publishStarted(net.xenqtt.message.MqttChannel, net.xenqtt.message.PubMessage)
+		 */
+		@Override
+		public void publishStarted(MqttChannel channel, PubMessage message) throws Exception {
+
+			// no manager so ack() does nothing; the ack is sent from the IO thread once the payload is complete
+			streamedPublish = new PublishMessage(null, null, message);
+			streamListener.publishStarted(client, streamedPublish);
+		}
+
+		/**
+		 * @see net.xenqtt.message.PayloadStreamHandler#payloadReceived(net.xenqtt.message.MqttChannel, net.xenqtt.message.PubMessage, java.nio.ByteBuffer)
+		 */
+		@Override
+		public void payloadReceived(MqttChannel channel, PubMessage message, ByteBuffer chunk) throws Exception {
+			streamListener.payloadReceived(client, streamedPublish, chunk);
+		}
+
+		/**
+		 * @see net.xenqtt.message.PayloadStreamHandler#publishCompleted(net.xenqtt.message.MqttChannel, net.xenqtt.message.PubMessage)
+		 */
+		@Override
+		public void publishCompleted(MqttChannel channel, PubMessage message) throws Exception {
+
+			PublishMessage publishMessage = streamedPublish;
+			streamedPublish = null;
+			try {
+				streamListener.publishCompleted(client, publishMessage);
+			} finally {
+				if (message.getQoSLevel() > 0) {
+					channel.send(new PubAckMessage(message.getMessageId()));
+				}
+			}
+
+			debugMessageReceivedIfApplicable(channel, message);
+		}
+
 		/**
 		 * @see net.xenqtt.message.MessageHandler#pubAck(net.xenqtt.message.MqttChannel, net.xenqtt.message.PubAckMessage)
 		 */
@@ -0,0 +1,85 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.client;
+
+/**
+ * Statistics for a single MQTT connection. Unlike {@link MessageStats}, which aggregates all connections owned by a channel manager, these stats are tracked
+ * per connection so hot connections can be identified.
+ */
+public interface ChannelStats {
+
+	/**
+	 * @return Local address of the connection
+	 */
+	String getLocalAddress();
+
+	/**
+	 * @return Remote address of the connection
+	 */
+	String getRemoteAddress();
+
+	/**
+	 * @return The number of bytes read from the connection. This stat can be reset
+	 */
+	long getBytesReceived();
+
+	/**
+	 * @return The number of bytes written to the connection. This stat can be reset
+	 */
+	long getBytesSent();
+
+	/**
+	 * @return The number of messages received on the connection. This stat can be reset
+	 */
+	long getMessagesReceived();
+
+	/**
+	 * @return The number of messages sent on the connection, including resends. This stat can be reset
+	 */
+	long getMessagesSent();
+
+	/**
+	 * @return The number of messages that were resent on the connection because they were not acknowledged in time. This stat can be reset
+	 */
+	long getMessagesResent();
+
+	/**
+	 * @return The number of messages queued to send on the connection. This stat cannot be reset
+	 */
+	int getSendQueueDepth();
+
+	/**
+	 * @return The number of messages sent on the connection that have not been acknowledged. This stat cannot be reset
+	 */
+	int getMessagesInFlight();
+
+	/**
+	 * @return Milliseconds spent waiting for the socket to accept the remainder of a partially written message. A high value means the remote end is not
+	 *         reading fast enough. This stat can be reset
+	 */
+	long getWriteBlockedMillis();
+
+	/**
+	 * @return The number of times a message was sent while the send queue was at its limit. Always 0 if the connection has no send queue limits. This stat
+	 *         can be reset
+	 */
+	long getSendQueueOverflows();
+
+	/**
+	 * @return The number of QoS 0 messages dropped because the send queue was at its limit. This stat can be reset
+	 */
+	long getMessagesDropped();
+}
@@ -15,6 +15,8 @@
  */
 package net.xenqtt.client;
 
+import java.util.List;
+
 /**
  * Base interface for {@link SyncClientFactory} and {@link AsyncClientFactory}.
  */
@@ -34,4 +36,13 @@ public interface ClientFactory {
 	 * @return A snapshot of the statistics for all the clients created by this factory.
 	 */
 	MessageStats getStats(boolean reset);
+
+	/**
+	 * @param reset
+	 *            If true the byte and message counts will be reset to 0 so the next time they are retrieved they will be for the time between the 2 calls to
+	 *            this method.
+	 * 
+	 * @return A snapshot of the statistics for each open connection to the broker owned by clients created by this factory.
+	 */
+	List<ChannelStats> getChannelStats(boolean reset);
 }
@@ -18,8 +18,10 @@ package net.xenqtt.client;
 import net.xenqtt.MqttException;
 import net.xenqtt.MqttTimeoutException;
 import net.xenqtt.XenqttUtil;
+import net.xenqtt.message.ChannelManagerImpl;
 import net.xenqtt.message.ConnAckMessage;
 import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.IoLoopListener;
 import net.xenqtt.message.MqttMessage;
 import net.xenqtt.message.QoS;
 
@@ -35,7 +37,10 @@ public final class MqttClientConfig implements Cloneable {
 	private int blockingTimeoutSeconds = 0;
 	private int keepAliveSeconds = 300;
 	private MqttClientDebugListener clientDebugListener;
+	private IoLoopListener ioLoopListener;
+	private long ioLoopBudgetMillis;
 	private int maxInFlightMessages = 0xffff;
+	private boolean directFrames;
 
 	/**
 	 * @return The algorithm used to reconnect to the broker if the connection is lost.
@@ -199,6 +204,34 @@ public final class MqttClientConfig implements Cloneable {
 		return this;
 	}
 
+	/**
+	 * @return The {@link IoLoopListener listener} that will be notified when an iteration of the IO loop takes longer than
+	 *         {@link #getIoLoopBudgetMillis()}. Null if there is no listener.
+	 */
+	public IoLoopListener getIoLoopListener() {
+		return ioLoopListener;
+	}
+
+	/**
+	 * @return Millis an iteration of the IO loop may spend doing work before the {@link #getIoLoopListener() IO loop listener} is notified
+	 */
+	public long getIoLoopBudgetMillis() {
+		return ioLoopBudgetMillis;
+	}
+
+	/**
+	 * @param ioLoopListener
+	 *            The {@link IoLoopListener listener} that will be notified when an iteration of the IO loop takes longer than the budget. {@code null} to
+	 *            have no listener. The listener is invoked on the IO thread so it must return quickly. This should only be used when debugging or sizing.
+	 * @param ioLoopBudgetMillis
+	 *            Millis an iteration of the IO loop may spend doing work before the listener is notified
+	 */
+	public MqttClientConfig setIoLoopListener(IoLoopListener ioLoopListener, long ioLoopBudgetMillis) {
+		this.ioLoopBudgetMillis = XenqttUtil.validateGreaterThanOrEqualTo("ioLoopBudgetMillis", ioLoopBudgetMillis, 0L);
+		this.ioLoopListener = ioLoopListener;
+		return this;
+	}
+
 	/**
 	 * @return The maximum number of messages that may be in-flight. An in-flight message is a message with a QoS other than {@link QoS#AT_MOST_ONCE} that has
 	 *         been sent but not acknowledged. This value must be between 1 and 65535 inclusive. Defaults to 65535.
@@ -222,6 +255,25 @@ public final class MqttClientConfig implements Cloneable {
 		this.maxInFlightMessages = maxInFlightMessages;
 	}
 
+	/**
+	 * @return True if large messages are sent and received in direct, off-heap buffers. Defaults to false.
+	 */
+	public boolean isDirectFrames() {
+		return directFrames;
+	}
+
+	/**
+	 * @param directFrames
+	 *            True to send and receive large messages in direct, off-heap buffers. A large message published by the application is copied to a pooled
+	 *            direct buffer when it is queued so the IO thread can write it without copying it again. This mostly helps clients that publish large
+	 *            payloads. Defaults to false.
+	 * @see ChannelManagerImpl#setDirectFrames(boolean)
+	 */
+	public MqttClientConfig setDirectFrames(boolean directFrames) {
+		this.directFrames = directFrames;
+		return this;
+	}
+
 	/**
 	 * @see java.lang.Object#clone()
 	 */
@@ -15,6 +15,7 @@
  */
 package net.xenqtt.client;
 
+import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -177,6 +178,14 @@ public final class MqttClientFactory implements AsyncClientFactory, SyncClientFa
 		return manager.getStats(reset);
 	}
 
+	/**
+	 * @see net.xenqtt.client.ClientFactory#getChannelStats(boolean)
+	 */
+	@Override
+	public List<ChannelStats> getChannelStats(boolean reset) {
+		return manager.getChannelStats(reset);
+	}
+
 	private MqttClientFactory(String brokerUri, int messageHandlerThreadPoolSize, Executor executor, boolean synchronous, MqttClientConfig config) {
 
 		this.config = config.clone();
@@ -187,7 +196,10 @@ public final class MqttClientFactory implements AsyncClientFactory, SyncClientFa
 		this.executor = executor == null ? executorService : executor;
 		this.reconnectionExecutor = Executors.newSingleThreadScheduledExecutor();
 		int blockingTimeoutSeconds = synchronous ? config.getBlockingTimeoutSeconds() : -1;
-		this.manager = new ChannelManagerImpl(config.getMessageResendIntervalSeconds(), blockingTimeoutSeconds);
+		ChannelManagerImpl manager = new ChannelManagerImpl(config.getMessageResendIntervalSeconds(), blockingTimeoutSeconds);
+		manager.setIoLoopListener(config.getIoLoopListener(), config.getIoLoopBudgetMillis());
+		manager.setDirectFrames(config.isDirectFrames());
+		this.manager = manager;
 		this.manager.init();
 	}
 
@@ -19,8 +19,10 @@ import java.nio.charset.Charset;
 
 import net.xenqtt.XenqttUtil;
 import net.xenqtt.message.ChannelManager;
+import net.xenqtt.message.EncodedTopic;
 import net.xenqtt.message.MqttChannelRef;
 import net.xenqtt.message.MqttMessage;
+import net.xenqtt.message.PayloadSource;
 import net.xenqtt.message.PubAckMessage;
 import net.xenqtt.message.PubMessage;
 import net.xenqtt.message.QoS;
@@ -67,6 +69,69 @@ public class PublishMessage {
 		this.pubMessage = new PubMessage(qos, retain, topicName, 0, payload);
 	}
 
+	/**
+	 * Creates a binary message to a topic that has already been encoded. This is cheaper than using the topic name when publishing many messages to the same
+	 * topic.
+	 * 
+	 * @param topic
+	 *            The topic to publish to
+	 * @param qos
+	 *            The level of assurance for delivery.
+	 * @param payload
+	 *            The payload as a byte array. It is valid to publish a zero length payload. Null will be converted to byte[0].
+	 * @param retain
+	 *            If the Retain flag is set (1), the broker should hold on to the message after it has been delivered to the current subscribers.
+	 * 
+	 * @see PublishMessage#PublishMessage(String, QoS, byte[], boolean)
+	 */
+	public PublishMessage(EncodedTopic topic, QoS qos, byte[] payload, boolean retain) {
+		XenqttUtil.validateNotNull("topic", topic);
+		XenqttUtil.validateNotNull("qos", qos);
+
+		if (payload == null) {
+			payload = EMPTY_PAYLOAD;
+		}
+
+		this.channel = null;
+		this.manager = null;
+		this.pubMessage = new PubMessage(qos, retain, topic, 0, payload);
+	}
+
+	/**
+	 * Creates a message whose payload is streamed from a {@link PayloadSource} as the message is sent instead of being held in memory. Use this to publish
+	 * payloads that are too large to buffer, such as files. The source must be {@link PayloadSource#isRepeatable() repeatable} unless the QoS is
+	 * {@link QoS#AT_MOST_ONCE}.
+	 * 
+	 * @param topic
+	 *            The topic to publish to
+	 * @param qos
+	 *            The level of assurance for delivery.
+	 * @param payload
+	 *            The source of the payload
+	 * @param retain
+	 *            If the Retain flag is set (1), the broker should hold on to the message after it has been delivered to the current subscribers.
+	 * 
+	 * @see PublishMessage#PublishMessage(String, QoS, byte[], boolean)
+	 */
+	public PublishMessage(EncodedTopic topic, QoS qos, PayloadSource payload, boolean retain) {
+		XenqttUtil.validateNotNull("topic", topic);
+		XenqttUtil.validateNotNull("qos", qos);
+		XenqttUtil.validateNotNull("payload", payload);
+
+		this.channel = null;
+		this.manager = null;
+		this.pubMessage = new PubMessage(qos, retain, topic, 0, payload);
+	}
+
+	/**
+	 * Creates a binary message to a topic that has already been encoded with retain set to false.
+	 * 
+	 * @see PublishMessage#PublishMessage(EncodedTopic, QoS, byte[], boolean)
+	 */
+	public PublishMessage(EncodedTopic topic, QoS qos, byte[] payload) {
+		this(topic, qos, payload, false);
+	}
+
 	/**
 	 * Creates a binary message with retain set to false. Delegates to {@link #publish(String, QoS, byte[], boolean)}.
 	 * 
@@ -139,12 +204,20 @@ public class PublishMessage {
 	}
 
 	/**
-	 * @return The message's payload as a byte[]
+	 * @return The message's payload as a byte[]. This is empty if the payload is streamed, either from a {@link PayloadSource} or to a
+	 *         {@link PublishStreamListener}.
 	 */
 	public final byte[] getPayload() {
 		return pubMessage.getPayload();
 	}
 
+	/**
+	 * @return The number of bytes in the payload. Unlike {@link #getPayload()} this includes a streamed payload.
+	 */
+	public final int getPayloadLength() {
+		return pubMessage.getPayloadLength();
+	}
+
 	/**
 	 * @return The message's payload as a string. The payload is converted to a string using the UTF8 character set.
 	 */
@@ -152,6 +225,18 @@ public class PublishMessage {
 		return new String(pubMessage.getPayload(), UTF8);
 	}
 
+	/**
+	 * Copies a new payload into this message in place. This is intended for reusing messages from a {@link PublishMessagePool}. It must not be called on a
+	 * message that is being published.
+	 * 
+	 * @param payload
+	 *            The new payload. This must be the same length as the current payload.
+	 */
+	public final void setPayload(byte[] payload) {
+		XenqttUtil.validateNotNull("payload", payload);
+		pubMessage.setPayload(payload);
+	}
+
 	/**
 	 * @return True if the message is empty (has no payload). False if it is not empty.
 	 */
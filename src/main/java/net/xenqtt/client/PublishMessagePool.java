@@ -0,0 +1,97 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import net.xenqtt.XenqttUtil;
+import net.xenqtt.message.EncodedTopic;
+import net.xenqtt.message.MessageRecycler;
+import net.xenqtt.message.MqttMessage;
+import net.xenqtt.message.PubMessage;
+import net.xenqtt.message.QoS;
+
+/**
+ * Pool of reusable {@link QoS#AT_MOST_ONCE} messages for publishing at a high rate to a single topic. {@link #take() Take} a message, copy the payload into
+ * it with {@link PublishMessage#setPayload(byte[])}, and {@link MqttClient#publish(PublishMessage) publish} it. The message goes back into the pool once it has
+ * been written to the socket. Once the pool has grown to the number of messages in flight, publishing does not allocate any messages or buffers.
+ * <p>
+ * A message must not be used in any way after it is published because it may already have been taken from the pool again. Messages in flight when a client
+ * disconnects are not returned to the pool. This class is thread safe.
+ */
+public final class PublishMessagePool {
+
+	private final EncodedTopic topic;
+	private final int payloadSize;
+	private final ArrayBlockingQueue<PublishMessage> pool;
+
+	/**
+	 * @param topic
+	 *            The topic all messages from this pool are published to
+	 * @param payloadSize
+	 *            The size of the payload of every message from this pool
+	 * @param maxPooledMessages
+	 *            The maximum number of messages kept in the pool. Messages returned to a full pool are discarded.
+	 */
+	public PublishMessagePool(EncodedTopic topic, int payloadSize, int maxPooledMessages) {
+
+		this.topic = XenqttUtil.validateNotNull("topic", topic);
+		this.payloadSize = XenqttUtil.validateGreaterThanOrEqualTo("payloadSize", payloadSize, 0);
+		this.pool = new ArrayBlockingQueue<PublishMessage>(XenqttUtil.validateGreaterThan("maxPooledMessages", maxPooledMessages, 0));
+	}
+
+	/**
+	 * @return A message from the pool or a new message if the pool is empty. The payload contains whatever was in it when the message was last published.
+	 */
+	public PublishMessage take() {
+
+		PublishMessage message = pool.poll();
+		return message != null ? message : newMessage();
+	}
+
+	/**
+	 * @return The number of messages currently in the pool
+	 */
+	public int getPooledMessageCount() {
+		return pool.size();
+	}
+
+	private PublishMessage newMessage() {
+
+		PubMessage pubMessage = new PubMessage(QoS.AT_MOST_ONCE, false, topic, 0, new byte[payloadSize]);
+		PublishMessage message = new PublishMessage(null, null, pubMessage);
+		pubMessage.setRecycler(new Recycler(message));
+
+		return message;
+	}
+
+	private final class Recycler implements MessageRecycler {
+
+		private final PublishMessage message;
+
+		Recycler(PublishMessage message) {
+			this.message = message;
+		}
+
+		/**
+		 * @see net.xenqtt.message.MessageRecycler#recycle(net.xenqtt.message.MqttMessage)
+		 */
+		@Override
+		public void recycle(MqttMessage pubMessage) {
+			pool.offer(message);
+		}
+	}
+}
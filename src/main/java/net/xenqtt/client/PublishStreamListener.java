@@ -0,0 +1,69 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implement this interface in addition to {@link MqttClientListener} or {@link AsyncClientListener} to receive large published payloads a chunk at a time
+ * instead of all at once. Messages with a payload larger than {@link #getStreamingThreshold()} are delivered to this interface instead of
+ * {@link MqttClientListener#publishReceived(MqttClient, PublishMessage)}. Only one chunk is held in memory at a time no matter how large the payload is.
+ * <p>
+ * Unlike other listener methods these are invoked on the client's IO thread, so they must return quickly. Writing each chunk to a file is fine; waiting on
+ * other threads is not. Streamed messages at QoS 1 or 2 are acknowledged by the client after {@link #publishCompleted(MqttClient, PublishMessage)} returns so
+ * there is no need to call {@link PublishMessage#ack()}. If the connection is lost before the payload is complete then
+ * {@link #publishCompleted(MqttClient, PublishMessage)} is not called and the broker will resend the message if the QoS is greater than 0.
+ */
+public interface PublishStreamListener {
+
+	/**
+	 * @return Messages with a payload larger than this many bytes are streamed. This is checked for each message received.
+	 */
+	int getStreamingThreshold();
+
+	/**
+	 * Called when a streamed message starts to arrive. The message has the topic, QoS, and {@link PublishMessage#getPayloadLength() payload length} but its
+	 * {@link PublishMessage#getPayload() payload} is empty. The same instance is passed to the other methods for this message.
+	 * 
+	 * @param client
+	 *            The client that received the message
+	 * @param message
+	 *            The message that was published
+	 */
+	void publishStarted(MqttClient client, PublishMessage message);
+
+	/**
+	 * Called each time part of the payload of a streamed message is received
+	 * 
+	 * @param client
+	 *            The client that received the message
+	 * @param message
+	 *            The message that was published
+	 * @param chunk
+	 *            The payload bytes received, from the buffer's position to its limit. The buffer is reused so it is only valid until this method returns.
+	 */
+	void payloadReceived(MqttClient client, PublishMessage message, ByteBuffer chunk);
+
+	/**
+	 * Called when the entire payload of a streamed message has been received
+	 * 
+	 * @param client
+	 *            The client that received the message
+	 * @param message
+	 *            The message that was published
+	 */
+	void publishCompleted(MqttClient client, PublishMessage message);
+}
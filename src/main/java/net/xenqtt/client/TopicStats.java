@@ -0,0 +1,38 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.client;
+
+/**
+ * Statistics for messages published to a single topic. Topic stats are tracked for a bounded number of topics. When that bound is reached the least active
+ * topic is evicted to make room for new ones so counts for topics that were evicted and later re-added may be overestimated.
+ */
+public interface TopicStats {
+
+	/**
+	 * @return The name of the topic
+	 */
+	String getTopicName();
+
+	/**
+	 * @return The number of messages published to the topic since tracking of the topic began or the stats were last reset
+	 */
+	long getMessageCount();
+
+	/**
+	 * @return The average number of messages per second published to the topic since tracking of the topic began or the stats were last reset
+	 */
+	double getMessagesPerSecond();
+}
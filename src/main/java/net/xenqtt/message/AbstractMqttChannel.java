@@ -27,13 +27,16 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 
 import net.xenqtt.Log;
+import net.xenqtt.MqttException;
+import net.xenqtt.client.ChannelStats;
 
 /**
  * Default {@link MqttChannel} implementation. This class is NOT thread safe. At construction a {@link SocketChannel} will be registered with the
@@ -41,6 +44,18 @@ import net.xenqtt.Log;
  */
 abstract class AbstractMqttChannel implements MqttChannel {
 
+	private static final int STREAM_CHUNK_SIZE = 1 << 16;
+
+	// most frames written to the socket in one gathering write
+	private static final int MAX_GATHERED_FRAMES = 64;
+
+	// size of the buffers that hold the frames sent by sendFrame(...) and how many written ones are kept for reuse
+	private static final int FORWARDED_FRAMES_BUFFER_SIZE = 1 << 12;
+	private static final int MAX_SPARE_FORWARDED_FRAMES_BUFFERS = 4;
+
+	// size of the buffer frames are read into for a PublishForwardingHandler
+	private static final int READ_BUFFER_SIZE = 1 << 14;
+
 	private final Map<Integer, IdentifiableMqttMessage> inFlightMessages = new HashMap<Integer, IdentifiableMqttMessage>();
 	private final List<IdentifiableMqttMessage> messagesToResend = new ArrayList<IdentifiableMqttMessage>();
 	private final long messageResendIntervalMillis;
@@ -61,13 +76,55 @@ abstract class AbstractMqttChannel implements MqttChannel {
 	// the remaining length value for the message currently being read
 	private int remainingLength;
 
-	private final Queue<MqttMessage> writesPending = new ArrayDeque<MqttMessage>();
+	// true while reading the variable header of a PUBLISH whose payload is streamed to a PayloadStreamHandler
+	private boolean readingStreamedHeader;
+
+	// the size of the variable header of the streamed PUBLISH being read. 0 until the topic length has been read.
+	private int streamedVariableHeaderLength;
+
+	// the PUBLISH whose payload is being streamed to a PayloadStreamHandler. Null if no payload is being streamed.
+	private PubMessage streamedMessage;
+
+	// the number of payload bytes of the streamed PUBLISH that have not been read yet
+	private int streamedPayloadRemaining;
+
+	// created on the fly and reused to read each chunk of a streamed payload
+	private ByteBuffer streamChunk;
+
+	// created on the fly for a PublishForwardingHandler. Frames are read into this many at a time and QoS 0 publishes are forwarded straight from it. The
+	// bytes read but not yet handled are from index 0 to its position.
+	private ByteBuffer readBuffer;
+
+	private final Deque<MqttMessage> writesPending = new ArrayDeque<MqttMessage>();
+
+	// buffers of ForwardedFrames already written, reused for the next ones
+	private final Deque<ByteBuffer> spareFramesBuffers = new ArrayDeque<ByteBuffer>();
 
 	private BlockingCommand<?> connectionCompleteCommand;
 	private BlockingCommand<MqttMessage> connAckReceivedCommand;
 
 	private MqttMessage sendMessageInProgress;
 
+	// limits on the messages and bytes in writesPending. 0 for no limit.
+	private int maxQueuedMessages;
+	private long maxQueuedBytes;
+	private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.PAUSE;
+
+	// the number of messages in writesPending, counting each frame in a ForwardedFrames, and their total frame length
+	private int queuedMessages;
+	private long queuedBytes;
+
+	// true from the time the send queue overflows until it drains below its limits
+	private boolean sendQueueOverflowed;
+	// set when the channel must be closed on the next housekeeping pass rather than from inside send()
+	private Throwable pendingCloseCause;
+
+	// created on the fly and reused for gathering writes
+	private ByteBuffer[] gatherBuffers;
+
+	// the number of messages after sendMessageInProgress that were included in the last gathering write
+	private int gatheredMessages;
+
 	private boolean connected;
 
 	private long lastReceivedTime;
@@ -77,10 +134,16 @@ abstract class AbstractMqttChannel implements MqttChannel {
 	private boolean channelCloseCalled;
 
 	private final MutableMessageStats stats;
+	private final ChannelStatsImpl channelStats = new ChannelStatsImpl();
+	private long writeBlockedSince;
 
 	private String remoteAddress;
 	private String localAddress;
 
+	private WireCapture.Ring wireCapture;
+	private int localPort = -1;
+	private int remotePort = -1;
+
 	/**
 	 * Starts an asynchronous connection to the specified host and port. When a {@link SelectionKey} for the specified selector has
 	 * {@link SelectionKey#OP_CONNECT} as a ready op then {@link #finishConnect()} should be called.
@@ -161,6 +224,13 @@ abstract class AbstractMqttChannel implements MqttChannel {
 	@Override
 	public final boolean register(Selector selector, MessageHandler handler) {
 
+		if (isRegisteredWith(selector)) {
+			this.handler = handler;
+			handler.channelAttached(this);
+			Log.debug("Replaced the handler for %s without re-registering", this);
+			return true;
+		}
+
 		if (selectionKey != null && selectionKey.isValid()) {
 			throw new IllegalStateException("You cannot register this channel with a selector because it is already registered with a selector.");
 		}
@@ -265,6 +335,45 @@ abstract class AbstractMqttChannel implements MqttChannel {
 		return doSend(message);
 	}
 
+	/**
+	 * @see net.xenqtt.message.MqttChannel#sendFrame(java.nio.ByteBuffer)
+	 */
+	@Override
+	public final boolean sendFrame(ByteBuffer frame) {
+
+		if (pendingCloseCause != null) {
+			return false;
+		}
+
+		try {
+			if (sendMessageInProgress != null) {
+				if (isSendQueueFull() && !applySlowConsumerPolicy(true)) {
+					return slowConsumerPolicy != SlowConsumerPolicy.DISCONNECT;
+				}
+
+				MqttMessage last = writesPending.peekLast();
+				if (last instanceof ForwardedFrames && ((ForwardedFrames) last).append(frame)) {
+					queuedMessages++;
+					queuedBytes += frame.remaining();
+				} else {
+					queue(newForwardedFrames(frame));
+				}
+				return true;
+			}
+
+			sendMessageInProgress = newForwardedFrames(frame);
+
+			if (selectionKey.isValid() && channel.socket().isConnected()) {
+				enableOp(SelectionKey.OP_WRITE);
+				return true;
+			}
+		} catch (Exception e) {
+			doClose(e, "Failed to send to %s", this);
+		}
+
+		return false;
+	}
+
 	/**
 	 * @see net.xenqtt.message.MqttChannel#write(long)
 	 */
@@ -335,6 +444,24 @@ abstract class AbstractMqttChannel implements MqttChannel {
 	@Override
 	public final long houseKeeping(long now) {
 
+		if (pendingCloseCause != null) {
+			doClose(pendingCloseCause, null);
+			return -1;
+		}
+
+		// the selector does not report frames already in the read buffer when reads resume
+		if (readBuffer != null && readBuffer.position() > 0 && readRemaining == null && selectionKey.isValid() && !isReadPaused()) {
+			try {
+				if (!processFrames(now)) {
+					close();
+					return -1;
+				}
+			} catch (Exception e) {
+				doClose(e, "Failed to read from %s", this);
+				return -1;
+			}
+		}
+
 		long maxIdleTime = Long.MAX_VALUE;
 
 		if (messageResendIntervalMillis > 0) {
@@ -363,7 +490,16 @@ abstract class AbstractMqttChannel implements MqttChannel {
 	@Override
 	public final int sendQueueDepth() {
 
-		return sendMessageInProgress == null ? writesPending.size() : writesPending.size() + 1;
+		return sendMessageInProgress == null ? queuedMessages : queuedMessages + messageCount(sendMessageInProgress);
+	}
+
+	/**
+	 * @see net.xenqtt.message.MqttChannel#isSendQueueFull()
+	 */
+	@Override
+	public final boolean isSendQueueFull() {
+
+		return (maxQueuedMessages > 0 && queuedMessages >= maxQueuedMessages) || (maxQueuedBytes > 0 && queuedBytes >= maxQueuedBytes);
 	}
 
 	/**
@@ -406,13 +542,23 @@ abstract class AbstractMqttChannel implements MqttChannel {
 		unsentMessages.addAll(messagesToResend);
 		unsentMessages.addAll(inFlightMessages.values());
 		if (sendMessageInProgress != null) {
-			unsentMessages.add(sendMessageInProgress);
+			addUnsentMessage(unsentMessages, sendMessageInProgress);
+		}
+		for (MqttMessage message : writesPending) {
+			addUnsentMessage(unsentMessages, message);
 		}
-		unsentMessages.addAll(writesPending);
 
 		return unsentMessages;
 	}
 
+	/**
+	 * @see net.xenqtt.message.MqttChannel#getStats(boolean)
+	 */
+	@Override
+	public final ChannelStats getStats(boolean reset) {
+		return channelStats.snapshot(this, reset);
+	}
+
 	/**
 	 * @see net.xenqtt.message.MqttChannel#getRemoteAddress()
 	 */
@@ -519,12 +665,23 @@ abstract class AbstractMqttChannel implements MqttChannel {
 
 	private boolean doSend(MqttMessage message) {
 
+		// the send queue may have drained since it overflowed but the channel is still closed on the next housekeeping pass
+		if (pendingCloseCause != null) {
+			cancelCommand(message.blockingCommand);
+			return false;
+		}
+
 		try {
-			message.buffer.rewind();
+			message.rewind();
 
-			Log.debug("%s sending %s", this, message);
+			if (Log.isDebugEnabled()) {
+				Log.debug("%s sending %s", this, message);
+			}
 			if (sendMessageInProgress != null) {
-				writesPending.offer(message);
+				if (isSendQueueFull()) {
+					return sendQueueOverflow(message);
+				}
+				queue(message);
 				return true;
 			}
 
@@ -547,12 +704,36 @@ abstract class AbstractMqttChannel implements MqttChannel {
 	private boolean doWrite(long now) throws IOException {
 
 		while (sendMessageInProgress != null) {
-			int bytesWritten = channel.write(sendMessageInProgress.buffer);
-			if (bytesWritten == 0 || sendMessageInProgress.buffer.hasRemaining()) {
-				return true;
+			// a message completely written by an earlier gathering write only needs to be completed
+			boolean written = gatheredMessages > 0 && sendMessageInProgress.isWritten();
+			if (gatheredMessages > 0) {
+				gatheredMessages--;
 			}
 
-			Log.debug("%s sent %s", this, sendMessageInProgress);
+			if (!written) {
+				long bytesWritten = writesPending.isEmpty() || !isGatherable(sendMessageInProgress) ? sendMessageInProgress.write(channel) : gatherWrite();
+				channelStats.bytesSent(bytesWritten);
+				if (bytesWritten == 0 || !sendMessageInProgress.isWritten()) {
+					if (writeBlockedSince == 0) {
+						writeBlockedSince = now;
+					}
+					return true;
+				}
+			}
+
+			if (writeBlockedSince != 0) {
+				channelStats.writeBlocked(now - writeBlockedSince);
+				writeBlockedSince = 0;
+			}
+
+			if (Log.isDebugEnabled()) {
+				Log.debug("%s sent %s", this, sendMessageInProgress);
+			}
+			if (sendMessageInProgress instanceof ForwardedFrames) {
+				forwardedFramesSent((ForwardedFrames) sendMessageInProgress);
+			} else {
+				capture(true, sendMessageInProgress.buffer, sendMessageInProgress.fixedHeaderEndOffset + sendMessageInProgress.getRemainingLength());
+			}
 			lastSentTime = now;
 			handler.messageSent(this, sendMessageInProgress);
 
@@ -560,6 +741,7 @@ abstract class AbstractMqttChannel implements MqttChannel {
 				sendMessageInProgress.originalSendTime = now;
 			}
 			stats.messageSent(sendMessageInProgress.isDuplicate());
+			channelStats.messageSent(sendMessageInProgress.isDuplicate());
 
 			MessageType type = sendMessageInProgress.getMessageType();
 			if (type == MessageType.DISCONNECT) {
@@ -593,11 +775,29 @@ abstract class AbstractMqttChannel implements MqttChannel {
 				inFlightMessages.put(m.getMessageId(), m);
 			}
 
+			// read before recycling because a recycled message may be taken and sent by another thread, which replaces its command
+			BlockingCommand<MqttMessage> blockingCommand = sendMessageInProgress.blockingCommand;
+
+			// recycle before completing the command so a blocked sender finds the message back in its pool
+			if (!ackable) {
+				sendMessageInProgress.releaseDirectFrame();
+				if (sendMessageInProgress.recycler != null) {
+					sendMessageInProgress.recycler.recycle(sendMessageInProgress);
+				}
+			}
+
 			if (!ackable && type != MessageType.CONNECT) {
-				commandComplete(sendMessageInProgress.blockingCommand);
+				commandComplete(blockingCommand);
 			}
 
 			sendMessageInProgress = writesPending.poll();
+			if (sendMessageInProgress != null) {
+				queuedMessages -= messageCount(sendMessageInProgress);
+				queuedBytes -= frameLength(sendMessageInProgress);
+				if (sendQueueOverflowed && !isSendQueueFull()) {
+					sendQueueOverflowed = false;
+				}
+			}
 		}
 
 		if (!selectionKey.isValid()) {
@@ -643,12 +843,20 @@ abstract class AbstractMqttChannel implements MqttChannel {
 			return true;
 		}
 
+		if (streamedMessage != null) {
+			return readStreamedPayload(now);
+		}
+
 		if (readRemaining != null) {
 			return readRemaining(now);
 		}
 
+		if (isReadingFrames()) {
+			return readFrames(now);
+		}
+
 		if (readHeader1.hasRemaining()) {
-			int result = channel.read(readHeader1);
+			int result = read(readHeader1);
 			if (readHeader1.hasRemaining()) {
 				return result >= 0;
 			}
@@ -664,7 +872,7 @@ abstract class AbstractMqttChannel implements MqttChannel {
 		}
 
 		if (readHeader2.hasRemaining()) {
-			int result = channel.read(readHeader2);
+			int result = read(readHeader2);
 			if (readHeader2.hasRemaining()) {
 				return result >= 0;
 			}
@@ -673,6 +881,21 @@ abstract class AbstractMqttChannel implements MqttChannel {
 		return readRemaining(now);
 	}
 
+	/**
+	 * Reads from the channel into the buffer and tracks the number of bytes read
+	 * 
+	 * @return The number of bytes read. -1 if the channel has reached end-of-stream
+	 */
+	private int read(ByteBuffer buffer) throws IOException {
+
+		int result = channel.read(buffer);
+		if (result > 0) {
+			channelStats.bytesReceived(result);
+		}
+
+		return result;
+	}
+
 	private boolean isReadPaused() {
 		return (selectionKey.interestOps() & SelectionKey.OP_READ) == 0;
 	}
@@ -775,7 +998,9 @@ abstract class AbstractMqttChannel implements MqttChannel {
 		}
 
 		if (!messagesToResend.isEmpty()) {
-			Log.debug("%s resending %d messages", this, messagesToResend.size());
+			if (Log.isDebugEnabled()) {
+				Log.debug("%s resending %d messages", this, messagesToResend.size());
+			}
 
 			for (IdentifiableMqttMessage msg : messagesToResend) {
 				msg.setDuplicateFlag();
@@ -796,6 +1021,7 @@ abstract class AbstractMqttChannel implements MqttChannel {
 		lastReceivedTime = now;
 
 		buffer.flip();
+		capture(false, buffer, buffer.limit());
 
 		boolean result = handleMessage(now, buffer);
 
@@ -904,9 +1130,12 @@ abstract class AbstractMqttChannel implements MqttChannel {
 				throw new IllegalStateException("Unsupported message type: " + messageType);
 			}
 
-			Log.debug("%s received %s", this, msg);
+			if (Log.isDebugEnabled()) {
+				Log.debug("%s received %s", this, msg);
+			}
 
 			stats.messageReceived(msg.isDuplicate());
+			channelStats.messageReceived();
 		} catch (Exception e) {
 
 			if (msg != null) {
@@ -924,6 +1153,7 @@ abstract class AbstractMqttChannel implements MqttChannel {
 
 		IdentifiableMqttMessage ackedMessage = inFlightMessages.remove(ackMessage.getMessageId());
 		if (ackedMessage != null) {
+			ackedMessage.releaseDirectFrame();
 			if (ackedMessage instanceof PubMessage) {
 				stats.messageAcked(now - ackedMessage.originalSendTime);
 			}
@@ -959,7 +1189,10 @@ abstract class AbstractMqttChannel implements MqttChannel {
 		if (readRemaining == null) {
 			int remainingLengthSize = calculateRemainingLength();
 			int headerSize = 1 + remainingLengthSize;
-			readRemaining = ByteBuffer.allocate(remainingLength + headerSize);
+
+			// a streamed PUBLISH is read only as far as the topic length at first because that determines the size of the variable header
+			readingStreamedHeader = isStreamedPublish();
+			readRemaining = readingStreamedHeader ? ByteBuffer.allocate(headerSize + 2) : ByteBuffer.allocate(remainingLength + headerSize);
 			readHeader1.flip();
 			readRemaining.put(readHeader1);
 
@@ -969,11 +1202,487 @@ abstract class AbstractMqttChannel implements MqttChannel {
 			}
 		}
 
-		int result = channel.read(readRemaining);
+		int result = read(readRemaining);
 		if (readRemaining.hasRemaining()) {
 			return result >= 0;
 		}
 
+		if (readingStreamedHeader) {
+			return streamedHeaderRead(now);
+		}
+
 		return processMessage(now, readRemaining);
 	}
+
+	/**
+	 * @return True if this channel is currently registered with the specified selector. A channel whose registration was cancelled is not registered.
+	 */
+	boolean isRegisteredWith(Selector selector) {
+		return selector != null && selectionKey != null && selectionKey.isValid() && selectionKey.selector() == selector;
+	}
+
+	/**
+	 * @return The handler this channel's events go to. Must be called on the IO thread.
+	 */
+	MessageHandler getMessageHandler() {
+		return handler;
+	}
+
+	/**
+	 * Limits the messages waiting behind the message currently being written. Must be called on the IO thread.
+	 * 
+	 * @param maxMessages
+	 *            The maximum number of queued messages. 0 for no limit.
+	 * @param maxBytes
+	 *            The maximum total size of the queued messages. 0 for no limit.
+	 * @param policy
+	 *            What to do with messages sent while the queue is at either limit
+	 */
+	void setSendQueueLimits(int maxMessages, long maxBytes, SlowConsumerPolicy policy) {
+		this.maxQueuedMessages = maxMessages;
+		this.maxQueuedBytes = maxBytes;
+		this.slowConsumerPolicy = policy;
+	}
+
+	/**
+	 * Sets the {@link WireCapture} ring to record this channel's frames to. Must be called on the IO thread.
+	 */
+	void setWireCapture(WireCapture.Ring wireCapture) {
+		this.wireCapture = wireCapture;
+	}
+
+	private void capture(boolean sent, ByteBuffer frame, int frameLength) {
+
+		if (wireCapture == null) {
+			return;
+		}
+
+		if (localPort < 0) {
+			localPort = channel.socket().getLocalPort();
+			remotePort = channel.socket().getPort();
+		}
+
+		wireCapture.record(System.currentTimeMillis(), sent, localPort, remotePort, frame, frameLength);
+	}
+
+	/**
+	 * Applies the {@link SlowConsumerPolicy} to a message sent while the send queue is full
+	 * 
+	 * @return The value for {@link #send(MqttMessage)} to return
+	 */
+	private boolean sendQueueOverflow(MqttMessage message) {
+
+		if (applySlowConsumerPolicy(message.getMessageType() == MessageType.PUBLISH && message.getQoSLevel() == 0)) {
+			queue(message);
+			return true;
+		}
+
+		if (slowConsumerPolicy == SlowConsumerPolicy.DISCONNECT) {
+			cancelCommand(message.blockingCommand);
+			return false;
+		}
+
+		BlockingCommand<MqttMessage> blockingCommand = message.blockingCommand;
+		message.releaseDirectFrame();
+		if (message.recycler != null) {
+			message.recycler.recycle(message);
+		}
+		commandComplete(blockingCommand);
+		return true;
+	}
+
+	/**
+	 * Counts and logs a message or frame sent while the send queue is full and, for {@link SlowConsumerPolicy#DISCONNECT}, schedules the channel to close
+	 * 
+	 * @param qos0Publish
+	 *            True if the message is a QoS 0 PUBLISH
+	 * 
+	 * @return True if the message is to be queued anyway. False if it is to be dropped or the channel is closing.
+	 */
+	private boolean applySlowConsumerPolicy(boolean qos0Publish) {
+
+		boolean drop = slowConsumerPolicy == SlowConsumerPolicy.DROP_QOS0 && qos0Publish;
+		channelStats.sendQueueOverflow(drop);
+
+		if (!sendQueueOverflowed) {
+			sendQueueOverflowed = true;
+			Log.warn("The send queue for %s reached its limit of %d messages or %d bytes. The remote end is not reading fast enough. Slow consumer policy: %s",
+					this, maxQueuedMessages, maxQueuedBytes, slowConsumerPolicy);
+		}
+
+		if (slowConsumerPolicy == SlowConsumerPolicy.DISCONNECT) {
+			// closing here would run channelClosed handlers while the caller may be part way through sending to many channels
+			if (pendingCloseCause == null) {
+				pendingCloseCause = new MqttException("Send queue limit reached");
+			}
+			return false;
+		}
+
+		return !drop;
+	}
+
+	private void queue(MqttMessage message) {
+
+		writesPending.offer(message);
+		queuedMessages += messageCount(message);
+		queuedBytes += frameLength(message);
+	}
+
+	private ForwardedFrames newForwardedFrames(ByteBuffer frame) {
+
+		ByteBuffer buffer = spareFramesBuffers.poll();
+		if (buffer == null || buffer.capacity() < frame.remaining()) {
+			buffer = ByteBuffer.allocate(Math.max(FORWARDED_FRAMES_BUFFER_SIZE, frame.remaining()));
+		}
+
+		return new ForwardedFrames(buffer, frame);
+	}
+
+	/**
+	 * Captures each of the frames written from a {@link ForwardedFrames} and counts all but the first, which is counted like any other message. The buffer is
+	 * kept for reuse if there are not already enough spares.
+	 */
+	private void forwardedFramesSent(ForwardedFrames frames) {
+
+		ByteBuffer buffer = frames.buffer;
+		if (wireCapture != null) {
+			for (int offset = 0; offset < buffer.limit();) {
+				int length = frames.frameLength(offset);
+				ByteBuffer frame = buffer.duplicate();
+				frame.position(offset);
+				capture(true, frame.slice(), length);
+				offset += length;
+			}
+		}
+
+		for (int i = 1; i < frames.getFrameCount(); i++) {
+			stats.messageSent(false);
+			channelStats.messageSent(false);
+		}
+
+		if (spareFramesBuffers.size() < MAX_SPARE_FORWARDED_FRAMES_BUFFERS) {
+			spareFramesBuffers.offer(buffer);
+		}
+	}
+
+	private static void addUnsentMessage(List<MqttMessage> unsentMessages, MqttMessage message) {
+
+		if (message instanceof ForwardedFrames) {
+			((ForwardedFrames) message).addMessagesTo(unsentMessages);
+		} else {
+			unsentMessages.add(message);
+		}
+	}
+
+	/**
+	 * Writes {@link #sendMessageInProgress} and as many of the queued messages after it as possible in one system call. Small frames such as the QoS 0
+	 * publishes a proxy forwards would otherwise each cost a write call of their own.
+	 * 
+	 * @return The number of bytes written
+	 */
+	private long gatherWrite() throws IOException {
+
+		if (gatherBuffers == null) {
+			gatherBuffers = new ByteBuffer[MAX_GATHERED_FRAMES];
+		}
+
+		gatherBuffers[0] = sendMessageInProgress.frame();
+		int count = 1;
+		for (MqttMessage message : writesPending) {
+			if (count == MAX_GATHERED_FRAMES || !isGatherable(message)) {
+				break;
+			}
+			gatherBuffers[count++] = message.frame();
+		}
+
+		try {
+			long bytesWritten = channel.write(gatherBuffers, 0, count);
+			gatheredMessages = count - 1;
+			return bytesWritten;
+		} finally {
+			Arrays.fill(gatherBuffers, 0, count, null);
+		}
+	}
+
+	/**
+	 * @return True if the message may be written in a gathering write. Nothing may follow a message that closes the channel once it is written.
+	 */
+	private static boolean isGatherable(MqttMessage message) {
+
+		MessageType type = message.getMessageType();
+		return message.isSingleBuffer() && type != MessageType.DISCONNECT && type != MessageType.CONNACK;
+	}
+
+	private static int frameLength(MqttMessage message) {
+		return message instanceof ForwardedFrames ? message.buffer.limit() : message.fixedHeaderEndOffset + message.getRemainingLength();
+	}
+
+	private static int messageCount(MqttMessage message) {
+		return message instanceof ForwardedFrames ? ((ForwardedFrames) message).getFrameCount() : 1;
+	}
+
+	private boolean isReadingFrames() {
+
+		return readHeader1.position() == 0 && ((readBuffer != null && readBuffer.position() > 0)
+				|| (handler instanceof PublishForwardingHandler && !(handler instanceof PayloadStreamHandler)));
+	}
+
+	/**
+	 * Reads as many bytes as the socket has ready, up to the space left in {@link #readBuffer}, and handles each complete frame read
+	 * 
+	 * @return False to have the channel closed
+	 */
+	private boolean readFrames(long now) throws IOException {
+
+		if (readBuffer == null) {
+			readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		}
+
+		int result = read(readBuffer);
+
+		return processFrames(now) && result >= 0;
+	}
+
+	/**
+	 * Handles each complete frame in {@link #readBuffer} until reads are paused. A QoS 0 PUBLISH of at most
+	 * {@link PublishForwardingHandler#MAX_FORWARDED_FRAME_SIZE} bytes is forwarded straight from the buffer. Every other frame is copied to a buffer of its
+	 * own and handled as usual. A frame too large for the buffer is moved to {@link #readRemaining} once its fixed header is read.
+	 * 
+	 * @return False to have the channel closed
+	 */
+	private boolean processFrames(long now) {
+
+		int end = readBuffer.position();
+		int offset = 0;
+		boolean result = true;
+		while (result && offset < end && selectionKey.isValid() && !isReadPaused()) {
+			int frameLength = bufferedFrameLength(offset, end);
+			if (frameLength < 0 || frameLength > end - offset) {
+				break;
+			}
+
+			result = frameRead(now, offset, frameLength);
+			offset += frameLength;
+		}
+
+		readBuffer.limit(end);
+		readBuffer.position(offset);
+		readBuffer.compact();
+
+		// a multi byte remaining length is read into readHeader2 three bytes at a time
+		if (result && readBuffer.position() >= readHeader1.capacity() + readHeader2.capacity()
+				&& bufferedFrameLength(0, readBuffer.position()) > readBuffer.capacity()) {
+			readLargeFrame();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Sets {@link #remainingLength} to that of the frame at the specified offset in {@link #readBuffer}
+	 * 
+	 * @return The length of the frame. -1 if its fixed header has not all been read.
+	 */
+	private int bufferedFrameLength(int offset, int end) {
+
+		remainingLength = 0;
+		int multiplier = 1;
+		int index = offset + 1;
+		byte b;
+		do {
+			if (index == end) {
+				return -1;
+			}
+			if (index - offset > 4) {
+				throw new IllegalStateException("Remaining length is longer than 4 bytes");
+			}
+			b = readBuffer.get(index++);
+			remainingLength += (b & 0x7f) * multiplier;
+			multiplier *= 0x80;
+		} while ((b & 0x80) != 0);
+
+		return index - offset + remainingLength;
+	}
+
+	/**
+	 * Handles the frame at the specified offset in {@link #readBuffer}
+	 * 
+	 * @return False to have the channel closed
+	 */
+	private boolean frameRead(long now, int offset, int frameLength) {
+
+		readBuffer.limit(offset + frameLength);
+		readBuffer.position(offset);
+		try {
+			// masks out the duplicate and retain flags leaving the message type and QoS
+			if ((readBuffer.get(offset) & 0xf6) == MessageType.PUBLISH.value() << 4 && handler instanceof PublishForwardingHandler
+					&& frameLength <= PublishForwardingHandler.MAX_FORWARDED_FRAME_SIZE) {
+				lastReceivedTime = now;
+				if (wireCapture != null) {
+					capture(false, readBuffer.slice(), frameLength);
+				}
+				if (forwardPublish(readBuffer)) {
+					stats.messageReceived(false);
+					channelStats.messageReceived();
+					return true;
+				}
+			}
+
+			ByteBuffer frame = ByteBuffer.allocate(frameLength);
+			frame.put(readBuffer);
+			return processMessage(now, frame);
+		} catch (Exception e) {
+			Log.error(e, "Failed to process message for %s: %s", this, MqttMessage.byteBufferToHex(readBuffer));
+			return isOpen();
+		} finally {
+			readBuffer.clear();
+		}
+	}
+
+	/**
+	 * Moves the start of a frame too large for {@link #readBuffer} to {@link #readRemaining} so the rest of it is read the same way as without a
+	 * {@link PublishForwardingHandler}
+	 */
+	private void readLargeFrame() {
+
+		readBuffer.flip();
+		while (readHeader1.hasRemaining()) {
+			readHeader1.put(readBuffer.get());
+		}
+		while (readHeader2.hasRemaining()) {
+			readHeader2.put(readBuffer.get());
+		}
+
+		remainingLength = 0;
+		int headerSize = 1 + calculateRemainingLength();
+		readingStreamedHeader = false;
+		readRemaining = ByteBuffer.allocate(remainingLength + headerSize);
+		readHeader1.flip();
+		readRemaining.put(readHeader1);
+		readHeader2.flip();
+		readRemaining.put(readHeader2);
+		readRemaining.put(readBuffer);
+		readBuffer.clear();
+	}
+
+	/**
+	 * @return True if the frame, from the buffer's position to its limit, was forwarded
+	 */
+	private boolean forwardPublish(ByteBuffer frame) throws Exception {
+
+		int topicIndex = frame.limit() - remainingLength;
+		String topicName = TopicNameCache.INSTANCE.get(frame, topicIndex + 2, frame.getShort(topicIndex) & 0xffff);
+
+		return ((PublishForwardingHandler) handler).forwardPublish(this, topicName, frame);
+	}
+
+	private boolean isStreamedPublish() {
+
+		return (readHeader1.get(0) & 0xf0) >> 4 == MessageType.PUBLISH.value() && handler instanceof PayloadStreamHandler
+				&& remainingLength > ((PayloadStreamHandler) handler).getStreamingThreshold();
+	}
+
+	/**
+	 * Called each time {@link #readRemaining} is filled while reading the variable header of a streamed PUBLISH
+	 * 
+	 * @return False to have the channel closed
+	 */
+	private boolean streamedHeaderRead(long now) throws IOException {
+
+		if (streamedVariableHeaderLength == 0) {
+			int headerSize = readRemaining.position() - 2;
+			int topicLength = readRemaining.getShort(headerSize) & 0xffff;
+			int qos = (readRemaining.get(0) & 0x06) >> 1;
+			streamedVariableHeaderLength = 2 + topicLength + (qos == 0 ? 0 : 2);
+			if (streamedVariableHeaderLength > remainingLength) {
+				throw new IllegalStateException("PUBLISH variable header length " + streamedVariableHeaderLength + " exceeds remaining length " + remainingLength);
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(headerSize + streamedVariableHeaderLength);
+			readRemaining.flip();
+			header.put(readRemaining);
+			readRemaining = header;
+
+			return readRemaining(now);
+		}
+
+		lastReceivedTime = now;
+		readRemaining.flip();
+		capture(false, readRemaining, readRemaining.limit() - streamedVariableHeaderLength + remainingLength);
+		streamedMessage = new PubMessage(readRemaining, remainingLength, now);
+		streamedPayloadRemaining = remainingLength - streamedVariableHeaderLength;
+		readingStreamedHeader = false;
+		streamedVariableHeaderLength = 0;
+		readRemaining = null;
+
+		try {
+			((PayloadStreamHandler) handler).publishStarted(this, streamedMessage);
+		} catch (Exception e) {
+			Log.error(e, "Failed to process message for %s: %s", this, streamedMessage);
+		}
+
+		return streamedPayloadRemaining == 0 ? streamedPublishCompleted() : isOpen();
+	}
+
+	/**
+	 * Reads the next chunk of a streamed payload and passes it to the {@link PayloadStreamHandler}
+	 * 
+	 * @return False to have the channel closed
+	 */
+	private boolean readStreamedPayload(long now) throws IOException {
+
+		if (streamChunk == null) {
+			streamChunk = ByteBuffer.allocateDirect(STREAM_CHUNK_SIZE);
+		}
+
+		streamChunk.clear();
+		if (streamedPayloadRemaining < streamChunk.capacity()) {
+			streamChunk.limit(streamedPayloadRemaining);
+		}
+
+		int result = read(streamChunk);
+		if (streamChunk.position() > 0) {
+			lastReceivedTime = now;
+			streamedPayloadRemaining -= streamChunk.position();
+			streamChunk.flip();
+			try {
+				((PayloadStreamHandler) handler).payloadReceived(this, streamedMessage, streamChunk);
+			} catch (Exception e) {
+				Log.error(e, "Failed to process message for %s: %s", this, streamedMessage);
+			}
+		}
+
+		if (streamedPayloadRemaining == 0) {
+			return streamedPublishCompleted();
+		}
+
+		return result >= 0;
+	}
+
+	/**
+	 * @return False to have the channel closed
+	 */
+	private boolean streamedPublishCompleted() {
+
+		PubMessage message = streamedMessage;
+		streamedMessage = null;
+		readHeader1.clear();
+		readHeader2.clear();
+		remainingLength = 0;
+
+		boolean result = true;
+		try {
+			((PayloadStreamHandler) handler).publishCompleted(this, message);
+			if (Log.isDebugEnabled()) {
+				Log.debug("%s received %s", this, message);
+			}
+			stats.messageReceived(message.isDuplicate());
+			channelStats.messageReceived();
+		} catch (Exception e) {
+			Log.error(e, "Failed to process message for %s: %s", this, message);
+			result = isOpen();
+		}
+
+		return result;
+	}
 }
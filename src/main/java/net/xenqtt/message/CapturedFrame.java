@@ -0,0 +1,215 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A frame read from a {@link WireCapture} file
+ */
+public final class CapturedFrame {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final long timestamp;
+	private final boolean sent;
+	private final int localPort;
+	private final int remotePort;
+	private final int frameLength;
+	private final byte[] frame;
+
+	CapturedFrame(long timestamp, boolean sent, int localPort, int remotePort, int frameLength, byte[] frame) {
+		this.timestamp = timestamp;
+		this.sent = sent;
+		this.localPort = localPort;
+		this.remotePort = remotePort;
+		this.frameLength = frameLength;
+		this.frame = frame;
+	}
+
+	/**
+	 * @return The time the frame was sent or received in milliseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return True if the frame was sent by the channel, false if it was received
+	 */
+	public boolean isSent() {
+		return sent;
+	}
+
+	/**
+	 * @return The local port of the channel's socket
+	 */
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	/**
+	 * @return The remote port of the channel's socket
+	 */
+	public int getRemotePort() {
+		return remotePort;
+	}
+
+	/**
+	 * @return The length of the frame on the wire. This is larger than the length of {@link #getFrame()} if the frame was truncated.
+	 */
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	/**
+	 * @return True if only the first part of the frame was captured
+	 */
+	public boolean isTruncated() {
+		return frame.length < frameLength;
+	}
+
+	/**
+	 * @return The captured bytes of the frame, starting with the fixed header
+	 */
+	public byte[] getFrame() {
+		return frame;
+	}
+
+	/**
+	 * @return The type of the frame or null if not even the first byte was captured
+	 */
+	public MessageType getMessageType() {
+		return frame.length == 0 ? null : MessageType.lookup((frame[0] & 0xf0) >> 4);
+	}
+
+	/**
+	 * @return The topic of a PUBLISH frame or null if this is not a PUBLISH or the topic was not captured
+	 */
+	public String getTopicName() {
+
+		return getMessageType() == MessageType.PUBLISH ? getString(getFixedHeaderSize()) : null;
+	}
+
+	/**
+	 * @return The {@link QoS} of a PUBLISH frame or null if this is not a PUBLISH
+	 */
+	public QoS getQoS() {
+
+		return getMessageType() == MessageType.PUBLISH ? QoS.lookup((frame[0] & 0x06) >> 1) : null;
+	}
+
+	/**
+	 * @return True if this is a PUBLISH frame with the retain flag set
+	 */
+	public boolean isRetain() {
+
+		return getMessageType() == MessageType.PUBLISH && (frame[0] & 0x01) != 0;
+	}
+
+	/**
+	 * @return The payload of a PUBLISH frame or null if this is not a PUBLISH or the topic was not captured. If the frame was truncated the payload has its
+	 *         original length with the bytes that were not captured set to 0.
+	 */
+	public byte[] getPayload() {
+
+		String topicName = getTopicName();
+		if (topicName == null) {
+			return null;
+		}
+
+		int index = getFixedHeaderSize() + 2 + topicName.getBytes(UTF8).length + (getQoS() == QoS.AT_MOST_ONCE ? 0 : 2);
+		byte[] payload = new byte[Math.max(0, frameLength - index)];
+		if (index < frame.length) {
+			System.arraycopy(frame, index, payload, 0, Math.min(payload.length, frame.length - index));
+		}
+
+		return payload;
+	}
+
+	/**
+	 * @return The client ID of a CONNECT frame or null if this is not a CONNECT or the client ID was not captured
+	 */
+	public String getClientId() {
+
+		if (getMessageType() != MessageType.CONNECT) {
+			return null;
+		}
+
+		int index = getFixedHeaderSize();
+		if (index + 2 > frame.length) {
+			return null;
+		}
+
+		// skip the protocol name, version, flags, and keep alive
+		index += 2 + ((frame[index] & 0xff) << 8 | frame[index + 1] & 0xff) + 4;
+
+		return getString(index);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		StringBuilder builder = new StringBuilder();
+		builder.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(timestamp)));
+		builder.append(sent ? " SENT " : " RCVD ");
+		builder.append(localPort).append(sent ? " -> " : " <- ").append(remotePort);
+		builder.append(' ').append(getMessageType());
+		builder.append(" length=").append(frameLength);
+
+		String topicName = getTopicName();
+		if (topicName != null) {
+			builder.append(" topic=").append(topicName);
+		}
+		if (isTruncated()) {
+			builder.append(" (truncated)");
+		}
+
+		builder.append(" bytes=").append(MqttMessage.bytesToHex(frame));
+
+		return builder.toString();
+	}
+
+	private int getFixedHeaderSize() {
+
+		int index = 1;
+		while (index < frame.length && (frame[index] & 0x80) != 0) {
+			index++;
+		}
+
+		return index + 1;
+	}
+
+	private String getString(int index) {
+
+		if (index + 2 > frame.length) {
+			return null;
+		}
+
+		int length = (frame[index] & 0xff) << 8 | frame[index + 1] & 0xff;
+		index += 2;
+		if (index + length > frame.length) {
+			return null;
+		}
+
+		return new String(frame, index, length, UTF8);
+	}
+}
@@ -25,6 +25,7 @@ import net.xenqtt.MqttInterruptedException;
 import net.xenqtt.MqttInvocationError;
 import net.xenqtt.MqttInvocationException;
 import net.xenqtt.MqttTimeoutException;
+import net.xenqtt.client.ChannelStats;
 import net.xenqtt.client.MessageStats;
 
 /**
@@ -338,6 +339,19 @@ public interface ChannelManager {
 	void attachChannel(MqttChannelRef channel, MessageHandler messageHandler) throws MqttCommandCancelledException, MqttTimeoutException,
 			MqttInterruptedException, MqttInvocationException, MqttInvocationError;
 
+	/**
+	 * Attaches the specified channel to this manager's control without waiting for the attach to complete. When called on this manager's IO thread with a
+	 * channel that is still registered with this manager the registration is kept and only the {@link MessageHandler message handler} is replaced. Otherwise
+	 * the attach is queued for the IO thread. Failures are not reported to the caller.
+	 * 
+	 * @param channel
+	 *            The channel to attach. It must either still be registered with this manager or have been {@link #detachChannel(MqttChannelRef) detached}
+	 *            from its previous manager.
+	 * @param messageHandler
+	 *            The {@link MessageHandler message handler} to use for all received messages
+	 */
+	void attachChannelAsync(MqttChannelRef channel, MessageHandler messageHandler);
+
 	/**
 	 * Starts this channel manager. Must be called before any other methods
 	 */
@@ -363,4 +377,27 @@ public interface ChannelManager {
 	 * @return The {@link MessageStats statistics} for the MQTT client
 	 */
 	MessageStats getStats(boolean reset);
+
+	/**
+	 * Request the current snapshot of statistics for each channel managed by this {@link ChannelManager channel manager}.
+	 * 
+	 * @param reset
+	 *            If {@code true} following the acquisition of the statistics all applicable counters that can be reset will be
+	 * 
+	 * @return The {@link ChannelStats statistics} for each open channel
+	 */
+	List<ChannelStats> getChannelStats(boolean reset);
+
+	/**
+	 * Request the current snapshot of statistics for each channel managed by this {@link ChannelManager channel manager} whose events go to the specified
+	 * handler. This lets several users share one channel manager and still see only their own channels.
+	 * 
+	 * @param messageHandler
+	 *            Only channels whose {@link MessageHandler} is this handler are included
+	 * @param reset
+	 *            If {@code true} following the acquisition of the statistics all applicable counters that can be reset will be
+	 * 
+	 * @return The {@link ChannelStats statistics} for each open channel with the specified handler
+	 */
+	List<ChannelStats> getChannelStats(MessageHandler messageHandler, boolean reset);
 }
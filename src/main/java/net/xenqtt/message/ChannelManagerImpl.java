@@ -22,6 +22,7 @@ import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -38,13 +39,17 @@ import net.xenqtt.MqttInterruptedException;
 import net.xenqtt.MqttInvocationError;
 import net.xenqtt.MqttInvocationException;
 import net.xenqtt.MqttTimeoutException;
+import net.xenqtt.XenqttUtil;
+import net.xenqtt.client.ChannelStats;
 import net.xenqtt.client.MessageStats;
 
 /**
  * Uses a single thread and non-blocking NIO to manage one or more {@link MqttChannel}s. You must call {@link #init()} before using this manager and
  * {@link #shutdown()} to shut it down.
  */
-public final class ChannelManagerImpl implements ChannelManager {
+public final class ChannelManagerImpl implements ChannelManager, ChannelManagerMXBean {
+
+	private static final int HISTOGRAM_BUCKETS = 16;
 
 	private final Set<MqttChannel> openChannels = new HashSet<MqttChannel>();
 	private final long messageResendIntervalMillis;
@@ -60,6 +65,30 @@ public final class ChannelManagerImpl implements ChannelManager {
 
 	private final MessageStatsImpl stats;
 
+	// written only by the IO thread so they may be read from JMX without a command
+	private volatile int openChannelCount;
+	private volatile long selectorLoopCount;
+	private volatile long selectorLoopBusyNanos;
+	private volatile long lastSelectorLoopBusyNanos;
+	private volatile long selectNanos;
+	private volatile long executeCommandsNanos;
+	private volatile long connectNanos;
+	private volatile long readNanos;
+	private volatile long writeNanos;
+	private volatile long houseKeepingNanos;
+	private final PowerOfTwoHistogram commandsPerLoop = new PowerOfTwoHistogram(HISTOGRAM_BUCKETS);
+	private final PowerOfTwoHistogram readyKeysPerLoop = new PowerOfTwoHistogram(HISTOGRAM_BUCKETS);
+
+	private volatile IoLoopListener ioLoopListener;
+	private volatile long ioLoopBudgetNanos;
+
+	private volatile WireCapture.Ring wireCapture;
+	private final FrameBuffers frameBuffers = new FrameBuffers(false);
+
+	private volatile int maxQueuedMessages;
+	private volatile long maxQueuedBytes;
+	private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.PAUSE;
+
 	/**
 	 * Use this constructor for the asynchronous API
 	 * 
@@ -172,7 +201,19 @@ public final class ChannelManagerImpl implements ChannelManager {
 	@Override
 	public MqttChannelRef newClientChannel(String host, int port, MessageHandler messageHandler) throws MqttInterruptedException {
 
-		return addCommand(new NewClientChannelCommand(host, port, messageHandler)).await(blockingTimeoutMillis, TimeUnit.MILLISECONDS);
+		NewClientChannelCommand command = new NewClientChannelCommand(host, port, messageHandler);
+		if (!isIoThread()) {
+			return addCommand(command).await(blockingTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+
+		// the IO thread can't wait for a command only it can execute. Opening the channel only starts a non-blocking connect so it is done in place.
+		if (blocking) {
+			throw new MqttException("A channel cannot be opened on the IO thread of a blocking channel manager");
+		}
+		command.execute(System.currentTimeMillis());
+		command.complete();
+
+		return command.await();
 	}
 
 	/**
@@ -262,7 +303,28 @@ public final class ChannelManagerImpl implements ChannelManager {
 	public void attachChannel(MqttChannelRef channel, MessageHandler messageHandler) throws MqttCommandCancelledException, MqttTimeoutException,
 			MqttInterruptedException, MqttInvocationException, MqttInvocationError {
 
-		addCommand(new AttachChannelCommand(channel, messageHandler)).await(blockingTimeoutMillis, TimeUnit.MILLISECONDS);
+		addCommand(new AttachChannelCommand(channel, messageHandler, false)).await(blockingTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManager#attachChannelAsync(net.xenqtt.message.MqttChannelRef, net.xenqtt.message.MessageHandler)
+	 */
+	@Override
+	public void attachChannelAsync(MqttChannelRef channel, MessageHandler messageHandler) {
+
+		AttachChannelCommand command = new AttachChannelCommand(channel, messageHandler, true);
+		if (isIoThread() && isRegisteredWithSelector((MqttChannel) channel)) {
+			command.execute(0);
+		} else {
+			addCommand(command);
+		}
+	}
+
+	/**
+	 * @return True if the calling thread is this manager's IO thread
+	 */
+	public boolean isIoThread() {
+		return Thread.currentThread() == ioThread;
 	}
 
 	/**
@@ -273,6 +335,213 @@ public final class ChannelManagerImpl implements ChannelManager {
 		return addCommand(new GetStatsCommand(reset)).await(blockingTimeoutMillis, TimeUnit.MILLISECONDS);
 	}
 
+	/**
+	 * @see net.xenqtt.message.ChannelManager#getChannelStats(boolean)
+	 */
+	@Override
+	public List<ChannelStats> getChannelStats(boolean reset) {
+		return addCommand(new GetChannelStatsCommand(null, reset)).await(blockingTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManager#getChannelStats(net.xenqtt.message.MessageHandler, boolean)
+	 */
+	@Override
+	public List<ChannelStats> getChannelStats(MessageHandler messageHandler, boolean reset) {
+		return addCommand(new GetChannelStatsCommand(messageHandler, reset)).await(blockingTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getOpenChannelCount()
+	 */
+	@Override
+	public int getOpenChannelCount() {
+		return openChannelCount;
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getCommandQueueDepth()
+	 */
+	@Override
+	public int getCommandQueueDepth() {
+		return commands.size();
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getSelectorLoopCount()
+	 */
+	@Override
+	public long getSelectorLoopCount() {
+		return selectorLoopCount;
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getSelectorLoopBusyMicros()
+	 */
+	@Override
+	public long getSelectorLoopBusyMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(selectorLoopBusyNanos);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getLastSelectorLoopBusyMicros()
+	 */
+	@Override
+	public long getLastSelectorLoopBusyMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(lastSelectorLoopBusyNanos);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getSelectMicros()
+	 */
+	@Override
+	public long getSelectMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(selectNanos);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getExecuteCommandsMicros()
+	 */
+	@Override
+	public long getExecuteCommandsMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(executeCommandsNanos);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getConnectMicros()
+	 */
+	@Override
+	public long getConnectMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(connectNanos);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getReadMicros()
+	 */
+	@Override
+	public long getReadMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(readNanos);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getWriteMicros()
+	 */
+	@Override
+	public long getWriteMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(writeNanos);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getHouseKeepingMicros()
+	 */
+	@Override
+	public long getHouseKeepingMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(houseKeepingNanos);
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getCommandsPerLoopHistogram()
+	 */
+	@Override
+	public long[] getCommandsPerLoopHistogram() {
+		return commandsPerLoop.snapshot();
+	}
+
+	/**
+	 * @see net.xenqtt.message.ChannelManagerMXBean#getReadyKeysPerLoopHistogram()
+	 */
+	@Override
+	public long[] getReadyKeysPerLoopHistogram() {
+		return readyKeysPerLoop.snapshot();
+	}
+
+	/**
+	 * Sets the listener to notify when an iteration of the IO loop takes longer than the specified budget. The listener is invoked on the IO thread. This may
+	 * be called at any time.
+	 * 
+	 * @param listener
+	 *            The listener to notify. {@code null} to remove the current listener.
+	 * @param budgetMillis
+	 *            The listener is notified when an iteration of the IO loop spends more than this many millis doing work. Time spent waiting in select is not
+	 *            included.
+	 */
+	public void setIoLoopListener(IoLoopListener listener, long budgetMillis) {
+
+		XenqttUtil.validateGreaterThanOrEqualTo("budgetMillis", budgetMillis, 0L);
+
+		ioLoopBudgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+		ioLoopListener = listener;
+	}
+
+	/**
+	 * Sets the {@link WireCapture} to record the frames sent and received by channels opened after this is called. This manager records to the next of the
+	 * capture's rings. This may be called at any time.
+	 * 
+	 * @param wireCapture
+	 *            The capture to record to. {@code null} to stop recording frames for channels opened from now on.
+	 */
+	public void setWireCapture(WireCapture wireCapture) {
+		this.wireCapture = wireCapture == null ? null : wireCapture.nextRing();
+	}
+
+	/**
+	 * Sets whether large messages {@link #send(MqttChannelRef, MqttMessage) sent} through this manager are copied to pooled direct, off-heap buffers when they
+	 * are queued. The IO thread then writes them without the JDK copying them to a temporary direct buffer. Messages sent directly to a channel on the IO
+	 * thread are not copied. This may be called at any time.
+	 * 
+	 * @param direct
+	 *            True to copy large messages to direct buffers; false to write them from the heap
+	 */
+	public void setDirectFrames(boolean direct) {
+		frameBuffers.setDirect(direct);
+	}
+
+	/**
+	 * Limits the send queue of broker channels created after this is called. A client that reads slower than messages are sent to it would otherwise grow
+	 * its channel's send queue without bound. Client channels are never limited. This may be called at any time.
+	 * 
+	 * @param maxMessages
+	 *            The maximum number of messages queued on a channel behind the message being written. 0 for no limit.
+	 * @param maxBytes
+	 *            The maximum total size of the messages queued on a channel behind the message being written. 0 for no limit.
+	 * @param policy
+	 *            What a channel does with messages sent while its send queue is at either limit
+	 */
+	public void setSendQueueLimits(int maxMessages, long maxBytes, SlowConsumerPolicy policy) {
+		this.maxQueuedMessages = XenqttUtil.validateGreaterThanOrEqualTo("maxMessages", maxMessages, 0);
+		this.maxQueuedBytes = XenqttUtil.validateGreaterThanOrEqualTo("maxBytes", maxBytes, 0L);
+		this.slowConsumerPolicy = XenqttUtil.validateNotNull("policy", policy);
+	}
+
+	private void loopCompleted(long selectTime, long executeCommandsTime, long connectTime, long readTime, long writeTime, long houseKeepingTime,
+			int commandCount, int readyKeyCount) {
+
+		selectNanos += selectTime;
+		executeCommandsNanos += executeCommandsTime;
+		connectNanos += connectTime;
+		readNanos += readTime;
+		writeNanos += writeTime;
+		houseKeepingNanos += houseKeepingTime;
+		commandsPerLoop.record(commandCount);
+		readyKeysPerLoop.record(readyKeyCount);
+
+		long busyNanos = executeCommandsTime + connectTime + readTime + writeTime + houseKeepingTime;
+		lastSelectorLoopBusyNanos = busyNanos;
+		selectorLoopBusyNanos += busyNanos;
+		selectorLoopCount++;
+
+		IoLoopListener listener = ioLoopListener;
+		if (listener != null && busyNanos > ioLoopBudgetNanos) {
+			IoLoopProfile profile = new IoLoopProfile(selectTime, executeCommandsTime, connectTime, readTime, writeTime, houseKeepingTime, commandCount,
+					readyKeyCount);
+			try {
+				listener.loopOverBudget(profile);
+			} catch (Exception e) {
+				Log.error(e, "I/O loop listener failed for profile %s", profile);
+			}
+		}
+	}
+
 	private void closeAll() {
 
 		Log.debug("Channel manager closing all channels");
@@ -298,23 +567,33 @@ public final class ChannelManagerImpl implements ChannelManager {
 
 			while (!doShutdown) {
 
+				long t0 = System.nanoTime();
 				if (maxIdleTime == Long.MAX_VALUE) {
 					selector.select();
 				} else {
 					selector.select(maxIdleTime);
 				}
 
+				long t1 = System.nanoTime();
 				long now = System.currentTimeMillis();
 
-				executeCommands(now);
+				int commandCount = executeCommands(now);
+				long t2 = System.nanoTime();
 
 				Set<SelectionKey> keys = selector.selectedKeys();
+				int readyKeyCount = keys.size();
 				doConnect(now, keys);
+				long t3 = System.nanoTime();
 				doRead(now, keys);
+				long t4 = System.nanoTime();
 				doWrite(now, keys);
+				long t5 = System.nanoTime();
 				maxIdleTime = doHouseKeeping(now, selector.keys());
 
 				keys.clear();
+
+				long t6 = System.nanoTime();
+				loopCompleted(t1 - t0, t2 - t1, t3 - t2, t4 - t3, t5 - t4, t6 - t5, commandCount, readyKeyCount);
 			}
 
 		} catch (Throwable t) {
@@ -430,19 +709,21 @@ public final class ChannelManagerImpl implements ChannelManager {
 		removeFromOpenChannels(channel);
 	}
 
-	private void executeCommands(long now) {
+	private int executeCommands(long now) {
 
 		int size = commands.size();
 		for (int i = 0; i < size; i++) {
 			Command<?> command = commands.poll();
 			if (command == null) {
-				break;
+				return i;
 			}
 			command.execute(now);
 			if (command.unblockImmediately) {
 				command.complete();
 			}
 		}
+
+		return size;
 	}
 
 	private <T, C extends Command<T>> C addCommand(C command) {
@@ -455,12 +736,24 @@ public final class ChannelManagerImpl implements ChannelManager {
 
 	private void addToOpenChannels(MqttChannel channel) {
 		channel = channel instanceof DelegatingMqttChannel ? ((DelegatingMqttChannel) channel).delegate : channel;
+		if (channel instanceof AbstractMqttChannel) {
+			if (wireCapture != null) {
+				((AbstractMqttChannel) channel).setWireCapture(wireCapture);
+			}
+		}
 		openChannels.add(channel);
+		openChannelCount = openChannels.size();
+	}
+
+	private boolean isRegisteredWithSelector(MqttChannel channel) {
+		channel = channel instanceof DelegatingMqttChannel ? ((DelegatingMqttChannel) channel).delegate : channel;
+		return channel instanceof AbstractMqttChannel && ((AbstractMqttChannel) channel).isRegisteredWith(selector);
 	}
 
 	private void removeFromOpenChannels(MqttChannel channel) {
 		channel = channel instanceof DelegatingMqttChannel ? ((DelegatingMqttChannel) channel).delegate : channel;
 		openChannels.remove(channel);
+		openChannelCount = openChannels.size();
 	}
 
 	private abstract class Command<T> extends AbstractBlockingCommand<T> {
@@ -481,6 +774,7 @@ public final class ChannelManagerImpl implements ChannelManager {
 			super(!blocking);
 			this.message = message;
 			this.channel = (MqttChannel) channel;
+			message.copyToDirectFrame(frameBuffers);
 		}
 
 		@Override
@@ -584,17 +878,34 @@ public final class ChannelManagerImpl implements ChannelManager {
 
 		private final MqttChannel channel;
 		private final MessageHandler messageHandler;
+		private final boolean async;
 
-		public AttachChannelCommand(MqttChannelRef channel, MessageHandler messageHandler) {
+		/**
+		 * @param async
+		 *            True if nothing waits for this command. A failure is then logged and the channel closed instead of being left for the caller.
+		 */
+		public AttachChannelCommand(MqttChannelRef channel, MessageHandler messageHandler, boolean async) {
 			super(true);
 			this.messageHandler = messageHandler;
 			this.channel = (MqttChannel) channel;
+			this.async = async;
 		}
 
 		@Override
 		public void doExecute(long now) {
-			channel.register(selector, messageHandler);
-			addToOpenChannels(channel);
+
+			try {
+				// a failed registration closes the channel itself
+				if (channel.register(selector, messageHandler)) {
+					addToOpenChannels(channel);
+				}
+			} catch (RuntimeException e) {
+				if (!async) {
+					throw e;
+				}
+				Log.error(e, "Failed to attach %s to a channel manager", channel);
+				channel.close(e);
+			}
 		}
 	}
 
@@ -636,6 +947,7 @@ public final class ChannelManagerImpl implements ChannelManager {
 		public void doExecute(long now) {
 			try {
 				MqttBrokerChannel channel = new MqttBrokerChannel(socketChannel, messageHandler, selector, messageResendIntervalMillis, stats);
+				channel.setSendQueueLimits(maxQueuedMessages, maxQueuedBytes, slowConsumerPolicy);
 				addToOpenChannels(channel);
 				setResult(channel);
 			} catch (Exception e) {
@@ -685,4 +997,35 @@ public final class ChannelManagerImpl implements ChannelManager {
 
 	}
 
+	private final class GetChannelStatsCommand extends Command<List<ChannelStats>> {
+
+		private final MessageHandler messageHandler;
+		private final boolean reset;
+
+		public GetChannelStatsCommand(MessageHandler messageHandler, boolean reset) {
+			super(true);
+			this.messageHandler = messageHandler;
+			this.reset = reset;
+		}
+
+		@Override
+		public void doExecute(long now) {
+
+			List<ChannelStats> channelStats = new ArrayList<ChannelStats>(openChannels.size());
+			for (MqttChannel channel : openChannels) {
+				if (messageHandler != null
+						&& (!(channel instanceof AbstractMqttChannel) || ((AbstractMqttChannel) channel).getMessageHandler() != messageHandler)) {
+					continue;
+				}
+
+				ChannelStats snapshot = channel.getStats(reset);
+				if (snapshot != null) {
+					channelStats.add(snapshot);
+				}
+			}
+
+			setResult(channelStats);
+		}
+	}
+
 }
@@ -0,0 +1,90 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+/**
+ * JMX management interface for a {@link ChannelManagerImpl}. All attributes are read directly from fields maintained by the IO thread so reading them never
+ * queues a command on, or otherwise blocks, the IO thread.
+ */
+public interface ChannelManagerMXBean {
+
+	/**
+	 * @return The number of channels currently open in the channel manager
+	 */
+	int getOpenChannelCount();
+
+	/**
+	 * @return The number of commands waiting to be executed by the IO thread
+	 */
+	int getCommandQueueDepth();
+
+	/**
+	 * @return The number of times the IO thread has run through its selector loop
+	 */
+	long getSelectorLoopCount();
+
+	/**
+	 * @return The total microseconds the IO thread has spent processing in its selector loop. This excludes time spent waiting in select.
+	 */
+	long getSelectorLoopBusyMicros();
+
+	/**
+	 * @return The microseconds the IO thread spent processing in the last completed selector loop. This excludes time spent waiting in select.
+	 */
+	long getLastSelectorLoopBusyMicros();
+
+	/**
+	 * @return The total microseconds the IO thread has spent waiting in select
+	 */
+	long getSelectMicros();
+
+	/**
+	 * @return The total microseconds the IO thread has spent executing commands queued by other threads
+	 */
+	long getExecuteCommandsMicros();
+
+	/**
+	 * @return The total microseconds the IO thread has spent finishing connections
+	 */
+	long getConnectMicros();
+
+	/**
+	 * @return The total microseconds the IO thread has spent reading from channels, including time spent in {@link MessageHandler} callbacks
+	 */
+	long getReadMicros();
+
+	/**
+	 * @return The total microseconds the IO thread has spent writing to channels
+	 */
+	long getWriteMicros();
+
+	/**
+	 * @return The total microseconds the IO thread has spent on keep alive, message resends, and other housekeeping
+	 */
+	long getHouseKeepingMicros();
+
+	/**
+	 * @return Histogram of the number of commands executed per selector loop. Index 0 is the number of loops that executed no commands, index 1 is the number
+	 *         that executed 1 command, index 2 is the number that executed 2 to 3, index 3 is the number that executed 4 to 7, and so on. The last index
+	 *         includes all larger values.
+	 */
+	long[] getCommandsPerLoopHistogram();
+
+	/**
+	 * @return Histogram of the number of ready selection keys per selector loop. Uses the same buckets as {@link #getCommandsPerLoopHistogram()}.
+	 */
+	long[] getReadyKeysPerLoopHistogram();
+}
@@ -0,0 +1,236 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import net.xenqtt.Log;
+import net.xenqtt.client.ChannelStats;
+
+/**
+ * {@link ChannelStats} implementation used by {@link AbstractMqttChannel}. Instances owned by a channel are only modified on the IO thread. Snapshots are
+ * created using {@link #snapshot(MqttChannel, boolean)} and are immutable.
+ */
+final class ChannelStatsImpl implements ChannelStats, Cloneable {
+
+	private String localAddress;
+	private String remoteAddress;
+	private long bytesReceived;
+	private long bytesSent;
+	private long messagesReceived;
+	private long messagesSent;
+	private long messagesResent;
+	private int sendQueueDepth;
+	private int messagesInFlight;
+	private long writeBlockedMillis;
+	private long sendQueueOverflows;
+	private long messagesDropped;
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getLocalAddress()
+	 */
+	@Override
+	public String getLocalAddress() {
+		return localAddress;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getRemoteAddress()
+	 */
+	@Override
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getBytesReceived()
+	 */
+	@Override
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getBytesSent()
+	 */
+	@Override
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getMessagesReceived()
+	 */
+	@Override
+	public long getMessagesReceived() {
+		return messagesReceived;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getMessagesSent()
+	 */
+	@Override
+	public long getMessagesSent() {
+		return messagesSent;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getMessagesResent()
+	 */
+	@Override
+	public long getMessagesResent() {
+		return messagesResent;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getSendQueueDepth()
+	 */
+	@Override
+	public int getSendQueueDepth() {
+		return sendQueueDepth;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getMessagesInFlight()
+	 */
+	@Override
+	public int getMessagesInFlight() {
+		return messagesInFlight;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getWriteBlockedMillis()
+	 */
+	@Override
+	public long getWriteBlockedMillis() {
+		return writeBlockedMillis;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getSendQueueOverflows()
+	 */
+	@Override
+	public long getSendQueueOverflows() {
+		return sendQueueOverflows;
+	}
+
+	/**
+	 * @see net.xenqtt.client.ChannelStats#getMessagesDropped()
+	 */
+	@Override
+	public long getMessagesDropped() {
+		return messagesDropped;
+	}
+
+	/**
+	 * Called when bytes are read from the channel
+	 */
+	void bytesReceived(int count) {
+		bytesReceived += count;
+	}
+
+	/**
+	 * Called when bytes are written to the channel
+	 */
+	void bytesSent(long count) {
+		bytesSent += count;
+	}
+
+	/**
+	 * Called when a message has been completely received
+	 */
+	void messageReceived() {
+		messagesReceived++;
+	}
+
+	/**
+	 * Called when a message has been completely sent
+	 */
+	void messageSent(boolean resent) {
+		messagesSent++;
+		if (resent) {
+			messagesResent++;
+		}
+	}
+
+	/**
+	 * Called when a partially written message has finally been completely written
+	 * 
+	 * @param millis
+	 *            Millis the write waited on the socket
+	 */
+	void writeBlocked(long millis) {
+		writeBlockedMillis += millis;
+	}
+
+	/**
+	 * Called when a message is sent while the send queue is at its limit
+	 * 
+	 * @param dropped
+	 *            True if the message was dropped instead of queued
+	 */
+	void sendQueueOverflow(boolean dropped) {
+		sendQueueOverflows++;
+		if (dropped) {
+			messagesDropped++;
+		}
+	}
+
+	/**
+	 * Resets all stats that can be reset
+	 */
+	void reset() {
+		bytesReceived = bytesSent = messagesReceived = messagesSent = messagesResent = writeBlockedMillis = sendQueueOverflows = messagesDropped = 0;
+	}
+
+	/**
+	 * Creates an immutable copy of these stats that includes the current state of the specified channel.
+	 * 
+	 * @param channel
+	 *            The channel these stats belong to
+	 * @param reset
+	 *            If true then stats that can be reset are reset after the snapshot is taken
+	 * @return The snapshot. Null if the snapshot could not be created.
+	 */
+	ChannelStatsImpl snapshot(MqttChannel channel, boolean reset) {
+
+		try {
+			ChannelStatsImpl snapshot = (ChannelStatsImpl) clone();
+			snapshot.localAddress = channel.getLocalAddress();
+			snapshot.remoteAddress = channel.getRemoteAddress();
+			snapshot.sendQueueDepth = channel.sendQueueDepth();
+			snapshot.messagesInFlight = channel.inFlightMessageCount();
+			if (reset) {
+				reset();
+			}
+			return snapshot;
+		} catch (CloneNotSupportedException e) {
+			Log.error(e, "Unable to get the channel statistics snapshot");
+			return null;
+		}
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return String.format(
+				"{localAddress: %s, remoteAddress: %s, bytesReceived: %d, bytesSent: %d, messagesReceived: %d, messagesSent: %d, messagesResent: %d, "
+						+ "sendQueueDepth: %d, messagesInFlight: %d, writeBlockedMillis: %d, sendQueueOverflows: %d, messagesDropped: %d}", localAddress,
+				remoteAddress, bytesReceived, bytesSent, messagesReceived, messagesSent, messagesResent, sendQueueDepth, messagesInFlight, writeBlockedMillis,
+				sendQueueOverflows, messagesDropped);
+	}
+}
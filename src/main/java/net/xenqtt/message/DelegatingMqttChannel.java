@@ -15,9 +15,12 @@
  */
 package net.xenqtt.message;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.Selector;
 import java.util.List;
 
+import net.xenqtt.client.ChannelStats;
+
 /**
  * Wrapper that delegates directly to another {@link MqttChannel} implementation. This is used to allow changing the delegate to easily support things like
  * client reconnection.
@@ -108,6 +111,14 @@ final class DelegatingMqttChannel implements MqttChannel {
 		return delegate.send(message, blockingCommand);
 	}
 
+	/**
+	 * @see net.xenqtt.message.MqttChannel#sendFrame(java.nio.ByteBuffer)
+	 */
+	@Override
+	public boolean sendFrame(ByteBuffer frame) {
+		return delegate.sendFrame(frame);
+	}
+
 	/**
 	 * @see net.xenqtt.message.MqttChannel#write(long)
 	 */
@@ -180,6 +191,15 @@ final class DelegatingMqttChannel implements MqttChannel {
 		return delegate.sendQueueDepth();
 	}
 
+	/**
+	 * @see net.xenqtt.message.MqttChannel#isSendQueueFull()
+	 */
+	@Override
+	public boolean isSendQueueFull() {
+
+		return delegate.isSendQueueFull();
+	}
+
 	/**
 	 * @see net.xenqtt.message.MqttChannel#inFlightMessageCount()
 	 */
@@ -224,6 +244,14 @@ final class DelegatingMqttChannel implements MqttChannel {
 		return delegate.getLocalAddress();
 	}
 
+	/**
+	 * @see net.xenqtt.message.MqttChannel#getStats(boolean)
+	 */
+	@Override
+	public ChannelStats getStats(boolean reset) {
+		return delegate.getStats(reset);
+	}
+
 	/**
 	 * @see java.lang.Object#equals(java.lang.Object)
 	 */
@@ -0,0 +1,121 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+
+import net.xenqtt.XenqttUtil;
+
+/**
+ * A topic name that has been encoded once, as the 2 byte length followed by the UTF-8 bytes, so it can be reused to build any number of {@link PubMessage}s
+ * without encoding the topic again. Create one of these for each topic you publish to often and use it instead of the topic name string. Instances are
+ * immutable and may be shared between threads.
+ */
+public final class EncodedTopic {
+
+	private final String topicName;
+	private final byte[] mqttString;
+
+	/**
+	 * @param topicName
+	 *            The name of the topic. This may not contain wildcards ('+' and '#')
+	 */
+	public EncodedTopic(String topicName) {
+
+		XenqttUtil.validateNotNull("topicName", topicName);
+
+		byte[] utf8 = MqttMessage.stringToUtf8(topicName);
+		XenqttUtil.validateLessThanOrEqualTo("topicName length in bytes", utf8.length, 0xffff);
+
+		this.topicName = topicName;
+		this.mqttString = new byte[utf8.length + 2];
+		mqttString[0] = (byte) (utf8.length >> 8);
+		mqttString[1] = (byte) utf8.length;
+		System.arraycopy(utf8, 0, mqttString, 2, utf8.length);
+	}
+
+	/**
+	 * @return The name of the topic
+	 */
+	public String getTopicName() {
+		return topicName;
+	}
+
+	/**
+	 * @return The number of bytes the topic takes in a message including the length prefix
+	 */
+	int size() {
+		return mqttString.length;
+	}
+
+	/**
+	 * @return True if length bytes in buffer starting at index are the UTF-8 bytes of this topic. The buffer's position and limit are not changed.
+	 */
+	boolean matches(ByteBuffer buffer, int index, int length) {
+
+		if (mqttString.length - 2 != length) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			if (mqttString[i + 2] != buffer.get(index + i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Adds the encoded topic to the end of the buffer
+	 */
+	void put(ByteBuffer buffer) {
+		buffer.put(mqttString);
+	}
+
+	/**
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return topicName.hashCode();
+	}
+
+	/**
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+
+		if (this == obj) {
+			return true;
+		}
+
+		if (!(obj instanceof EncodedTopic)) {
+			return false;
+		}
+
+		return topicName.equals(((EncodedTopic) obj).topicName);
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return topicName;
+	}
+}
@@ -0,0 +1,128 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * QoS 0 PUBLISH frames sent by {@link MqttChannel#sendFrame(ByteBuffer)} held in one buffer and queued as one message. Frames sent while the channel is
+ * already writing are appended to the last of these in its send queue so a burst of them costs one queue entry instead of a {@link PubMessage} each. The
+ * fixed header of this message is that of the first frame.
+ */
+final class ForwardedFrames extends MqttMessage {
+
+	private int frameCount;
+
+	/**
+	 * @param buffer
+	 *            The buffer to hold the frames. It must have room for the first frame. Any bytes in it are overwritten.
+	 * @param frame
+	 *            The first frame, from its position to its limit. The bytes are copied; the frame's position is not changed.
+	 */
+	ForwardedFrames(ByteBuffer buffer, ByteBuffer frame) {
+		super(copy(buffer, frame), remainingLength(frame, frame.position()), 0);
+		buffer.rewind();
+		frameCount = 1;
+	}
+
+	/**
+	 * Appends a frame to the end of the buffer
+	 * 
+	 * @param frame
+	 *            The frame, from its position to its limit. The bytes are copied; the frame's position is not changed.
+	 * 
+	 * @return True if the frame was appended. False if there is not enough room left in the buffer or writing has started, which a gathering write may do
+	 *         while this is still queued.
+	 */
+	boolean append(ByteBuffer frame) {
+
+		int end = buffer.limit();
+		if (buffer.position() > 0 || buffer.capacity() - end < frame.remaining()) {
+			return false;
+		}
+
+		buffer.limit(end + frame.remaining());
+		buffer.position(end);
+		buffer.put(frame.duplicate());
+		buffer.rewind();
+		frameCount++;
+
+		return true;
+	}
+
+	/**
+	 * @return The number of frames in the buffer
+	 */
+	int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return The length of the frame that starts at the specified offset in the buffer
+	 */
+	int frameLength(int offset) {
+
+		int remainingLength = remainingLength(buffer, offset);
+		int remainingLengthSize = 1;
+		while ((buffer.get(offset + remainingLengthSize) & 0x80) != 0) {
+			remainingLengthSize++;
+		}
+
+		return 1 + remainingLengthSize + remainingLength;
+	}
+
+	/**
+	 * Adds each frame to the list as a received {@link PubMessage} with its own copy of the bytes
+	 */
+	void addMessagesTo(List<? super PubMessage> messages) {
+
+		ByteBuffer source = buffer.duplicate();
+		for (int offset = 0; offset < buffer.limit(); offset = source.limit()) {
+			source.limit(offset + frameLength(offset));
+			source.position(offset);
+
+			ByteBuffer copy = ByteBuffer.allocate(source.remaining());
+			copy.put(source);
+			copy.flip();
+			messages.add(new PubMessage(copy, remainingLength(copy, 0), 0));
+		}
+	}
+
+	private static ByteBuffer copy(ByteBuffer buffer, ByteBuffer frame) {
+
+		buffer.clear();
+		buffer.put(frame.duplicate());
+		buffer.flip();
+
+		return buffer;
+	}
+
+	private static int remainingLength(ByteBuffer frame, int offset) {
+
+		int remainingLength = 0;
+		int multiplier = 1;
+		int index = offset + 1;
+		byte digit;
+		do {
+			digit = frame.get(index++);
+			remainingLength += (digit & 0x7f) * multiplier;
+			multiplier *= 0x80;
+		} while ((digit & 0x80) != 0);
+
+		return remainingLength;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A pool of direct, off-heap buffers that large frames built on the heap are {@link MqttMessage#copyToDirectFrame(FrameBuffers) copied} to when they are
+ * queued to be sent by a {@link ChannelManagerImpl} with {@link ChannelManagerImpl#setDirectFrames(boolean) direct frames} enabled. A frame written from a
+ * direct buffer is not copied into a temporary direct buffer by the JDK, so the copy is made by the thread that queues the message instead of by the IO
+ * thread. Each {@link ChannelManagerImpl} has its own instance.
+ * <p>
+ * A copy is {@link #release(ByteBuffer) released} once it has been written, or acknowledged if the message is ackable, and the next large frame reuses its
+ * buffer. The pool holds buffers of power of two sizes from {@link #MIN_DIRECT_FRAME_SIZE} to {@link #MAX_POOLED_FRAME_SIZE} bytes and at most
+ * {@link #MAX_POOLED_BYTES_PER_SIZE} bytes of free buffers of each size. A copy that is never released, such as one still in flight when its channel closes,
+ * is left to the garbage collector. Frames read from the socket and messages built on the IO thread stay on the heap: nothing tells the channel when the
+ * application is done with them, so they could only use a new direct buffer each time, which costs more than the copy it saves. This class is thread safe.
+ */
+final class FrameBuffers {
+
+	/**
+	 * Smallest frame that is copied to a direct buffer. Smaller frames stay on the heap because the JDK's copy of them is cheap.
+	 */
+	static final int MIN_DIRECT_FRAME_SIZE = 1 << 13;
+
+	/**
+	 * Largest frame that is copied to a direct buffer. Larger frames stay on the heap because pooling buffers for them would hold too much memory.
+	 */
+	static final int MAX_POOLED_FRAME_SIZE = 1 << 20;
+
+	/**
+	 * Most bytes of free buffers the pool holds for each buffer size
+	 */
+	static final int MAX_POOLED_BYTES_PER_SIZE = 1 << 20;
+
+	private static final int MIN_POOLED_SHIFT = Integer.numberOfTrailingZeros(MIN_DIRECT_FRAME_SIZE);
+	private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_FRAME_SIZE) - MIN_POOLED_SHIFT + 1;
+
+	private final ArrayBlockingQueue<ByteBuffer>[] pool;
+
+	private volatile boolean direct;
+
+	/**
+	 * @param direct
+	 *            True to copy large frames to direct buffers when they are queued; false to leave them on the heap
+	 */
+	@SuppressWarnings("unchecked")
+	FrameBuffers(boolean direct) {
+
+		this.direct = direct;
+		this.pool = new ArrayBlockingQueue[SIZE_CLASSES];
+		for (int i = 0; i < SIZE_CLASSES; i++) {
+			pool[i] = new ArrayBlockingQueue<ByteBuffer>(MAX_POOLED_BYTES_PER_SIZE >> (MIN_POOLED_SHIFT + i));
+		}
+	}
+
+	/**
+	 * @param direct
+	 *            True to copy large frames to direct buffers when they are queued; false to leave them on the heap
+	 */
+	void setDirect(boolean direct) {
+		this.direct = direct;
+	}
+
+	/**
+	 * @return True if large frames are copied to direct buffers when they are queued; false if they are left on the heap
+	 */
+	boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * @return A direct buffer from the pool for a frame of {@link #MIN_DIRECT_FRAME_SIZE} to {@link #MAX_POOLED_FRAME_SIZE} bytes with position 0 and a limit
+	 *         of the specified size. The capacity may be larger. Pass the buffer to {@link #release(ByteBuffer)} once nothing uses it any more.
+	 */
+	ByteBuffer take(int size) {
+
+		int sizeClass = sizeClass(size);
+		ByteBuffer buffer = pool[sizeClass].poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(MIN_DIRECT_FRAME_SIZE << sizeClass);
+		}
+
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer from {@link #take(int)} to the pool. The buffer is discarded if the pool already holds as many buffers of its size as it may.
+	 */
+	void release(ByteBuffer buffer) {
+		pool[sizeClass(buffer.capacity())].offer(buffer);
+	}
+
+	private static int sizeClass(int size) {
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_POOLED_SHIFT;
+	}
+}
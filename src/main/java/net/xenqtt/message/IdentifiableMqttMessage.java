@@ -48,6 +48,13 @@ public abstract class IdentifiableMqttMessage extends MqttMessage {
 		super(messageType, duplicate, qos, retain, remainingLength);
 	}
 
+	/**
+	 * @see MqttMessage#MqttMessage(MessageType, boolean, QoS, boolean, int, int)
+	 */
+	IdentifiableMqttMessage(MessageType messageType, boolean duplicate, QoS qos, boolean retain, int remainingLength, int bufferedLength) {
+		super(messageType, duplicate, qos, retain, remainingLength, bufferedLength);
+	}
+
 	/**
 	 * The message identifier is present in the variable header of the following MQTT messages: PUBLISH, PUBACK, PUBREC, PUBREL, PUBCOMP, SUBSCRIBE, SUBACK,
 	 * UNSUBSCRIBE, UNSUBACK.
@@ -0,0 +1,31 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+/**
+ * Receives profiles of IO loops in a {@link ChannelManagerImpl} that take longer than the configured budget. Methods in this interface are invoked on the IO
+ * thread so implementations must return quickly. This is intended for debugging and capacity planning.
+ */
+public interface IoLoopListener {
+
+	/**
+	 * Called when an iteration of the IO loop took longer than the configured budget
+	 * 
+	 * @param profile
+	 *            Breakdown of where the time in the loop was spent
+	 */
+	void loopOverBudget(IoLoopProfile profile);
+}
@@ -0,0 +1,123 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breakdown of the time spent in a single iteration of a {@link ChannelManagerImpl}'s IO loop. All times are in nanoseconds.
+ */
+public final class IoLoopProfile {
+
+	private final long selectNanos;
+	private final long executeCommandsNanos;
+	private final long connectNanos;
+	private final long readNanos;
+	private final long writeNanos;
+	private final long houseKeepingNanos;
+	private final int commandCount;
+	private final int readyKeyCount;
+
+	IoLoopProfile(long selectNanos, long executeCommandsNanos, long connectNanos, long readNanos, long writeNanos, long houseKeepingNanos, int commandCount,
+			int readyKeyCount) {
+		this.selectNanos = selectNanos;
+		this.executeCommandsNanos = executeCommandsNanos;
+		this.connectNanos = connectNanos;
+		this.readNanos = readNanos;
+		this.writeNanos = writeNanos;
+		this.houseKeepingNanos = houseKeepingNanos;
+		this.commandCount = commandCount;
+		this.readyKeyCount = readyKeyCount;
+	}
+
+	/**
+	 * @return Time spent waiting in select. This is idle time and is not included in {@link #getBusyNanos()}.
+	 */
+	public long getSelectNanos() {
+		return selectNanos;
+	}
+
+	/**
+	 * @return Time spent executing commands queued by other threads
+	 */
+	public long getExecuteCommandsNanos() {
+		return executeCommandsNanos;
+	}
+
+	/**
+	 * @return Time spent finishing connections
+	 */
+	public long getConnectNanos() {
+		return connectNanos;
+	}
+
+	/**
+	 * @return Time spent reading from channels. This includes the time spent in {@link MessageHandler} callbacks.
+	 */
+	public long getReadNanos() {
+		return readNanos;
+	}
+
+	/**
+	 * @return Time spent writing to channels
+	 */
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+
+	/**
+	 * @return Time spent on keep alive, message resends, and other housekeeping
+	 */
+	public long getHouseKeepingNanos() {
+		return houseKeepingNanos;
+	}
+
+	/**
+	 * @return Total time spent doing work in the loop. This is everything but {@link #getSelectNanos()}.
+	 */
+	public long getBusyNanos() {
+		return executeCommandsNanos + connectNanos + readNanos + writeNanos + houseKeepingNanos;
+	}
+
+	/**
+	 * @return The number of commands executed in the loop
+	 */
+	public int getCommandCount() {
+		return commandCount;
+	}
+
+	/**
+	 * @return The number of selection keys that were ready in the loop
+	 */
+	public int getReadyKeyCount() {
+		return readyKeyCount;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+
+		return String.format("IoLoopProfile[busyMicros:%d, selectMicros:%d, executeCommandsMicros:%d, connectMicros:%d, readMicros:%d, writeMicros:%d, "
+				+ "houseKeepingMicros:%d, commandCount:%d, readyKeyCount:%d]", micros(getBusyNanos()), micros(selectNanos), micros(executeCommandsNanos),
+				micros(connectNanos), micros(readNanos), micros(writeNanos), micros(houseKeepingNanos), commandCount, readyKeyCount);
+	}
+
+	private long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
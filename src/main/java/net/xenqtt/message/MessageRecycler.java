@@ -0,0 +1,32 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+/**
+ * Takes back a message once the {@link MqttChannel channel} is done with it so the message can be reused. The channel is done with a message that is not
+ * ackable as soon as it has been completely written to the socket. Methods in this interface are invoked on the IO thread so implementations must return
+ * quickly.
+ */
+public interface MessageRecycler {
+
+	/**
+	 * Called when the channel is done with the message. The message may be modified and sent again after this is called.
+	 * 
+	 * @param message
+	 *            The message that was sent
+	 */
+	void recycle(MqttMessage message);
+}
@@ -15,10 +15,13 @@
  */
 package net.xenqtt.message;
 
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.List;
 
+import net.xenqtt.client.ChannelStats;
+
 /**
  * <p>
  * Sends and receives {@link MqttMessage}s over a channel. This may be client or server side. Since {@link #read(long)} may generate data to send it should
@@ -38,7 +41,8 @@ public interface MqttChannel extends MqttChannelRef {
 
 	/**
 	 * Registers this channel with the specified selector. This channel must not already be registered with another selector. The current {@link MessageHandler}
-	 * is replaced with the specified one.
+	 * is replaced with the specified one. If this channel is already registered with the specified selector the registration is kept and only the handler is
+	 * replaced.
 	 * 
 	 * @return A return value of true does NOT necessarily mean this channel is open but false does mean it is closed (or the connect hasn't finished yet).
 	 */
@@ -106,6 +110,18 @@ public interface MqttChannel extends MqttChannelRef {
 	 */
 	boolean send(MqttMessage message, BlockingCommand<MqttMessage> blockingCommand);
 
+	/**
+	 * Sends a QoS 0 PUBLISH frame received through another channel as it was received. The bytes are copied to the send queue so the frame's buffer may be
+	 * reused as soon as this returns. Frames queued one after another share a buffer and are written together. This must be called on the IO thread that
+	 * owns this channel; see {@link PublishForwardingHandler}.
+	 * 
+	 * @param frame
+	 *            The entire frame, from the buffer's position to its limit. The buffer's position is not changed.
+	 * 
+	 * @return A return value of true does NOT necessarily mean this channel is open but false does mean it is closed (or the connect hasn't finished yet).
+	 */
+	boolean sendFrame(ByteBuffer frame);
+
 	/**
 	 * Writes as much data as possible. This should be called when a {@link SelectionKey}s {@link SelectionKey#OP_WRITE} op is ready.
 	 * 
@@ -166,6 +182,12 @@ public interface MqttChannel extends MqttChannelRef {
 	 */
 	int sendQueueDepth();
 
+	/**
+	 * @return True if the send queue has reached the limits set by {@link ChannelManagerImpl#setSendQueueLimits(int, long, SlowConsumerPolicy)}. Always
+	 *         false if the channel has no send queue limits.
+	 */
+	boolean isSendQueueFull();
+
 	/**
 	 * @return The number of messages currently in flight (QoS level > 0)
 	 */
@@ -191,4 +213,11 @@ public interface MqttChannel extends MqttChannelRef {
 	 * @return The channel's local address
 	 */
 	String getLocalAddress();
+
+	/**
+	 * @param reset
+	 *            If true then stats that can be reset are reset after the snapshot is taken
+	 * @return A snapshot of the stats for this channel
+	 */
+	ChannelStats getStats(boolean reset);
 }
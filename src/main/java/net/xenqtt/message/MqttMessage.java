@@ -15,8 +15,10 @@
  */
 package net.xenqtt.message;
 
+import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 
@@ -50,6 +52,12 @@ public class MqttMessage {
 	 */
 	BlockingCommand<MqttMessage> blockingCommand;
 
+	/**
+	 * If not null then {@link MessageRecycler#recycle(MqttMessage)} is invoked when {@link AbstractMqttChannel} is done with this message. Only messages that
+	 * are not ackable are recycled.
+	 */
+	MessageRecycler recycler;
+
 	/**
 	 * The time when this message is queued for eventual sending. This is used to track the send latency.
 	 */
@@ -59,6 +67,12 @@ public class MqttMessage {
 
 	private long receivedTimestamp;
 
+	/**
+	 * A copy of {@link #buffer} in a pooled direct buffer that is written instead of {@link #buffer}. Null if there is no copy.
+	 */
+	private ByteBuffer directFrame;
+	private FrameBuffers directFrameSource;
+
 	/**
 	 * Creates a copy of the copyFrom message.
 	 */
@@ -103,6 +117,15 @@ public class MqttMessage {
 	 * any variable header and payload information to the buffer then call {@link ByteBuffer#flip()}.
 	 */
 	MqttMessage(MessageType messageType, boolean duplicate, QoS qos, boolean retain, int remainingLength) {
+		this(messageType, duplicate, qos, retain, remainingLength, remainingLength);
+	}
+
+	/**
+	 * This is used to construct messages for sending where only the first bufferedLength bytes after the fixed header are held in the buffer. The extending
+	 * class is responsible for writing the rest of the message; see {@link #write(WritableByteChannel)}. This should only be used by constructors in extending
+	 * classes.
+	 */
+	MqttMessage(MessageType messageType, boolean duplicate, QoS qos, boolean retain, int remainingLength, int bufferedLength) {
 
 		int byte1 = messageType.value() << 4;
 		if (qos != null) {
@@ -121,7 +144,7 @@ public class MqttMessage {
 
 		byte[] remainingLengthBytes = buildRemainingLengthBytes();
 
-		this.buffer = ByteBuffer.allocate(1 + remainingLengthBytes.length + remainingLength);
+		this.buffer = ByteBuffer.allocate(1 + remainingLengthBytes.length + bufferedLength);
 		buffer.put((byte) byte1);
 		for (byte b : remainingLengthBytes) {
 			buffer.put(b);
@@ -258,11 +281,90 @@ public class MqttMessage {
 		return remainingLength;
 	}
 
+	/**
+	 * Writes as much of this message to the channel as it will take. Extending classes that do not hold the entire message in {@link #buffer} override this.
+	 * 
+	 * @return The number of bytes written
+	 */
+	long write(WritableByteChannel channel) throws IOException {
+		return channel.write(frame());
+	}
+
+	/**
+	 * @return True if the entire message is in {@link #buffer} so it can be written along with other messages in a single gathering write
+	 */
+	boolean isSingleBuffer() {
+		return true;
+	}
+
+	/**
+	 * @return True if the entire message has been written by {@link #write(WritableByteChannel)}
+	 */
+	boolean isWritten() {
+		return !frame().hasRemaining();
+	}
+
+	/**
+	 * Resets this message so the next {@link #write(WritableByteChannel)} starts from the beginning of the message
+	 */
+	void rewind() {
+		buffer.rewind();
+		if (directFrame != null) {
+			directFrame.rewind();
+		}
+	}
+
 	/**
 	 * Sets the duplicate flag on this message. This is called before resending this message.
 	 */
 	public final void setDuplicateFlag() {
 		buffer.put(0, (byte) (buffer.get(0) | 0x08));
+		if (directFrame != null) {
+			directFrame.put(0, buffer.get(0));
+		}
+	}
+
+	/**
+	 * @return The buffer to write this message from. This is the {@link #copyToDirectFrame(FrameBuffers) direct copy} of {@link #buffer} if there is one.
+	 */
+	final ByteBuffer frame() {
+		return directFrame != null ? directFrame : buffer;
+	}
+
+	/**
+	 * Copies {@link #buffer} to a direct buffer from the specified buffers' pool if they build direct frames and this message is a frame on the heap in a
+	 * {@link #isSingleBuffer() single buffer} of the size the pool holds. The copy is written in place of {@link #buffer} so the JDK does not copy the frame to a temporary direct
+	 * buffer on the IO thread. The message must not be queued on another channel until {@link #releaseDirectFrame()} is called.
+	 */
+	final void copyToDirectFrame(FrameBuffers frameBuffers) {
+
+		int length = buffer.limit();
+		if (directFrame != null || !frameBuffers.isDirect() || buffer.isDirect() || length < FrameBuffers.MIN_DIRECT_FRAME_SIZE
+				|| length > FrameBuffers.MAX_POOLED_FRAME_SIZE || !isSingleBuffer()) {
+			return;
+		}
+
+		ByteBuffer source = buffer.duplicate();
+		source.rewind();
+		ByteBuffer frame = frameBuffers.take(length);
+		frame.put(source);
+		frame.flip();
+
+		directFrame = frame;
+		directFrameSource = frameBuffers;
+	}
+
+	/**
+	 * Returns the {@link #copyToDirectFrame(FrameBuffers) direct copy} of this message, if there is one, to its pool. Called once the copy will not be written
+	 * again.
+	 */
+	final void releaseDirectFrame() {
+
+		if (directFrame != null) {
+			directFrameSource.release(directFrame);
+			directFrame = null;
+			directFrameSource = null;
+		}
 	}
 
 	/**
@@ -410,7 +512,14 @@ public class MqttMessage {
 
 		byte[] buf = new byte[len];
 		if (len > 0) {
-			System.arraycopy(buffer.array(), index, buf, 0, len);
+			// direct and read only buffers do not expose an array
+			if (buffer.hasArray()) {
+				System.arraycopy(buffer.array(), buffer.arrayOffset() + index, buf, 0, len);
+			} else {
+				ByteBuffer source = buffer.duplicate();
+				source.position(index);
+				source.get(buf);
+			}
 		}
 
 		return buf;
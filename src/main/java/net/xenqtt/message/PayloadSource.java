@@ -0,0 +1,188 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import net.xenqtt.XenqttUtil;
+
+/**
+ * The payload of a {@link PubMessage} that is streamed to the socket as the message is written instead of being held in memory. This allows publishing
+ * payloads of any size supported by MQTT (up to 256MB) while only buffering a small chunk at a time. Payloads from a file are written using
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} so the bytes never enter the JVM heap.
+ * <p>
+ * Sources are read on the IO thread so they should not block for long. A source that is not {@link #isRepeatable() repeatable} may only be sent once and
+ * therefore may only be used at QoS 0 (AT_MOST_ONCE).
+ */
+public abstract class PayloadSource {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final int length;
+
+	/**
+	 * Creates a source that streams a region of a file. The file must not be closed or truncated until the message has been sent, or acknowledged at QoS 1 or
+	 * 2. The source is {@link #isRepeatable() repeatable}.
+	 * 
+	 * @param file
+	 *            The file to read the payload from
+	 * @param position
+	 *            The position in the file where the payload starts
+	 * @param length
+	 *            The number of bytes in the payload
+	 */
+	public static PayloadSource fromFile(FileChannel file, long position, int length) {
+		return new FileSource(file, position, length);
+	}
+
+	/**
+	 * Creates a source that streams the next length bytes read from a channel. The channel should be in blocking mode. The source is not
+	 * {@link #isRepeatable() repeatable}.
+	 * 
+	 * @param channel
+	 *            The channel to read the payload from
+	 * @param length
+	 *            The number of bytes in the payload
+	 */
+	public static PayloadSource fromChannel(ReadableByteChannel channel, int length) {
+		return new ChannelSource(channel, length);
+	}
+
+	/**
+	 * Creates a source that streams the next length bytes read from an input stream. The source is not {@link #isRepeatable() repeatable}.
+	 * 
+	 * @param in
+	 *            The stream to read the payload from
+	 * @param length
+	 *            The number of bytes in the payload
+	 */
+	public static PayloadSource fromStream(InputStream in, int length) {
+		XenqttUtil.validateNotNull("in", in);
+		return new ChannelSource(Channels.newChannel(in), length);
+	}
+
+	PayloadSource(int length) {
+		XenqttUtil.validateGreaterThanOrEqualTo("length", length, 0);
+		this.length = length;
+	}
+
+	/**
+	 * @return The number of bytes in the payload
+	 */
+	public final int length() {
+		return length;
+	}
+
+	/**
+	 * @return True if the payload can be written more than once. Only repeatable sources may be published at QoS 1 or 2 because the message may be resent.
+	 */
+	public abstract boolean isRepeatable();
+
+	/**
+	 * Writes as much of the payload, starting at position, as the target will take
+	 * 
+	 * @param position
+	 *            The offset in the payload of the first byte to write
+	 * @param target
+	 *            The channel to write to
+	 * 
+	 * @return The number of bytes written
+	 */
+	abstract long transferTo(int position, WritableByteChannel target) throws IOException;
+
+	private static final class FileSource extends PayloadSource {
+
+		private final FileChannel file;
+		private final long position;
+
+		FileSource(FileChannel file, long position, int length) {
+			super(length);
+			XenqttUtil.validateNotNull("file", file);
+			XenqttUtil.validateGreaterThanOrEqualTo("position", position, 0L);
+			this.file = file;
+			this.position = position;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		long transferTo(int position, WritableByteChannel target) throws IOException {
+
+			long count = file.transferTo(this.position + position, length() - position, target);
+
+			// transferTo returns 0 at the end of the file so check for truncation instead of waiting forever for the rest of the payload
+			if (count == 0 && file.size() < this.position + length()) {
+				throw new EOFException("The payload file ended after " + (file.size() - this.position) + " of " + length() + " bytes");
+			}
+
+			return count;
+		}
+	}
+
+	private static final class ChannelSource extends PayloadSource {
+
+		private final ReadableByteChannel channel;
+		private ByteBuffer chunk;
+		private int bytesRead;
+
+		ChannelSource(ReadableByteChannel channel, int length) {
+			super(length);
+			XenqttUtil.validateNotNull("channel", channel);
+			this.channel = channel;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		long transferTo(int position, WritableByteChannel target) throws IOException {
+
+			if (chunk == null) {
+				chunk = ByteBuffer.allocateDirect(Math.min(CHUNK_SIZE, length()));
+				chunk.flip();
+			}
+
+			if (position != bytesRead - chunk.remaining()) {
+				throw new IllegalStateException("A payload read from a stream or channel can only be sent once");
+			}
+
+			if (!chunk.hasRemaining()) {
+				chunk.clear();
+				chunk.limit(Math.min(chunk.capacity(), length() - bytesRead));
+				int count = channel.read(chunk);
+				if (count < 0) {
+					throw new EOFException("The payload source ended after " + bytesRead + " of " + length() + " bytes");
+				}
+				bytesRead += count;
+				chunk.flip();
+			}
+
+			return target.write(chunk);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link MessageHandler} that receives large PUBLISH payloads a chunk at a time instead of as one {@link PubMessage}. A PUBLISH whose remaining length is
+ * greater than {@link #getStreamingThreshold()} is delivered through {@link #publishStarted(MqttChannel, PubMessage)},
+ * {@link #payloadReceived(MqttChannel, PubMessage, ByteBuffer)}, and {@link #publishCompleted(MqttChannel, PubMessage)} instead of
+ * {@link #publish(MqttChannel, PubMessage)}. Only one chunk is held in memory at a time no matter how large the payload is.
+ * <p>
+ * The {@link PubMessage} passed to these methods has the topic, QoS, message ID, and {@link PubMessage#getPayloadLength() payload length} but no payload. If
+ * the channel is closed before the payload is complete then {@link #publishCompleted(MqttChannel, PubMessage)} is not called. Like all
+ * {@link MessageHandler} methods these are called by the IO thread that owns the channel and must not block it.
+ */
+public interface PayloadStreamHandler extends MessageHandler {
+
+	/**
+	 * @return The remaining length, in bytes, above which PUBLISH messages are streamed. This is checked for each PUBLISH received.
+	 */
+	int getStreamingThreshold();
+
+	/**
+	 * Called when the headers of a streamed PUBLISH have been received through the specified channel
+	 */
+	void publishStarted(MqttChannel channel, PubMessage message) throws Exception;
+
+	/**
+	 * Called each time part of the payload of a streamed PUBLISH is received through the specified channel
+	 * 
+	 * @param chunk
+	 *            The bytes received, from the buffer's position to its limit. The buffer is reused for the next chunk so it is only valid until this method
+	 *            returns. It may be a direct buffer.
+	 */
+	void payloadReceived(MqttChannel channel, PubMessage message, ByteBuffer chunk) throws Exception;
+
+	/**
+	 * Called when the entire payload of a streamed PUBLISH has been received through the specified channel
+	 */
+	void publishCompleted(MqttChannel channel, PubMessage message) throws Exception;
+}
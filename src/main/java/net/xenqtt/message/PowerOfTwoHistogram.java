@@ -0,0 +1,60 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative integer values using power of 2 buckets. Bucket 0 counts values of 0, bucket 1 counts values of 1, bucket 2 counts values of 2
+ * to 3, bucket 3 counts values of 4 to 7, and so on. The last bucket counts all values too large for the other buckets. Only one thread may
+ * {@link #record(int) record} values but any thread may take a {@link #snapshot() snapshot}.
+ */
+final class PowerOfTwoHistogram {
+
+	private final AtomicLongArray buckets;
+
+	/**
+	 * @param bucketCount
+	 *            The number of buckets in the histogram
+	 */
+	PowerOfTwoHistogram(int bucketCount) {
+		buckets = new AtomicLongArray(bucketCount);
+	}
+
+	/**
+	 * Records a value. This must only be called by a single thread.
+	 */
+	void record(int value) {
+
+		int index = Math.min(32 - Integer.numberOfLeadingZeros(value), buckets.length() - 1);
+
+		// single writer so there is no need for an atomic increment
+		buckets.lazySet(index, buckets.get(index) + 1);
+	}
+
+	/**
+	 * @return A copy of the count in each bucket
+	 */
+	long[] snapshot() {
+
+		long[] counts = new long[buckets.length()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+		}
+
+		return counts;
+	}
+}
@@ -15,7 +15,9 @@
  */
 package net.xenqtt.message;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A PUBLISH message is sent by a client to a server for distribution to interested subscribers. Each PUBLISH message is associated with a topic name (also
@@ -27,6 +29,9 @@ import java.nio.ByteBuffer;
 public final class PubMessage extends IdentifiableMqttMessage {
 
 	private int payloadIndex = -1;
+	private String topicName;
+	private PayloadSource payloadSource;
+	private int payloadPosition;
 
 	/**
 	 * Used to construct a received message.
@@ -40,6 +45,46 @@ public final class PubMessage extends IdentifiableMqttMessage {
 	 */
 	public PubMessage(QoS qos, boolean retain, String topicName, int messageId, byte[] payload) {
 		this(qos, retain, stringToUtf8(topicName), messageId, payload);
+		this.topicName = topicName;
+	}
+
+	/**
+	 * Used to construct a message for sending to a topic that has already been encoded. This avoids encoding the topic name for every message.
+	 */
+	public PubMessage(QoS qos, boolean retain, EncodedTopic topic, int messageId, byte[] payload) {
+		super(MessageType.PUBLISH, false, qos, retain, (qos.ordinal() == 0 ? 0 : 2) + topic.size() + payload.length);
+
+		topic.put(buffer);
+		if (qos.ordinal() > 0) {
+			buffer.putShort((short) messageId);
+		}
+		buffer.put(payload);
+		buffer.flip();
+
+		this.topicName = topic.getTopicName();
+	}
+
+	/**
+	 * Used to construct a message for sending whose payload is streamed from a {@link PayloadSource} as the message is written. Only the fixed and variable
+	 * headers are held in memory. The source must be {@link PayloadSource#isRepeatable() repeatable} unless the QoS is 0 (AT_MOST_ONCE) because the message
+	 * may be resent.
+	 */
+	public PubMessage(QoS qos, boolean retain, EncodedTopic topic, int messageId, PayloadSource payload) {
+		super(MessageType.PUBLISH, false, qos, retain, (qos.ordinal() == 0 ? 0 : 2) + topic.size() + payload.length(), (qos.ordinal() == 0 ? 0 : 2)
+				+ topic.size());
+
+		if (qos.ordinal() > 0 && !payload.isRepeatable()) {
+			throw new IllegalArgumentException("Only a repeatable payload source may be used at QoS " + qos.ordinal() + " because the message may be resent");
+		}
+
+		topic.put(buffer);
+		if (qos.ordinal() > 0) {
+			buffer.putShort((short) messageId);
+		}
+		buffer.flip();
+
+		this.topicName = topic.getTopicName();
+		this.payloadSource = payload;
 	}
 
 	/**
@@ -49,7 +94,13 @@ public final class PubMessage extends IdentifiableMqttMessage {
 	 * not the subscription string used by the client.
 	 */
 	public String getTopicName() {
-		return getString(fixedHeaderEndOffset);
+
+		// received messages usually repeat a small set of topics so share one string per topic instead of decoding each time
+		if (topicName == null) {
+			topicName = TopicNameCache.INSTANCE.get(buffer, fixedHeaderEndOffset + 2, buffer.getShort(fixedHeaderEndOffset) & 0xffff);
+		}
+
+		return topicName;
 	}
 
 	/**
@@ -71,14 +122,113 @@ public final class PubMessage extends IdentifiableMqttMessage {
 		buffer.putShort(getPayloadIndex() - 2, (short) messageId);
 	}
 
+	/**
+	 * Copies a new payload into this message in place. This must not be called while the message is being sent.
+	 * 
+	 * @param payload
+	 *            The new payload. This must be the same length as the current payload.
+	 */
+	public void setPayload(byte[] payload) {
+
+		if (payloadSource != null) {
+			throw new UnsupportedOperationException("The payload of this message is streamed from a " + PayloadSource.class.getSimpleName());
+		}
+
+		int payloadIndex = getPayloadIndex();
+		if (payload.length != buffer.limit() - payloadIndex) {
+			throw new IllegalArgumentException("The payload length must not change. Was: " + (buffer.limit() - payloadIndex) + " New: " + payload.length);
+		}
+
+		buffer.position(payloadIndex);
+		buffer.put(payload);
+		buffer.rewind();
+	}
+
+	/**
+	 * Sets the {@link MessageRecycler recycler} to give this message to once it has been written to the socket so it can be reused.
+	 */
+	public void setRecycler(MessageRecycler recycler) {
+		if (getQoSLevel() != 0) {
+			throw new UnsupportedOperationException("Recycling is only supported at QoS 0 (AT_MOST_ONCE)");
+		}
+		this.recycler = recycler;
+	}
+
+	/**
+	 * @return The {@link MessageRecycler recycler} this message is given to once it has been written to the socket. Null if the message is not recycled.
+	 */
+	public MessageRecycler getRecycler() {
+		return recycler;
+	}
+
 	/**
 	 * Contains the data for publishing. The content and format of the data is application specific. It is valid for a PUBLISH to contain a 0-length payload.
+	 * <p>
+	 * If the payload is streamed, either from a {@link PayloadSource} or to a {@link PayloadStreamHandler}, it is not held by this message and this returns a
+	 * 0-length array. Use {@link #getPayloadLength()} to get the size of a streamed payload.
 	 */
 	public byte[] getPayload() {
 
 		return getBytes(getPayloadIndex());
 	}
 
+	/**
+	 * @return The number of bytes in the payload. Unlike {@link #getPayload()} this includes a streamed payload.
+	 */
+	public int getPayloadLength() {
+
+		return getRemainingLength() - (getPayloadIndex() - fixedHeaderEndOffset);
+	}
+
+	/**
+	 * @see net.xenqtt.message.MqttMessage#write(java.nio.channels.WritableByteChannel)
+	 */
+	@Override
+	long write(WritableByteChannel channel) throws IOException {
+
+		long bytesWritten = 0;
+		ByteBuffer frame = frame();
+		if (frame.hasRemaining()) {
+			bytesWritten = channel.write(frame);
+			if (frame.hasRemaining()) {
+				return bytesWritten;
+			}
+		}
+
+		if (payloadSource != null && payloadPosition < payloadSource.length()) {
+			long count = payloadSource.transferTo(payloadPosition, channel);
+			payloadPosition += count;
+			bytesWritten += count;
+		}
+
+		return bytesWritten;
+	}
+
+	/**
+	 * @see net.xenqtt.message.MqttMessage#isSingleBuffer()
+	 */
+	@Override
+	boolean isSingleBuffer() {
+		return payloadSource == null;
+	}
+
+	/**
+	 * @see net.xenqtt.message.MqttMessage#isWritten()
+	 */
+	@Override
+	boolean isWritten() {
+		return !frame().hasRemaining() && (payloadSource == null || payloadPosition == payloadSource.length());
+	}
+
+	/**
+	 * @see net.xenqtt.message.MqttMessage#rewind()
+	 */
+	@Override
+	void rewind() {
+		super.rewind();
+		payloadPosition = 0;
+	}
+
 	private int getPayloadIndex() {
 
 		if (payloadIndex == -1) {
@@ -0,0 +1,49 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link MessageHandler} that forwards QoS 0 PUBLISH frames to other channels as they were received instead of receiving each as a {@link PubMessage}. A
+ * channel with this handler reads as many frames as are ready in one call into a buffer it reuses. Each QoS 0 PUBLISH of at most
+ * {@link #MAX_FORWARDED_FRAME_SIZE} bytes is passed from that buffer to {@link #forwardPublish(MqttChannel, String, ByteBuffer)}, which hands the frame to
+ * {@link MqttChannel#sendFrame(ByteBuffer)} on the channel it goes to. No message is built for it on either channel. A PUBLISH that is not forwarded is
+ * delivered through {@link #publish(MqttChannel, PubMessage)} as usual. A handler that is also a {@link PayloadStreamHandler} has no frames forwarded.
+ * <p>
+ * Like all {@link MessageHandler} methods this is called by the IO thread that owns the channel and must not block it. The channel the frame is sent to
+ * must be owned by the same IO thread.
+ */
+public interface PublishForwardingHandler extends MessageHandler {
+
+	/**
+	 * The largest frame, including the fixed header, that is passed to {@link #forwardPublish(MqttChannel, String, ByteBuffer)}
+	 */
+	int MAX_FORWARDED_FRAME_SIZE = 1 << 12;
+
+	/**
+	 * Called when a QoS 0 PUBLISH is received through the specified channel
+	 * 
+	 * @param topicName
+	 *            The topic the message was published to
+	 * @param frame
+	 *            The entire frame, from the buffer's position to its limit. The buffer is reused for the next frame so it is only valid until this method
+	 *            returns.
+	 * 
+	 * @return True if the frame was forwarded or dropped. False to have the frame delivered to {@link #publish(MqttChannel, PubMessage)} instead.
+	 */
+	boolean forwardPublish(MqttChannel channel, String topicName, ByteBuffer frame) throws Exception;
+}
@@ -0,0 +1,63 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+/**
+ * What a channel does when a message is sent while its send queue is at the limit set by {@link ChannelManagerImpl#setSendQueueLimits(int, long,
+ * SlowConsumerPolicy)}. Every policy counts the overflow in the channel's {@link net.xenqtt.client.ChannelStats stats} and logs a warning the first time the
+ * queue reaches its limit since it last drained below it.
+ */
+public enum SlowConsumerPolicy {
+
+	/**
+	 * The message is queued anyway. The code sending to the channel is expected to check {@link MqttChannel#isSendQueueFull()} and stop producing messages
+	 * for the channel until it drains.
+	 */
+	PAUSE("pause"),
+
+	/**
+	 * QoS 0 publishes are dropped and counted. All other messages are queued because dropping them would break the protocol.
+	 */
+	DROP_QOS0("dropqos0"),
+
+	/**
+	 * The message is rejected and the channel is closed by the IO thread's next pass, never from inside the send. Unacknowledged messages may then be
+	 * redelivered to the remote end when it reconnects.
+	 */
+	DISCONNECT("disconnect");
+
+	private final String type;
+
+	private SlowConsumerPolicy(String type) {
+		this.type = type;
+	}
+
+	/**
+	 * Get a {@link SlowConsumerPolicy} instance based on a given textual representation.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the specified {@code type} does not correspond to a known policy
+	 */
+	public static SlowConsumerPolicy getPolicy(String type) {
+		for (SlowConsumerPolicy policy : values()) {
+			if (policy.type.equalsIgnoreCase(type)) {
+				return policy;
+			}
+		}
+
+		throw new IllegalArgumentException(String.format("Unrecognized slow consumer policy: %s", type));
+	}
+}
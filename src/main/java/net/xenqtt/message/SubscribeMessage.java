@@ -78,6 +78,14 @@ public final class SubscribeMessage extends IdentifiableMqttMessage {
 		buffer.putShort(fixedHeaderEndOffset, (short) messageId);
 	}
 
+	/**
+	 * @return A new {@link TopicCursor cursor} over the topics and requested QoS's in this message. Use this instead of {@link #getTopics()} and
+	 *         {@link #getRequestedQoSes()} to walk the topics without building arrays.
+	 */
+	public TopicCursor getTopicCursor() {
+		return new TopicCursor().wrap(this);
+	}
+
 	/**
 	 * The topics to subscribe to. The topic strings may contain special Topic wildcard characters to represent a set of topics.
 	 */
@@ -105,28 +113,15 @@ public final class SubscribeMessage extends IdentifiableMqttMessage {
 
 	private void loadTopicsAndQoses() {
 
-		int index = fixedHeaderEndOffset + 2;
-
-		int count = 0;
-		while (index < buffer.limit()) {
-			int size = (buffer.getShort(index) & 0xffff) + 3;
-			index += size;
-			count++;
-		}
+		TopicCursor cursor = getTopicCursor();
+		int count = cursor.getTopicCount();
 
 		topics = new String[count];
 		qoses = new QoS[count];
 
-		int i = 0;
-		index = fixedHeaderEndOffset + 2;
-		while (index < buffer.limit()) {
-			int len = buffer.getShort(index) & 0xffff;
-			index += 2;
-			topics[i] = new String(getBytes(index, len), UTF8);
-			index += len;
-			qoses[i] = QoS.lookup(buffer.get(index) & 0xff);
-			index++;
-			i++;
+		for (int i = 0; cursor.next(); i++) {
+			topics[i] = cursor.getTopicName();
+			qoses[i] = cursor.getRequestedQoS();
 		}
 	}
 
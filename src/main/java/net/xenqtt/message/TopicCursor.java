@@ -0,0 +1,190 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Iterates over the topics, and requested QoS's, of a {@link SubscribeMessage} or {@link UnsubscribeMessage} directly in the message's buffer. Topics can be
+ * compared and hashed against their raw UTF-8 bytes and topic names are shared through the same cache used for received {@link PubMessage}s, so walking a
+ * message does not allocate anything proportional to the number of topics it contains. An instance may be {@link #wrap(SubscribeMessage) rewrapped} around
+ * any number of messages. This class is NOT thread safe.
+ * <p>
+ * Typical use:
+ * 
+ * <pre>
+ * TopicCursor cursor = message.getTopicCursor();
+ * while (cursor.next()) {
+ * 	String topicName = cursor.getTopicName();
+ * 	QoS qos = cursor.getRequestedQoS();
+ * }
+ * </pre>
+ */
+public final class TopicCursor {
+
+	private ByteBuffer buffer;
+	private boolean hasQos;
+	private int start;
+	private int next;
+	private int topicIndex = -1;
+	private int topicLength;
+
+	/**
+	 * Positions this cursor before the first topic in the specified message
+	 * 
+	 * @return This cursor
+	 */
+	public TopicCursor wrap(SubscribeMessage message) {
+		return wrap(message.buffer, message.fixedHeaderEndOffset + 2, true);
+	}
+
+	/**
+	 * Positions this cursor before the first topic in the specified message
+	 * 
+	 * @return This cursor
+	 */
+	public TopicCursor wrap(UnsubscribeMessage message) {
+		return wrap(message.buffer, message.fixedHeaderEndOffset + 2, false);
+	}
+
+	/**
+	 * Positions this cursor back before the first topic in the current message
+	 */
+	public void reset() {
+		next = start;
+		topicIndex = -1;
+		topicLength = 0;
+	}
+
+	/**
+	 * Moves to the next topic
+	 * 
+	 * @return False if there are no more topics
+	 */
+	public boolean next() {
+
+		if (next >= buffer.limit()) {
+			topicIndex = -1;
+			return false;
+		}
+
+		topicLength = buffer.getShort(next) & 0xffff;
+		topicIndex = next + 2;
+		next = topicIndex + topicLength + (hasQos ? 1 : 0);
+
+		return true;
+	}
+
+	/**
+	 * @return The number of topics in the current message. This does not move the cursor.
+	 */
+	public int getTopicCount() {
+
+		int count = 0;
+		for (int index = start; index < buffer.limit(); index += (buffer.getShort(index) & 0xffff) + (hasQos ? 3 : 2)) {
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The current topic name. If this topic has been seen recently the same {@link String} instance is returned without decoding the bytes.
+	 */
+	public String getTopicName() {
+		checkPositioned();
+		return TopicNameCache.INSTANCE.get(buffer, topicIndex, topicLength);
+	}
+
+	/**
+	 * @return The number of UTF-8 bytes in the current topic
+	 */
+	public int getTopicLength() {
+		checkPositioned();
+		return topicLength;
+	}
+
+	/**
+	 * @return The QoS requested for the current topic
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             If the cursor is over an {@link UnsubscribeMessage} which has no QoS's
+	 */
+	public QoS getRequestedQoS() {
+
+		checkPositioned();
+		if (!hasQos) {
+			throw new UnsupportedOperationException("There is no requested QoS in an UNSUBSCRIBE message");
+		}
+
+		return QoS.lookup(buffer.get(topicIndex + topicLength) & 0xff);
+	}
+
+	/**
+	 * @return True if the current topic contains the '+' or '#' wildcard. Neither can be part of a multi-byte UTF-8 character so the bytes are checked
+	 *         directly.
+	 */
+	public boolean isWildcard() {
+
+		checkPositioned();
+		for (int i = topicIndex, end = topicIndex + topicLength; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b == '+' || b == '#') {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return True if the current topic is the same as the specified topic. The bytes are compared without decoding.
+	 */
+	public boolean topicEquals(EncodedTopic topic) {
+		checkPositioned();
+		return topic.matches(buffer, topicIndex, topicLength);
+	}
+
+	/**
+	 * @return A hash of the current topic's UTF-8 bytes. This is the same value {@link java.util.Arrays#hashCode(byte[])} returns for the bytes.
+	 */
+	public int topicHashCode() {
+
+		checkPositioned();
+		int hash = 1;
+		for (int i = topicIndex, end = topicIndex + topicLength; i < end; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+
+		return hash;
+	}
+
+	private TopicCursor wrap(ByteBuffer buffer, int start, boolean hasQos) {
+
+		this.buffer = buffer;
+		this.start = start;
+		this.hasQos = hasQos;
+		reset();
+
+		return this;
+	}
+
+	private void checkPositioned() {
+		if (topicIndex < 0) {
+			throw new IllegalStateException("The cursor is not positioned on a topic. Call next() first.");
+		}
+	}
+}
@@ -0,0 +1,136 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded cache of topic names keyed on their raw UTF-8 bytes. A topic is found by hashing the bytes in place in the message buffer so a hit returns the
+ * shared {@link String} without decoding or allocating anything. This is a direct mapped cache: each hash maps to a single slot and a miss replaces whatever
+ * was in that slot so the size never grows beyond the number of slots. This class is thread safe.
+ */
+final class TopicNameCache {
+
+	/**
+	 * The cache used when decoding received {@link PubMessage}s
+	 */
+	static final TopicNameCache INSTANCE = new TopicNameCache(1024, 256);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final AtomicReferenceArray<Entry> entries;
+	private final int mask;
+	private final int maxCachedLength;
+
+	/**
+	 * @param size
+	 *            Number of topics the cache can hold. Rounded up to the next power of 2.
+	 * @param maxCachedLength
+	 *            Topics longer than this many UTF-8 bytes are decoded but not cached
+	 */
+	TopicNameCache(int size, int maxCachedLength) {
+
+		int slots = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+		this.entries = new AtomicReferenceArray<Entry>(slots);
+		this.mask = slots - 1;
+		this.maxCachedLength = maxCachedLength;
+	}
+
+	/**
+	 * @param buffer
+	 *            The buffer containing the topic. The buffer's position and limit are not changed.
+	 * @param index
+	 *            The index of the first UTF-8 byte of the topic in the buffer
+	 * @param length
+	 *            The number of UTF-8 bytes in the topic
+	 * 
+	 * @return The decoded topic name. If the topic has been seen before, and has not since been evicted, this is the same instance returned last time.
+	 */
+	String get(ByteBuffer buffer, int index, int length) {
+
+		if (length > maxCachedLength) {
+			return decode(buffer, index, length);
+		}
+
+		int hash = hash(buffer, index, length);
+		int slot = hash & mask;
+
+		Entry entry = entries.get(slot);
+		if (entry != null && entry.hash == hash && entry.matches(buffer, index, length)) {
+			return entry.topicName;
+		}
+
+		entry = new Entry(hash, buffer, index, length);
+		entries.lazySet(slot, entry);
+
+		return entry.topicName;
+	}
+
+	private static int hash(ByteBuffer buffer, int index, int length) {
+
+		int hash = 1;
+		for (int i = index, end = index + length; i < end; i++) {
+			hash = 31 * hash + buffer.get(i);
+		}
+
+		// spread the high bits into the low bits used to pick the slot
+		return hash ^ (hash >>> 16);
+	}
+
+	private static String decode(ByteBuffer buffer, int index, int length) {
+
+		byte[] utf8 = new byte[length];
+		for (int i = 0; i < length; i++) {
+			utf8[i] = buffer.get(index + i);
+		}
+
+		return new String(utf8, UTF8);
+	}
+
+	private static final class Entry {
+
+		private final int hash;
+		private final byte[] utf8;
+		private final String topicName;
+
+		Entry(int hash, ByteBuffer buffer, int index, int length) {
+
+			this.hash = hash;
+			this.utf8 = new byte[length];
+			for (int i = 0; i < length; i++) {
+				utf8[i] = buffer.get(index + i);
+			}
+			this.topicName = new String(utf8, UTF8);
+		}
+
+		boolean matches(ByteBuffer buffer, int index, int length) {
+
+			if (utf8.length != length) {
+				return false;
+			}
+
+			for (int i = 0; i < length; i++) {
+				if (utf8[i] != buffer.get(index + i)) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
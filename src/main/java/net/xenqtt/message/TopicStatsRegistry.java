@@ -0,0 +1,318 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.xenqtt.XenqttUtil;
+import net.xenqtt.client.TopicStats;
+
+/**
+ * Tracks message counts by topic for a bounded number of topics. When the maximum number of topics is reached the topic with the lowest count is replaced by
+ * the new topic and the new topic inherits the replaced topic's count (the space saving algorithm). This keeps memory bounded while the most active topics are
+ * always retained. Counting a message is O(log n) where n is the maximum number of tracked topics.
+ * <p>
+ * Counts are kept in a number of independently locked stripes chosen by a hash of the topic name so threads counting messages to different topics rarely
+ * contend. Each stripe tracks an equal share of the maximum number of topics, so the registry never tracks more than the maximum in total. Each topic is
+ * counted in exactly one stripe, so its count is overestimated by at most the number of messages counted in its stripe divided by the stripe's share of the
+ * topics. A stripe always tracks at least {@link #MIN_TOPICS_PER_STRIPE} topics, so a small registry uses a single stripe and behaves exactly as described
+ * above.
+ * <p>
+ * This class is thread safe.
+ */
+public final class TopicStatsRegistry {
+
+	/**
+	 * The fewest topics a stripe tracks. The number of stripes is reduced until each stripe's share of the maximum number of topics is at least this.
+	 */
+	static final int MIN_TOPICS_PER_STRIPE = 64;
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+	private volatile long resetTime = System.currentTimeMillis();
+
+	/**
+	 * @param maxTopics
+	 *            The maximum number of topics to track
+	 */
+	public TopicStatsRegistry(int maxTopics) {
+		this(maxTopics, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param maxTopics
+	 *            The maximum number of topics to track
+	 * @param concurrency
+	 *            The expected number of threads counting messages at the same time. This is rounded up to a power of 2 and then reduced until each stripe
+	 *            tracks at least {@link #MIN_TOPICS_PER_STRIPE} topics.
+	 */
+	public TopicStatsRegistry(int maxTopics, int concurrency) {
+		XenqttUtil.validateGreaterThan("maxTopics", maxTopics, 0);
+		XenqttUtil.validateGreaterThan("concurrency", concurrency, 0);
+
+		int stripeCount = Integer.highestOneBit(concurrency);
+		if (stripeCount < concurrency) {
+			stripeCount <<= 1;
+		}
+		stripeCount = Math.max(1, Math.min(stripeCount, Integer.highestOneBit(maxTopics / MIN_TOPICS_PER_STRIPE)));
+
+		this.stripes = new Stripe[stripeCount];
+		this.stripeMask = stripeCount - 1;
+		for (int i = 0; i < stripeCount; i++) {
+			// the remainder goes one topic each to the first stripes so the shares add up to maxTopics
+			stripes[i] = new Stripe(maxTopics / stripeCount + (i < maxTopics % stripeCount ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Counts a message published to the specified topic
+	 */
+	public void messagePublished(String topicName) {
+
+		int hash = topicName.hashCode();
+		stripes[(hash ^ (hash >>> 16)) & stripeMask].messagePublished(topicName);
+	}
+
+	/**
+	 * @param maxResults
+	 *            The maximum number of topics to return
+	 * @param reset
+	 *            If true then all counts are reset after the stats are retrieved
+	 * 
+	 * @return Stats for the most active topics ordered from the most to the least active
+	 */
+	public List<TopicStats> getTopicStats(int maxResults, boolean reset) {
+
+		long now = System.currentTimeMillis();
+		long resetTime = this.resetTime;
+		if (reset) {
+			this.resetTime = now;
+		}
+
+		Counter[] counters = copy(reset);
+		Arrays.sort(counters, new Comparator<Counter>() {
+			@Override
+			public int compare(Counter c1, Counter c2) {
+				return c1.count < c2.count ? 1 : c1.count == c2.count ? 0 : -1;
+			}
+		});
+
+		int count = Math.min(maxResults, counters.length);
+		List<TopicStats> stats = new ArrayList<TopicStats>(count);
+		for (int i = 0; i < count; i++) {
+			Counter counter = counters[i];
+			long startTime = Math.max(resetTime, counter.startTime);
+			double seconds = Math.max(now - startTime, 1) / 1000.0;
+			stats.add(new Stats(counter.topicName, counter.count, counter.count / seconds));
+		}
+
+		return Collections.unmodifiableList(stats);
+	}
+
+	/**
+	 * @return The number of topics currently being tracked
+	 */
+	public int getTopicCount() {
+
+		int count = 0;
+		for (Stripe stripe : stripes) {
+			count += stripe.size();
+		}
+		return count;
+	}
+
+	private Counter[] copy(boolean reset) {
+
+		if (stripes.length == 1) {
+			return stripes[0].copy(reset);
+		}
+
+		// each topic is only in one stripe so the copies do not overlap
+		List<Counter> counters = new ArrayList<Counter>();
+		for (Stripe stripe : stripes) {
+			Collections.addAll(counters, stripe.copy(reset));
+		}
+
+		return counters.toArray(new Counter[counters.size()]);
+	}
+
+	private static final class Stripe {
+
+		private final int maxTopics;
+		private final Map<String, Counter> counterByTopic;
+		private final Counter[] heap;
+		private int size;
+
+		private Stripe(int maxTopics) {
+			this.maxTopics = maxTopics;
+			this.counterByTopic = new HashMap<String, Counter>(maxTopics * 4 / 3 + 1);
+			this.heap = new Counter[maxTopics];
+		}
+
+		private synchronized void messagePublished(String topicName) {
+
+			Counter counter = counterByTopic.get(topicName);
+			if (counter != null) {
+				counter.count++;
+				siftDown(counter.heapIndex);
+				return;
+			}
+
+			if (size < maxTopics) {
+				counter = new Counter(topicName, 1, System.currentTimeMillis());
+				counter.heapIndex = size;
+				heap[size++] = counter;
+				siftUp(counter.heapIndex);
+			} else {
+				counter = heap[0];
+				counterByTopic.remove(counter.topicName);
+				counter.topicName = topicName;
+				counter.count++;
+				counter.startTime = System.currentTimeMillis();
+				siftDown(0);
+			}
+
+			counterByTopic.put(topicName, counter);
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+
+		private synchronized Counter[] copy(boolean reset) {
+
+			Counter[] counters = new Counter[size];
+			for (int i = 0; i < size; i++) {
+				Counter counter = heap[i];
+				counters[i] = new Counter(counter.topicName, counter.count, counter.startTime);
+			}
+
+			if (reset) {
+				counterByTopic.clear();
+				Arrays.fill(heap, null);
+				size = 0;
+			}
+
+			return counters;
+		}
+
+		private void siftUp(int index) {
+
+			Counter counter = heap[index];
+			while (index > 0) {
+				int parentIndex = (index - 1) >>> 1;
+				Counter parent = heap[parentIndex];
+				if (parent.count <= counter.count) {
+					break;
+				}
+				parent.heapIndex = index;
+				heap[index] = parent;
+				index = parentIndex;
+			}
+
+			counter.heapIndex = index;
+			heap[index] = counter;
+		}
+
+		private void siftDown(int index) {
+
+			Counter counter = heap[index];
+			int half = size >>> 1;
+			while (index < half) {
+				int childIndex = (index << 1) + 1;
+				int rightIndex = childIndex + 1;
+				if (rightIndex < size && heap[rightIndex].count < heap[childIndex].count) {
+					childIndex = rightIndex;
+				}
+				Counter child = heap[childIndex];
+				if (counter.count <= child.count) {
+					break;
+				}
+				child.heapIndex = index;
+				heap[index] = child;
+				index = childIndex;
+			}
+
+			counter.heapIndex = index;
+			heap[index] = counter;
+		}
+	}
+
+	private static final class Counter {
+
+		private String topicName;
+		private long count;
+		private long startTime;
+		private int heapIndex;
+
+		private Counter(String topicName, long count, long startTime) {
+			this.topicName = topicName;
+			this.count = count;
+			this.startTime = startTime;
+		}
+	}
+
+	private static final class Stats implements TopicStats {
+
+		private final String topicName;
+		private final long messageCount;
+		private final double messagesPerSecond;
+
+		private Stats(String topicName, long messageCount, double messagesPerSecond) {
+			this.topicName = topicName;
+			this.messageCount = messageCount;
+			this.messagesPerSecond = messagesPerSecond;
+		}
+
+		/**
+		 * @see net.xenqtt.client.TopicStats#getTopicName()
+		 */
+		@Override
+		public String getTopicName() {
+			return topicName;
+		}
+
+		/**
+		 * @see net.xenqtt.client.TopicStats#getMessageCount()
+		 */
+		@Override
+		public long getMessageCount() {
+			return messageCount;
+		}
+
+		/**
+		 * @see net.xenqtt.client.TopicStats#getMessagesPerSecond()
+		 */
+		@Override
+		public double getMessagesPerSecond() {
+			return messagesPerSecond;
+		}
+
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format("{topicName: %s, messageCount: %d, messagesPerSecond: %.2f}", topicName, messageCount, messagesPerSecond);
+		}
+	}
+}
@@ -56,6 +56,14 @@ public final class UnsubscribeMessage extends IdentifiableMqttMessage {
 		buffer.putShort(fixedHeaderEndOffset, (short) messageId);
 	}
 
+	/**
+	 * @return A new {@link TopicCursor cursor} over the topics in this message. Use this instead of {@link #getTopics()} to walk the topics without building
+	 *         an array.
+	 */
+	public TopicCursor getTopicCursor() {
+		return new TopicCursor().wrap(this);
+	}
+
 	/**
 	 * The topics to unsubscribe from.
 	 */
@@ -70,25 +78,11 @@ public final class UnsubscribeMessage extends IdentifiableMqttMessage {
 
 	private void loadTopics() {
 
-		int index = fixedHeaderEndOffset + 2;
-
-		int count = 0;
-		while (index < buffer.limit()) {
-			int size = (buffer.getShort(index) & 0xffff) + 2;
-			index += size;
-			count++;
-		}
-
-		topics = new String[count];
+		TopicCursor cursor = getTopicCursor();
 
-		int i = 0;
-		index = fixedHeaderEndOffset + 2;
-		while (index < buffer.limit()) {
-			int len = buffer.getShort(index) & 0xffff;
-			index += 2;
-			topics[i] = new String(getBytes(index, len), UTF8);
-			index += len;
-			i++;
+		topics = new String[cursor.getTopicCount()];
+		for (int i = 0; cursor.next(); i++) {
+			topics[i] = cursor.getTopicName();
 		}
 	}
 
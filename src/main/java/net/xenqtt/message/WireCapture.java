@@ -0,0 +1,369 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.xenqtt.XenqttUtil;
+
+/**
+ * Records the raw bytes of every MQTT frame sent and received by {@link MqttChannel channels} into a memory mapped ring file. This is meant to be left on
+ * under production load: recording a frame is a few puts into the mapped file, with no formatting, no system calls, and no allocation, and once a ring is
+ * full its oldest frames are overwritten. Use {@link #read(File)}, or the {@code wirecapture} application, to decode a capture file later.
+ * <p>
+ * Each record holds the time, the direction, the local and remote ports of the channel, and the frame. Frames longer than the configured maximum are
+ * truncated. Only the headers of a streamed PUBLISH payload are recorded.
+ * <p>
+ * The file is split into one or more rings, each with its own lock. Each {@link ChannelManagerImpl channel manager} the capture is set on is given the next
+ * ring in turn and records all its channels' frames to it. Managers only avoid contending with each other while there are at least as many rings as
+ * managers; beyond that managers share rings, and IO threads that share a ring wait on its lock while another records. One instance may be shared by any
+ * number of channels and channel managers. This class is thread safe.
+ */
+public final class WireCapture implements Closeable {
+
+	private static final int MAGIC = 0x58515743; // XQWC
+	private static final int VERSION = 2;
+
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int MAX_FRAME_BYTES_OFFSET = 12;
+	private static final int RING_COUNT_OFFSET = 16;
+	private static final int DATA_OFFSET = 64;
+
+	/**
+	 * Oldest logical position (8), next logical position (8)
+	 */
+	private static final int RING_HEADER_SIZE = 16;
+
+	/**
+	 * Record length (4), timestamp (8), direction (1), local port (2), remote port (2), frame length (4)
+	 */
+	static final int RECORD_HEADER_SIZE = 21;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer map;
+	private final int maxFrameBytes;
+	private final Ring[] rings;
+	private final AtomicInteger nextRing = new AtomicInteger();
+
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new capture file with a single ring, replacing any file that already exists
+	 * 
+	 * @param file
+	 *            The file to record to
+	 * @param capacity
+	 *            The number of bytes of records the ring holds. The file is a little larger than this.
+	 * @param maxFrameBytes
+	 *            Frames longer than this are truncated to this many bytes. This keeps large payloads from pushing everything else out of the ring.
+	 */
+	public WireCapture(File file, int capacity, int maxFrameBytes) throws IOException {
+		this(file, capacity, maxFrameBytes, 1);
+	}
+
+	/**
+	 * Creates a new capture file, replacing any file that already exists
+	 * 
+	 * @param file
+	 *            The file to record to
+	 * @param capacity
+	 *            The number of bytes of records the capture holds. This is split evenly between the rings. The file is a little larger than this.
+	 * @param maxFrameBytes
+	 *            Frames longer than this are truncated to this many bytes. This keeps large payloads from pushing everything else out of a ring.
+	 * @param ringCount
+	 *            The number of rings to split the capture into. Use the number of channel managers the capture will be set on, or when there are too many
+	 *            of those for each to have a ring, a few times the number of their IO threads that can run at once.
+	 */
+	public WireCapture(File file, int capacity, int maxFrameBytes, int ringCount) throws IOException {
+
+		XenqttUtil.validateNotNull("file", file);
+		XenqttUtil.validateGreaterThan("ringCount", ringCount, 0);
+		int ringCapacity = capacity / ringCount;
+		XenqttUtil.validateGreaterThanOrEqualTo("capacity / ringCount", ringCapacity, 1024);
+		XenqttUtil.validateInRange("maxFrameBytes", maxFrameBytes, 0, ringCapacity - RECORD_HEADER_SIZE);
+
+		this.maxFrameBytes = maxFrameBytes;
+		this.file = new RandomAccessFile(file, "rw");
+		try {
+			this.file.setLength(0);
+			this.map = this.file.getChannel().map(MapMode.READ_WRITE, 0, DATA_OFFSET + (long) ringCount * (RING_HEADER_SIZE + ringCapacity));
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+
+		map.putInt(0, MAGIC);
+		map.putInt(4, VERSION);
+		map.putInt(CAPACITY_OFFSET, ringCapacity);
+		map.putInt(MAX_FRAME_BYTES_OFFSET, maxFrameBytes);
+		map.putInt(RING_COUNT_OFFSET, ringCount);
+
+		this.rings = new Ring[ringCount];
+		for (int i = 0; i < ringCount; i++) {
+			rings[i] = new Ring(DATA_OFFSET + i * (RING_HEADER_SIZE + ringCapacity), ringCapacity);
+		}
+	}
+
+	/**
+	 * Flushes the rings to disk and closes the file. Frames recorded after this are ignored.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+
+		if (!closed) {
+			closed = true;
+			// wait for records in progress to finish
+			for (Ring ring : rings) {
+				synchronized (ring) {
+				}
+			}
+			map.force();
+			file.close();
+		}
+	}
+
+	/**
+	 * Reads all the records in a capture file, oldest first
+	 */
+	public static List<CapturedFrame> read(File file) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(DATA_OFFSET);
+			channel.read(header, 0);
+			if (header.getInt(0) != MAGIC) {
+				throw new IOException(file + " is not a wire capture file");
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException("Unsupported wire capture version: " + header.getInt(4));
+			}
+
+			int capacity = header.getInt(CAPACITY_OFFSET);
+			int ringCount = header.getInt(RING_COUNT_OFFSET);
+
+			List<CapturedFrame> frames = new ArrayList<CapturedFrame>();
+			ByteBuffer ringHeader = ByteBuffer.allocate(RING_HEADER_SIZE);
+			ByteBuffer data = ByteBuffer.allocate(capacity);
+			byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+			for (int i = 0; i < ringCount; i++) {
+				long ringOffset = DATA_OFFSET + (long) i * (RING_HEADER_SIZE + capacity);
+
+				ringHeader.clear();
+				channel.read(ringHeader, ringOffset);
+				long oldest = ringHeader.getLong(0);
+				long next = ringHeader.getLong(8);
+
+				data.clear();
+				channel.read(data, ringOffset + RING_HEADER_SIZE);
+
+				for (long position = oldest; position < next;) {
+					get(data, capacity, position, recordHeader);
+					ByteBuffer h = ByteBuffer.wrap(recordHeader);
+					int recordLength = h.getInt();
+					long timestamp = h.getLong();
+					boolean sent = h.get() != 0;
+					int localPort = h.getShort() & 0xffff;
+					int remotePort = h.getShort() & 0xffff;
+					int frameLength = h.getInt();
+
+					byte[] frame = new byte[recordLength - RECORD_HEADER_SIZE];
+					get(data, capacity, position + RECORD_HEADER_SIZE, frame);
+					frames.add(new CapturedFrame(timestamp, sent, localPort, remotePort, frameLength, frame));
+
+					position += recordLength;
+				}
+			}
+
+			if (ringCount > 1) {
+				// the sort is stable so frames recorded in the same millisecond by one ring keep their order
+				Collections.sort(frames, new Comparator<CapturedFrame>() {
+					@Override
+					public int compare(CapturedFrame f1, CapturedFrame f2) {
+						return f1.getTimestamp() < f2.getTimestamp() ? -1 : f1.getTimestamp() == f2.getTimestamp() ? 0 : 1;
+					}
+				});
+			}
+
+			return frames;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Records a message as a frame. Channels record their frames automatically once the capture is set on their {@link ChannelManagerImpl channel manager}.
+	 * This is for tools that write capture files of their own, for example to build traffic for the test client to replay. The message must not be in use by
+	 * another thread.
+	 * 
+	 * @param timestamp
+	 *            The time the frame was sent or received in milliseconds since the epoch
+	 * @param sent
+	 *            True if the frame was sent, false if it was received
+	 * @param localPort
+	 *            The local port of the connection
+	 * @param remotePort
+	 *            The remote port of the connection
+	 * @param message
+	 *            The message to record
+	 */
+	public void record(long timestamp, boolean sent, int localPort, int remotePort, MqttMessage message) {
+		record(timestamp, sent, localPort, remotePort, message.buffer, message.fixedHeaderEndOffset + message.getRemainingLength());
+	}
+
+	/**
+	 * Records a frame to the first ring
+	 * 
+	 * @see Ring#record(long, boolean, int, int, ByteBuffer, int)
+	 */
+	void record(long timestamp, boolean sent, int localPort, int remotePort, ByteBuffer frame, int frameLength) {
+		rings[0].record(timestamp, sent, localPort, remotePort, frame, frameLength);
+	}
+
+	/**
+	 * @return The ring for the next channel manager to record to. Rings are handed out in turn.
+	 */
+	Ring nextRing() {
+		return rings[(nextRing.getAndIncrement() & Integer.MAX_VALUE) % rings.length];
+	}
+
+	private static void get(ByteBuffer data, int capacity, long position, byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = data.get((int) ((position + i) % capacity));
+		}
+	}
+
+	/**
+	 * One ring in the capture file. The ring's header is followed by its data.
+	 */
+	final class Ring {
+
+		private final int headerOffset;
+		private final int capacity;
+		private final ByteBuffer data;
+		private final byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+		private final ByteBuffer recordHeaderBuffer = ByteBuffer.wrap(recordHeader);
+
+		// logical positions in the ring. Physical index in data is logical % capacity.
+		private long oldest;
+		private long next;
+
+		private Ring(int headerOffset, int capacity) {
+
+			this.headerOffset = headerOffset;
+			this.capacity = capacity;
+
+			ByteBuffer view = map.duplicate();
+			view.position(headerOffset + RING_HEADER_SIZE);
+			view.limit(headerOffset + RING_HEADER_SIZE + capacity);
+			this.data = view.slice();
+
+			map.putLong(headerOffset, 0);
+			map.putLong(headerOffset + 8, 0);
+		}
+
+		/**
+		 * Records a frame. The bytes recorded start at index 0 of the buffer and end at the buffer's limit, the frame length, or the maximum captured frame
+		 * size, whichever comes first. The buffer's position and limit are restored before this returns. The buffer must not be in use by another thread.
+		 * 
+		 * @param frameLength
+		 *            The full length of the frame on the wire. This is larger than the buffer's limit when the buffer holds only the headers of a streamed
+		 *            PUBLISH.
+		 */
+		synchronized void record(long timestamp, boolean sent, int localPort, int remotePort, ByteBuffer frame, int frameLength) {
+
+			if (closed) {
+				return;
+			}
+
+			int capturedLength = Math.min(Math.min(frame.limit(), frameLength), maxFrameBytes);
+			int recordLength = RECORD_HEADER_SIZE + capturedLength;
+
+			// drop the oldest records until there is room for this one
+			while (next + recordLength - oldest > capacity) {
+				oldest += getInt(oldest);
+			}
+
+			recordHeaderBuffer.clear();
+			recordHeaderBuffer.putInt(recordLength);
+			recordHeaderBuffer.putLong(timestamp);
+			recordHeaderBuffer.put((byte) (sent ? 1 : 0));
+			recordHeaderBuffer.putShort((short) localPort);
+			recordHeaderBuffer.putShort((short) remotePort);
+			recordHeaderBuffer.putInt(frameLength);
+
+			int index = (int) (next % capacity);
+			int firstPart = Math.min(RECORD_HEADER_SIZE, capacity - index);
+			data.position(index);
+			data.put(recordHeader, 0, firstPart);
+			if (firstPart < RECORD_HEADER_SIZE) {
+				data.position(0);
+				data.put(recordHeader, firstPart, RECORD_HEADER_SIZE - firstPart);
+			}
+
+			index = (int) ((next + RECORD_HEADER_SIZE) % capacity);
+			firstPart = Math.min(capturedLength, capacity - index);
+			putFrame(index, frame, 0, firstPart);
+			putFrame(0, frame, firstPart, capturedLength - firstPart);
+
+			next += recordLength;
+
+			map.putLong(headerOffset, oldest);
+			map.putLong(headerOffset + 8, next);
+		}
+
+		private void putFrame(int index, ByteBuffer frame, int offset, int length) {
+
+			if (length == 0) {
+				return;
+			}
+
+			data.position(index);
+			if (frame.hasArray()) {
+				data.put(frame.array(), frame.arrayOffset() + offset, length);
+				return;
+			}
+
+			int position = frame.position();
+			int limit = frame.limit();
+			frame.limit(offset + length);
+			frame.position(offset);
+			data.put(frame);
+			frame.limit(limit);
+			frame.position(position);
+		}
+
+		private int getInt(long position) {
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				value = value << 8 | data.get((int) ((position + i) % capacity)) & 0xff;
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.xenqtt.Log;
+import net.xenqtt.XenqttUtil;
+
+/**
+ * Exports xenqtt runtime metrics. Objects registered with this exporter are published as JMX MBeans in the {@value #DOMAIN} domain and, once
+ * {@link #init()} is called, as a Prometheus text format endpoint at {@code http://127.0.0.1:<port>/metrics}. The endpoint only listens on the loopback
+ * address. Scrapes read MBean attributes directly so registered objects must be able to return their attributes without blocking.
+ * <p>
+ * Numeric and boolean attributes are exported as a single sample. {@code long[]} attributes, such as histograms, are exported as one sample per element
+ * with the element's index in the {@code bucket} label.
+ */
+public final class MetricsExporter {
+
+	/**
+	 * The JMX domain all xenqtt MBeans are registered in
+	 */
+	public static final String DOMAIN = "net.xenqtt";
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+	private final Set<ObjectName> registeredNames = new CopyOnWriteArraySet<ObjectName>();
+	private final Thread serverThread = new ServerThread();
+
+	private ServerSocket server;
+	private volatile int port;
+
+	/**
+	 * @param port
+	 *            The port for the metrics endpoint to listen on. 0 will choose an arbitrary available port which you can get from {@link #getPort()} after
+	 *            calling {@link #init()}.
+	 */
+	public MetricsExporter(int port) {
+		this.port = XenqttUtil.validateInRange("port", port, 0, 65535);
+	}
+
+	/**
+	 * Starts the metrics endpoint. Blocks until the endpoint is listening.
+	 */
+	public void init() {
+
+		try {
+			server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+			port = server.getLocalPort();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to start the metrics endpoint on port " + port, e);
+		}
+
+		serverThread.setName("MetricsServer");
+		serverThread.setDaemon(true);
+		serverThread.start();
+	}
+
+	/**
+	 * Stops the metrics endpoint and unregisters all MBeans registered by this exporter. Blocks until shutdown is complete.
+	 */
+	public void shutdown() {
+
+		try {
+			if (server != null) {
+				server.close();
+				serverThread.join();
+			}
+		} catch (Exception e) {
+			Log.error(e, "Failed to shut down the metrics endpoint");
+		}
+
+		for (ObjectName name : registeredNames) {
+			unregister(name);
+		}
+	}
+
+	/**
+	 * @return The port the metrics endpoint is listening on. Not valid until after {@link #init()} is called.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Registers an object as an MBean. Any MBean already registered with the same type and name is replaced. Failures are logged and otherwise ignored so
+	 * metrics never interfere with the component being measured.
+	 * 
+	 * @param type
+	 *            The type of the object. Used as the {@code type} key of the MBean's object name and in the Prometheus metric names.
+	 * @param name
+	 *            The name that identifies this instance among others of the same type
+	 * @param mbean
+	 *            The object to register. Must be a compliant MBean or MXBean.
+	 */
+	public void register(String type, String name, Object mbean) {
+
+		try {
+			ObjectName objectName = objectName(type, name);
+			if (mbeanServer.isRegistered(objectName)) {
+				unregister(objectName);
+			}
+			mbeanServer.registerMBean(mbean, objectName);
+			registeredNames.add(objectName);
+		} catch (Exception e) {
+			Log.error(e, "Failed to register metrics for %s %s", type, name);
+		}
+	}
+
+	/**
+	 * Unregisters an MBean previously registered using {@link #register(String, String, Object)}. Does nothing if no such MBean is registered.
+	 */
+	public void unregister(String type, String name) {
+
+		try {
+			unregister(objectName(type, name));
+		} catch (Exception e) {
+			Log.error(e, "Failed to unregister metrics for %s %s", type, name);
+		}
+	}
+
+	/**
+	 * @return The attributes of the MBeans registered by this exporter in the Prometheus text exposition format
+	 */
+	public String scrape() {
+
+		Map<String, List<String>> samplesByMetric = new TreeMap<String, List<String>>();
+		for (ObjectName objectName : registeredNames) {
+			try {
+				String type = objectName.getKeyProperty("type");
+				String name = ObjectName.unquote(objectName.getKeyProperty("name"));
+				for (MBeanAttributeInfo info : mbeanServer.getMBeanInfo(objectName).getAttributes()) {
+					if (!info.isReadable()) {
+						continue;
+					}
+					Object value = mbeanServer.getAttribute(objectName, info.getName());
+					String metric = "xenqtt_" + toSnakeCase(type) + "_" + toSnakeCase(info.getName());
+					String labels = "name=\"" + escapeLabel(name) + "\"";
+					if (value instanceof long[]) {
+						long[] values = (long[]) value;
+						for (int i = 0; i < values.length; i++) {
+							addSample(samplesByMetric, metric, labels + ",bucket=\"" + i + "\"", String.valueOf(values[i]));
+						}
+					} else {
+						String sample = sampleValue(value);
+						if (sample != null) {
+							addSample(samplesByMetric, metric, labels, sample);
+						}
+					}
+				}
+			} catch (Exception e) {
+				// the MBean was most likely unregistered during the scrape
+				Log.debug("Unable to scrape metrics from %s: %s", objectName, e);
+			}
+		}
+
+		StringBuilder text = new StringBuilder();
+		for (Map.Entry<String, List<String>> entry : samplesByMetric.entrySet()) {
+			text.append("# TYPE ").append(entry.getKey()).append(" untyped\n");
+			for (String sample : entry.getValue()) {
+				text.append(sample).append('\n');
+			}
+		}
+
+		return text.toString();
+	}
+
+	private void addSample(Map<String, List<String>> samplesByMetric, String metric, String labels, String value) {
+
+		List<String> samples = samplesByMetric.get(metric);
+		if (samples == null) {
+			samples = new ArrayList<String>();
+			samplesByMetric.put(metric, samples);
+		}
+		samples.add(metric + "{" + labels + "} " + value);
+	}
+
+	private void unregister(ObjectName objectName) {
+
+		registeredNames.remove(objectName);
+		try {
+			if (mbeanServer.isRegistered(objectName)) {
+				mbeanServer.unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			Log.error(e, "Failed to unregister metrics for %s", objectName);
+		}
+	}
+
+	private ObjectName objectName(String type, String name) throws Exception {
+
+		XenqttUtil.validateNotEmpty("type", type);
+		XenqttUtil.validateNotNull("name", name);
+
+		return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+	}
+
+	private String sampleValue(Object value) {
+
+		if (value instanceof Number) {
+			return value.toString();
+		}
+
+		if (value instanceof Boolean) {
+			return ((Boolean) value) ? "1" : "0";
+		}
+
+		return null;
+	}
+
+	private String toSnakeCase(String name) {
+
+		StringBuilder snake = new StringBuilder(name.length() + 8);
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c)) {
+				if (i > 0) {
+					snake.append('_');
+				}
+				snake.append(Character.toLowerCase(c));
+			} else if (Character.isLetterOrDigit(c)) {
+				snake.append(c);
+			} else {
+				snake.append('_');
+			}
+		}
+
+		return snake.toString();
+	}
+
+	private String escapeLabel(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private void serve(Socket socket) throws IOException {
+
+		socket.setSoTimeout(5000);
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+		String requestLine = in.readLine();
+		String line;
+		while ((line = in.readLine()) != null && !line.isEmpty()) {
+			// skip the request headers
+		}
+
+		String status;
+		String body;
+		if (requestLine != null && (requestLine.startsWith("GET /metrics ") || requestLine.equals("GET /metrics"))) {
+			status = "200 OK";
+			body = scrape();
+		} else {
+			status = "404 Not Found";
+			body = "Not found. Metrics are available at /metrics\n";
+		}
+
+		byte[] bytes = body.getBytes("UTF-8");
+		OutputStream out = socket.getOutputStream();
+		String header = "HTTP/1.0 " + status + "\r\nContent-Type: " + CONTENT_TYPE + "\r\nContent-Length: " + bytes.length + "\r\nConnection: close\r\n\r\n";
+		out.write(header.getBytes("US-ASCII"));
+		out.write(bytes);
+		out.flush();
+	}
+
+	private void doIo() {
+
+		try {
+			for (;;) {
+				Socket socket = server.accept();
+				try {
+					serve(socket);
+				} catch (IOException e) {
+					Log.debug("Metrics request from %s failed: %s", socket.getRemoteSocketAddress(), e);
+				} finally {
+					try {
+						socket.close();
+					} catch (IOException ignore) {
+					}
+				}
+			}
+		} catch (SocketException ignore) {
+			// the server socket was closed
+		} catch (Exception e) {
+			Log.error(e, "Metrics endpoint IO error");
+		}
+	}
+
+	private final class ServerThread extends Thread {
+
+		@Override
+		public void run() {
+
+			doIo();
+		}
+	}
+}
@@ -37,6 +37,7 @@ import net.xenqtt.message.PubRelMessage;
 import net.xenqtt.message.QoS;
 import net.xenqtt.message.SubAckMessage;
 import net.xenqtt.message.SubscribeMessage;
+import net.xenqtt.message.TopicStatsRegistry;
 import net.xenqtt.message.UnsubAckMessage;
 import net.xenqtt.message.UnsubscribeMessage;
 
@@ -56,6 +57,8 @@ final class BrokerMessageHandler implements MessageHandler {
 	private final boolean ignoreCredentials;
 	private final int maxInFlightMessages;
 
+	private volatile TopicStatsRegistry topicStats;
+
 	/**
 	 * Create a new instance of this class.
 	 * 
@@ -82,6 +85,23 @@ final class BrokerMessageHandler implements MessageHandler {
 		this.events = events;
 	}
 
+	/**
+	 * Sets the registry used to track per-topic message rates. Safe to call from any thread.
+	 * 
+	 * @param topicStats
+	 *            The registry. Null to stop tracking topics.
+	 */
+	void setTopicStats(TopicStatsRegistry topicStats) {
+		this.topicStats = topicStats;
+	}
+
+	/**
+	 * @return The registry used to track per-topic message rates. Null if topics are not being tracked.
+	 */
+	TopicStatsRegistry getTopicStats() {
+		return topicStats;
+	}
+
 	/**
 	 * @see net.xenqtt.message.MessageHandler#connect(net.xenqtt.message.MqttChannel, net.xenqtt.message.ConnectMessage)
 	 */
@@ -146,6 +166,11 @@ final class BrokerMessageHandler implements MessageHandler {
 		Client client = getClient(channel);
 		client.messageReceived(message);
 
+		TopicStatsRegistry topicStats = this.topicStats;
+		if (topicStats != null) {
+			topicStats.messagePublished(message.getTopicName());
+		}
+
 		if (brokerHandler.publish(client, message)) {
 			return;
 		}
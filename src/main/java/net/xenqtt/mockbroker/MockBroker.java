@@ -16,13 +16,16 @@
 package net.xenqtt.mockbroker;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.xenqtt.SimpleBroker;
 import net.xenqtt.XenqttUtil;
+import net.xenqtt.client.TopicStats;
 import net.xenqtt.message.ConnectMessage;
 import net.xenqtt.message.MqttMessage;
+import net.xenqtt.message.TopicStatsRegistry;
 
 /**
  * Mock MQTT broker used to test MQTT clients and applications. If debug level logging is enabled all broker events will be logged.
@@ -119,6 +122,35 @@ public final class MockBroker extends SimpleBroker {
 		}
 	}
 
+	/**
+	 * Enables or disables tracking of per-topic message rates. Only the most active topics are tracked so memory use is bounded regardless of how many topics
+	 * are published to. Any stats already collected are discarded.
+	 * 
+	 * @param maxTopics
+	 *            The maximum number of topics to track. 0 to disable topic tracking.
+	 */
+	public void setMaxTrackedTopics(int maxTopics) {
+		XenqttUtil.validateGreaterThanOrEqualTo("maxTopics", maxTopics, 0);
+
+		messageHandler.setTopicStats(maxTopics == 0 ? null : new TopicStatsRegistry(maxTopics));
+	}
+
+	/**
+	 * @param maxResults
+	 *            The maximum number of topics to return
+	 * @param reset
+	 *            If true the message counts will be reset to 0 so the next time they are retrieved they will be for the time between the 2 calls to this
+	 *            method.
+	 * 
+	 * @return The most active topics published to this broker ordered from most to least active. Empty if topic tracking is not enabled using
+	 *         {@link #setMaxTrackedTopics(int)}.
+	 */
+	public List<TopicStats> getTopicStats(int maxResults, boolean reset) {
+
+		TopicStatsRegistry topicStats = messageHandler.getTopicStats();
+		return topicStats == null ? Collections.<TopicStats> emptyList() : topicStats.getTopicStats(maxResults, reset);
+	}
+
 	/**
 	 * @return All broker events. This list is a copy.
 	 */
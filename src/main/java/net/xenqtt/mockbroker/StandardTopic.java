@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.EncodedTopic;
 import net.xenqtt.message.PubAckMessage;
 import net.xenqtt.message.PubMessage;
 import net.xenqtt.message.QoS;
@@ -33,6 +34,8 @@ final class StandardTopic extends AbstractTopic {
 
 	private final Map<String, Subscription> subscriptionByClientId = new HashMap<String, Subscription>();
 
+	private final EncodedTopic encodedTopic;
+
 	PubMessage retainedMessage;
 
 	/**
@@ -46,6 +49,7 @@ final class StandardTopic extends AbstractTopic {
 	StandardTopic(String topicName, Collection<WildcardTopic> wildcardTopics) {
 		super(topicName, false);
 
+		encodedTopic = new EncodedTopic(topicName);
 		addWildcardTopicSubscriptions(wildcardTopics);
 	}
 
@@ -101,7 +105,7 @@ final class StandardTopic extends AbstractTopic {
 		}
 
 		for (Subscription subscription : subscriptionByClientId.values()) {
-			subscription.publish(message, clientById);
+			subscription.publish(message, encodedTopic, clientById);
 		}
 	}
 
@@ -158,7 +162,7 @@ final class StandardTopic extends AbstractTopic {
 	private void doSubscribe(Subscription subscription, AbstractTopic topicToSubscribeTo, QoS qos, Client client) {
 
 		if (subscription.subscribe(topicToSubscribeTo.topicName, qos) && retainedMessage != null) {
-			PubMessage msg = new PubMessage(qos, true, topicName, 0, retainedMessage.getPayload());
+			PubMessage msg = new PubMessage(qos, true, encodedTopic, 0, retainedMessage.getPayload());
 			client.send(msg);
 		}
 	}
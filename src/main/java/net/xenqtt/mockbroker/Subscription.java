@@ -23,6 +23,7 @@ import java.util.Queue;
 
 import net.xenqtt.XenqttUtil;
 import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.EncodedTopic;
 import net.xenqtt.message.PubAckMessage;
 import net.xenqtt.message.PubMessage;
 import net.xenqtt.message.QoS;
@@ -78,13 +79,15 @@ final class Subscription {
 	 * 
 	 * @param message
 	 *            The message to publish
+	 * @param topic
+	 *            The message's topic, already encoded, so it is encoded once no matter how many subscriptions the message is published to
 	 * @param clientById
 	 *            Map of currently connected clients by ID. If the client this subscription is for then the message is sent to the client immediately
 	 */
-	void publish(PubMessage message, Map<String, Client> clientById) {
+	void publish(PubMessage message, EncodedTopic topic, Map<String, Client> clientById) {
 
 		QoS qos = subscribedQos.value() < message.getQoSLevel() ? subscribedQos : message.getQoS();
-		message = new PubMessage(qos, message.isRetain(), message.getTopicName(), 0, message.getPayload());
+		message = new PubMessage(qos, message.isRetain(), topic, 0, message.getPayload());
 		if (message.getQoSLevel() > 0) {
 			messageQueue.add(message);
 		}
@@ -26,6 +26,7 @@ import net.xenqtt.message.PubAckMessage;
 import net.xenqtt.message.PubMessage;
 import net.xenqtt.message.QoS;
 import net.xenqtt.message.SubscribeMessage;
+import net.xenqtt.message.TopicCursor;
 import net.xenqtt.message.UnsubscribeMessage;
 
 /**
@@ -39,6 +40,9 @@ final class TopicManager {
 	private final Map<String, StandardTopic> standardTopicByName = new HashMap<String, StandardTopic>();
 	private final Map<String, Client> clientById;
 
+	// reused to walk the topics in every SUBSCRIBE and UNSUBSCRIBE so resubscribing clients do not allocate per topic
+	private final TopicCursor cursor = new TopicCursor();
+
 	/**
 	 * Create a new instance of this class.
 	 * 
@@ -102,13 +106,12 @@ final class TopicManager {
 	 */
 	public QoS[] subscribe(Client client, SubscribeMessage message) {
 
-		String[] topics = message.getTopics();
-		QoS[] requestedQoses = message.getRequestedQoSes();
-		QoS[] grantedQoses = new QoS[requestedQoses.length];
+		cursor.wrap(message);
+		QoS[] grantedQoses = new QoS[cursor.getTopicCount()];
 
-		for (int i = 0; i < topics.length; i++) {
-			String topicName = topics[i];
-			QoS qos = requestedQoses[i];
+		for (int i = 0; cursor.next(); i++) {
+			String topicName = cursor.getTopicName();
+			QoS qos = cursor.getRequestedQoS();
 
 			try {
 				if (AbstractTopic.checkWildcardAndVerifyTopic(topicName, true)) {
@@ -132,7 +135,9 @@ final class TopicManager {
 	 */
 	void unsubscribe(Client client, UnsubscribeMessage message) {
 
-		for (String topicName : message.getTopics()) {
+		cursor.wrap(message);
+		while (cursor.next()) {
+			String topicName = cursor.getTopicName();
 			try {
 				if (AbstractTopic.checkWildcardAndVerifyTopic(topicName, true)) {
 					if (wildcardTopicByName.containsKey(topicName)) {
@@ -0,0 +1,138 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.xenqtt.XenqttUtil;
+import net.xenqtt.client.ChannelStats;
+import net.xenqtt.message.ChannelManager;
+import net.xenqtt.message.ChannelManagerImpl;
+import net.xenqtt.message.MessageHandler;
+import net.xenqtt.message.SlowConsumerPolicy;
+import net.xenqtt.message.WireCapture;
+import net.xenqtt.metrics.MetricsExporter;
+
+/**
+ * A fixed set of {@link ChannelManagerImpl channel managers} shared by all the {@link ProxySession sessions} in a {@link ProxyBroker}. Each session is given
+ * one manager for its whole life so all its channels are serviced by the same IO thread and the session stays single threaded.
+ */
+final class ChannelManagerPool {
+
+	private final ChannelManagerImpl[] managers;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @param size
+	 *            The number of channel managers, and so IO threads, in the pool
+	 */
+	ChannelManagerPool(int size) {
+
+		XenqttUtil.validateGreaterThan("size", size, 0);
+
+		managers = new ChannelManagerImpl[size];
+		for (int i = 0; i < size; i++) {
+			managers[i] = new ChannelManagerImpl(0);
+		}
+	}
+
+	/**
+	 * Starts all the managers in the pool
+	 */
+	void init() {
+		for (ChannelManagerImpl manager : managers) {
+			manager.init();
+		}
+	}
+
+	/**
+	 * Shuts down all the managers in the pool. This closes every channel they manage.
+	 */
+	void shutdown() {
+		for (ChannelManagerImpl manager : managers) {
+			manager.shutdown();
+		}
+	}
+
+	/**
+	 * @return The manager for a new session. Sessions are spread over the managers round robin.
+	 */
+	ChannelManager next() {
+		return managers[(next.getAndIncrement() & Integer.MAX_VALUE) % managers.length];
+	}
+
+	/**
+	 * @return The manager whose IO thread is the calling thread. Null if the calling thread is not one of the pool's IO threads.
+	 */
+	ChannelManager current() {
+		for (ChannelManagerImpl manager : managers) {
+			if (manager.isIoThread()) {
+				return manager;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return The stats for the channels across all the managers in the pool whose messages go to the specified handler
+	 */
+	List<ChannelStats> getChannelStats(MessageHandler messageHandler, boolean reset) {
+
+		List<ChannelStats> stats = new ArrayList<ChannelStats>();
+		for (ChannelManagerImpl manager : managers) {
+			stats.addAll(manager.getChannelStats(messageHandler, reset));
+		}
+
+		return stats;
+	}
+
+	/**
+	 * @return The number of managers in the pool
+	 */
+	int size() {
+		return managers.length;
+	}
+
+	/**
+	 * @see ChannelManagerImpl#setSendQueueLimits(int, long, SlowConsumerPolicy)
+	 */
+	void setSendQueueLimits(int maxMessages, long maxBytes, SlowConsumerPolicy policy) {
+		for (ChannelManagerImpl manager : managers) {
+			manager.setSendQueueLimits(maxMessages, maxBytes, policy);
+		}
+	}
+
+	/**
+	 * @see ChannelManagerImpl#setWireCapture(WireCapture)
+	 */
+	void setWireCapture(WireCapture wireCapture) {
+		for (ChannelManagerImpl manager : managers) {
+			manager.setWireCapture(wireCapture);
+		}
+	}
+
+	/**
+	 * Registers each manager in the pool with the specified exporter
+	 */
+	void exportMetrics(MetricsExporter exporter, String name) {
+		for (int i = 0; i < managers.length; i++) {
+			exporter.register("ChannelManager", name + "-io-" + i, managers[i]);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import java.util.List;
+import java.util.Random;
+
+import net.xenqtt.message.MqttChannel;
+
+/**
+ * How a {@link ProxySession} spreads the messages it receives from the broker over the clients in the cluster. A client's load is the number of messages
+ * in-flight to it plus the number waiting in its send queue.
+ */
+public enum DistributionStrategy {
+
+	/**
+	 * Each message goes to the client with the least load. Ties go to the next client in rotation. This checks every client for every message.
+	 */
+	LEAST_BUSY("leastbusy") {
+
+		@Override
+		MessageDistributor newDistributor() {
+			return new LeastBusyDistributor();
+		}
+	},
+
+	/**
+	 * Messages go to each client in turn regardless of load
+	 */
+	ROUND_ROBIN("roundrobin") {
+
+		@Override
+		MessageDistributor newDistributor() {
+			return new RoundRobinDistributor();
+		}
+	},
+
+	/**
+	 * Each message goes to the less loaded of two clients picked at random. This keeps the load nearly as even as {@link #LEAST_BUSY} while only checking
+	 * two clients per message, so it suits large clusters.
+	 */
+	TWO_CHOICES("twochoices") {
+
+		@Override
+		MessageDistributor newDistributor() {
+			return new TwoChoicesDistributor();
+		}
+	},
+
+	/**
+	 * Publishes for a topic always go to the same client, so each client sees a topic's messages in order. The mapping changes when clients join or leave
+	 * the cluster. Other messages go to each client in turn.
+	 */
+	TOPIC_HASH("topichash") {
+
+		@Override
+		MessageDistributor newDistributor() {
+			return new TopicHashDistributor();
+		}
+	};
+
+	private final String type;
+
+	private DistributionStrategy(String type) {
+		this.type = type;
+	}
+
+	/**
+	 * @return A new distributor for one session
+	 */
+	abstract MessageDistributor newDistributor();
+
+	/**
+	 * Get a {@link DistributionStrategy} instance based on a given textual representation.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the specified {@code type} does not correspond to a known strategy
+	 */
+	public static DistributionStrategy getStrategy(String type) {
+		for (DistributionStrategy strategy : values()) {
+			if (strategy.type.equalsIgnoreCase(type)) {
+				return strategy;
+			}
+		}
+
+		throw new IllegalArgumentException(String.format("Unrecognized distribution strategy: %s", type));
+	}
+
+	private static int load(MqttChannel channel) {
+		return channel.inFlightMessageCount() + channel.sendQueueDepth();
+	}
+
+	private static final class LeastBusyDistributor implements MessageDistributor {
+
+		private int nextIndex;
+
+		@Override
+		public MqttChannel select(List<MqttChannel> channelsToClients, String topicName) {
+
+			int leastBusyMessageCount = Integer.MAX_VALUE;
+			MqttChannel leastBusyChannel = null;
+
+			int index = nextIndex;
+			int size = channelsToClients.size();
+			for (int count = 0; count < size; count++) {
+				int i = index++ % size;
+				MqttChannel channelToClient = channelsToClients.get(i);
+				int msgCount = load(channelToClient);
+				if (msgCount < leastBusyMessageCount) {
+					leastBusyMessageCount = msgCount;
+					leastBusyChannel = channelToClient;
+					nextIndex = i + 1;
+				}
+			}
+
+			return leastBusyChannel;
+		}
+	}
+
+	private static final class RoundRobinDistributor implements MessageDistributor {
+
+		private int nextIndex;
+
+		@Override
+		public MqttChannel select(List<MqttChannel> channelsToClients, String topicName) {
+
+			int size = channelsToClients.size();
+			if (size == 0) {
+				return null;
+			}
+
+			if (nextIndex >= size) {
+				nextIndex = 0;
+			}
+
+			return channelsToClients.get(nextIndex++);
+		}
+	}
+
+	private static final class TwoChoicesDistributor implements MessageDistributor {
+
+		private final Random random = new Random();
+
+		@Override
+		public MqttChannel select(List<MqttChannel> channelsToClients, String topicName) {
+
+			int size = channelsToClients.size();
+			if (size < 2) {
+				return size == 0 ? null : channelsToClients.get(0);
+			}
+
+			int first = random.nextInt(size);
+			int second = random.nextInt(size - 1);
+			if (second >= first) {
+				second++;
+			}
+
+			MqttChannel channel1 = channelsToClients.get(first);
+			MqttChannel channel2 = channelsToClients.get(second);
+
+			return load(channel2) < load(channel1) ? channel2 : channel1;
+		}
+	}
+
+	private static final class TopicHashDistributor implements MessageDistributor {
+
+		private final RoundRobinDistributor roundRobin = new RoundRobinDistributor();
+
+		@Override
+		public MqttChannel select(List<MqttChannel> channelsToClients, String topicName) {
+
+			int size = channelsToClients.size();
+			if (size == 0) {
+				return null;
+			}
+
+			if (topicName != null) {
+				return channelsToClients.get((topicName.hashCode() & Integer.MAX_VALUE) % size);
+			}
+
+			return roundRobin.select(channelsToClients, null);
+		}
+	}
+}
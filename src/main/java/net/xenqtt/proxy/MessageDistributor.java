@@ -0,0 +1,37 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import java.util.List;
+
+import net.xenqtt.message.MqttChannel;
+
+/**
+ * Chooses the clustered client a message from the broker is sent to. Each {@link ProxySession} has its own instance which is only used on the session's IO
+ * thread.
+ */
+interface MessageDistributor {
+
+	/**
+	 * @param channelsToClients
+	 *            The channels to the clients currently in the cluster
+	 * @param topicName
+	 *            The topic of the message to send if it is a PUBLISH. Null for any other message.
+	 * 
+	 * @return The channel to send the message to. Null if there are no channels.
+	 */
+	MqttChannel select(List<MqttChannel> channelsToClients, String topicName);
+}
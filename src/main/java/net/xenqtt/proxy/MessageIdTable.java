@@ -0,0 +1,373 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.xenqtt.message.MqttChannel;
+
+/**
+ * Maps the message IDs a {@link ProxySession} uses on a broker connection to the client message ID and channel each message came from. IDs are 1 to the
+ * table's capacity. Entries are held in arrays indexed by ID, free IDs are kept in a ring so allocation never probes, and each client's entries are linked
+ * through the arrays so a client's entries can be dropped without scanning the table. Freed IDs go to the back of the ring so an ID is not reused until
+ * every other free ID has been.
+ * <p>
+ * IDs {@link #restore(int[]) restored} from a {@link SessionJournal} are reserved without a channel until a client resends the message they were used for.
+ * Not thread safe.
+ */
+final class MessageIdTable {
+
+	private final int capacity;
+	private final int[] sourceMessageIds;
+	private final int[] messageSizes;
+	private final MqttChannel[] sourceChannels;
+	private final int[] nextForChannel;
+	private final int[] prevForChannel;
+	private final int[] freeIds;
+	private final Map<MqttChannel, ChannelEntries> entriesByChannel = new IdentityHashMap<MqttChannel, ChannelEntries>();
+
+	// reserved IDs by the source message ID they were used for. Null if no IDs are reserved.
+	private Map<Integer, Integer> restoredIdsBySourceId;
+
+	private int freeHead;
+	private int freeTail;
+	private int freeCount;
+	private long bytes;
+
+	/**
+	 * @param capacity
+	 *            The number of IDs in the table. IDs 1 to capacity are used.
+	 */
+	MessageIdTable(int capacity) {
+
+		this.capacity = capacity;
+		this.sourceMessageIds = new int[capacity + 1];
+		this.messageSizes = new int[capacity + 1];
+		this.sourceChannels = new MqttChannel[capacity + 1];
+		this.nextForChannel = new int[capacity + 1];
+		this.prevForChannel = new int[capacity + 1];
+		this.freeIds = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			freeIds[i] = i + 1;
+		}
+		this.freeCount = capacity;
+	}
+
+	/**
+	 * Allocates an ID for a message from a client
+	 * 
+	 * @param sourceMessageId
+	 *            The ID the client gave the message
+	 * @param sourceChannel
+	 *            The channel the message was received on
+	 * @param messageSize
+	 *            The size of the message in bytes
+	 * 
+	 * @return The ID to use for the message on the broker connection. 0 if every ID is in use.
+	 */
+	int add(int sourceMessageId, MqttChannel sourceChannel, int messageSize) {
+
+		if (freeCount == 0) {
+			return 0;
+		}
+
+		int id = freeIds[freeHead];
+		freeHead = freeHead + 1 == capacity ? 0 : freeHead + 1;
+		freeCount--;
+
+		link(id, sourceMessageId, sourceChannel, messageSize);
+
+		return id;
+	}
+
+	/**
+	 * Reserves IDs that were in use before the proxy restarted. Must be called before any IDs are added. An ID is not reserved if it is out of range or if
+	 * another ID was used for the same source message ID because there is then no way to tell which client a resent message belongs to.
+	 * 
+	 * @param entries
+	 *            Pairs of ID and source message ID
+	 * @return The IDs that were not reserved
+	 */
+	int[] restore(int[] entries) {
+
+		Map<Integer, Integer> idsBySourceId = new HashMap<Integer, Integer>();
+		Set<Integer> ambiguousSourceIds = new HashSet<Integer>();
+		List<Integer> rejected = new ArrayList<Integer>();
+		for (int i = 0; i < entries.length; i += 2) {
+			int id = entries[i];
+			Integer sourceId = entries[i + 1];
+			if (id < 1 || id > capacity) {
+				rejected.add(id);
+			} else if (ambiguousSourceIds.contains(sourceId)) {
+				rejected.add(id);
+			} else {
+				Integer other = idsBySourceId.put(sourceId, id);
+				if (other != null) {
+					idsBySourceId.remove(sourceId);
+					ambiguousSourceIds.add(sourceId);
+					rejected.add(other);
+					rejected.add(id);
+				}
+			}
+		}
+
+		if (!idsBySourceId.isEmpty()) {
+			boolean[] reserved = new boolean[capacity + 1];
+			for (int id : idsBySourceId.values()) {
+				reserved[id] = true;
+			}
+
+			freeCount = 0;
+			for (int id = 1; id <= capacity; id++) {
+				if (!reserved[id]) {
+					freeIds[freeCount++] = id;
+				}
+			}
+			freeHead = 0;
+			freeTail = freeCount == capacity ? 0 : freeCount;
+			restoredIdsBySourceId = idsBySourceId;
+		}
+
+		int[] result = new int[rejected.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = rejected.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Removes the reservation for a source message ID. The ID stays in use and must be {@link #addRestored(int, int, MqttChannel, int) added} or
+	 * {@link #release(int) released}.
+	 * 
+	 * @return The reserved ID. 0 if no ID is reserved for the source message ID.
+	 */
+	int takeRestored(int sourceMessageId) {
+
+		if (restoredIdsBySourceId == null) {
+			return 0;
+		}
+
+		Integer id = restoredIdsBySourceId.remove(sourceMessageId);
+		if (restoredIdsBySourceId.isEmpty()) {
+			restoredIdsBySourceId = null;
+		}
+
+		return id == null ? 0 : id;
+	}
+
+	/**
+	 * Gives an ID from {@link #takeRestored(int)} to the client that resent its message
+	 */
+	void addRestored(int id, int sourceMessageId, MqttChannel sourceChannel, int messageSize) {
+		link(id, sourceMessageId, sourceChannel, messageSize);
+	}
+
+	/**
+	 * Frees an ID from {@link #takeRestored(int)}
+	 */
+	void release(int id) {
+		free(id);
+	}
+
+	/**
+	 * Frees every ID that is still reserved
+	 * 
+	 * @return The IDs freed
+	 */
+	int[] releaseRestored() {
+
+		if (restoredIdsBySourceId == null) {
+			return new int[0];
+		}
+
+		int[] ids = new int[restoredIdsBySourceId.size()];
+		int i = 0;
+		for (int id : restoredIdsBySourceId.values()) {
+			free(id);
+			ids[i++] = id;
+		}
+		restoredIdsBySourceId = null;
+
+		return ids;
+	}
+
+	/**
+	 * @return The number of IDs that are reserved
+	 */
+	int restoredSize() {
+		return restoredIdsBySourceId == null ? 0 : restoredIdsBySourceId.size();
+	}
+
+	/**
+	 * @return The IDs in use by messages from the specified channel
+	 */
+	int[] ids(MqttChannel sourceChannel) {
+
+		ChannelEntries entries = entriesByChannel.get(sourceChannel);
+		if (entries == null) {
+			return new int[0];
+		}
+
+		int[] ids = new int[entries.count];
+		int i = 0;
+		for (int id = entries.head; id != 0; id = nextForChannel[id]) {
+			ids[i++] = id;
+		}
+
+		return ids;
+	}
+
+	private void link(int id, int sourceMessageId, MqttChannel sourceChannel, int messageSize) {
+
+		sourceMessageIds[id] = sourceMessageId;
+		sourceChannels[id] = sourceChannel;
+		messageSizes[id] = messageSize;
+		bytes += messageSize;
+
+		ChannelEntries entries = entriesByChannel.get(sourceChannel);
+		if (entries == null) {
+			entries = new ChannelEntries();
+			entriesByChannel.put(sourceChannel, entries);
+		}
+
+		prevForChannel[id] = 0;
+		nextForChannel[id] = entries.head;
+		if (entries.head != 0) {
+			prevForChannel[entries.head] = id;
+		}
+		entries.head = id;
+		entries.count++;
+	}
+
+	/**
+	 * @return The channel the message with the specified ID came from. Null if the ID is not in use.
+	 */
+	MqttChannel getSourceChannel(int id) {
+		return id > 0 && id <= capacity ? sourceChannels[id] : null;
+	}
+
+	/**
+	 * @return The ID the client gave the message with the specified ID. Only valid if {@link #getSourceChannel(int)} is not null.
+	 */
+	int getSourceMessageId(int id) {
+		return sourceMessageIds[id];
+	}
+
+	/**
+	 * Frees the specified ID. Does nothing if the ID is not in use.
+	 */
+	void remove(int id) {
+
+		MqttChannel channel = getSourceChannel(id);
+		if (channel == null) {
+			return;
+		}
+
+		ChannelEntries entries = entriesByChannel.get(channel);
+		int prev = prevForChannel[id];
+		int next = nextForChannel[id];
+		if (prev == 0) {
+			entries.head = next;
+		} else {
+			nextForChannel[prev] = next;
+		}
+		if (next != 0) {
+			prevForChannel[next] = prev;
+		}
+		entries.count--;
+		if (entries.head == 0) {
+			entriesByChannel.remove(channel);
+		}
+
+		free(id);
+	}
+
+	/**
+	 * Frees every ID used by messages from the specified channel
+	 * 
+	 * @return The number of IDs freed
+	 */
+	int removeAll(MqttChannel sourceChannel) {
+
+		ChannelEntries entries = entriesByChannel.remove(sourceChannel);
+		if (entries == null) {
+			return 0;
+		}
+
+		int count = 0;
+		for (int id = entries.head; id != 0;) {
+			int next = nextForChannel[id];
+			free(id);
+			count++;
+			id = next;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The number of IDs in use
+	 */
+	int size() {
+		return capacity - freeCount;
+	}
+
+	/**
+	 * @return The number of IDs in use by messages from the specified channel
+	 */
+	int size(MqttChannel sourceChannel) {
+		ChannelEntries entries = entriesByChannel.get(sourceChannel);
+		return entries == null ? 0 : entries.count;
+	}
+
+	/**
+	 * @return The total size in bytes of the messages whose IDs are in use
+	 */
+	long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return True if every ID is in use
+	 */
+	boolean isFull() {
+		return freeCount == 0;
+	}
+
+	private void free(int id) {
+
+		sourceChannels[id] = null;
+		bytes -= messageSizes[id];
+		nextForChannel[id] = 0;
+		prevForChannel[id] = 0;
+
+		freeIds[freeTail] = id;
+		freeTail = freeTail + 1 == capacity ? 0 : freeTail + 1;
+		freeCount++;
+	}
+
+	private static final class ChannelEntries {
+
+		private int head;
+		private int count;
+	}
+}
@@ -15,11 +15,19 @@
  */
 package net.xenqtt.proxy;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import net.xenqtt.MqttCommandCancelledException;
 import net.xenqtt.SimpleBroker;
+import net.xenqtt.XenqttUtil;
+import net.xenqtt.client.ChannelStats;
+import net.xenqtt.client.TopicStats;
+import net.xenqtt.message.ChannelManager;
+import net.xenqtt.message.ChannelManagerImpl;
 import net.xenqtt.message.ConnAckMessage;
 import net.xenqtt.message.ConnectMessage;
 import net.xenqtt.message.DisconnectMessage;
@@ -31,10 +39,14 @@ import net.xenqtt.message.PubCompMessage;
 import net.xenqtt.message.PubMessage;
 import net.xenqtt.message.PubRecMessage;
 import net.xenqtt.message.PubRelMessage;
+import net.xenqtt.message.SlowConsumerPolicy;
 import net.xenqtt.message.SubAckMessage;
 import net.xenqtt.message.SubscribeMessage;
+import net.xenqtt.message.TopicStatsRegistry;
 import net.xenqtt.message.UnsubAckMessage;
 import net.xenqtt.message.UnsubscribeMessage;
+import net.xenqtt.message.WireCapture;
+import net.xenqtt.metrics.MetricsExporter;
 
 /**
  * {@link SimpleBroker} extension that handles creating/managing {@link ProxySession sessions}.
@@ -43,9 +55,27 @@ public class ProxyBroker extends SimpleBroker implements MessageHandler {
 
 	private final String brokerUri;
 
-	private final Map<String, ProxySession> proxySessionByClientId = new HashMap<String, ProxySession>();
+	private final ConcurrentMap<String, ProxySession> proxySessionByClientId = new ConcurrentHashMap<String, ProxySession>();
+	// held while a session is looked up and, if there is none, opened so two IO threads never open a session for the same client ID
+	private final Object sessionLock = new Object();
 
 	private final int maxInFlightBrokerMessages;
+	private final TopicStatsRegistry topicStats;
+	private volatile ChannelManagerPool channelManagerPool;
+	private volatile int ioThreads;
+	private volatile int publishConnections;
+	private volatile int maxQueuedMessages;
+	private volatile long maxQueuedBytes;
+	private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.PAUSE;
+
+	private volatile MetricsExporter metricsExporter;
+	private volatile String metricsName;
+	private volatile WireCapture wireCapture;
+	private volatile DistributionStrategy distributionStrategy = DistributionStrategy.LEAST_BUSY;
+	private volatile int resumePercent = 100;
+	private volatile long maxInFlightBytes;
+	private volatile boolean fairShare;
+	private volatile SessionJournal sessionJournal;
 
 	/**
 	 * @param brokerUri
@@ -57,9 +87,27 @@ public class ProxyBroker extends SimpleBroker implements MessageHandler {
 	 *            Maximum number of messages that may be in-flight to the broker at a time
 	 */
 	public ProxyBroker(String brokerUri, int port, int maxInFlightBrokerMessages) {
+		this(brokerUri, port, maxInFlightBrokerMessages, 0);
+	}
+
+	/**
+	 * @param brokerUri
+	 *            The URI of the broker the proxy should connect to
+	 * @param port
+	 *            The port for the server to listen on. 0 will choose an arbitrary available port which you can get from {@link #getPort()} after calling
+	 *            {@link #init()}.
+	 * @param maxInFlightBrokerMessages
+	 *            Maximum number of messages that may be in-flight to the broker at a time
+	 * @param maxTrackedTopics
+	 *            Maximum number of topics to track message rates for. Only the most active topics are tracked. 0 to disable topic tracking.
+	 */
+	public ProxyBroker(String brokerUri, int port, int maxInFlightBrokerMessages, int maxTrackedTopics) {
 		super(0, port);
+		XenqttUtil.validateGreaterThanOrEqualTo("maxTrackedTopics", maxTrackedTopics, 0);
+
 		this.brokerUri = brokerUri;
 		this.maxInFlightBrokerMessages = maxInFlightBrokerMessages;
+		this.topicStats = maxTrackedTopics == 0 ? null : new TopicStatsRegistry(maxTrackedTopics);
 	}
 
 	/**
@@ -67,9 +115,44 @@ public class ProxyBroker extends SimpleBroker implements MessageHandler {
 	 */
 	public void init() {
 
+		initChannelManagerPool();
 		super.init(this, "ProxyServer");
 	}
 
+	/**
+	 * Starts this proxy in place of a failed primary. A broker connection is opened for each session the journal shows was active on the primary before
+	 * clients are accepted so the broker sessions are held while the clients reconnect. Used by {@link ProxyStandby} instead of {@link #init()}.
+	 * 
+	 * @param journal
+	 *            The journal replicated from the primary. It becomes this proxy's {@link #setSessionJournal(SessionJournal) session journal}.
+	 */
+	void takeOver(SessionJournal journal) {
+
+		setSessionJournal(journal);
+		initChannelManagerPool();
+		for (ConnectMessage connectMessage : journal.getActiveSessions()) {
+			openSession(connectMessage);
+		}
+		super.init(this, "ProxyServer");
+	}
+
+	private void initChannelManagerPool() {
+
+		if (ioThreads == 0) {
+			return;
+		}
+
+		ChannelManagerPool pool = new ChannelManagerPool(ioThreads);
+		pool.setSendQueueLimits(maxQueuedMessages, maxQueuedBytes, slowConsumerPolicy);
+		pool.setWireCapture(wireCapture);
+		pool.init();
+		channelManagerPool = pool;
+
+		if (metricsExporter != null) {
+			pool.exportMetrics(metricsExporter, metricsName);
+		}
+	}
+
 	/**
 	 * @see net.xenqtt.SimpleBroker#shutdown(long)
 	 */
@@ -80,33 +163,178 @@ public class ProxyBroker extends SimpleBroker implements MessageHandler {
 			session.shutdown();
 		}
 
+		if (channelManagerPool != null) {
+			channelManagerPool.shutdown();
+		}
+
 		return super.shutdown(millis);
 	}
 
 	/**
-	 * @see net.xenqtt.message.MessageHandler#connect(net.xenqtt.message.MqttChannel, net.xenqtt.message.ConnectMessage)
+	 * @return A snapshot of the statistics for each connection open to this proxy and each connection from this proxy to the broker
+	 * @see net.xenqtt.SimpleBroker#getChannelStats(boolean)
 	 */
 	@Override
-	public void connect(MqttChannel channel, ConnectMessage message) throws Exception {
+	public List<ChannelStats> getChannelStats(boolean reset) {
 
-		String clientId = message.getClientId();
-		ProxySession session = proxySessionByClientId.get(clientId);
-		if (session == null) {
-			session = newProxySession(brokerUri, message, maxInFlightBrokerMessages);
-			session.init();
-			proxySessionByClientId.put(clientId, session);
+		List<ChannelStats> channelStats = super.getChannelStats(reset);
+		if (channelManagerPool != null) {
+			channelStats.addAll(channelManagerPool.getChannelStats(this, reset));
+		}
+		for (ProxySession session : proxySessionByClientId.values()) {
+			try {
+				channelStats.addAll(session.getChannelStats(reset));
+			} catch (MqttCommandCancelledException ignore) {
+				// the session was shut down while the stats were being collected
+			}
 		}
 
-		manager.detachChannel(channel);
+		return channelStats;
+	}
 
-		if (!session.newConnection(channel, message)) {
-			proxySessionByClientId.remove(clientId);
-			session.shutdown();
-			connect(channel, message);
-			return;
+	/**
+	 * Registers the metrics for this proxy and each of its sessions, including sessions created later, with the specified exporter
+	 * 
+	 * @see net.xenqtt.SimpleBroker#exportMetrics(net.xenqtt.metrics.MetricsExporter, java.lang.String)
+	 */
+	@Override
+	public void exportMetrics(MetricsExporter exporter, String name) {
+
+		super.exportMetrics(exporter, name);
+		if (channelManagerPool != null) {
+			channelManagerPool.exportMetrics(exporter, name);
+		}
+		metricsName = name;
+		metricsExporter = exporter;
+		for (ProxySession session : proxySessionByClientId.values()) {
+			session.exportMetrics(exporter);
 		}
+	}
 
-		shutdownClosedSessions();
+	/**
+	 * When the broker has a pool of channel managers new connections are accepted straight onto the pool so the CONNECT is read on the IO thread that will
+	 * service the client's session.
+	 * 
+	 * @see net.xenqtt.SimpleBroker#getAcceptManager()
+	 */
+	@Override
+	protected ChannelManager getAcceptManager() {
+		return channelManagerPool == null ? manager : channelManagerPool.next();
+	}
+
+	/**
+	 * Records the frames on connections to this proxy and on the connections from sessions created later to the broker
+	 * 
+	 * @see net.xenqtt.SimpleBroker#setWireCapture(net.xenqtt.message.WireCapture)
+	 */
+	@Override
+	public void setWireCapture(WireCapture wireCapture) {
+
+		super.setWireCapture(wireCapture);
+		if (channelManagerPool != null) {
+			channelManagerPool.setWireCapture(wireCapture);
+		}
+		this.wireCapture = wireCapture;
+	}
+
+	/**
+	 * Limits the send queue of connections to this proxy. Sessions stop reading from the broker while every client in their cluster has a full send queue.
+	 * 
+	 * @see net.xenqtt.SimpleBroker#setSendQueueLimits(int, long, net.xenqtt.message.SlowConsumerPolicy)
+	 */
+	@Override
+	public void setSendQueueLimits(int maxMessages, long maxBytes, SlowConsumerPolicy policy) {
+
+		super.setSendQueueLimits(maxMessages, maxBytes, policy);
+		this.maxQueuedMessages = maxMessages;
+		this.maxQueuedBytes = maxBytes;
+		this.slowConsumerPolicy = policy;
+		if (channelManagerPool != null) {
+			channelManagerPool.setSendQueueLimits(maxMessages, maxBytes, policy);
+		}
+	}
+
+	/**
+	 * Records the message IDs each session has in-flight to the broker so sessions created after this is called, including sessions created after the proxy
+	 * is restarted with the same journal, can resume them. The caller remains responsible for closing the journal after this proxy is shut down.
+	 * 
+	 * @param sessionJournal
+	 *            The journal to record to. {@code null} to stop recording new sessions.
+	 */
+	public void setSessionJournal(SessionJournal sessionJournal) {
+		this.sessionJournal = sessionJournal;
+	}
+
+	/**
+	 * Multiplexes sessions onto a fixed pool of shared IO threads instead of giving each session its own IO thread. Each session uses one of the pool's
+	 * threads for all its connections. Must be called before {@link #init()}.
+	 * 
+	 * @param ioThreads
+	 *            The number of IO threads shared by all sessions. 0, the default, to give each session its own IO thread.
+	 */
+	public void setIoThreads(int ioThreads) {
+		this.ioThreads = XenqttUtil.validateGreaterThanOrEqualTo("ioThreads", ioThreads, 0);
+	}
+
+	/**
+	 * Sets the number of extra connections each session created after this is called opens to the broker for publishing. Publishes are spread over them by
+	 * topic.
+	 * 
+	 * @param publishConnections
+	 *            The number of extra connections. 0, the default, to publish on the session's single broker connection.
+	 */
+	public void setPublishConnections(int publishConnections) {
+		this.publishConnections = XenqttUtil.validateGreaterThanOrEqualTo("publishConnections", publishConnections, 0);
+	}
+
+	/**
+	 * Sets how sessions created after this is called spread the messages they receive from the broker over the clients in their cluster. Defaults to
+	 * {@link DistributionStrategy#LEAST_BUSY}.
+	 */
+	public void setDistributionStrategy(DistributionStrategy distributionStrategy) {
+		this.distributionStrategy = XenqttUtil.validateNotNull("distributionStrategy", distributionStrategy);
+	}
+
+	/**
+	 * Sets how sessions created after this is called throttle their clients when the broker falls behind. By default reads from every client in a cluster
+	 * pause when a session runs out of message IDs and resume as soon as one is free.
+	 * 
+	 * @param resumePercent
+	 *            Reads resume once the in-flight messages, or bytes, fall to this percent of the limit that paused them. Between 1 and 100. Lower values
+	 *            resume less often in larger batches.
+	 * @param maxInFlightBytes
+	 *            Reads from every client in a cluster pause when this many bytes of acknowledgeable messages are in-flight to the broker. 0 for no byte
+	 *            limit.
+	 * @param fairShare
+	 *            If true a client is also paused on its own when it holds more than an equal share of its session's in-flight message IDs
+	 */
+	public void setFlowControl(int resumePercent, long maxInFlightBytes, boolean fairShare) {
+		this.resumePercent = XenqttUtil.validateInRange("resumePercent", resumePercent, 1, 100);
+		this.maxInFlightBytes = XenqttUtil.validateGreaterThanOrEqualTo("maxInFlightBytes", maxInFlightBytes, 0L);
+		this.fairShare = fairShare;
+	}
+
+	/**
+	 * @param maxResults
+	 *            The maximum number of topics to return
+	 * @param reset
+	 *            If true the message counts will be reset to 0 so the next time they are retrieved they will be for the time between the 2 calls to this
+	 *            method.
+	 * 
+	 * @return The most active topics published through this proxy ordered from most to least active. Empty if topic tracking is not enabled.
+	 */
+	public List<TopicStats> getTopicStats(int maxResults, boolean reset) {
+		return topicStats == null ? Collections.<TopicStats> emptyList() : topicStats.getTopicStats(maxResults, reset);
+	}
+
+	/**
+	 * @see net.xenqtt.message.MessageHandler#connect(net.xenqtt.message.MqttChannel, net.xenqtt.message.ConnectMessage)
+	 */
+	@Override
+	public void connect(MqttChannel channel, ConnectMessage message) throws Exception {
+
+		ChannelManager current = channelManagerPool == null ? null : channelManagerPool.current();
+		connect(channel, message, current, false);
 	}
 
 	/**
@@ -115,21 +343,101 @@ public class ProxyBroker extends SimpleBroker implements MessageHandler {
 	 * @return A new {@link ProxySession} instance
 	 */
 	ProxySession newProxySession(String brokerUri, ConnectMessage message, int maxInFlightBrokerMessages) {
-		return new ProxySession(brokerUri, message, maxInFlightBrokerMessages);
+		if (channelManagerPool != null) {
+			// prefer the IO thread the CONNECT arrived on so the client's channel never changes selectors
+			ChannelManager channelManager = channelManagerPool.current();
+			if (channelManager == null) {
+				channelManager = channelManagerPool.next();
+			}
+			ProxySession session = new ProxySession(brokerUri, message, channelManager, maxInFlightBrokerMessages, topicStats);
+			session.setSharedChannelManager();
+			return configure(session);
+		}
+
+		ChannelManagerImpl channelManager = new ChannelManagerImpl(0);
+		channelManager.setWireCapture(wireCapture);
+		return configure(new ProxySession(brokerUri, message, channelManager, maxInFlightBrokerMessages, topicStats));
+	}
+
+	private ProxySession configure(ProxySession session) {
+
+		session.setPublishConnections(publishConnections);
+		session.setDistributionStrategy(distributionStrategy);
+		session.setFlowControl(resumePercent, maxInFlightBytes, fairShare);
+		SessionJournal journal = sessionJournal;
+		if (journal != null) {
+			session.setJournal(journal);
+		}
+		return session;
+	}
+
+	/**
+	 * @param current
+	 *            The pool manager whose IO thread this is called on. Null if this is not called on one of the pool's IO threads.
+	 * @param detached
+	 *            True if the channel has already been detached from the manager it was accepted on
+	 */
+	private void connect(MqttChannel channel, ConnectMessage message, ChannelManager current, boolean detached) throws Exception {
+
+		String clientId = message.getClientId();
+		ProxySession session;
+		synchronized (sessionLock) {
+			session = proxySessionByClientId.get(clientId);
+			if (session == null) {
+				session = openSession(message);
+			}
+		}
+
+		// a session serviced by the current IO thread takes the channel as it is registered. Otherwise it moves to the session's selector.
+		if (!detached && (current == null || session.getChannelManager() != current)) {
+			(current == null ? manager : current).detachChannel(channel);
+			detached = true;
+		}
+
+		if (!session.newConnection(channel, message)) {
+			if (proxySessionByClientId.remove(clientId, session)) {
+				session.shutdown();
+				unexportMetrics(session);
+			}
+			connect(channel, message, current, detached);
+			return;
+		}
+
+		shutdownClosedSessions();
+	}
+
+	private ProxySession openSession(ConnectMessage message) {
+
+		ProxySession session = newProxySession(brokerUri, message, maxInFlightBrokerMessages);
+		session.init();
+		proxySessionByClientId.put(message.getClientId(), session);
+		if (metricsExporter != null) {
+			session.exportMetrics(metricsExporter);
+		}
+
+		return session;
 	}
 
 	private void shutdownClosedSessions() {
 
-		Iterator<ProxySession> iter = proxySessionByClientId.values().iterator();
-		while (iter.hasNext()) {
-			ProxySession session = iter.next();
-			if (session.isClosed()) {
+		for (Map.Entry<String, ProxySession> entry : proxySessionByClientId.entrySet()) {
+			ProxySession session = entry.getValue();
+			// only the thread that removes a session shuts it down. The client ID may already map to a new session.
+			if (session.isClosed() && proxySessionByClientId.remove(entry.getKey(), session)) {
 				session.shutdown();
-				iter.remove();
+				unexportMetrics(session);
 			}
 		}
 	}
 
+	private void unexportMetrics(ProxySession session) {
+
+		MetricsExporter exporter = metricsExporter;
+		if (exporter != null) {
+			session.unexportMetrics(exporter);
+		}
+	}
+
 	/**
 	 * @see net.xenqtt.message.MessageHandler#connAck(net.xenqtt.message.MqttChannel, net.xenqtt.message.ConnAckMessage)
 	 */
@@ -15,16 +15,19 @@
  */
 package net.xenqtt.proxy;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.xenqtt.Log;
+import net.xenqtt.XenqttUtil;
+import net.xenqtt.client.ChannelStats;
 import net.xenqtt.message.ChannelManager;
 import net.xenqtt.message.ChannelManagerImpl;
 import net.xenqtt.message.ConnAckMessage;
@@ -34,21 +37,28 @@ import net.xenqtt.message.DisconnectMessage;
 import net.xenqtt.message.IdentifiableMqttMessage;
 import net.xenqtt.message.MessageHandler;
 import net.xenqtt.message.MqttChannel;
+import net.xenqtt.message.MqttChannelRef;
 import net.xenqtt.message.MqttMessage;
 import net.xenqtt.message.PubAckMessage;
 import net.xenqtt.message.PubCompMessage;
 import net.xenqtt.message.PubMessage;
 import net.xenqtt.message.PubRecMessage;
 import net.xenqtt.message.PubRelMessage;
+import net.xenqtt.message.PublishForwardingHandler;
 import net.xenqtt.message.SubAckMessage;
 import net.xenqtt.message.SubscribeMessage;
+import net.xenqtt.message.TopicStatsRegistry;
 import net.xenqtt.message.UnsubAckMessage;
 import net.xenqtt.message.UnsubscribeMessage;
+import net.xenqtt.metrics.MetricsExporter;
 
 /**
  * Each instance of this class controls one proxy session. A session consists of one connection to a broker and connections to all the clients in a cluster.
+ * Optionally the session also opens extra publish connections to the broker. Each has its own message ID space and in-flight window. Publishes are spread
+ * across them by topic so the messages for one topic stay in order. Subscriptions and messages from the broker stay on the primary connection. QoS 0
+ * publishes are forwarded as the frames they were received in; no message is built for them.
  */
-class ProxySession implements MessageHandler {
+class ProxySession implements PublishForwardingHandler, ProxySessionMXBean {
 
 	private enum ConnectionState {
 		PENDING, CONNECTED, DISCONNECTED
@@ -56,14 +66,18 @@ class ProxySession implements MessageHandler {
 
 	private final int maxInFlightBrokerMessages;
 
-	private final Map<Integer, MessageSource> messageSourceByBrokerMessageId = new HashMap<Integer, MessageSource>();
+	private final MessageIdTable brokerMessageIds;
 	private final Map<MqttChannel, ConnectMessage> connectMessageByChannelPendingAttach = new ConcurrentHashMap<MqttChannel, ConnectMessage>();
 	private final Set<MqttChannel> channelsPendingBroker = new HashSet<MqttChannel>();
 
 	private final ChannelManager channelManager;
+	private boolean sharedChannelManager;
+	private final TopicStatsRegistry topicStats;
 	private final String brokerUri;
 	private final String clientId;
 	private final ConnectMessage originalConnectMessage;
+	private PublishConnection[] publishConnections = new PublishConnection[0];
+	private MessageDistributor distributor = DistributionStrategy.LEAST_BUSY.newDistributor();
 
 	private final List<MqttChannel> channelsToClients = new ArrayList<MqttChannel>();
 	private MqttChannel channelToBroker;
@@ -71,11 +85,30 @@ class ProxySession implements MessageHandler {
 
 	private ConnectionState brokerConnectionState = ConnectionState.PENDING;
 
-	private int nextIdToBroker = 1;
-	private int nextBrokerChannelIndex;
 	private long enablePauseMessageTime;
+	private long enableBrokerPauseMessageTime;
+	private int pendingConnAcks;
+	private final Set<MessageIdTable> pausedIdSpaces = Collections.newSetFromMap(new IdentityHashMap<MessageIdTable, Boolean>());
+	private final Set<MqttChannel> clientsOverFairShare = Collections.newSetFromMap(new IdentityHashMap<MqttChannel, Boolean>());
+	private boolean bytesPaused;
+	private boolean readPaused;
+	private boolean brokerReadPaused;
+
+	private int resumePercent = 100;
+	private long maxInFlightBytes;
+	private boolean fairShare;
+
+	private SessionJournal journal;
+	private SessionJournal.Handle journalHandle;
 
 	private volatile boolean sessionClosed;
+	private volatile MqttChannelRef brokerChannelRef;
+
+	// written only by the IO thread so they may be read from JMX
+	private volatile int inFlightBrokerMessageCount;
+	private volatile int clusteredClientCount;
+	private volatile long pauseCount;
+	private volatile long resumeCount;
 
 	/**
 	 * Create a new instance of this class.
@@ -89,7 +122,24 @@ class ProxySession implements MessageHandler {
 	 */
 	public ProxySession(String brokerUri, ConnectMessage connectMessage, int maxInFlightBrokerMessages) {
 
-		this(brokerUri, connectMessage, new ChannelManagerImpl(0), maxInFlightBrokerMessages);
+		this(brokerUri, connectMessage, maxInFlightBrokerMessages, null);
+	}
+
+	/**
+	 * Create a new instance of this class.
+	 * 
+	 * @param brokerUri
+	 *            The URI of the broker the proxy should connect to
+	 * @param connectMessage
+	 *            The {@link ConnectMessage connect message} the proxy will use for the broker
+	 * @param maxInFlightBrokerMessages
+	 *            Maximum number of messages that may be in-flight to the broker at a time
+	 * @param topicStats
+	 *            Registry to record published topics in. Null if topics are not tracked.
+	 */
+	public ProxySession(String brokerUri, ConnectMessage connectMessage, int maxInFlightBrokerMessages, TopicStatsRegistry topicStats) {
+
+		this(brokerUri, connectMessage, new ChannelManagerImpl(0), maxInFlightBrokerMessages, topicStats);
 	}
 
 	/**
@@ -97,26 +147,124 @@ class ProxySession implements MessageHandler {
 	 */
 	ProxySession(String brokerUri, ConnectMessage connectMessage, ChannelManager channelManager, int maxInFlightBrokerMessages) {
 
+		this(brokerUri, connectMessage, channelManager, maxInFlightBrokerMessages, null);
+	}
+
+	/**
+	 * @param channelManager
+	 *            The channel manager for this session's connections
+	 */
+	ProxySession(String brokerUri, ConnectMessage connectMessage, ChannelManager channelManager, int maxInFlightBrokerMessages, TopicStatsRegistry topicStats) {
+
 		this.brokerUri = brokerUri;
 		this.originalConnectMessage = connectMessage;
 		this.channelManager = channelManager;
+		this.topicStats = topicStats;
 		this.maxInFlightBrokerMessages = maxInFlightBrokerMessages;
+		this.brokerMessageIds = new MessageIdTable(maxInFlightBrokerMessages);
 		this.clientId = originalConnectMessage.getClientId();
+		this.pendingConnAcks = 1;
+	}
+
+	/**
+	 * Marks this session's channel manager as shared with other sessions. A shared manager is not started or stopped by the session and the session only
+	 * closes its own channels when it is shut down. Must be called before {@link #init()}.
+	 */
+	void setSharedChannelManager() {
+		this.sharedChannelManager = true;
+	}
+
+	/**
+	 * Opens extra connections to the broker used only for publishing. Each uses the session's client ID with a "-pub-n" suffix and a clean session. Must be
+	 * called before {@link #init()}.
+	 * 
+	 * @param publishConnections
+	 *            The number of extra connections. 0 to publish on the primary connection.
+	 */
+	void setPublishConnections(int publishConnections) {
+
+		this.publishConnections = new PublishConnection[XenqttUtil.validateGreaterThanOrEqualTo("publishConnections", publishConnections, 0)];
+		for (int i = 0; i < publishConnections; i++) {
+			this.publishConnections[i] = new PublishConnection(new ConnectMessage(clientId + "-pub-" + (i + 1), true,
+					originalConnectMessage.getKeepAliveSeconds(), originalConnectMessage.getUserName(), originalConnectMessage.getPassword()));
+		}
+		this.pendingConnAcks = publishConnections + 1;
+	}
+
+	/**
+	 * Sets how messages from the broker are spread over the clients in the cluster. Defaults to {@link DistributionStrategy#LEAST_BUSY}. Must be called before
+	 * {@link #init()}.
+	 */
+	void setDistributionStrategy(DistributionStrategy distributionStrategy) {
+		this.distributor = XenqttUtil.validateNotNull("distributionStrategy", distributionStrategy).newDistributor();
+	}
+
+	/**
+	 * Configures how clients are throttled when the broker falls behind. Must be called before {@link #init()}. By default reads from every client pause
+	 * when a message ID space fills and resume as soon as one ID is free.
+	 * 
+	 * @param resumePercent
+	 *            Reads resume once the in-flight messages, or bytes, fall to this percent of the limit that paused them. 100 resumes as soon as the count
+	 *            drops below the limit.
+	 * @param maxInFlightBytes
+	 *            Reads from every client pause when this many bytes of acknowledgeable messages are in-flight to the broker. 0 for no byte limit.
+	 * @param fairShare
+	 *            If true each client is also paused on its own when it has more than an equal share of the session's in-flight message IDs, so one busy
+	 *            client cannot hold every ID and stall the others
+	 */
+	void setFlowControl(int resumePercent, long maxInFlightBytes, boolean fairShare) {
+		this.resumePercent = XenqttUtil.validateInRange("resumePercent", resumePercent, 1, 100);
+		this.maxInFlightBytes = XenqttUtil.validateGreaterThanOrEqualTo("maxInFlightBytes", maxInFlightBytes, 0L);
+		this.fairShare = fairShare;
+	}
+
+	/**
+	 * Records the message IDs in-flight on the primary broker connection to the specified journal and takes over the IDs it holds for this session's client
+	 * ID. Those IDs stay reserved until a client resends the message they were used for or the last client leaves the cluster. Must be called before
+	 * {@link #init()}.
+	 */
+	void setJournal(SessionJournal journal) {
+
+		this.journal = journal;
+		journalHandle = journal.openSession(originalConnectMessage);
+
+		for (int id : brokerMessageIds.restore(journal.getEntries(journalHandle))) {
+			journal.idRemoved(journalHandle, id);
+		}
+		updateInFlightBrokerMessageCount();
+
+		if (brokerMessageIds.restoredSize() > 0) {
+			Log.info("Restored %d in-flight message IDs for client ID %s from the session journal", brokerMessageIds.restoredSize(), clientId);
+		}
 	}
 
 	/**
 	 * Initializes this session
 	 */
 	public void init() {
-		channelManager.init();
-		channelManager.newClientChannel(brokerUri, this);
+		if (!sharedChannelManager) {
+			channelManager.init();
+		}
+		brokerChannelRef = channelManager.newClientChannel(brokerUri, this);
+		for (PublishConnection publishConnection : publishConnections) {
+			channelManager.newClientChannel(brokerUri, publishConnection);
+		}
 	}
 
 	/**
 	 * Shuts down this session. Closes all connections.
 	 */
 	public void shutdown() {
-		channelManager.shutdown();
+		if (journal != null) {
+			// closed before the channels so the session is not recorded as ended and a standby still takes it over
+			journal.closeSession(journalHandle);
+		}
+		if (!sharedChannelManager) {
+			channelManager.shutdown();
+		} else if (!sessionClosed && brokerChannelRef != null) {
+			// closing the broker channel closes all the clustered client channels too
+			channelManager.close(brokerChannelRef);
+		}
 		sessionClosed = true;
 	}
 
@@ -124,18 +272,93 @@ class ProxySession implements MessageHandler {
 	 * @return True if the session is closed. False otherwise. A session is closed when the connection to the broker is closed or when {@link #shutdown()} is
 	 *         called.
 	 */
+	@Override
 	public boolean isClosed() {
 
 		return sessionClosed;
 	}
 
 	/**
-	 * @return This session's client ID
+	 * @see net.xenqtt.proxy.ProxySessionMXBean#getClientId()
 	 */
+	@Override
 	public String getClientId() {
 		return clientId;
 	}
 
+	/**
+	 * @see net.xenqtt.proxy.ProxySessionMXBean#getInFlightBrokerMessageCount()
+	 */
+	@Override
+	public int getInFlightBrokerMessageCount() {
+		return inFlightBrokerMessageCount;
+	}
+
+	/**
+	 * @see net.xenqtt.proxy.ProxySessionMXBean#getClusteredClientCount()
+	 */
+	@Override
+	public int getClusteredClientCount() {
+		return clusteredClientCount;
+	}
+
+	/**
+	 * @see net.xenqtt.proxy.ProxySessionMXBean#getPauseCount()
+	 */
+	@Override
+	public long getPauseCount() {
+		return pauseCount;
+	}
+
+	/**
+	 * @see net.xenqtt.proxy.ProxySessionMXBean#getResumeCount()
+	 */
+	@Override
+	public long getResumeCount() {
+		return resumeCount;
+	}
+
+	/**
+	 * Registers this session and its channel manager with the specified exporter
+	 */
+	public void exportMetrics(MetricsExporter exporter) {
+		exporter.register("ProxySession", clientId, this);
+		if (!sharedChannelManager) {
+			exporter.register("ChannelManager", "session-" + clientId, channelManager);
+		}
+	}
+
+	/**
+	 * Unregisters this session and its channel manager from the specified exporter
+	 */
+	public void unexportMetrics(MetricsExporter exporter) {
+		exporter.unregister("ProxySession", clientId);
+		if (!sharedChannelManager) {
+			exporter.unregister("ChannelManager", "session-" + clientId);
+		}
+	}
+
+	/**
+	 * @param reset
+	 *            If true the byte and message counts will be reset to 0 so the next time they are retrieved they will be for the time between the 2 calls to
+	 *            this method.
+	 * 
+	 * @return A snapshot of the statistics for the connection to the broker and each connection to a clustered client in this session
+	 */
+	public List<ChannelStats> getChannelStats(boolean reset) {
+
+		if (!sharedChannelManager) {
+			return channelManager.getChannelStats(reset);
+		}
+
+		List<ChannelStats> stats = channelManager.getChannelStats(this, reset);
+		for (PublishConnection publishConnection : publishConnections) {
+			stats.addAll(channelManager.getChannelStats(publishConnection, reset));
+		}
+
+		return stats;
+	}
+
 	/**
 	 * Called when a new client connection is received by the {@link ServerMessageHandler}
 	 * 
@@ -148,11 +371,18 @@ class ProxySession implements MessageHandler {
 		}
 
 		connectMessageByChannelPendingAttach.put(channel, connectMessage);
-		channelManager.attachChannel(channel, this);
+		channelManager.attachChannelAsync(channel, this);
 
 		return true;
 	}
 
+	/**
+	 * @return The {@link ChannelManager} that services this session's channels
+	 */
+	ChannelManager getChannelManager() {
+		return channelManager;
+	}
+
 	/**
 	 * @see net.xenqtt.message.MessageHandler#connect(net.xenqtt.message.MqttChannel, net.xenqtt.message.ConnectMessage)
 	 */
@@ -180,19 +410,7 @@ class ProxySession implements MessageHandler {
 			return;
 		}
 
-		brokerConnectReturnCode = message.getReturnCode();
-
-		if (brokerConnectReturnCode == ConnectReturnCode.ACCEPTED) {
-			brokerConnectionState = ConnectionState.CONNECTED;
-		} else {
-			Log.info("Broker %s rejected connect attempt with return code %s", brokerUri, brokerConnectReturnCode);
-			brokerConnectionState = ConnectionState.DISCONNECTED;
-		}
-
-		for (MqttChannel channelToClient : channelsPendingBroker) {
-			newSessionClient(channelToClient);
-		}
-		channelsPendingBroker.clear();
+		brokerConnAck(message.getReturnCode());
 	}
 
 	/**
@@ -200,9 +418,41 @@ class ProxySession implements MessageHandler {
 	 */
 	@Override
 	public void publish(MqttChannel channel, PubMessage message) throws Exception {
+
+		if (topicStats != null) {
+			topicStats.messagePublished(message.getTopicName());
+		}
+
 		forwardMessage(channel, message);
 	}
 
+	/**
+	 * Forwards a QoS 0 PUBLISH the same way {@link #publish(MqttChannel, PubMessage)} does without building a message for it
+	 * 
+	 * @see net.xenqtt.message.PublishForwardingHandler#forwardPublish(net.xenqtt.message.MqttChannel, java.lang.String, java.nio.ByteBuffer)
+	 */
+	@Override
+	public boolean forwardPublish(MqttChannel channel, String topicName, ByteBuffer frame) throws Exception {
+
+		if (topicStats != null) {
+			topicStats.messagePublished(topicName);
+		}
+
+		if (channel == channelToBroker) {
+			MqttChannel channelToClient = selectClient(topicName);
+			if (channelToClient != null) {
+				channelToClient.sendFrame(frame);
+				pauseBrokerReadIfClientsFull(channelToClient);
+			}
+		} else if (publishConnections.length > 0) {
+			publishConnections[publishConnectionIndex(topicName)].channel.sendFrame(frame);
+		} else {
+			channelToBroker.sendFrame(frame);
+		}
+
+		return true;
+	}
+
 	/**
 	 * @see net.xenqtt.message.MessageHandler#pubAck(net.xenqtt.message.MqttChannel, net.xenqtt.message.PubAckMessage)
 	 */
@@ -297,28 +547,46 @@ class ProxySession implements MessageHandler {
 				channelToClient.close();
 			}
 			channelsToClients.clear();
+			for (MqttChannel channelToClient : channelsPendingBroker) {
+				channelToClient.close();
+			}
+			channelsPendingBroker.clear();
+			clusteredClientCount = 0;
 
 			sessionClosed = true;
+			if (journal != null) {
+				// the IDs still in-flight are kept for the next session with this client ID
+				journal.endSession(journalHandle);
+			}
+
+			for (PublishConnection publishConnection : publishConnections) {
+				if (publishConnection.channel != null) {
+					publishConnection.channel.close();
+				}
+			}
 
 		} else if (brokerConnectionState != ConnectionState.DISCONNECTED) {
 
-			Iterator<MessageSource> iter = messageSourceByBrokerMessageId.values().iterator();
-			while (iter.hasNext()) {
-				MessageSource source = iter.next();
-				if (source.sourceChannel == channel) {
-					iter.remove();
-					if (messageSourceByBrokerMessageId.size() == maxInFlightBrokerMessages - 1) {
-						resumeRead();
-					}
-				}
+			removeMessageSources(brokerMessageIds, channel);
+			for (PublishConnection publishConnection : publishConnections) {
+				removeMessageSources(publishConnection.brokerMessageIds, channel);
 			}
 
 			channelsToClients.remove(channel);
+			clientsOverFairShare.remove(channel);
+			clusteredClientCount = channelsToClients.size();
 
 			if (channelsToClients.isEmpty()) {
+				releaseRestoredIds();
+				if (journal != null) {
+					journal.endSession(journalHandle);
+				}
 				channelToBroker.send(new DisconnectMessage());
 			} else {
 				distributeMessagesForChannel(channel);
+				if (brokerReadPaused && findClientWithRoom() != null) {
+					resumeBrokerRead();
+				}
 			}
 		}
 	}
@@ -404,7 +672,10 @@ class ProxySession implements MessageHandler {
 	 */
 	@Override
 	public void messageSent(MqttChannel channel, MqttMessage message) {
-		// ignore
+
+		if (brokerReadPaused && channel != channelToBroker && !channel.isSendQueueFull()) {
+			resumeBrokerRead();
+		}
 	}
 
 	private void newSessionClient(MqttChannel channel) {
@@ -422,10 +693,11 @@ class ProxySession implements MessageHandler {
 		} else {
 			Log.info("New client connection accepted into cluster; clientId: %s, address: %s", clientId, channel.getRemoteAddress());
 			channel.send(new ConnAckMessage(brokerConnectReturnCode));
-			if (messageSourceByBrokerMessageId.size() == maxInFlightBrokerMessages) {
+			if (readPaused || isAnyIdSpaceFull()) {
 				channel.pauseRead();
 			}
 			channelsToClients.add(channel);
+			clusteredClientCount = channelsToClients.size();
 		}
 	}
 
@@ -440,14 +712,13 @@ class ProxySession implements MessageHandler {
 
 	private void forwardToBroker(MqttChannel channelToClient, IdentifiableMqttMessage message) {
 
+		if (publishConnections.length > 0 && message instanceof PubMessage) {
+			publishConnections[publishConnectionIndex(((PubMessage) message).getTopicName())].forward(channelToClient, message);
+			return;
+		}
+
 		if (message.isAckable()) {
-			int clientMessageId = message.getMessageId();
-			int brokerMessageId = nextIdToBroker();
-			message.setMessageId(brokerMessageId);
-			messageSourceByBrokerMessageId.put(brokerMessageId, new MessageSource(clientMessageId, channelToClient));
-			if (messageSourceByBrokerMessageId.size() == maxInFlightBrokerMessages) {
-				pauseRead();
-			}
+			addMessageId(brokerMessageIds, channelToClient, message);
 		}
 
 		channelToBroker.send(message);
@@ -457,82 +728,304 @@ class ProxySession implements MessageHandler {
 
 		if (message.isAck()) {
 
-			int brokerMessageId = message.getMessageId();
-			MessageSource messageSource = messageSourceByBrokerMessageId.remove(brokerMessageId);
-			if (messageSource != null) {
-				message.setMessageId(messageSource.sourceMessageId);
-				messageSource.sourceChannel.send(message);
-				if (messageSourceByBrokerMessageId.size() == maxInFlightBrokerMessages - 1) {
-					resumeRead();
-				}
-			}
+			forwardAckToClient(brokerMessageIds, message);
 
 		} else {
-			MqttChannel channelToClient = getLeastBusyChannelToClient();
-			if (channelToClient != null) {
-				channelToClient.send(message);
+			sendToClient(message);
+		}
+	}
+
+	/**
+	 * Sends a message from the broker to the client picked by the distributor. If that client's send queue is full another client with room is used
+	 * instead. If every client is full the message still goes to the picked client and reads from the broker are paused until a client's queue drains.
+	 */
+	private void sendToClient(MqttMessage message) {
+
+		MqttChannel channelToClient = selectClient(message instanceof PubMessage ? ((PubMessage) message).getTopicName() : null);
+		if (channelToClient != null) {
+			channelToClient.send(message);
+			pauseBrokerReadIfClientsFull(channelToClient);
+		}
+	}
+
+	/**
+	 * @return The client the distributor picks or, if that client's send queue is full, another client with room. Null if there are no clients.
+	 */
+	private MqttChannel selectClient(String topicName) {
+
+		MqttChannel channelToClient = distributor.select(channelsToClients, topicName);
+		if (channelToClient != null && channelToClient.isSendQueueFull()) {
+			MqttChannel clientWithRoom = findClientWithRoom();
+			if (clientWithRoom != null) {
+				channelToClient = clientWithRoom;
 			}
 		}
+
+		return channelToClient;
 	}
 
-	private void pauseRead() {
+	private void pauseBrokerReadIfClientsFull(MqttChannel channelToClient) {
 
-		long now = System.currentTimeMillis();
-		if (now > enablePauseMessageTime) {
-			enablePauseMessageTime = now + 60000;
-			Log.warn(
-					"There are too many in-flight (unacknowledged) messages to the broker in cluster with client ID %s. No more message IDs are available. This means the broker is unable to keep up with the rate your clients are publishing messages. The proxy is pausing accepting messages from clients in the cluster until the broker acknowledges an existing in-flight message. This will not cause data loss but will make message publishing slow down. This log message will be disabled for 60 seconds.",
-					clientId);
+		if (!brokerReadPaused && channelToClient.isSendQueueFull() && findClientWithRoom() == null) {
+			brokerReadPaused = true;
+			channelToBroker.pauseRead();
+
+			long now = System.currentTimeMillis();
+			if (now > enableBrokerPauseMessageTime) {
+				enableBrokerPauseMessageTime = now + 60000;
+				Log.warn(
+						"Every client in the cluster with client ID %s has a full send queue. The proxy is pausing reads from the broker until a client catches up. This log message will be disabled for 60 seconds.",
+						clientId);
+			}
 		}
+	}
 
-		for (MqttChannel channel : channelsToClients) {
-			channel.pauseRead();
+	private int publishConnectionIndex(String topicName) {
+		return (topicName.hashCode() & Integer.MAX_VALUE) % publishConnections.length;
+	}
+
+	private MqttChannel findClientWithRoom() {
+
+		for (MqttChannel channelToClient : channelsToClients) {
+			if (!channelToClient.isSendQueueFull()) {
+				return channelToClient;
+			}
 		}
+
+		return null;
 	}
 
-	private void resumeRead() {
+	private void resumeBrokerRead() {
 
-		for (MqttChannel channel : channelsToClients) {
-			channel.resumeRead();
+		brokerReadPaused = false;
+		channelToBroker.resumeRead();
+	}
+
+	private void addMessageId(MessageIdTable messageIds, MqttChannel channelToClient, IdentifiableMqttMessage message) {
+
+		int brokerMessageId = messageIds.restoredSize() > 0 ? addRestoredMessageId(messageIds, channelToClient, message) : 0;
+		if (brokerMessageId == 0) {
+			brokerMessageId = messageIds.add(message.getMessageId(), channelToClient, message.getRemainingLength());
+			if (brokerMessageId == 0) {
+				Log.error("Unable to generate message ID to broker. THIS IS A BUG!!");
+			} else if (journal != null && messageIds == brokerMessageIds) {
+				journal.idAdded(journalHandle, brokerMessageId, message.getMessageId());
+			}
+		}
+
+		message.setMessageId(brokerMessageId);
+		updateInFlightBrokerMessageCount();
+
+		if (messageIds.isFull() && pausedIdSpaces.add(messageIds)) {
+			updateReadPaused();
+		}
+		if (maxInFlightBytes > 0 && !bytesPaused && inFlightBytes() >= maxInFlightBytes) {
+			bytesPaused = true;
+			updateReadPaused();
+		}
+		if (fairShare && clientInFlightCount(channelToClient) >= fairShareLimit() && clientsOverFairShare.add(channelToClient)) {
+			channelToClient.pauseRead();
 		}
 	}
 
-	private MqttChannel getLeastBusyChannelToClient() {
+	/**
+	 * A client resending a message after the proxy restarted gets the ID the message was sent to the broker with before, so the broker sees a redelivery.
+	 * A new message that reuses the client message ID means the client gave up on the old one, so the old ID is freed.
+	 * 
+	 * @return The ID for the message. 0 if no ID was reserved for it.
+	 */
+	private int addRestoredMessageId(MessageIdTable messageIds, MqttChannel channelToClient, IdentifiableMqttMessage message) {
+
+		int brokerMessageId = messageIds.takeRestored(message.getMessageId());
+		if (brokerMessageId == 0) {
+			return 0;
+		}
+
+		if (message.isDuplicate()) {
+			messageIds.addRestored(brokerMessageId, message.getMessageId(), channelToClient, message.getRemainingLength());
+			return brokerMessageId;
+		}
+
+		messageIds.release(brokerMessageId);
+		journal.idRemoved(journalHandle, brokerMessageId);
+		return 0;
+	}
+
+	private void releaseRestoredIds() {
+
+		int[] ids = brokerMessageIds.releaseRestored();
+		for (int id : ids) {
+			journal.idRemoved(journalHandle, id);
+		}
+		if (ids.length > 0) {
+			updateInFlightBrokerMessageCount();
+		}
+	}
+
+	private void forwardAckToClient(MessageIdTable messageIds, IdentifiableMqttMessage message) {
+
+		int brokerMessageId = message.getMessageId();
+		MqttChannel sourceChannel = messageIds.getSourceChannel(brokerMessageId);
+		if (sourceChannel != null) {
+			message.setMessageId(messageIds.getSourceMessageId(brokerMessageId));
+			messageIds.remove(brokerMessageId);
+			if (journal != null && messageIds == brokerMessageIds) {
+				journal.idRemoved(journalHandle, brokerMessageId);
+			}
+			updateInFlightBrokerMessageCount();
+			sourceChannel.send(message);
+			messageIdsFreed(messageIds);
+			if (clientsOverFairShare.contains(sourceChannel) && clientInFlightCount(sourceChannel) <= resumeLevel(fairShareLimit())) {
+				clientsOverFairShare.remove(sourceChannel);
+				if (!readPaused) {
+					sourceChannel.resumeRead();
+				}
+			}
+		}
+	}
 
-		int leastBusyMessageCount = Integer.MAX_VALUE;
-		MqttChannel leastBusyChannel = null;
+	private void removeMessageSources(MessageIdTable messageIds, MqttChannel channelToClient) {
 
-		int index = nextBrokerChannelIndex;
-		int size = channelsToClients.size();
-		for (int count = 0; count < size; count++) {
-			int i = index++ % size;
-			MqttChannel channelToClient = channelsToClients.get(i);
-			int msgCount = channelToClient.inFlightMessageCount() + channelToClient.sendQueueDepth();
-			if (msgCount < leastBusyMessageCount) {
-				leastBusyMessageCount = msgCount;
-				leastBusyChannel = channelToClient;
-				nextBrokerChannelIndex = i + 1;
+		if (journal != null && messageIds == brokerMessageIds) {
+			for (int id : messageIds.ids(channelToClient)) {
+				journal.idRemoved(journalHandle, id);
 			}
 		}
 
-		return leastBusyChannel;
+		if (messageIds.removeAll(channelToClient) > 0) {
+			updateInFlightBrokerMessageCount();
+			messageIdsFreed(messageIds);
+		}
 	}
 
-	private int nextIdToBroker() {
+	private void messageIdsFreed(MessageIdTable messageIds) {
+
+		if (pausedIdSpaces.contains(messageIds) && messageIds.size() <= resumeLevel(maxInFlightBrokerMessages)) {
+			pausedIdSpaces.remove(messageIds);
+			updateReadPaused();
+		}
+		if (bytesPaused && inFlightBytes() <= resumeLevel(maxInFlightBytes)) {
+			bytesPaused = false;
+			updateReadPaused();
+		}
+	}
 
-		for (int i = 0; i < maxInFlightBrokerMessages; i++) {
-			if (nextIdToBroker > maxInFlightBrokerMessages) {
-				nextIdToBroker = 1;
+	/**
+	 * Pauses or resumes reads from every client. Reads are paused while any message ID space is full or the byte limit is reached because the connection
+	 * the next message needs is not known until it is read.
+	 */
+	private void updateReadPaused() {
+
+		boolean paused = !pausedIdSpaces.isEmpty() || bytesPaused;
+		if (paused != readPaused) {
+			readPaused = paused;
+			if (paused) {
+				pauseRead();
+			} else {
+				resumeRead();
 			}
-			int id = nextIdToBroker++;
-			if (!messageSourceByBrokerMessageId.containsKey(id)) {
-				return id;
+		}
+	}
+
+	private long resumeLevel(long limit) {
+		return resumePercent == 100 ? limit - 1 : limit * resumePercent / 100;
+	}
+
+	private int fairShareLimit() {
+		int capacity = maxInFlightBrokerMessages * (publishConnections.length + 1);
+		return Math.max(1, capacity / Math.max(1, channelsToClients.size()));
+	}
+
+	private int clientInFlightCount(MqttChannel channelToClient) {
+
+		int count = brokerMessageIds.size(channelToClient);
+		for (PublishConnection publishConnection : publishConnections) {
+			count += publishConnection.brokerMessageIds.size(channelToClient);
+		}
+		return count;
+	}
+
+	private long inFlightBytes() {
+
+		long bytes = brokerMessageIds.bytes();
+		for (PublishConnection publishConnection : publishConnections) {
+			bytes += publishConnection.brokerMessageIds.bytes();
+		}
+		return bytes;
+	}
+
+	private void brokerConnAck(ConnectReturnCode returnCode) {
+
+		pendingConnAcks--;
+
+		if (returnCode != ConnectReturnCode.ACCEPTED) {
+			Log.info("Broker %s rejected connect attempt with return code %s", brokerUri, returnCode);
+			brokerConnectReturnCode = returnCode;
+			brokerConnectionState = ConnectionState.DISCONNECTED;
+		} else if (pendingConnAcks > 0 || brokerConnectionState == ConnectionState.DISCONNECTED) {
+			// still waiting for a publish connection or one was already rejected
+			return;
+		} else {
+			brokerConnectReturnCode = returnCode;
+			brokerConnectionState = ConnectionState.CONNECTED;
+		}
+
+		for (MqttChannel channelToClient : channelsPendingBroker) {
+			newSessionClient(channelToClient);
+		}
+		channelsPendingBroker.clear();
+	}
+
+	private void updateInFlightBrokerMessageCount() {
+
+		int count = brokerMessageIds.size();
+		for (PublishConnection publishConnection : publishConnections) {
+			count += publishConnection.brokerMessageIds.size();
+		}
+		inFlightBrokerMessageCount = count;
+	}
+
+	private boolean isAnyIdSpaceFull() {
+
+		if (brokerMessageIds.isFull()) {
+			return true;
+		}
+
+		for (PublishConnection publishConnection : publishConnections) {
+			if (publishConnection.brokerMessageIds.isFull()) {
+				return true;
 			}
 		}
 
-		Log.error("Unable to generate message ID to broker. THIS IS A BUG!!");
+		return false;
+	}
 
-		return 0;
+	private void pauseRead() {
+
+		pauseCount++;
+
+		long now = System.currentTimeMillis();
+		if (now > enablePauseMessageTime) {
+			enablePauseMessageTime = now + 60000;
+			Log.warn(
+					"There are too many in-flight (unacknowledged) messages to the broker in cluster with client ID %s. The in-flight message or byte limit has been reached. This means the broker is unable to keep up with the rate your clients are publishing messages. The proxy is pausing accepting messages from clients in the cluster until the broker acknowledges an existing in-flight message. This will not cause data loss but will make message publishing slow down. This log message will be disabled for 60 seconds.",
+					clientId);
+		}
+
+		for (MqttChannel channel : channelsToClients) {
+			channel.pauseRead();
+		}
+	}
+
+	private void resumeRead() {
+
+		resumeCount++;
+
+		for (MqttChannel channel : channelsToClients) {
+			if (!clientsOverFairShare.contains(channel)) {
+				channel.resumeRead();
+			}
+		}
 	}
 
 	private boolean stringEquqls(String string1, String string2) {
@@ -552,21 +1045,138 @@ class ProxySession implements MessageHandler {
 
 		List<MqttMessage> messages = channel.getUnsentMessages();
 		for (MqttMessage message : messages) {
-			MqttChannel newChannel = getLeastBusyChannelToClient();
-			if (newChannel != null) {
-				newChannel.send(message);
-			}
+			sendToClient(message);
 		}
 	}
 
-	private static class MessageSource {
+	/**
+	 * An extra connection to the broker that only carries publishes from the clustered clients and the broker's acks for them
+	 */
+	private final class PublishConnection implements MessageHandler {
+
+		private final MessageIdTable brokerMessageIds = new MessageIdTable(maxInFlightBrokerMessages);
+		private final ConnectMessage connectMessage;
+
+		private MqttChannel channel;
+
+		public PublishConnection(ConnectMessage connectMessage) {
+			this.connectMessage = connectMessage;
+		}
+
+		void forward(MqttChannel channelToClient, IdentifiableMqttMessage message) {
+
+			if (message.isAckable()) {
+				addMessageId(brokerMessageIds, channelToClient, message);
+			}
+
+			channel.send(message);
+		}
+
+		@Override
+		public void channelOpened(MqttChannel channel) {
 
-		private final int sourceMessageId;
-		private final MqttChannel sourceChannel;
+			this.channel = channel;
+			if (sessionClosed) {
+				channel.close();
+			} else {
+				channel.send(connectMessage);
+			}
+		}
+
+		@Override
+		public void connAck(MqttChannel channel, ConnAckMessage message) throws Exception {
+			brokerConnAck(message.getReturnCode());
+		}
+
+		@Override
+		public void pubAck(MqttChannel channel, PubAckMessage message) throws Exception {
+			forwardAckToClient(brokerMessageIds, message);
+		}
+
+		@Override
+		public void channelClosed(MqttChannel channel, Throwable cause) {
+
+			if (sessionClosed) {
+				return;
+			}
+
+			// the acks for this connection's in-flight messages are lost so the whole session closes and the clients reconnect
+			Log.warn("Publish connection %s to broker %s closed; closing the session. clientId: %s", connectMessage.getClientId(), brokerUri, clientId);
+			brokerConnectionState = ConnectionState.DISCONNECTED;
+			sessionClosed = true;
+			if (channelToBroker != null) {
+				channelToBroker.close();
+			}
+		}
+
+		@Override
+		public void connect(MqttChannel channel, ConnectMessage message) throws Exception {
+			unexpected(channel, message);
+		}
+
+		@Override
+		public void publish(MqttChannel channel, PubMessage message) throws Exception {
+			unexpected(channel, message);
+		}
+
+		@Override
+		public void pubRec(MqttChannel channel, PubRecMessage message) throws Exception {
+			// qos 2 not supported
+		}
+
+		@Override
+		public void pubRel(MqttChannel channel, PubRelMessage message) throws Exception {
+			// qos 2 not supported
+		}
+
+		@Override
+		public void pubComp(MqttChannel channel, PubCompMessage message) throws Exception {
+			// qos 2 not supported
+		}
+
+		@Override
+		public void subscribe(MqttChannel channel, SubscribeMessage message) throws Exception {
+			unexpected(channel, message);
+		}
+
+		@Override
+		public void subAck(MqttChannel channel, SubAckMessage message) throws Exception {
+			unexpected(channel, message);
+		}
+
+		@Override
+		public void unsubscribe(MqttChannel channel, UnsubscribeMessage message) throws Exception {
+			unexpected(channel, message);
+		}
+
+		@Override
+		public void unsubAck(MqttChannel channel, UnsubAckMessage message) throws Exception {
+			unexpected(channel, message);
+		}
+
+		@Override
+		public void disconnect(MqttChannel channel, DisconnectMessage message) throws Exception {
+			unexpected(channel, message);
+		}
+
+		@Override
+		public void channelAttached(MqttChannel channel) {
+			// this should never happen
+		}
+
+		@Override
+		public void channelDetached(MqttChannel channel) {
+			// this should never happen
+		}
+
+		@Override
+		public void messageSent(MqttChannel channel, MqttMessage message) {
+			// ignore
+		}
 
-		public MessageSource(int sourceMessageId, MqttChannel sourceChannel) {
-			this.sourceMessageId = sourceMessageId;
-			this.sourceChannel = sourceChannel;
+		private void unexpected(MqttChannel channel, MqttMessage message) {
+			Log.warn("Received a %s message on publish connection %s from the broker at %s. This should never happen. clientId=%s", message.getMessageType(),
+					connectMessage.getClientId(), channel.getRemoteAddress(), clientId);
 		}
 	}
 }
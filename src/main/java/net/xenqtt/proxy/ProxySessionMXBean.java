@@ -0,0 +1,53 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+/**
+ * JMX management interface for a proxy session. All attributes are read directly from fields maintained by the session's IO thread so reading them never
+ * blocks the session.
+ */
+public interface ProxySessionMXBean {
+
+	/**
+	 * @return The client ID shared by all clients in the session
+	 */
+	String getClientId();
+
+	/**
+	 * @return The number of messages from clients in the session that have been sent to the broker and not yet acknowledged
+	 */
+	int getInFlightBrokerMessageCount();
+
+	/**
+	 * @return The number of clustered clients currently connected to the session
+	 */
+	int getClusteredClientCount();
+
+	/**
+	 * @return The number of times reading from clients was paused because the maximum number of messages were in-flight to the broker
+	 */
+	long getPauseCount();
+
+	/**
+	 * @return The number of times reading from clients was resumed after being paused
+	 */
+	long getResumeCount();
+
+	/**
+	 * @return True if the session is closed
+	 */
+	boolean isClosed();
+}
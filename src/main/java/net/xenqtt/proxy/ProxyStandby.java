@@ -0,0 +1,295 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.xenqtt.Log;
+import net.xenqtt.XenqttUtil;
+
+/**
+ * Keeps a {@link ProxyBroker} in standby for a primary proxy. The standby connects to the primary's {@link SessionReplicator} and applies the session
+ * state it streams to a {@link SessionJournal}. The standby's proxy does not listen for clients or connect to the broker while the primary is alive.
+ * <p>
+ * Once the replication link has been established the standby takes over if nothing, not even an empty batch, is received for the takeover interval. If the
+ * link closes the standby tries to reconnect and starts again from a new snapshot, and only takes over if it cannot within the takeover interval of the
+ * last batch it received. It then opens a broker connection for every session that was active on the primary, so the broker sessions are held within the
+ * takeover interval plus the time to connect to the broker, and starts accepting clients. Messages that clients resend to the standby go to the broker
+ * with the IDs the primary used. The primary closes the link itself when the standby falls too far behind, which the standby treats like any other closed
+ * link. If the primary cannot be reached when the standby starts the standby keeps trying and never takes over, so a standby started on its own cannot
+ * open a second set of broker connections next to a primary it has not heard from.
+ */
+public final class ProxyStandby {
+
+	/**
+	 * Milliseconds without hearing from the primary after which the standby takes over
+	 */
+	public static final long DEFAULT_TAKEOVER_MILLIS = 3000;
+
+	/**
+	 * Length of a batch from the primary above which the stream is treated as corrupt
+	 */
+	static final int MAX_BATCH_BYTES = 256 << 20;
+
+	private static final long RECONNECT_MILLIS = 1000;
+	private static final long RESYNC_MILLIS = 100;
+	private static final int READ_CHUNK_BYTES = 64 * 1024;
+
+	private final String primaryHost;
+	private final int primaryPort;
+	private final ProxyBroker broker;
+	private final SessionJournal journal;
+	private final long takeoverMillis;
+	private final Thread standbyThread = new StandbyThread();
+	private final CountDownLatch takeoverLatch = new CountDownLatch(1);
+
+	private volatile Socket socket;
+	private volatile boolean shutdown;
+
+	private String secret;
+
+	// true once the snapshot has been received from the primary. Only used on the standby thread.
+	private boolean replicated;
+
+	// when the last batch was received from the primary. Only used on the standby thread.
+	private long lastBatchTime;
+
+	/**
+	 * @param primaryHost
+	 *            The host the primary proxy runs on
+	 * @param primaryPort
+	 *            The port of the primary proxy's {@link SessionReplicator}
+	 * @param broker
+	 *            The proxy to start when the standby takes over. It must not have been initialized.
+	 * @param journal
+	 *            The journal to replicate the primary's session state to. The caller remains responsible for closing it after the proxy is shut down.
+	 */
+	public ProxyStandby(String primaryHost, int primaryPort, ProxyBroker broker, SessionJournal journal) {
+		this(primaryHost, primaryPort, broker, journal, DEFAULT_TAKEOVER_MILLIS);
+	}
+
+	/**
+	 * @param primaryHost
+	 *            The host the primary proxy runs on
+	 * @param primaryPort
+	 *            The port of the primary proxy's {@link SessionReplicator}
+	 * @param broker
+	 *            The proxy to start when the standby takes over. It must not have been initialized.
+	 * @param journal
+	 *            The journal to replicate the primary's session state to. The caller remains responsible for closing it after the proxy is shut down.
+	 * @param takeoverMillis
+	 *            Milliseconds without hearing from the primary after which the standby takes over. Must be longer than the primary's batch interval.
+	 */
+	public ProxyStandby(String primaryHost, int primaryPort, ProxyBroker broker, SessionJournal journal, long takeoverMillis) {
+		this.primaryHost = XenqttUtil.validateNotEmpty("primaryHost", primaryHost);
+		this.primaryPort = XenqttUtil.validateInRange("primaryPort", primaryPort, 1, 65535);
+		this.broker = XenqttUtil.validateNotNull("broker", broker);
+		this.journal = XenqttUtil.validateNotNull("journal", journal);
+		this.takeoverMillis = XenqttUtil.validateGreaterThan("takeoverMillis", takeoverMillis, 0L);
+	}
+
+	/**
+	 * Sets the secret to answer the primary's challenge with. It must match the primary's {@link SessionReplicator#setSecret(String)}. Must be called before
+	 * {@link #init()}.
+	 * 
+	 * @param secret
+	 *            The shared secret. Null, the default, for none.
+	 */
+	public void setSecret(String secret) {
+		this.secret = secret;
+	}
+
+	/**
+	 * Starts replicating from the primary. Does not block.
+	 */
+	public void init() {
+
+		standbyThread.setName("ProxyStandby");
+		standbyThread.setDaemon(true);
+		standbyThread.start();
+	}
+
+	/**
+	 * Stops replicating from the primary without taking over. Blocks until the standby is stopped. Does not shut down the proxy if the standby has already
+	 * taken over.
+	 */
+	public void shutdown() {
+
+		shutdown = true;
+		closeSocket();
+		standbyThread.interrupt();
+
+		try {
+			standbyThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return True if the standby has taken over from the primary and its proxy is accepting clients
+	 */
+	public boolean isActive() {
+		return takeoverLatch.getCount() == 0;
+	}
+
+	/**
+	 * Waits for the standby to take over from the primary
+	 * 
+	 * @param millis
+	 *            Milliseconds to wait
+	 * @return True if the standby has taken over. False if it is still in standby.
+	 */
+	public boolean awaitTakeover(long millis) throws InterruptedException {
+		return takeoverLatch.await(millis, TimeUnit.MILLISECONDS);
+	}
+
+	private void doIo() {
+
+		long timeoutMillis = takeoverMillis;
+		while (!shutdown) {
+			boolean wasReplicated = replicated;
+			try {
+				socket = new Socket();
+				socket.connect(new InetSocketAddress(primaryHost, primaryPort), (int) timeoutMillis);
+				replicate((int) timeoutMillis);
+			} catch (IOException e) {
+				if (wasReplicated && !shutdown) {
+					Log.warn("Lost the replication link to the primary proxy at %s:%d. Cause: %s", primaryHost, primaryPort, e);
+				} else if (!shutdown) {
+					Log.debug("Unable to replicate from the primary proxy at %s:%d. Retrying. Cause: %s", primaryHost, primaryPort, e);
+				}
+			} finally {
+				closeSocket();
+			}
+
+			if (!replicated) {
+				sleep(RECONNECT_MILLIS);
+				continue;
+			}
+
+			// once replicated only keep trying while the takeover interval since the last batch lasts
+			timeoutMillis = lastBatchTime + takeoverMillis - System.currentTimeMillis();
+			if (timeoutMillis <= 0) {
+				break;
+			}
+			sleep(Math.min(RESYNC_MILLIS, timeoutMillis));
+		}
+
+		if (!shutdown && replicated) {
+			takeOver();
+		}
+	}
+
+	/**
+	 * @param timeoutMillis
+	 *            Milliseconds to wait for the snapshot
+	 */
+	private void replicate(int timeoutMillis) throws IOException {
+
+		socket.setSoTimeout(timeoutMillis);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+		byte[] challenge = new byte[SessionReplicator.CHALLENGE_BYTES];
+		in.readFully(challenge);
+		OutputStream out = socket.getOutputStream();
+		out.write(SessionReplicator.challengeResponse(challenge, secret));
+		out.flush();
+
+		journal.replicateSnapshot(readBatch(in));
+		Log.info("Replicating sessions from the primary proxy at %s:%d", primaryHost, primaryPort);
+		replicated = true;
+
+		socket.setSoTimeout((int) takeoverMillis);
+		while (!shutdown) {
+			byte[] records = readBatch(in);
+			if (records.length > 0) {
+				journal.replicate(records);
+			}
+		}
+	}
+
+	/**
+	 * Reads a batch. The batch is read in chunks so a bad length cannot allocate more than the bytes that actually arrive.
+	 */
+	private byte[] readBatch(DataInputStream in) throws IOException {
+
+		int length = in.readInt();
+		if (length < 0 || length > MAX_BATCH_BYTES) {
+			throw new IOException("Invalid replication batch length: " + length);
+		}
+
+		byte[] batch = new byte[Math.min(length, READ_CHUNK_BYTES)];
+		int read = 0;
+		while (read < length) {
+			if (read == batch.length) {
+				batch = Arrays.copyOf(batch, Math.min(length, batch.length * 2));
+			}
+			int count = in.read(batch, read, batch.length - read);
+			if (count < 0) {
+				throw new IOException("The primary proxy closed the replication link");
+			}
+			read += count;
+		}
+
+		lastBatchTime = System.currentTimeMillis();
+		return batch;
+	}
+
+	private void takeOver() {
+
+		Log.warn("Taking over %d sessions from the primary proxy at %s:%d", journal.getActiveSessions().size(), primaryHost, primaryPort);
+		broker.takeOver(journal);
+		takeoverLatch.countDown();
+	}
+
+	private void sleep(long millis) {
+
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ignore) {
+			// shut down
+		}
+	}
+
+	private void closeSocket() {
+
+		Socket s = socket;
+		if (s != null) {
+			try {
+				s.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	private final class StandbyThread extends Thread {
+
+		@Override
+		public void run() {
+
+			doIo();
+		}
+	}
+}
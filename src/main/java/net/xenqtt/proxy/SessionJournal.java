@@ -0,0 +1,885 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import net.xenqtt.Log;
+import net.xenqtt.XenqttUtil;
+import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.QoS;
+
+/**
+ * Records the message IDs each {@link ProxySession} has in-flight on its primary broker connection in an append-only file so a restarted proxy can pick up where it left off.
+ * When a clustered client reconnects and resends an unacknowledged publish the session sends it to the broker with the same message ID it used before the
+ * restart instead of a new one, so the broker sees a redelivery rather than a new message.
+ * <p>
+ * The journal is keyed by client ID. When a session opens it takes over the mappings recorded for its client ID, whether they were read from the file or
+ * left by an earlier session in this process. Each session encodes its records into its own buffer while holding only its own lock. A writer thread
+ * collects the buffers of every session that has recorded something and writes them to the file with a single write, so a record reaches the operating
+ * system shortly after it is made but is not forced to disk. This survives a restart of the proxy process but not of the host. The writer thread also
+ * rewrites the file with only the live mappings whenever it has grown by {@link #DEFAULT_COMPACT_BYTES} since it was last rewritten. The file is also
+ * rewritten when the journal is opened. A partial record at the end of the file, left by a crash, is ignored. The IDs used on publish-only connections are
+ * not recorded because those connections use clean sessions.
+ * <p>
+ * The journal also records the connect message of each session until its last client leaves so a {@link ProxyStandby standby} proxy knows which broker
+ * sessions to open when it takes over. A {@link SessionReplicator} streams every record to the standby, which applies them to its own journal. Passwords
+ * are left out of the recorded connect messages unless {@link #setRecordPasswords(boolean) enabled}. This class is thread safe.
+ */
+public final class SessionJournal implements Closeable {
+
+	/**
+	 * Bytes appended to the file after which it is rewritten with only the live mappings
+	 */
+	public static final long DEFAULT_COMPACT_BYTES = 64L << 20;
+
+	private static final int MAGIC = 0x5851534a; // XQSJ
+	private static final int VERSION = 1;
+
+	private static final byte SESSION_OPENED = 'O';
+	private static final byte SESSION_ENDED = 'E';
+	private static final byte ID_ADDED = 'A';
+	private static final byte ID_REMOVED = 'R';
+
+	private final File file;
+	private final long compactBytes;
+	private final Thread writerThread = new WriterThread();
+
+	// guarded by this. Lock this before a session's state.
+	private final Map<String, SessionState> sessionsByClientId = new HashMap<String, SessionState>();
+	private int nextHandle = 1;
+
+	// sessions by the handle the primary proxy recorded them with. Only used on a standby. Guarded by this.
+	private final Map<Integer, SessionState> sessionsByReplicatedHandle = new HashMap<Integer, SessionState>();
+
+	// sessions with records in their buffers that the writer thread has not collected yet
+	private final Queue<SessionState> dirtySessions = new ConcurrentLinkedQueue<SessionState>();
+
+	// guards the fields below. Lock this before the journal or a session's state.
+	private final Object writeLock = new Object();
+	private final RecordBuffer batch = new RecordBuffer(8192);
+	private OutputStream out;
+	private SessionReplicator replicator;
+	private long bytesSinceCompact;
+	private boolean writerStarted;
+
+	// true while there is a file or a replicator to send records to
+	private volatile boolean recording;
+	private volatile boolean closed;
+	private volatile boolean recordPasswords;
+
+	/**
+	 * Creates a journal that is only held in memory. Use this to {@link SessionReplicator replicate} sessions to a standby without writing a file.
+	 */
+	public SessionJournal() {
+		this.file = null;
+		this.compactBytes = DEFAULT_COMPACT_BYTES;
+	}
+
+	/**
+	 * Opens a journal. If the file exists and is not empty the mappings recorded in it are loaded and the file is rewritten with only those mappings.
+	 * Otherwise the file is created.
+	 * 
+	 * @param file
+	 *            The journal file
+	 */
+	public SessionJournal(File file) throws IOException {
+		this(file, DEFAULT_COMPACT_BYTES);
+	}
+
+	/**
+	 * Package visible for testing
+	 * 
+	 * @param compactBytes
+	 *            Bytes appended to the file after which it is rewritten with only the live mappings
+	 */
+	SessionJournal(File file, long compactBytes) throws IOException {
+
+		this.file = XenqttUtil.validateNotNull("file", file);
+		this.compactBytes = XenqttUtil.validateGreaterThan("compactBytes", compactBytes, 0L);
+
+		if (file.length() > 0) {
+			load();
+		}
+
+		synchronized (writeLock) {
+			compact();
+			updateRecording();
+			startWriter();
+		}
+	}
+
+	/**
+	 * Sets whether the passwords in the sessions' connect messages are written to the file and sent to the standby. They are not by default, so a standby
+	 * that takes over connects the sessions of clients that gave a password to the broker without it. If the broker rejects that connection the session is
+	 * opened again with the client's own connect message when the client reconnects. Must be called before any session is opened.
+	 * 
+	 * @param recordPasswords
+	 *            True to record passwords
+	 */
+	public void setRecordPasswords(boolean recordPasswords) {
+		this.recordPasswords = recordPasswords;
+	}
+
+	/**
+	 * Writes the records not written yet and closes the file. Changes recorded after this are ignored. The mappings in the file are kept for the next time
+	 * the journal is opened.
+	 */
+	@Override
+	public void close() throws IOException {
+
+		synchronized (writeLock) {
+			if (closed) {
+				return;
+			}
+
+			writeBatch();
+			closed = true;
+			updateRecording();
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+		}
+
+		LockSupport.unpark(writerThread);
+		if (writerStarted && Thread.currentThread() != writerThread) {
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Called when a session is created. The new session takes over the mappings recorded for its client ID.
+	 * 
+	 * @param connectMessage
+	 *            The message the session connects to the broker with
+	 * @return The handle the session uses to record changes to its mappings
+	 */
+	synchronized Handle openSession(ConnectMessage connectMessage) {
+
+		SessionState state = getState(connectMessage.getClientId());
+		synchronized (state) {
+			// changes from any earlier session for this client ID are ignored from now on
+			state.openHandle = new Handle(state);
+			state.handle = nextHandle++;
+			state.connectMessage = connectMessage;
+			record(state, SESSION_OPENED, 0, 0);
+
+			return state.openHandle;
+		}
+	}
+
+	/**
+	 * Called when the last client leaves a session or its broker connection closes. Changes recorded with the handle after this are ignored. The session's
+	 * mappings are kept for the next session with the same client ID but a standby will not open the session when it takes over.
+	 */
+	void endSession(Handle handle) {
+
+		SessionState state = handle.state;
+		synchronized (state) {
+			if (state.openHandle == handle) {
+				state.openHandle = null;
+				state.connectMessage = null;
+				record(state, SESSION_ENDED, 0, 0);
+			}
+		}
+	}
+
+	/**
+	 * Called when a session is shut down with the proxy. Changes recorded with the handle after this are ignored. The session's mappings are kept for the
+	 * next session with the same client ID and a standby still opens the session when it takes over.
+	 */
+	void closeSession(Handle handle) {
+
+		SessionState state = handle.state;
+		synchronized (state) {
+			if (state.openHandle == handle) {
+				state.openHandle = null;
+			}
+		}
+	}
+
+	/**
+	 * @return The mappings recorded for a session as pairs of broker message ID and source message ID
+	 */
+	int[] getEntries(Handle handle) {
+
+		SessionState state = handle.state;
+		synchronized (state) {
+			return state.openHandle == handle ? state.getEntries() : new int[0];
+		}
+	}
+
+	/**
+	 * Records that a session sent a message to the broker with the specified ID
+	 */
+	void idAdded(Handle handle, int brokerMessageId, int sourceMessageId) {
+
+		SessionState state = handle.state;
+		synchronized (state) {
+			if (state.openHandle == handle) {
+				state.put(brokerMessageId, sourceMessageId);
+				record(state, ID_ADDED, brokerMessageId, sourceMessageId);
+			}
+		}
+	}
+
+	/**
+	 * Records that a session is no longer using the specified ID
+	 */
+	void idRemoved(Handle handle, int brokerMessageId) {
+
+		SessionState state = handle.state;
+		synchronized (state) {
+			if (state.openHandle == handle && state.remove(brokerMessageId)) {
+				record(state, ID_REMOVED, brokerMessageId, 0);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of mappings recorded for all sessions
+	 */
+	synchronized int size() {
+
+		int size = 0;
+		for (SessionState state : sessionsByClientId.values()) {
+			synchronized (state) {
+				size += state.entryCount;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return The connect messages of the sessions that have not ended
+	 */
+	synchronized List<ConnectMessage> getActiveSessions() {
+
+		List<ConnectMessage> connectMessages = new ArrayList<ConnectMessage>();
+		for (SessionState state : sessionsByClientId.values()) {
+			synchronized (state) {
+				if (state.connectMessage != null) {
+					connectMessages.add(state.connectMessage);
+				}
+			}
+		}
+
+		return connectMessages;
+	}
+
+	/**
+	 * Writes every record made before this is called to the file and the replicator without waiting for the writer thread. Package visible for testing.
+	 */
+	void flush() {
+
+		synchronized (writeLock) {
+			writeBatch();
+		}
+	}
+
+	/**
+	 * Sends every record written after this is called to the specified replicator. The current state is passed to
+	 * {@link SessionReplicator#replicationStarted(byte[])} first so the standby can build on it.
+	 * 
+	 * @param replicator
+	 *            The replicator to send records to. Null to stop.
+	 */
+	void replicateTo(SessionReplicator replicator) {
+
+		synchronized (writeLock) {
+			// set before the snapshot is taken so changes made while it is taken are recorded. The writer thread can't send them until the snapshot has been.
+			this.replicator = replicator;
+			updateRecording();
+
+			if (replicator != null) {
+				replicator.replicationStarted(snapshot(false).toByteArray());
+				startWriter();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the state of this journal with a snapshot from the primary proxy's journal. Only used on a standby before it takes over.
+	 * 
+	 * @param snapshot
+	 *            The bytes from {@link SessionReplicator#replicationStarted(byte[])}
+	 */
+	void replicateSnapshot(byte[] snapshot) throws IOException {
+
+		synchronized (writeLock) {
+			synchronized (this) {
+				DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+				readHeader(in, "replication snapshot");
+
+				// sessions still open here keep their handles but nothing they record is kept
+				for (SessionState state : sessionsByClientId.values()) {
+					synchronized (state) {
+						state.openHandle = null;
+					}
+				}
+				sessionsByClientId.clear();
+				sessionsByReplicatedHandle.clear();
+				readRecords(in, sessionsByReplicatedHandle, false, "replication snapshot");
+			}
+
+			// records of the replaced sessions are dropped by the rewrite
+			dirtySessions.clear();
+			compact();
+		}
+	}
+
+	/**
+	 * Applies records from the primary proxy's journal to this journal. Only used on a standby before it takes over.
+	 * 
+	 * @param records
+	 *            The bytes from a batch sent by the {@link SessionReplicator}
+	 */
+	synchronized void replicate(byte[] records) {
+
+		try {
+			readRecords(new DataInputStream(new ByteArrayInputStream(records)), sessionsByReplicatedHandle, true, "replication batch");
+		} catch (IOException e) {
+			// not possible when reading from memory
+			throw new RuntimeException(e);
+		}
+	}
+
+	private synchronized void load() throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			readHeader(in, file.toString());
+			readRecords(in, new HashMap<Integer, SessionState>(), false, file.toString());
+		} finally {
+			in.close();
+		}
+
+		Log.info("Loaded %d in-flight message IDs for %d client IDs from proxy session journal %s", size(), sessionsByClientId.size(), file);
+	}
+
+	private void readHeader(DataInputStream in, String source) throws IOException {
+
+		if (in.readInt() != MAGIC) {
+			throw new IOException(source + " is not a proxy session journal");
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported proxy session journal version: " + version);
+		}
+	}
+
+	/**
+	 * Reads records to the end of the stream or a partial record. Must be called while holding this journal's lock.
+	 * 
+	 * @param sessionsByRecordedHandle
+	 *            Sessions by the handle they were recorded with
+	 * @param rerecord
+	 *            True to record each change in this journal as it is read
+	 */
+	private void readRecords(DataInputStream in, Map<Integer, SessionState> sessionsByRecordedHandle, boolean rerecord, String source) throws IOException {
+
+		try {
+			for (;;) {
+				byte type = in.readByte();
+				int recordedHandle = in.readInt();
+				if (type == SESSION_OPENED) {
+					SessionState state = getState(in.readUTF());
+					ConnectMessage connectMessage = readConnectMessage(in, state.clientId);
+					sessionsByRecordedHandle.put(recordedHandle, state);
+					synchronized (state) {
+						state.connectMessage = connectMessage;
+						if (rerecord) {
+							record(state, SESSION_OPENED, 0, 0);
+						}
+					}
+				} else if (type == SESSION_ENDED) {
+					SessionState state = sessionsByRecordedHandle.get(recordedHandle);
+					if (state != null) {
+						synchronized (state) {
+							state.connectMessage = null;
+							if (rerecord) {
+								record(state, SESSION_ENDED, 0, 0);
+							}
+						}
+					}
+				} else if (type == ID_ADDED || type == ID_REMOVED) {
+					int brokerMessageId = in.readUnsignedShort();
+					int sourceMessageId = type == ID_ADDED ? in.readUnsignedShort() : 0;
+					SessionState state = sessionsByRecordedHandle.get(recordedHandle);
+					if (state != null) {
+						synchronized (state) {
+							if (type == ID_ADDED) {
+								state.put(brokerMessageId, sourceMessageId);
+							} else {
+								state.remove(brokerMessageId);
+							}
+							if (rerecord) {
+								record(state, type, brokerMessageId, sourceMessageId);
+							}
+						}
+					}
+				} else {
+					Log.warn("Proxy session journal %s has an unknown record type %d. The rest of the journal is ignored.", source, type);
+					return;
+				}
+			}
+		} catch (EOFException e) {
+			// the end of the journal or a partial record left by a crash
+		}
+	}
+
+	/**
+	 * Must be called while holding this journal's lock
+	 */
+	private SessionState getState(String clientId) {
+
+		SessionState state = sessionsByClientId.get(clientId);
+		if (state == null) {
+			state = new SessionState(clientId);
+			state.handle = nextHandle++;
+			sessionsByClientId.put(clientId, state);
+		}
+
+		return state;
+	}
+
+	/**
+	 * Encodes a record into the session's buffer for the writer thread. Must be called while holding the session's lock. Records from different sessions
+	 * may be written in any order because each record only changes the state of its own session.
+	 */
+	private void record(SessionState state, byte type, int brokerMessageId, int sourceMessageId) {
+
+		if (!recording) {
+			return;
+		}
+
+		try {
+			writeRecord(state.recordOut, type, state, brokerMessageId, sourceMessageId);
+		} catch (IOException e) {
+			// not possible when writing to memory
+			throw new RuntimeException(e);
+		}
+
+		if (!state.dirty) {
+			state.dirty = true;
+			dirtySessions.add(state);
+			LockSupport.unpark(writerThread);
+		}
+	}
+
+	/**
+	 * Collects the records of every dirty session and writes them to the file and the replicator. Compacts the file if it has grown enough. Must be called
+	 * while holding the write lock.
+	 */
+	private void writeBatch() {
+
+		if (closed) {
+			return;
+		}
+
+		batch.reset();
+		for (SessionState state = dirtySessions.poll(); state != null; state = dirtySessions.poll()) {
+			synchronized (state) {
+				state.records.moveTo(batch);
+				state.dirty = false;
+			}
+		}
+
+		if (batch.size() == 0) {
+			return;
+		}
+
+		if (replicator != null) {
+			replicator.append(batch.buffer(), 0, batch.size());
+		}
+
+		if (out != null) {
+			try {
+				batch.writeTo(out);
+
+				bytesSinceCompact += batch.size();
+				if (bytesSinceCompact >= compactBytes) {
+					compact();
+				}
+			} catch (IOException e) {
+				failed(e);
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the file with only the live mappings. Records made while the snapshot is taken are left in their sessions' buffers and written to the new
+	 * file after it. Replaying a record the snapshot already reflects sets the same state again. Must be called while holding the write lock.
+	 */
+	private void compact() throws IOException {
+
+		if (file == null) {
+			return;
+		}
+
+		if (out != null) {
+			out.close();
+		}
+
+		ByteArrayOutputStream snapshot = snapshot(true);
+		File tmp = new File(file.getPath() + ".tmp");
+		out = new FileOutputStream(tmp);
+		try {
+			snapshot.writeTo(out);
+		} finally {
+			out.close();
+		}
+
+		if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+			throw new IOException("Unable to replace " + file + " with " + tmp);
+		}
+
+		out = new FileOutputStream(file, true);
+		bytesSinceCompact = 0;
+	}
+
+	/**
+	 * Writes the header and the live state. Sessions that have ended and have no mappings left are skipped. Must be called while holding the write lock.
+	 * 
+	 * @param forgetEnded
+	 *            True to also forget the skipped sessions unless they have records the writer thread has not collected
+	 */
+	private ByteArrayOutputStream snapshot(boolean forgetEnded) {
+
+		List<SessionState> states;
+		synchronized (this) {
+			states = new ArrayList<SessionState>(sessionsByClientId.values());
+		}
+
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(snapshot);
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			for (SessionState state : states) {
+				synchronized (state) {
+					if (!state.isEnded()) {
+						writeRecord(out, SESSION_OPENED, state, 0, 0);
+						for (int entry : state.entries) {
+							if (entry != 0) {
+								writeRecord(out, ID_ADDED, state, entry >>> 16, entry & 0xffff);
+							}
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			// not possible when writing to memory
+			throw new RuntimeException(e);
+		}
+
+		if (forgetEnded) {
+			synchronized (this) {
+				Iterator<SessionState> iter = sessionsByClientId.values().iterator();
+				while (iter.hasNext()) {
+					SessionState state = iter.next();
+					synchronized (state) {
+						if (state.isEnded() && !state.dirty) {
+							iter.remove();
+						}
+					}
+				}
+			}
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Must be called while holding the write lock
+	 */
+	private void updateRecording() {
+		recording = !closed && (out != null || replicator != null);
+	}
+
+	/**
+	 * Must be called while holding the write lock
+	 */
+	private void startWriter() {
+
+		if (!writerStarted && !closed) {
+			writerStarted = true;
+			writerThread.setName("SessionJournalWriter");
+			writerThread.setDaemon(true);
+			writerThread.start();
+		}
+	}
+
+	private void doWrite() {
+
+		while (!closed) {
+			synchronized (writeLock) {
+				writeBatch();
+			}
+
+			// records made while the last batch was written are collected without waiting
+			if (dirtySessions.isEmpty()) {
+				LockSupport.park(this);
+			}
+		}
+	}
+
+	private void writeRecord(DataOutputStream out, byte type, SessionState state, int brokerMessageId, int sourceMessageId) throws IOException {
+
+		out.writeByte(type);
+		out.writeInt(state.handle);
+		if (type == SESSION_OPENED) {
+			out.writeUTF(state.clientId);
+			writeConnectMessage(out, state.connectMessage);
+		} else if (type == ID_ADDED || type == ID_REMOVED) {
+			out.writeShort(brokerMessageId);
+			if (type == ID_ADDED) {
+				out.writeShort(sourceMessageId);
+			}
+		}
+	}
+
+	private void writeConnectMessage(DataOutputStream out, ConnectMessage message) throws IOException {
+
+		out.writeBoolean(message != null);
+		if (message == null) {
+			return;
+		}
+
+		out.writeBoolean(message.isCleanSession());
+		out.writeShort(message.getKeepAliveSeconds());
+		writeString(out, message.getUserName());
+		writeString(out, recordPasswords ? message.getPassword() : null);
+		writeString(out, message.getWillTopic());
+		if (message.getWillTopic() != null) {
+			writeString(out, message.getWillMessage());
+			out.writeByte(message.getWillQoSLevel());
+			out.writeBoolean(message.isWillRetain());
+		}
+	}
+
+	private static ConnectMessage readConnectMessage(DataInputStream in, String clientId) throws IOException {
+
+		if (!in.readBoolean()) {
+			return null;
+		}
+
+		boolean cleanSession = in.readBoolean();
+		int keepAliveSeconds = in.readUnsignedShort();
+		String userName = readString(in);
+		String password = readString(in);
+		String willTopic = readString(in);
+		if (willTopic == null) {
+			return new ConnectMessage(clientId, cleanSession, keepAliveSeconds, userName, password);
+		}
+
+		String willMessage = readString(in);
+		QoS willQos = QoS.lookup(in.readUnsignedByte());
+		boolean willRetain = in.readBoolean();
+		return new ConnectMessage(clientId, cleanSession, keepAliveSeconds, userName, password, willTopic, willMessage, willQos, willRetain);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private void failed(IOException e) {
+
+		Log.error(e, "Unable to write to proxy session journal %s. No more changes will be recorded in the file.", file);
+		try {
+			out.close();
+		} catch (IOException ignore) {
+		}
+		out = null;
+		updateRecording();
+	}
+
+	/**
+	 * Identifies a session opened in the journal. Changes recorded with a handle are ignored once its session has ended, closed, or been opened again.
+	 */
+	static final class Handle {
+
+		private final SessionState state;
+
+		private Handle(SessionState state) {
+			this.state = state;
+		}
+	}
+
+	/**
+	 * A byte array output stream whose bytes can be moved to another without copying them to a new array
+	 */
+	private static final class RecordBuffer extends ByteArrayOutputStream {
+
+		RecordBuffer(int size) {
+			super(size);
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+
+		void moveTo(RecordBuffer target) {
+			target.write(buf, 0, count);
+			reset();
+		}
+	}
+
+	/**
+	 * The state recorded for a client ID. Guarded by its own lock.
+	 */
+	private static final class SessionState {
+
+		private final String clientId;
+
+		// records the writer thread has not collected yet
+		private final RecordBuffer records = new RecordBuffer(64);
+		private final DataOutputStream recordOut = new DataOutputStream(records);
+
+		// open addressed by broker message ID. Each entry is the broker message ID in the high 16 bits and the source message ID in the low 16 bits. Broker
+		// message IDs are never 0 so 0 is an empty slot.
+		private int[] entries = new int[8];
+		private int entryCount;
+
+		// the handle written in this session's records
+		private int handle;
+
+		// null once the session has ended or closed
+		private Handle openHandle;
+
+		// null once the session has ended
+		private ConnectMessage connectMessage;
+
+		// true while this session is in the dirty queue
+		private boolean dirty;
+
+		SessionState(String clientId) {
+			this.clientId = clientId;
+		}
+
+		boolean isEnded() {
+			return entryCount == 0 && connectMessage == null;
+		}
+
+		void put(int brokerMessageId, int sourceMessageId) {
+
+			int entry = brokerMessageId << 16 | sourceMessageId;
+			int mask = entries.length - 1;
+			int i = brokerMessageId & mask;
+			for (; entries[i] != 0; i = (i + 1) & mask) {
+				if (entries[i] >>> 16 == brokerMessageId) {
+					entries[i] = entry;
+					return;
+				}
+			}
+
+			entries[i] = entry;
+			if (++entryCount * 2 > entries.length) {
+				int[] old = entries;
+				entries = new int[old.length * 2];
+				mask = entries.length - 1;
+				for (int oldEntry : old) {
+					if (oldEntry != 0) {
+						for (i = (oldEntry >>> 16) & mask; entries[i] != 0; i = (i + 1) & mask) {
+						}
+						entries[i] = oldEntry;
+					}
+				}
+			}
+		}
+
+		boolean remove(int brokerMessageId) {
+
+			int mask = entries.length - 1;
+			int i = brokerMessageId & mask;
+			while (entries[i] >>> 16 != brokerMessageId) {
+				if (entries[i] == 0) {
+					return false;
+				}
+				i = (i + 1) & mask;
+			}
+
+			// move later entries in the same probe run into the hole if that is still on their path from their home slot
+			for (int j = (i + 1) & mask; entries[j] != 0; j = (j + 1) & mask) {
+				int home = (entries[j] >>> 16) & mask;
+				if (((j - home) & mask) >= ((j - i) & mask)) {
+					entries[i] = entries[j];
+					i = j;
+				}
+			}
+
+			entries[i] = 0;
+			entryCount--;
+			return true;
+		}
+
+		int[] getEntries() {
+
+			int i = 0;
+			int[] pairs = new int[entryCount * 2];
+			for (int entry : entries) {
+				if (entry != 0) {
+					pairs[i++] = entry >>> 16;
+					pairs[i++] = entry & 0xffff;
+				}
+			}
+
+			return pairs;
+		}
+	}
+
+	private final class WriterThread extends Thread {
+
+		@Override
+		public void run() {
+
+			doWrite();
+		}
+	}
+}
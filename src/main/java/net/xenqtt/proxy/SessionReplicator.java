@@ -0,0 +1,386 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import net.xenqtt.Log;
+import net.xenqtt.XenqttUtil;
+
+/**
+ * Streams the records written to a {@link SessionJournal} to a {@link ProxyStandby standby} proxy over TCP. A standby that connects is first sent the
+ * journal's current state and then every record written after that. Records are sent in batches every {@link #DEFAULT_BATCH_MILLIS batch interval}, or
+ * sooner once {@link #MAX_BATCH_BYTES} have accumulated. An empty batch is sent when there is nothing to replicate so the standby can tell the primary is
+ * still alive. One standby is served at a time. The replicator listens on the loopback address unless it is given a {@link #setBindAddress(String) bind
+ * address}.
+ * <p>
+ * A standby that connects is sent a random challenge and must answer with the SHA-256 digest of the challenge followed by the {@link #setSecret(String)
+ * shared secret} within {@link #HANDSHAKE_MILLIS}. Otherwise it is disconnected, so a peer that does not know the secret can neither receive the sessions nor
+ * keep the real standby from connecting. The digest is taken over the challenge alone if there is no secret.
+ * <p>
+ * If a standby falls so far behind that {@link #DEFAULT_MAX_PENDING_BYTES} of records are waiting to be sent to it the replicator drops the link instead of
+ * buffering more. The standby reconnects and starts again from a new snapshot.
+ * <p>
+ * Each batch is a 4 byte length followed by that many bytes of journal records. The first batch after a standby connects is a snapshot that starts with the
+ * journal file header.
+ */
+public final class SessionReplicator implements Closeable {
+
+	/**
+	 * Milliseconds between batches
+	 */
+	public static final long DEFAULT_BATCH_MILLIS = 100;
+
+	/**
+	 * Pending bytes at which a batch is sent without waiting for the batch interval
+	 */
+	static final int MAX_BATCH_BYTES = 64 * 1024;
+
+	/**
+	 * Bytes of records waiting to be sent, not counting the snapshot, at which the replicator drops the link to the standby
+	 */
+	public static final int DEFAULT_MAX_PENDING_BYTES = 32 << 20;
+
+	/**
+	 * Milliseconds a standby has to answer the challenge after it connects
+	 */
+	static final int HANDSHAKE_MILLIS = 1000;
+
+	static final int CHALLENGE_BYTES = 16;
+
+	private final SessionJournal journal;
+	private final long batchMillis;
+	private final int maxPendingBytes;
+	private final Thread replicatorThread = new ReplicatorThread();
+	private final SecureRandom random = new SecureRandom();
+
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private boolean replicating;
+
+	// the pending size at which the link is dropped. Raised by the size of the snapshot until it is sent.
+	private int pendingLimit;
+
+	private String bindAddress;
+	private String secret;
+
+	private ServerSocket server;
+	private volatile Socket standby;
+	private volatile int port;
+	private volatile boolean closed;
+
+	/**
+	 * @param journal
+	 *            The journal whose records are replicated
+	 * @param port
+	 *            The port for standby proxies to connect to. 0 will choose an arbitrary available port which you can get from {@link #getPort()} after
+	 *            calling {@link #init()}.
+	 */
+	public SessionReplicator(SessionJournal journal, int port) {
+		this(journal, port, DEFAULT_BATCH_MILLIS);
+	}
+
+	/**
+	 * @param journal
+	 *            The journal whose records are replicated
+	 * @param port
+	 *            The port for standby proxies to connect to. 0 will choose an arbitrary available port which you can get from {@link #getPort()} after
+	 *            calling {@link #init()}.
+	 * @param batchMillis
+	 *            Milliseconds between batches. A standby must be configured to wait longer than this before it takes over.
+	 */
+	public SessionReplicator(SessionJournal journal, int port, long batchMillis) {
+		this(journal, port, batchMillis, DEFAULT_MAX_PENDING_BYTES);
+	}
+
+	/**
+	 * Package visible for testing
+	 * 
+	 * @param maxPendingBytes
+	 *            Bytes of records waiting to be sent, not counting the snapshot, at which the link to the standby is dropped
+	 */
+	SessionReplicator(SessionJournal journal, int port, long batchMillis, int maxPendingBytes) {
+		this.journal = XenqttUtil.validateNotNull("journal", journal);
+		this.port = XenqttUtil.validateInRange("port", port, 0, 65535);
+		this.batchMillis = XenqttUtil.validateGreaterThan("batchMillis", batchMillis, 0L);
+		this.maxPendingBytes = XenqttUtil.validateGreaterThan("maxPendingBytes", maxPendingBytes, 0);
+	}
+
+	/**
+	 * Sets the address to listen on. Must be called before {@link #init()}.
+	 * 
+	 * @param bindAddress
+	 *            The host name or IP address of the interface to listen on. 0.0.0.0 listens on all interfaces. Null, the default, listens on the loopback
+	 *            address only.
+	 */
+	public void setBindAddress(String bindAddress) {
+		this.bindAddress = bindAddress;
+	}
+
+	/**
+	 * Sets the secret a standby must prove it knows before it is sent anything. The standby must be given the same secret with
+	 * {@link ProxyStandby#setSecret(String)}. Must be called before {@link #init()}.
+	 * 
+	 * @param secret
+	 *            The shared secret. Null, the default, for none.
+	 */
+	public void setSecret(String secret) {
+		this.secret = secret;
+	}
+
+	/**
+	 * Starts listening for a standby. Blocks until the replicator is listening.
+	 */
+	public void init() {
+
+		try {
+			server = new ServerSocket(port, 50, InetAddress.getByName(bindAddress));
+			port = server.getLocalPort();
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to start the session replicator on port " + port, e);
+		}
+
+		replicatorThread.setName("SessionReplicator");
+		replicatorThread.setDaemon(true);
+		replicatorThread.start();
+	}
+
+	/**
+	 * Stops replicating and disconnects the standby. Blocks until the replicator is stopped. A standby treats this like a failure of the primary and takes
+	 * over.
+	 */
+	@Override
+	public void close() {
+
+		closed = true;
+		journal.replicateTo(null);
+
+		try {
+			if (server != null) {
+				server.close();
+				closeStandby();
+				synchronized (this) {
+					notifyAll();
+				}
+				replicatorThread.join();
+			}
+		} catch (Exception e) {
+			Log.error(e, "Failed to shut down the session replicator");
+		}
+	}
+
+	/**
+	 * @return The port standby proxies connect to. Not valid until after {@link #init()} is called.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Called by the journal when a standby connects, before any record written after the snapshot is {@link #append(byte[], int, int) appended}
+	 * 
+	 * @param snapshot
+	 *            The journal's current state
+	 */
+	synchronized void replicationStarted(byte[] snapshot) {
+
+		pending = new ByteArrayOutputStream(Math.max(snapshot.length, 1024));
+		pending.write(snapshot, 0, snapshot.length);
+		pendingLimit = snapshot.length + maxPendingBytes;
+		replicating = true;
+		notifyAll();
+	}
+
+	/**
+	 * Called by the journal's writer thread with each batch of records written while a standby is connected
+	 */
+	synchronized void append(byte[] records, int offset, int length) {
+
+		if (!replicating) {
+			return;
+		}
+
+		if (pending.size() + length > pendingLimit) {
+			Log.warn("The standby proxy is more than %d bytes behind. Dropping the replication link so it starts again from a new snapshot.", maxPendingBytes);
+			replicating = false;
+			pending = new ByteArrayOutputStream();
+			closeStandby();
+			notifyAll();
+			return;
+		}
+
+		pending.write(records, offset, length);
+		if (pending.size() >= MAX_BATCH_BYTES) {
+			notifyAll();
+		}
+	}
+
+	private void doIo() {
+
+		try {
+			while (!closed) {
+				standby = server.accept();
+				try {
+					if (!handshake()) {
+						continue;
+					}
+					replicate();
+				} catch (IOException e) {
+					if (!closed) {
+						Log.warn(e, "Lost the replication link to the standby proxy at %s", standby.getRemoteSocketAddress());
+					}
+				} finally {
+					journal.replicateTo(null);
+					synchronized (this) {
+						replicating = false;
+						pending = new ByteArrayOutputStream();
+					}
+					closeStandby();
+				}
+			}
+		} catch (SocketException ignore) {
+			// the server socket was closed
+		} catch (Exception e) {
+			Log.error(e, "Session replicator IO error");
+		}
+	}
+
+	/**
+	 * @return True if the standby answered the challenge correctly
+	 */
+	private boolean handshake() throws IOException {
+
+		byte[] challenge = new byte[CHALLENGE_BYTES];
+		random.nextBytes(challenge);
+
+		standby.setSoTimeout(HANDSHAKE_MILLIS);
+		DataOutputStream out = new DataOutputStream(standby.getOutputStream());
+		out.write(challenge);
+		out.flush();
+
+		byte[] response = new byte[challengeResponse(challenge, null).length];
+		try {
+			new DataInputStream(new BufferedInputStream(standby.getInputStream())).readFully(response);
+		} catch (IOException e) {
+			Log.warn("Rejected a standby proxy connection from %s that did not answer the replication challenge. Cause: %s", standby.getRemoteSocketAddress(), e);
+			return false;
+		}
+		standby.setSoTimeout(0);
+
+		if (!MessageDigest.isEqual(challengeResponse(challenge, secret), response)) {
+			Log.warn("Rejected a standby proxy connection from %s that does not know the replication secret", standby.getRemoteSocketAddress());
+			return false;
+		}
+
+		return true;
+	}
+
+	private void replicate() throws IOException {
+
+		Log.info("Standby proxy connected from %s", standby.getRemoteSocketAddress());
+
+		standby.setTcpNoDelay(true);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(standby.getOutputStream()));
+		journal.replicateTo(this);
+
+		while (!closed) {
+			ByteArrayOutputStream batch = nextBatch();
+			out.writeInt(batch.size());
+			batch.writeTo(out);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Package visible for testing
+	 * 
+	 * @return The records appended since the last batch. Waits for the batch interval unless {@link #MAX_BATCH_BYTES} are pending first.
+	 */
+	synchronized ByteArrayOutputStream nextBatch() {
+
+		long now = System.currentTimeMillis();
+		long end = now + batchMillis;
+		while (!closed && pending.size() < MAX_BATCH_BYTES && now < end) {
+			try {
+				wait(end - now);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			now = System.currentTimeMillis();
+		}
+
+		ByteArrayOutputStream batch = pending;
+		pending = new ByteArrayOutputStream();
+		pendingLimit = maxPendingBytes;
+
+		return batch;
+	}
+
+	/**
+	 * @return The answer to a challenge from the replicator: the SHA-256 digest of the challenge followed by the UTF-8 bytes of the secret
+	 */
+	static byte[] challengeResponse(byte[] challenge, String secret) {
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(challenge);
+			if (secret != null) {
+				digest.update(secret.getBytes("UTF-8"));
+			}
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			// every Java platform supports UTF-8
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void closeStandby() {
+
+		Socket socket = standby;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException ignore) {
+			}
+		}
+	}
+
+	private final class ReplicatorThread extends Thread {
+
+		@Override
+		public void run() {
+
+			doIo();
+		}
+	}
+}
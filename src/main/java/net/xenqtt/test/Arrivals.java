@@ -0,0 +1,76 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.test;
+
+import java.util.Random;
+
+/**
+ * How the {@link XenqttTestClient test client} spaces messages when it publishes at a fixed rate
+ */
+enum Arrivals {
+
+	/**
+	 * Messages are published at exactly the configured rate
+	 */
+	CONSTANT("constant") {
+
+		@Override
+		double nextIntervalNanos(double ratePerSecond, Random random) {
+			return NANOS_PER_SECOND / ratePerSecond;
+		}
+	},
+
+	/**
+	 * The time between messages is exponentially distributed with a mean that gives the configured rate. This is what independent devices publishing at
+	 * random produce.
+	 */
+	POISSON("poisson") {
+
+		@Override
+		double nextIntervalNanos(double ratePerSecond, Random random) {
+			return -Math.log(1 - random.nextDouble()) * NANOS_PER_SECOND / ratePerSecond;
+		}
+	};
+
+	private static final double NANOS_PER_SECOND = 1000000000D;
+
+	private final String type;
+
+	private Arrivals(String type) {
+		this.type = type;
+	}
+
+	/**
+	 * @return Nanos from the intended start of one message to the intended start of the next
+	 */
+	abstract double nextIntervalNanos(double ratePerSecond, Random random);
+
+	/**
+	 * Get an {@link Arrivals} instance based on a given textual representation.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the specified {@code type} does not correspond to a known arrival type
+	 */
+	static Arrivals getArrivals(String type) {
+		for (Arrivals arrivals : values()) {
+			if (arrivals.type.equalsIgnoreCase(type)) {
+				return arrivals;
+			}
+		}
+
+		throw new IllegalArgumentException(String.format("Unrecognized arrivals: %s", type));
+	}
+}
@@ -0,0 +1,148 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.xenqtt.message.CapturedFrame;
+import net.xenqtt.message.MessageType;
+import net.xenqtt.message.WireCapture;
+
+/**
+ * The PUBLISH traffic the {@link XenqttTestClient test client} replays, read from a {@link WireCapture} file. Each connection in the capture is replayed by
+ * its own client. Only PUBLISH frames received by the capturing side are replayed.
+ */
+final class ReplayPlan {
+
+	private final List<Connection> connections = new ArrayList<Connection>();
+	private final long firstTimestamp;
+	private final int messageCount;
+
+	/**
+	 * @param frames
+	 *            The frames from the capture, oldest first
+	 * @param port
+	 *            Only connections with this local or remote port are replayed. -1 to replay all connections.
+	 */
+	ReplayPlan(List<CapturedFrame> frames, int port) {
+
+		Map<Long, Connection> connectionsByPorts = new LinkedHashMap<Long, Connection>();
+		long first = -1;
+		int count = 0;
+		for (CapturedFrame frame : frames) {
+			if (frame.isSent() || (port >= 0 && frame.getLocalPort() != port && frame.getRemotePort() != port)) {
+				continue;
+			}
+
+			long ports = (long) frame.getLocalPort() << 16 | frame.getRemotePort();
+			Connection connection = connectionsByPorts.get(ports);
+
+			MessageType type = frame.getMessageType();
+			if (type == MessageType.CONNECT) {
+				// a new connection that happened to reuse the ports of an earlier one is replayed by its own client
+				connection = new Connection(frame.getClientId());
+				connectionsByPorts.put(ports, connection);
+				connections.add(connection);
+			} else if (type == MessageType.PUBLISH && frame.getTopicName() != null) {
+				if (connection == null) {
+					connection = new Connection(null);
+					connectionsByPorts.put(ports, connection);
+					connections.add(connection);
+				}
+				connection.publishes.add(frame);
+				if (first < 0) {
+					first = frame.getTimestamp();
+				}
+				count++;
+			}
+		}
+
+		// connections that only connected have nothing to replay
+		for (int i = connections.size() - 1; i >= 0; i--) {
+			if (connections.get(i).publishes.isEmpty()) {
+				connections.remove(i);
+			}
+		}
+
+		this.firstTimestamp = first;
+		this.messageCount = count;
+	}
+
+	/**
+	 * Reads the plan from a {@link WireCapture} file
+	 * 
+	 * @see #ReplayPlan(List, int)
+	 */
+	static ReplayPlan load(String file, int port) throws IOException {
+		return new ReplayPlan(WireCapture.read(new File(file)), port);
+	}
+
+	/**
+	 * @return The connections to replay, in the order they first appear in the capture
+	 */
+	List<Connection> getConnections() {
+		return connections;
+	}
+
+	/**
+	 * @return The total number of messages to replay across all connections
+	 */
+	int getMessageCount() {
+		return messageCount;
+	}
+
+	/**
+	 * @param speed
+	 *            How many times faster than it was captured to replay the traffic. 0 to replay as fast as possible.
+	 * 
+	 * @return Millis after the replay starts that the specified frame should be published
+	 */
+	long getReplayOffsetMillis(CapturedFrame frame, double speed) {
+		return speed == 0 ? 0 : (long) ((frame.getTimestamp() - firstTimestamp) / speed);
+	}
+
+	/**
+	 * A connection in the capture
+	 */
+	static final class Connection {
+
+		private final String clientId;
+		private final List<CapturedFrame> publishes = new ArrayList<CapturedFrame>();
+
+		private Connection(String clientId) {
+			this.clientId = clientId;
+		}
+
+		/**
+		 * @return The client ID the connection used or null if its CONNECT was not captured
+		 */
+		String getClientId() {
+			return clientId;
+		}
+
+		/**
+		 * @return The PUBLISH frames received on the connection, oldest first
+		 */
+		List<CapturedFrame> getPublishes() {
+			return publishes;
+		}
+	}
+}
@@ -42,7 +42,7 @@ final class TestClientAsyncClientListener implements AsyncClientListener {
 	 * @param stageControl
 	 *            The {@link StageControl control} apparatus being used to manage the life-cycle of the test
 	 * @param inFlight
-	 *            A {@link Semaphore semaphore} that is used to regular in-flight messages (publish pathway)
+	 *            A {@link Semaphore semaphore} that is used to regular in-flight messages (publish pathway). Null if in-flight messages are not limited.
 	 */
 	TestClientAsyncClientListener(XenqttTestClientStats stats, StageControl stageControl, Semaphore inFlight) {
 		this.stats = stats;
@@ -98,7 +98,9 @@ final class TestClientAsyncClientListener implements AsyncClientListener {
 	@Override
 	public void published(MqttClient client, PublishMessage message) {
 		stats.publishComplete(message);
-		inFlight.release();
+		if (inFlight != null) {
+			inFlight.release();
+		}
 		stageControl.messagePublished();
 	}
 
@@ -64,6 +64,13 @@ public final class TestClientConfiguration {
 	final int maxInFlightMessages;
 	final boolean unsubscribeAtEnd;
 	final int messageSize;
+	final String replayFile;
+	final double replaySpeed;
+	final int replayPort;
+	final boolean replayClientIds;
+	final boolean replayStampPayloads;
+	final double publishRate;
+	final Arrivals arrivals;
 
 	public TestClientConfiguration(AppContext arguments) {
 		Properties properties = getConfigurationProperties(arguments.getArgAsString("-c", null));
@@ -91,6 +98,13 @@ public final class TestClientConfiguration {
 		maxInFlightMessages = Integer.parseInt(properties.getProperty("client.maxInFlightMessages", String.valueOf(Integer.MAX_VALUE)));
 		unsubscribeAtEnd = Boolean.parseBoolean(properties.getProperty("client.unsubscribeAtEnd", "false"));
 		messageSize = Integer.parseInt(properties.getProperty("client.messageSize", "0"));
+		replayFile = properties.getProperty("client.replayFile");
+		replaySpeed = getReplaySpeed(properties.getProperty("client.replaySpeed", "1"));
+		replayPort = Integer.parseInt(properties.getProperty("client.replayPort", "-1"));
+		replayClientIds = Boolean.parseBoolean(properties.getProperty("client.replayClientIds", "false"));
+		replayStampPayloads = Boolean.parseBoolean(properties.getProperty("client.replayStampPayloads", "true"));
+		publishRate = Double.parseDouble(properties.getProperty("client.publishRate", "0"));
+		arrivals = Arrivals.getArrivals(properties.getProperty("client.arrivals", "constant"));
 
 		validate();
 	}
@@ -149,6 +163,20 @@ public final class TestClientConfiguration {
 			throw new IllegalArgumentException("The client ID cannot be omitted.");
 		}
 
+		if (publishRate < 0) {
+			throw new IllegalArgumentException(String.format("Invalid publish rate: %s", publishRate));
+		}
+
+		if (isReplay()) {
+			if (isOpenLoop()) {
+				throw new IllegalStateException("A publish rate cannot be specified when replaying a capture. The capture determines the rate.");
+			}
+			if (publishers > 0) {
+				throw new IllegalStateException("Publishers cannot be specified when replaying a capture. Each captured connection gets its own publisher.");
+			}
+			return;
+		}
+
 		if (XenqttUtil.isNull(topicToPublishTo) && XenqttUtil.isNull(topicToSubscribeTo)) {
 			throw new IllegalStateException("Both the topic to subscribe to and the topic to publish to cannot be null.");
 		}
@@ -162,6 +190,19 @@ public final class TestClientConfiguration {
 		}
 	}
 
+	private double getReplaySpeed(String speed) {
+		if ("max".equalsIgnoreCase(speed)) {
+			return 0;
+		}
+
+		double value = Double.parseDouble(speed);
+		if (value <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid replay speed: %s", speed));
+		}
+
+		return value;
+	}
+
 	private long getDurationMillis(String testDuration) {
 		Matcher matcher = DURATION_PATTERN.matcher(testDuration);
 		if (!matcher.matches()) {
@@ -211,4 +252,12 @@ public final class TestClientConfiguration {
 		return messagesToPublish == 0 && messagesToReceive == 0 && duration > 0;
 	}
 
+	boolean isReplay() {
+		return replayFile != null;
+	}
+
+	boolean isOpenLoop() {
+		return publishRate > 0;
+	}
+
 }
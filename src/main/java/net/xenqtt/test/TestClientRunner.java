@@ -16,6 +16,7 @@
 package net.xenqtt.test;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -24,10 +25,15 @@ import java.util.Date;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.xenqtt.AppContext;
+import net.xenqtt.ConfigurableThreadFactory;
 import net.xenqtt.Log;
 import net.xenqtt.XenqttUtil;
 import net.xenqtt.client.AsyncClientListener;
@@ -36,6 +42,7 @@ import net.xenqtt.client.MqttClientConfig;
 import net.xenqtt.client.MqttClientFactory;
 import net.xenqtt.client.PublishMessage;
 import net.xenqtt.client.Subscription;
+import net.xenqtt.message.CapturedFrame;
 import net.xenqtt.message.QoS;
 import net.xenqtt.test.XenqttTestClient.ClientType;
 import net.xenqtt.test.XenqttTestClientStats.Gap;
@@ -58,22 +65,52 @@ final class TestClientRunner extends Thread {
 
 	private final MqttClientFactory factory;
 
+	private final ReplayPlan replayPlan;
+	private final int publishers;
+
+	private OpenLoopPublisher openLoopPublisher;
+
 	TestClientRunner(AppContext context) {
 		super("TestClientRunner");
 		this.context = context;
 		configuration = new TestClientConfiguration(context);
 		async = configuration.clientType == ClientType.ASYNC;
+		replayPlan = loadReplayPlan();
+		publishers = replayPlan != null ? replayPlan.getConnections().size() : configuration.publishers;
 
 		stats = new XenqttTestClientStats(configuration.clientType);
 		statsReporterThread = new StatsReporter(stats);
 		stageControl = createStageControl();
-		inFlight = new Semaphore(configuration.maxInFlightMessages);
+		// an open loop never waits on in-flight messages because that would hide the latency it is trying to measure
+		inFlight = configuration.isOpenLoop() ? null : new Semaphore(configuration.maxInFlightMessages);
 		listener = new TestClientAsyncClientListener(stats, stageControl, inFlight);
 		factory = createMqttClientFactory();
 	}
 
+	private ReplayPlan loadReplayPlan() {
+		if (!configuration.isReplay()) {
+			return null;
+		}
+
+		try {
+			ReplayPlan plan = ReplayPlan.load(configuration.replayFile, configuration.replayPort);
+			if (plan.getMessageCount() == 0) {
+				throw new IllegalStateException(String.format("There are no PUBLISH messages to replay in %s", configuration.replayFile));
+			}
+
+			return plan;
+		} catch (IOException ex) {
+			throw new IllegalStateException(String.format("Unable to read the replay file: %s", configuration.replayFile), ex);
+		}
+	}
+
 	private StageControl createStageControl() {
-		int connectionsToAwait = async ? configuration.publishers + configuration.subscribers : 0;
+		int connectionsToAwait = async ? publishers + configuration.subscribers : 0;
+		if (replayPlan != null) {
+			int messagesToReceive = configuration.subscribers > 0 ? configuration.messagesToReceive : 0;
+			return new StageControl(connectionsToAwait, replayPlan.getMessageCount(), messagesToReceive);
+		}
+
 		if (configuration.isTimeBasedTest()) {
 			return new StageControl(connectionsToAwait, configuration.duration);
 		}
@@ -113,7 +150,14 @@ final class TestClientRunner extends Thread {
 			Map<Type, List<MqttClient>> clients = createClients();
 			doConnect(clients);
 
-			if (configuration.topicToPublishTo != null && configuration.publishers > 0) {
+			if (replayPlan != null) {
+				startReplay(clients.get(Type.PUBLISHERS));
+			} else if (configuration.topicToPublishTo != null && configuration.isOpenLoop() && configuration.publishers > 0) {
+				int messagesToPublish = configuration.publishers * configuration.messagesToPublish;
+				openLoopPublisher = new OpenLoopPublisher(clients.get(Type.PUBLISHERS), async, configuration.topicToPublishTo, configuration.messageSize,
+						messagesToPublish, configuration.qos, configuration.publishRate, configuration.arrivals, stats, stageControl);
+				openLoopPublisher.start();
+			} else if (configuration.topicToPublishTo != null && configuration.publishers > 0) {
 				int id = 0;
 				AtomicInteger messageIds = new AtomicInteger();
 				for (MqttClient client : clients.get(Type.PUBLISHERS)) {
@@ -140,10 +184,21 @@ final class TestClientRunner extends Thread {
 		}
 	}
 
+	private void startReplay(List<MqttClient> clients) {
+		AtomicInteger messageIds = new AtomicInteger();
+		long startTime = System.currentTimeMillis();
+		int id = 0;
+		for (ReplayPlan.Connection connection : replayPlan.getConnections()) {
+			new ReplayPublisher(id, clients.get(id), async, inFlight, replayPlan, connection, configuration.replaySpeed, startTime,
+					configuration.replayStampPayloads, messageIds, stats, stageControl).start();
+			id++;
+		}
+	}
+
 	private Map<Type, List<MqttClient>> createClients() {
 		Map<Type, List<MqttClient>> clients = new EnumMap<Type, List<MqttClient>>(Type.class);
-		if (configuration.publishers > 0) {
-			clients.putAll(createClients(Type.PUBLISHERS, configuration.publishers, listener));
+		if (publishers > 0) {
+			clients.putAll(createClients(Type.PUBLISHERS, publishers, listener));
 		}
 
 		if (configuration.subscribers > 0) {
@@ -177,7 +232,7 @@ final class TestClientRunner extends Thread {
 		if (clientList != null) {
 			int idSuffix = 0;
 			for (MqttClient client : clientList) {
-				String clientId = createClientId(Type.PUBLISHERS, configuration.clusteredPublisher, configuration.clientId, idSuffix++);
+				String clientId = createPublisherClientId(idSuffix++);
 				if (configuration.username != null) {
 					client.connect(clientId, configuration.cleanSession, configuration.username, configuration.password);
 				} else {
@@ -202,6 +257,17 @@ final class TestClientRunner extends Thread {
 		stageControl.awaitConnect();
 	}
 
+	private String createPublisherClientId(int idSuffix) {
+		if (replayPlan != null && configuration.replayClientIds) {
+			String capturedClientId = replayPlan.getConnections().get(idSuffix).getClientId();
+			if (capturedClientId != null) {
+				return capturedClientId;
+			}
+		}
+
+		return createClientId(Type.PUBLISHERS, configuration.clusteredPublisher, configuration.clientId, idSuffix);
+	}
+
 	private String createClientId(Type type, boolean clustered, String clientId, int idSuffix) {
 		String base = clientId + type.getName();
 		if (!clustered) {
@@ -212,6 +278,10 @@ final class TestClientRunner extends Thread {
 	}
 
 	private void shutdown(Map<Type, List<MqttClient>> clients) {
+		if (openLoopPublisher != null) {
+			openLoopPublisher.shutdown();
+		}
+
 		statsReporterThread.interrupt();
 		try {
 			statsReporterThread.join(1000);
@@ -241,6 +311,10 @@ final class TestClientRunner extends Thread {
 			writer.write(String.format("Test end:    %s\n", stats.getTestEnd()));
 			writer.write(String.format("Client type: %s\n", stats.getClientType()));
 			writer.write(String.format("Test duration: %.2f seconds\n", stats.getTestDurationSeconds()));
+			if (configuration.isOpenLoop()) {
+				writer.write(String.format("Publish mode:  open loop at %.2f per second with %s arrivals\n", configuration.publishRate,
+						configuration.arrivals.name().toLowerCase()));
+			}
 			writer.write("\n----------------------------------------   Publish Stats   ----------------------------------------\n");
 			writer.write(String.format("Messages Published:              %d\n", stats.getNumMessagesPublished()));
 			writer.write(String.format("Average Publish Time:            %.2f\n", stats.getAveragePublishDuration()));
@@ -401,21 +475,7 @@ final class TestClientRunner extends Thread {
 			int size = 12 + messageSize;
 			byte[] payload = new byte[size];
 
-			long now = System.currentTimeMillis();
-			payload[0] = (byte) ((now & 0xff00000000000000L) >> 56);
-			payload[1] = (byte) ((now & 0x00ff000000000000L) >> 48);
-			payload[2] = (byte) ((now & 0x0000ff0000000000L) >> 40);
-			payload[3] = (byte) ((now & 0x000000ff00000000L) >> 32);
-			payload[4] = (byte) ((now & 0x00000000ff000000L) >> 24);
-			payload[5] = (byte) ((now & 0x0000000000ff0000L) >> 16);
-			payload[6] = (byte) ((now & 0x000000000000ff00L) >> 8);
-			payload[7] = (byte) (now & 0x00000000000000ffL);
-
-			int id = messageIds.getAndIncrement();
-			payload[8] = (byte) ((id & 0xff000000) >> 24);
-			payload[9] = (byte) ((id & 0x00ff0000) >> 16);
-			payload[10] = (byte) ((id & 0x0000ff00) >> 8);
-			payload[11] = (byte) (id & 0x000000ff);
+			stampPayload(payload, messageIds.getAndIncrement());
 
 			for (int i = 12; i < size; i++) {
 				payload[i] = (byte) ((i - 12) & 0xff);
@@ -426,4 +486,210 @@ final class TestClientRunner extends Thread {
 
 	}
 
+	/**
+	 * Publishes at a target aggregate rate across all the publisher clients from a single scheduling thread. This is an open loop: the time each message is
+	 * due is decided up front, never by when earlier messages completed. Each payload is stamped with the time the message was due rather than the time it
+	 * was sent so publish duration and latency include any time spent waiting behind a slow broker instead of hiding it.
+	 */
+	private static final class OpenLoopPublisher extends Thread {
+
+		private final List<MqttClient> clients;
+		private final String publishTopic;
+		private final int messageSize;
+		private final int messagesToPublish;
+		private final QoS qos;
+		private final double rate;
+		private final Arrivals arrivals;
+		private final XenqttTestClientStats stats;
+		private final StageControl stageControl;
+		private final boolean syncOrQosZero;
+		private final ExecutorService executor;
+
+		/**
+		 * @param messagesToPublish
+		 *            The total number of messages to publish. 0 to publish until {@link #shutdown() shut down}.
+		 */
+		private OpenLoopPublisher(List<MqttClient> clients, boolean async, String publishTopic, int messageSize, int messagesToPublish, QoS qos, double rate,
+				Arrivals arrivals, XenqttTestClientStats stats, StageControl stageControl) {
+			super("OpenLoopPublisher");
+			this.clients = clients;
+			this.publishTopic = publishTopic;
+			this.messageSize = messageSize;
+			this.messagesToPublish = messagesToPublish;
+			this.qos = qos;
+			this.rate = rate;
+			this.arrivals = arrivals;
+			this.stats = stats;
+			this.stageControl = stageControl;
+			this.syncOrQosZero = !async || qos == QoS.AT_MOST_ONCE;
+
+			// synchronous clients block until each publish completes so they need their own threads to keep to the schedule
+			this.executor = async ? null : Executors.newFixedThreadPool(clients.size(), new ConfigurableThreadFactory("OpenLoopSender", true));
+
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			Random random = new Random();
+			long startNanos = System.nanoTime();
+			long startMillis = System.currentTimeMillis();
+			double dueNanos = 0;
+			for (int id = 0; messagesToPublish == 0 || id < messagesToPublish; id++) {
+				long delay = startNanos + (long) dueNanos - System.nanoTime();
+				if (delay > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(delay);
+					} catch (InterruptedException ex) {
+						return;
+					}
+				}
+
+				byte[] payload = new byte[12 + messageSize];
+				stampPayload(payload, id, startMillis + (long) (dueNanos / 1000000));
+				for (int i = 12; i < payload.length; i++) {
+					payload[i] = (byte) ((i - 12) & 0xff);
+				}
+
+				final MqttClient client = clients.get(id % clients.size());
+				final PublishMessage message = new PublishMessage(publishTopic, qos, payload);
+				if (executor == null) {
+					publish(client, message);
+				} else {
+					executor.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							publish(client, message);
+						}
+					});
+				}
+
+				dueNanos += arrivals.nextIntervalNanos(rate, random);
+			}
+		}
+
+		private void shutdown() {
+			interrupt();
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+		}
+
+		private void publish(MqttClient client, PublishMessage message) {
+			try {
+				client.publish(message);
+				if (syncOrQosZero) {
+					stats.publishComplete(message);
+				}
+			} catch (Exception ex) {
+				Log.error(ex, "Unable to publish a message.");
+			} finally {
+				if (syncOrQosZero) {
+					stageControl.messagePublished();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Publishes the messages received on one connection in a {@link ReplayPlan}, keeping the time between messages the same as when they were captured,
+	 * scaled by the replay speed.
+	 */
+	private static final class ReplayPublisher extends Thread {
+
+		private final MqttClient client;
+		private final boolean async;
+		private final Semaphore inFlight;
+		private final ReplayPlan plan;
+		private final ReplayPlan.Connection connection;
+		private final double speed;
+		private final long startTime;
+		private final boolean stampPayloads;
+		private final AtomicInteger messageIds;
+		private final XenqttTestClientStats stats;
+		private final StageControl stageControl;
+
+		private ReplayPublisher(int id, MqttClient client, boolean async, Semaphore inFlight, ReplayPlan plan, ReplayPlan.Connection connection, double speed,
+				long startTime, boolean stampPayloads, AtomicInteger messageIds, XenqttTestClientStats stats, StageControl stageControl) {
+			super("ReplayPublisher-" + id);
+			this.client = client;
+			this.async = async;
+			this.inFlight = inFlight;
+			this.plan = plan;
+			this.connection = connection;
+			this.speed = speed;
+			this.startTime = startTime;
+			this.stampPayloads = stampPayloads;
+			this.messageIds = messageIds;
+			this.stats = stats;
+			this.stageControl = stageControl;
+		}
+
+		@Override
+		public void run() {
+			for (CapturedFrame frame : connection.getPublishes()) {
+				QoS qos = frame.getQoS();
+				boolean syncOrQosZero = !async || qos == QoS.AT_MOST_ONCE;
+				try {
+					long delay = startTime + plan.getReplayOffsetMillis(frame, speed) - System.currentTimeMillis();
+					if (delay > 0) {
+						Thread.sleep(delay);
+					}
+
+					inFlight.acquire();
+
+					byte[] payload = frame.getPayload();
+					if (stampPayloads && payload.length >= 12) {
+						stampPayload(payload, messageIds.getAndIncrement());
+					}
+
+					PublishMessage message = new PublishMessage(frame.getTopicName(), qos, payload, frame.isRetain());
+					client.publish(message);
+					if (syncOrQosZero) {
+						inFlight.release();
+						stats.publishComplete(message);
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					Log.error(ex, "Thread was interrupted. Exiting...");
+					return;
+				} catch (Exception ex) {
+					Log.error(ex, "Unable to replay a message.");
+				} finally {
+					if (syncOrQosZero) {
+						stageControl.messagePublished();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the current time and the specified message ID into the first 12 bytes of a payload. The {@link XenqttTestClientStats stats} read these back to
+	 * track publish duration, latency, and gaps.
+	 */
+	private static void stampPayload(byte[] payload, int id) {
+		stampPayload(payload, id, System.currentTimeMillis());
+	}
+
+	/**
+	 * Writes the specified time and message ID into the first 12 bytes of a payload
+	 */
+	private static void stampPayload(byte[] payload, int id, long now) {
+		payload[0] = (byte) ((now & 0xff00000000000000L) >> 56);
+		payload[1] = (byte) ((now & 0x00ff000000000000L) >> 48);
+		payload[2] = (byte) ((now & 0x0000ff0000000000L) >> 40);
+		payload[3] = (byte) ((now & 0x000000ff00000000L) >> 32);
+		payload[4] = (byte) ((now & 0x00000000ff000000L) >> 24);
+		payload[5] = (byte) ((now & 0x0000000000ff0000L) >> 16);
+		payload[6] = (byte) ((now & 0x000000000000ff00L) >> 8);
+		payload[7] = (byte) (now & 0x00000000000000ffL);
+
+		payload[8] = (byte) ((id & 0xff000000) >> 24);
+		payload[9] = (byte) ((id & 0x00ff0000) >> 16);
+		payload[10] = (byte) ((id & 0x0000ff00) >> 8);
+		payload[11] = (byte) (id & 0x000000ff);
+	}
+
 }
@@ -0,0 +1,102 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class AsyncLogDelegateTest {
+
+	@Mock LogDelegate delegate;
+	AsyncLogDelegate async;
+
+	@Before
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		when(delegate.isDebugEnabled()).thenReturn(true);
+		when(delegate.isErrorEnabled()).thenReturn(true);
+	}
+
+	@After
+	public void teardown() throws Exception {
+		if (async != null) {
+			async.shutdown();
+		}
+	}
+
+	@Test
+	public void testLog() throws Exception {
+
+		async = new AsyncLogDelegate(delegate, 10);
+		assertTrue(async.isDebugEnabled());
+		assertFalse(async.isTraceEnabled());
+
+		Exception e = new Exception();
+		async.trace("not logged %s", "trace");
+		async.debug("debug %s %d", "a", 1);
+		async.error(e, "error %s", "b");
+		async.shutdown();
+		async = null;
+
+		verify(delegate).debug("%s", "debug a 1");
+		verify(delegate).error(e, "%s", "error b");
+		verify(delegate, never()).trace(anyString(), (Object[]) anyVararg());
+	}
+
+	@Test
+	public void testLog_FullBufferDropsEvents() throws Exception {
+
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				blocked.countDown();
+				release.await();
+				return null;
+			}
+		}).when(delegate).debug("%s", "first");
+
+		async = new AsyncLogDelegate(delegate, 1);
+		async.debug("first");
+		assertTrue(blocked.await(1, TimeUnit.SECONDS));
+
+		async.debug("second");
+		async.debug("third");
+		async.debug("fourth");
+		assertEquals(2, async.getDroppedCount());
+
+		release.countDown();
+		async.shutdown();
+		async = null;
+
+		verify(delegate).debug("%s", "second");
+		verify(delegate, never()).debug("%s", "third");
+		verify(delegate).warn("%s log events were dropped because the log buffer was full", 2L);
+	}
+}
@@ -0,0 +1,49 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LogFormatterTest {
+
+	@Test
+	public void testFormat_NoSpecifiers() {
+		String message = "no specifiers";
+		assertSame(message, LogFormatter.format(message));
+		assertSame(message, LogFormatter.format(message, "ignored"));
+	}
+
+	@Test
+	public void testFormat_Simple() {
+		assertEquals("a 1 b null c", LogFormatter.format("a %s b %s c", 1, null));
+		assertEquals("7 items", LogFormatter.format("%d items", 7));
+		assertEquals("100% x", LogFormatter.format("100%% %s", "x"));
+		assertEquals("a" + System.getProperty("line.separator") + "b", LogFormatter.format("a%nb"));
+		assertEquals("xy", LogFormatter.format("%s%s", "x", "y"));
+	}
+
+	@Test
+	public void testFormat_FallsBackForOtherSpecifiers() {
+		assertEquals(String.format("%5s|%x", "a", 255), LogFormatter.format("%5s|%x", "a", 255));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testFormat_MissingParameter() {
+		LogFormatter.format("%s %s", "a");
+	}
+}
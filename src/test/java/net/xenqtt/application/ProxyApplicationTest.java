@@ -65,6 +65,28 @@ public class ProxyApplicationTest {
 		app.stop();
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testStart_ReplicationOnAllInterfaces_NoSecret() throws Exception {
+
+		args.put("-b", "tcp://127.0.0.1:1234");
+		args.put("-r", "0.0.0.0:19284");
+		context = new AppContext(flags, args, null);
+		app.start(context);
+	}
+
+	@Test
+	public void testStart_ReplicationOnLoopback_NoSecret() throws Exception {
+
+		args.put("-b", "tcp://127.0.0.1:1234");
+		args.put("-p", "19283");
+		args.put("-r", "127.0.0.1:19284");
+		context = new AppContext(flags, args, null);
+		app.start(context);
+
+		assertEquals(19283, getBroker().getPort());
+		app.stop();
+	}
+
 	@Test
 	public void testStop_NotStarted() throws Exception {
 
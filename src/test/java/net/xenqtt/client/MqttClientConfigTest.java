@@ -38,6 +38,15 @@ public class MqttClientConfigTest {
 		assertEquals(Integer.MAX_VALUE, ((ProgressiveReconnectionStrategy) config.getReconnectionStrategy()).getMaxNumberOfReconnects());
 		assertEquals(30000, ((ProgressiveReconnectionStrategy) config.getReconnectionStrategy()).getMaxReconnectMillis());
 		assertEquals(5, ((ProgressiveReconnectionStrategy) config.getReconnectionStrategy()).getProgressiveFactor());
+		assertFalse(config.isDirectFrames());
+	}
+
+	@Test
+	public void testSetDirectFrames() throws Exception {
+
+		assertSame(config, config.setDirectFrames(true));
+		assertTrue(config.isDirectFrames());
+		assertTrue(config.clone().isDirectFrames());
 	}
 
 	@Test(expected = IllegalArgumentException.class)
@@ -0,0 +1,145 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.client;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.xenqtt.message.ChannelManagerImpl;
+import net.xenqtt.message.EncodedTopic;
+import net.xenqtt.message.MqttChannelRef;
+import net.xenqtt.message.PubMessage;
+import net.xenqtt.message.QoS;
+import net.xenqtt.mock.MockMessageHandler;
+import net.xenqtt.mock.MockServer;
+
+import org.junit.Test;
+
+public class PublishMessagePoolTest {
+
+	PublishMessagePool pool = new PublishMessagePool(new EncodedTopic("grand/foo/bar"), 3, 2);
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_NullTopic() {
+		new PublishMessagePool(null, 3, 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_NegativePayloadSize() {
+		new PublishMessagePool(new EncodedTopic("grand/foo/bar"), -1, 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_ZeroMaxPooledMessages() {
+		new PublishMessagePool(new EncodedTopic("grand/foo/bar"), 3, 0);
+	}
+
+	@Test
+	public void testTake_EmptyPool() {
+
+		PublishMessage message = pool.take();
+
+		assertEquals("grand/foo/bar", message.getTopic());
+		assertSame(QoS.AT_MOST_ONCE, message.getQoS());
+		assertArrayEquals(new byte[3], message.getPayload());
+		assertFalse(message.isRetain());
+		assertEquals(0, pool.getPooledMessageCount());
+	}
+
+	@Test
+	public void testTake_RecycledMessage() {
+
+		PublishMessage message = pool.take();
+		message.setPayload(new byte[] { 97, 98, 99 });
+		recycle(message);
+		assertEquals(1, pool.getPooledMessageCount());
+
+		assertSame(message, pool.take());
+		assertEquals(0, pool.getPooledMessageCount());
+		assertEquals("abc", message.getPayloadString());
+		assertNotSame(message, pool.take());
+	}
+
+	@Test
+	public void testRecycle_PoolFull() {
+
+		PublishMessage message1 = pool.take();
+		PublishMessage message2 = pool.take();
+		PublishMessage message3 = pool.take();
+
+		recycle(message1);
+		recycle(message2);
+		recycle(message3);
+
+		assertEquals(2, pool.getPooledMessageCount());
+		assertSame(message1, pool.take());
+		assertSame(message2, pool.take());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetPayload_WrongSize() {
+		pool.take().setPayload(new byte[4]);
+	}
+
+	@Test(timeout = 30000)
+	public void testTake_SharedByBlockingManagers() throws Exception {
+
+		final PublishMessagePool sharedPool = new PublishMessagePool(new EncodedTopic("grand/foo/bar"), 3, 1);
+		MockServer server = new MockServer();
+		ChannelManagerImpl[] managers = { new ChannelManagerImpl(2, 0), new ChannelManagerImpl(2, 0) };
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		try {
+			Thread[] threads = new Thread[managers.length];
+			for (int i = 0; i < managers.length; i++) {
+				final ChannelManagerImpl manager = managers[i];
+				manager.init();
+				final MqttChannelRef channel = manager.newClientChannel("localhost", server.getPort(), new MockMessageHandler());
+				manager.newBrokerChannel(server.nextClient(1000), new MockMessageHandler());
+
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							for (int j = 0; j < 2000; j++) {
+								manager.send(channel, sharedPool.take().getPubMessage());
+							}
+						} catch (Throwable t) {
+							error.set(t);
+						}
+					}
+				};
+				threads[i].start();
+			}
+
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			assertNull(error.get());
+			assertEquals(1, sharedPool.getPooledMessageCount());
+		} finally {
+			for (ChannelManagerImpl manager : managers) {
+				manager.shutdown();
+			}
+			server.close();
+		}
+	}
+
+	private void recycle(PublishMessage message) {
+		PubMessage pubMessage = message.getPubMessage();
+		pubMessage.getRecycler().recycle(pubMessage);
+	}
+}
@@ -17,9 +17,14 @@ package net.xenqtt.client;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+
 import net.xenqtt.client.PublishMessage;
 import net.xenqtt.message.ChannelManager;
+import net.xenqtt.message.EncodedTopic;
 import net.xenqtt.message.MqttChannelRef;
+import net.xenqtt.message.PayloadSource;
 import net.xenqtt.message.PubAckMessage;
 import net.xenqtt.message.PubMessage;
 import net.xenqtt.message.QoS;
@@ -53,6 +58,47 @@ public class PublishMessageTest {
 		assertFalse(message.isRetain());
 	}
 
+	@Test
+	public void testCtor_EncodedTopicQosPayload() {
+		PublishMessage message = new PublishMessage(new EncodedTopic("grand/foo/bar"), QoS.AT_LEAST_ONCE, new byte[] { 97, 98, 99 });
+		assertEquals("grand/foo/bar", message.getTopic());
+		assertSame(QoS.AT_LEAST_ONCE, message.getQoS());
+		assertArrayEquals(new byte[] { 97, 98, 99 }, message.getPayload());
+		assertFalse(message.isDuplicate());
+		assertFalse(message.isRetain());
+		assertEquals(new PublishMessage("grand/foo/bar", QoS.AT_LEAST_ONCE, new byte[] { 97, 98, 99 }).getPubMessage(), message.getPubMessage());
+	}
+
+	@Test
+	public void testCtor_EncodedTopicQosPayloadRetain_NullPayload() {
+		PublishMessage message = new PublishMessage(new EncodedTopic("grand/foo/bar"), QoS.AT_MOST_ONCE, (byte[]) null, true);
+		assertEquals("grand/foo/bar", message.getTopic());
+		assertSame(QoS.AT_MOST_ONCE, message.getQoS());
+		assertArrayEquals(new byte[0], message.getPayload());
+		assertTrue(message.isRetain());
+	}
+
+	@Test
+	public void testCtor_EncodedTopicQosPayloadSourceRetain() {
+		PublishMessage message = new PublishMessage(new EncodedTopic("grand/foo/bar"), QoS.AT_MOST_ONCE, PayloadSource.fromStream(new ByteArrayInputStream(
+				new byte[100]), 100), true);
+		assertEquals("grand/foo/bar", message.getTopic());
+		assertSame(QoS.AT_MOST_ONCE, message.getQoS());
+		assertEquals(100, message.getPayloadLength());
+		assertArrayEquals(new byte[0], message.getPayload());
+		assertTrue(message.isRetain());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_NullPayloadSource() {
+		new PublishMessage(new EncodedTopic("grand/foo/bar"), QoS.AT_MOST_ONCE, (PayloadSource) null, true);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_NullEncodedTopic() {
+		new PublishMessage((EncodedTopic) null, QoS.AT_LEAST_ONCE, new byte[] { 97, 98, 99 });
+	}
+
 	@Test
 	public void testCtor_TopicQos() {
 		PublishMessage message = new PublishMessage("grand/foo/bar", QoS.AT_LEAST_ONCE);
@@ -88,7 +134,7 @@ public class PublishMessageTest {
 
 	@Test(expected = IllegalArgumentException.class)
 	public void testCtor_NullTopic() {
-		new PublishMessage(null, QoS.AT_MOST_ONCE, new byte[] { 97, 98, 99 }, true);
+		new PublishMessage((String) null, QoS.AT_MOST_ONCE, new byte[] { 97, 98, 99 }, true);
 	}
 
 	@Test(expected = IllegalArgumentException.class)
@@ -18,7 +18,13 @@ package net.xenqtt.message;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
@@ -32,18 +38,27 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 import java.util.Set;
 
+import net.xenqtt.MqttException;
+import net.xenqtt.client.ChannelStats;
 import net.xenqtt.message.AbstractMqttChannel;
 import net.xenqtt.message.BlockingCommand;
 import net.xenqtt.message.ConnAckMessage;
 import net.xenqtt.message.ConnectMessage;
 import net.xenqtt.message.ConnectReturnCode;
 import net.xenqtt.message.DisconnectMessage;
+import net.xenqtt.message.EncodedTopic;
+import net.xenqtt.message.FrameBuffers;
 import net.xenqtt.message.IdentifiableMqttMessage;
+import net.xenqtt.message.MessageRecycler;
 import net.xenqtt.message.MessageType;
 import net.xenqtt.message.MqttChannel;
 import net.xenqtt.message.MqttMessage;
+import net.xenqtt.message.PayloadSource;
+import net.xenqtt.message.PayloadStreamHandler;
+import net.xenqtt.message.PublishForwardingHandler;
 import net.xenqtt.message.PingReqMessage;
 import net.xenqtt.message.PingRespMessage;
 import net.xenqtt.message.PubAckMessage;
@@ -52,6 +67,7 @@ import net.xenqtt.message.PubMessage;
 import net.xenqtt.message.PubRecMessage;
 import net.xenqtt.message.PubRelMessage;
 import net.xenqtt.message.QoS;
+import net.xenqtt.message.SlowConsumerPolicy;
 import net.xenqtt.message.SubAckMessage;
 import net.xenqtt.message.SubscribeMessage;
 import net.xenqtt.message.UnsubAckMessage;
@@ -415,6 +431,37 @@ public class AbstractMqttChannelTest extends MqttChannelTestBase<MqttChannelTest
 		closeConnection();
 	}
 
+	@Test
+	public void testRegister_SameSelector_KeepsRegistration() throws Exception {
+
+		establishConnection();
+
+		int keyCount = selector.keys().size();
+		int originalCancelledKeyCount = 0;
+		for (SelectionKey key : selector.keys()) {
+			if (!key.isValid()) {
+				originalCancelledKeyCount++;
+			}
+		}
+
+		clientHandler = new MockMessageHandler();
+
+		assertTrue(clientChannel.register(selector, clientHandler));
+		clientHandler.assertChannelAttachedCount(1);
+		assertEquals(keyCount, selector.keys().size());
+
+		int cancelledKeyCount = 0;
+		for (SelectionKey key : selector.keys()) {
+			if (!key.isValid()) {
+				cancelledKeyCount++;
+			}
+		}
+
+		assertEquals(originalCancelledKeyCount, cancelledKeyCount);
+
+		closeConnection();
+	}
+
 	@Test
 	public void testDeregister() throws Exception {
 
@@ -485,6 +532,536 @@ public class AbstractMqttChannelTest extends MqttChannelTestBase<MqttChannelTest
 		assertEquals(0, clientChannel.inFlightMessageCount());
 	}
 
+	@Test
+	public void testSend_DirectFrameCopy_qos0_ReleasedWhenWritten() throws Exception {
+
+		establishConnection();
+
+		FrameBuffers frameBuffers = new FrameBuffers(true);
+		byte[] payload = new byte[FrameBuffers.MIN_DIRECT_FRAME_SIZE];
+		payload[payload.length - 1] = 1;
+		PubMessage msg = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, payload);
+		msg.copyToDirectFrame(frameBuffers);
+		ByteBuffer frame = msg.frame();
+		assertTrue(frame.isDirect());
+
+		assertTrue(clientChannel.send(msg, null));
+		readWrite(0, 1);
+		brokerHandler.assertMessages(msg);
+		assertArrayEquals(payload, ((PubMessage) brokerHandler.message(0)).getPayload());
+
+		assertSame(msg.buffer, msg.frame());
+		assertSame(frame, frameBuffers.take(frame.capacity()));
+	}
+
+	@Test
+	public void testSend_DirectFrameCopy_qos1_ReleasedWhenAcked() throws Exception {
+
+		establishConnection();
+
+		FrameBuffers frameBuffers = new FrameBuffers(true);
+		PubMessage msg = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 1, new byte[FrameBuffers.MIN_DIRECT_FRAME_SIZE]);
+		msg.copyToDirectFrame(frameBuffers);
+		ByteBuffer frame = msg.frame();
+
+		assertTrue(clientChannel.send(msg, null));
+		readWrite(0, 1);
+		brokerHandler.assertMessages(msg);
+		assertSame(frame, msg.frame());
+
+		assertTrue(brokerChannel.send(new PubAckMessage(1), null));
+		readWrite(1, 0);
+		assertEquals(0, clientChannel.inFlightMessageCount());
+		assertSame(msg.buffer, msg.frame());
+		assertSame(frame, frameBuffers.take(frame.capacity()));
+	}
+
+	@Test
+	public void testSend_qos0_Recycled() throws Exception {
+
+		clientChannel = new TestChannel("localhost", port, clientHandler, selector, 15000);
+
+		establishConnection();
+
+		final List<MqttMessage> recycled = new ArrayList<MqttMessage>();
+		PubMessage msg = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1, 2, 3 });
+		msg.setRecycler(new MessageRecycler() {
+			@Override
+			public void recycle(MqttMessage message) {
+				recycled.add(message);
+			}
+		});
+
+		assertTrue(clientChannel.send(msg, null));
+		readWrite(0, 1);
+		brokerHandler.assertMessages(msg);
+		assertEquals(1, recycled.size());
+		assertSame(msg, recycled.get(0));
+
+		msg.setPayload(new byte[] { 4, 5, 6 });
+		assertTrue(clientChannel.send(msg, null));
+		readWrite(0, 1);
+		assertArrayEquals(new byte[] { 4, 5, 6 }, ((PubMessage) brokerHandler.message(0)).getPayload());
+		assertEquals(2, recycled.size());
+	}
+
+	@Test
+	public void testSend_qos0_RecycledMessageResentBeforeCommandComplete() throws Exception {
+
+		establishConnection();
+
+		@SuppressWarnings("unchecked")
+		final BlockingCommand<MqttMessage> resendCommand = mock(BlockingCommand.class);
+		final List<MqttMessage> pool = new ArrayList<MqttMessage>();
+		final PubMessage msg = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1, 2, 3 });
+		msg.setRecycler(new MessageRecycler() {
+			@Override
+			public void recycle(MqttMessage message) {
+				// another thread takes the message from the pool and sends it before the first send's command completes
+				pool.add(message);
+				if (pool.size() == 1) {
+					brokerChannel.send(pool.get(0), resendCommand);
+				}
+			}
+		});
+
+		assertTrue(clientChannel.send(msg, blockingCommand));
+		readWrite(1, 1);
+
+		verify(blockingCommand).complete();
+		verify(resendCommand).complete();
+	}
+
+	@Test
+	public void testSend_SendQueueLimit_Messages_Pause() throws Exception {
+
+		establishConnection();
+		clientChannel.setSendQueueLimits(2, 0, SlowConsumerPolicy.PAUSE);
+
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 2 });
+		PubMessage msg3 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 3 });
+		PubMessage msg4 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 4 });
+
+		assertTrue(clientChannel.send(msg1, null));
+		assertTrue(clientChannel.send(msg2, null));
+		assertFalse(clientChannel.isSendQueueFull());
+		assertTrue(clientChannel.send(msg3, null));
+		assertTrue(clientChannel.isSendQueueFull());
+		assertTrue(clientChannel.send(msg4, null));
+		assertEquals(4, clientChannel.sendQueueDepth());
+
+		ChannelStats stats = clientChannel.getStats(false);
+		assertEquals(1, stats.getSendQueueOverflows());
+		assertEquals(0, stats.getMessagesDropped());
+
+		readWrite(0, 4);
+		brokerHandler.assertMessages(msg1, msg2, msg3, msg4);
+		assertFalse(clientChannel.isSendQueueFull());
+	}
+
+	@Test
+	public void testSend_SendQueueLimit_Bytes() throws Exception {
+
+		establishConnection();
+
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 2 });
+		PubMessage msg3 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 3 });
+		clientChannel.setSendQueueLimits(0, msg2.buffer.limit() + 1, SlowConsumerPolicy.PAUSE);
+
+		assertTrue(clientChannel.send(msg1, null));
+		assertTrue(clientChannel.send(msg2, null));
+		assertFalse(clientChannel.isSendQueueFull());
+		assertTrue(clientChannel.send(msg3, null));
+		assertTrue(clientChannel.isSendQueueFull());
+
+		readWrite(0, 3);
+		assertFalse(clientChannel.isSendQueueFull());
+		assertEquals(0, clientChannel.getStats(false).getSendQueueOverflows());
+	}
+
+	@Test
+	public void testSend_SendQueueLimit_DropQos0() throws Exception {
+
+		establishConnection();
+		clientChannel.setSendQueueLimits(1, 0, SlowConsumerPolicy.DROP_QOS0);
+
+		final List<MqttMessage> recycled = new ArrayList<MqttMessage>();
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 2 });
+		PubMessage msg3 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 3 });
+		PubMessage msg4 = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 1, new byte[] { 4 });
+		msg3.setRecycler(new MessageRecycler() {
+			@Override
+			public void recycle(MqttMessage message) {
+				recycled.add(message);
+			}
+		});
+
+		assertTrue(clientChannel.send(msg1, null));
+		assertTrue(clientChannel.send(msg2, null));
+		assertTrue(clientChannel.send(msg3, null));
+		assertTrue(clientChannel.send(msg4, null));
+		assertEquals(3, clientChannel.sendQueueDepth());
+		assertEquals(1, recycled.size());
+		assertSame(msg3, recycled.get(0));
+
+		ChannelStats stats = clientChannel.getStats(true);
+		assertEquals(2, stats.getSendQueueOverflows());
+		assertEquals(1, stats.getMessagesDropped());
+		assertEquals(0, clientChannel.getStats(false).getMessagesDropped());
+
+		readWrite(0, 3);
+		brokerHandler.assertMessages(msg1, msg2, msg4);
+	}
+
+	@Test
+	public void testSend_SendQueueLimit_Disconnect() throws Exception {
+
+		establishConnection();
+		clientChannel.setSendQueueLimits(1, 0, SlowConsumerPolicy.DISCONNECT);
+
+		assertTrue(clientChannel.send(new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 }), null));
+		assertTrue(clientChannel.send(new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 2 }), null));
+		assertFalse(clientChannel.send(new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 3 }), null));
+
+		// the channel is closed on the next housekeeping pass, not from inside send
+		assertTrue(clientChannel.isOpen());
+		assertEquals(0, clientHandler.channelClosedCalledCount());
+		assertFalse(clientChannel.send(new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 4 }), null));
+
+		assertTrue(clientChannel.houseKeeping(System.currentTimeMillis()) < 0);
+		assertFalse(clientChannel.isOpen());
+		assertEquals(1, clientHandler.channelClosedCalledCount());
+		assertTrue(clientHandler.lastChannelClosedCause() instanceof MqttException);
+	}
+
+	@Test
+	public void testSend_SendQueueLimit_Disconnect_QueueDrainedBeforeHouseKeeping() throws Exception {
+
+		establishConnection();
+		clientChannel.setSendQueueLimits(1, 0, SlowConsumerPolicy.DISCONNECT);
+
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 2 });
+		assertTrue(clientChannel.send(msg1, null));
+		assertTrue(clientChannel.send(msg2, null));
+		assertFalse(clientChannel.send(new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 3 }), null));
+
+		readWrite(0, 2);
+		brokerHandler.assertMessages(msg1, msg2);
+		assertEquals(0, clientChannel.sendQueueDepth());
+		assertFalse(clientChannel.isSendQueueFull());
+
+		assertFalse(clientChannel.send(new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 4 }), blockingCommand));
+		verify(blockingCommand).cancel();
+		assertEquals(0, clientChannel.sendQueueDepth());
+
+		assertTrue(clientChannel.houseKeeping(System.currentTimeMillis()) < 0);
+		assertFalse(clientChannel.isOpen());
+		assertEquals(1, clientHandler.channelClosedCalledCount());
+	}
+
+	@Test
+	public void testSend_StreamedPayload_File() throws Exception {
+
+		byte[] payload = new byte[300000];
+		new Random(1).nextBytes(payload);
+
+		File file = File.createTempFile("xenqtt", ".payload");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.write(new byte[7]);
+			raf.write(payload);
+			FileChannel fileChannel = raf.getChannel();
+
+			clientChannel = new TestChannel("localhost", port, clientHandler, selector, 15000);
+
+			establishConnection();
+
+			PubMessage msg = new PubMessage(QoS.AT_LEAST_ONCE, false, new EncodedTopic("foo"), 12, PayloadSource.fromFile(fileChannel, 7, payload.length));
+			assertEquals(payload.length, msg.getPayloadLength());
+			assertEquals(0, msg.getPayload().length);
+
+			assertTrue(clientChannel.send(msg, null));
+			readWrite(0, 1);
+
+			PubMessage received = (PubMessage) brokerHandler.message(0);
+			assertEquals("foo", received.getTopicName());
+			assertEquals(12, received.getMessageId());
+			assertEquals(QoS.AT_LEAST_ONCE, received.getQoS());
+			assertArrayEquals(payload, received.getPayload());
+			assertEquals(1, clientChannel.inFlightMessageCount());
+
+			// resending starts over from the beginning of the file
+			assertTrue(clientChannel.send(msg, null));
+			readWrite(0, 1);
+			assertArrayEquals(payload, ((PubMessage) brokerHandler.message(0)).getPayload());
+		} finally {
+			raf.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testSend_StreamedPayload_Stream() throws Exception {
+
+		byte[] payload = new byte[200000];
+		new Random(2).nextBytes(payload);
+
+		clientChannel = new TestChannel("localhost", port, clientHandler, selector, 15000);
+
+		establishConnection();
+
+		PubMessage msg = new PubMessage(QoS.AT_MOST_ONCE, true, new EncodedTopic("foo"), 0, PayloadSource.fromStream(new ByteArrayInputStream(payload),
+				payload.length));
+
+		assertTrue(clientChannel.send(msg, null));
+		readWrite(0, 1);
+
+		PubMessage received = (PubMessage) brokerHandler.message(0);
+		assertEquals("foo", received.getTopicName());
+		assertTrue(received.isRetain());
+		assertArrayEquals(payload, received.getPayload());
+	}
+
+	@Test
+	public void testSend_GatheringWrite_MixedWithStreamedPayload() throws Exception {
+
+		byte[] payload = new byte[200000];
+		new Random(3).nextBytes(payload);
+
+		establishConnection();
+
+		List<MqttMessage> messagesSent = new ArrayList<MqttMessage>();
+		for (int i = 0; i < 100; i++) {
+			messagesSent.add(new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { (byte) i }));
+		}
+		messagesSent.add(50, new PubMessage(QoS.AT_MOST_ONCE, false, new EncodedTopic("bar"), 0, PayloadSource.fromStream(new ByteArrayInputStream(payload),
+				payload.length)));
+		for (MqttMessage message : messagesSent) {
+			assertTrue(clientChannel.send(message, null));
+		}
+
+		readWrite(0, messagesSent.size());
+
+		for (int i = 0; i < messagesSent.size(); i++) {
+			if (i != 50) {
+				assertEquals(messagesSent.get(i), brokerHandler.message(i));
+			}
+		}
+		assertEquals("bar", ((PubMessage) brokerHandler.message(50)).getTopicName());
+		assertArrayEquals(payload, ((PubMessage) brokerHandler.message(50)).getPayload());
+		assertEquals(0, clientChannel.sendQueueDepth());
+	}
+
+	@Test
+	public void testSend_GatheringWrite_StopsAtDisconnect() throws Exception {
+
+		establishConnection();
+		clientChannel.getStats(true);
+
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 2 });
+		DisconnectMessage discMsg = new DisconnectMessage();
+		PubMessage msg3 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 3 });
+
+		assertTrue(clientChannel.send(msg1, null));
+		assertTrue(clientChannel.send(msg2, null));
+		assertTrue(clientChannel.send(discMsg, null));
+		assertTrue(clientChannel.send(msg3, null));
+
+		readWrite(0, 3);
+		brokerHandler.assertMessages(msg1, msg2, discMsg);
+
+		assertFalse(clientChannel.isOpen());
+		assertEquals(3, clientChannel.getStats(false).getMessagesSent());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSend_StreamedPayload_NotRepeatable_qos1() throws Exception {
+
+		new PubMessage(QoS.AT_LEAST_ONCE, false, new EncodedTopic("foo"), 1, PayloadSource.fromStream(new ByteArrayInputStream(new byte[10]), 10));
+	}
+
+	@Test
+	public void testRead_StreamedPayload() throws Exception {
+
+		StreamingMessageHandler streamingHandler = new StreamingMessageHandler(1000);
+		brokerHandler = streamingHandler;
+		clientChannel = new TestChannel("localhost", port, clientHandler, selector, 15000);
+
+		establishConnection();
+
+		byte[] payload = new byte[200000];
+		new Random(3).nextBytes(payload);
+
+		PubMessage msg = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 12, payload);
+		assertTrue(clientChannel.send(msg, null));
+		readWrite(0, 1);
+
+		PubMessage received = (PubMessage) brokerHandler.message(0);
+		assertSame(streamingHandler.started, received);
+		assertEquals("foo", received.getTopicName());
+		assertEquals(12, received.getMessageId());
+		assertEquals(payload.length, received.getPayloadLength());
+		assertEquals(0, received.getPayload().length);
+		assertArrayEquals(payload, streamingHandler.payload.toByteArray());
+		assertTrue(streamingHandler.chunkCount > 1);
+
+		// small messages are not streamed
+		streamingHandler.started = null;
+		msg = new PubMessage(QoS.AT_MOST_ONCE, false, "bar", 0, new byte[] { 1, 2, 3 });
+		assertTrue(clientChannel.send(msg, null));
+		readWrite(0, 1);
+		brokerHandler.assertMessages(msg);
+		assertNull(streamingHandler.started);
+	}
+
+	@Test
+	public void testRead_StreamedPayload_Empty() throws Exception {
+
+		StreamingMessageHandler streamingHandler = new StreamingMessageHandler(0);
+		brokerHandler = streamingHandler;
+		clientChannel = new TestChannel("localhost", port, clientHandler, selector, 15000);
+
+		establishConnection();
+
+		PubMessage msg = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[0]);
+		assertTrue(clientChannel.send(msg, null));
+		readWrite(0, 1);
+
+		assertSame(streamingHandler.started, brokerHandler.message(0));
+		assertEquals("foo", ((PubMessage) brokerHandler.message(0)).getTopicName());
+		assertEquals(0, streamingHandler.chunkCount);
+	}
+
+	@Test
+	public void testRead_ForwardedPublish() throws Exception {
+
+		ForwardingMessageHandler forwardingHandler = new ForwardingMessageHandler();
+		brokerHandler = forwardingHandler;
+		clientChannel = new TestChannel("localhost", port, clientHandler, selector, 15000);
+
+		establishConnection();
+		brokerChannel.getStats(true);
+
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, true, "bar", 0, new byte[] { 2, 3 });
+		PubMessage msg3 = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 7, new byte[] { 4 });
+		PubMessage msg4 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[PublishForwardingHandler.MAX_FORWARDED_FRAME_SIZE]);
+		PubMessage msg5 = new PubMessage(QoS.AT_MOST_ONCE, false, "local", 0, new byte[] { 5 });
+		PubMessage msg6 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[100000]);
+		PubMessage msg7 = new PubMessage(QoS.AT_MOST_ONCE, false, "bar", 0, new byte[] { 6 });
+		for (PubMessage msg : Arrays.asList(msg1, msg2, msg3, msg4, msg5, msg6, msg7)) {
+			assertTrue(clientChannel.send(msg, null));
+		}
+
+		// the broker channel echoes the frames it forwards back to the client
+		readWrite(3, 4);
+		clientHandler.assertMessages(msg1, msg2, msg7);
+		brokerHandler.assertMessages(msg3, msg4, msg5, msg6);
+		assertEquals(Arrays.asList("foo", "bar", "local", "bar"), forwardingHandler.topics);
+		assertEquals(7, brokerChannel.getStats(false).getMessagesReceived());
+		assertEquals(3, brokerChannel.getStats(false).getMessagesSent());
+	}
+
+	@Test
+	public void testRead_ForwardedPublish_ReadPaused() throws Exception {
+
+		ForwardingMessageHandler forwardingHandler = new ForwardingMessageHandler();
+		forwardingHandler.pauseAfterForward = true;
+		brokerHandler = forwardingHandler;
+		clientChannel = new TestChannel("localhost", port, clientHandler, selector, 15000);
+
+		establishConnection();
+
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 2 });
+		PubMessage msg3 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 3 });
+		assertTrue(clientChannel.send(msg1, null));
+		assertTrue(clientChannel.send(msg2, null));
+		assertTrue(clientChannel.send(msg3, null));
+
+		readWrite(1, 0);
+		clientHandler.assertMessages(msg1);
+
+		// frames already read are handled on housekeeping once reads resume
+		forwardingHandler.pauseAfterForward = false;
+		brokerChannel.resumeRead();
+		brokerChannel.houseKeeping(now);
+		readWrite(2, 0);
+		clientHandler.assertMessages(msg2, msg3);
+	}
+
+	@Test
+	public void testSendFrame_QueuedFramesShareMessage() throws Exception {
+
+		establishConnection();
+		clientChannel.getStats(true);
+
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, false, "bar", 0, new byte[] { 2 });
+		PubMessage msg3 = new PubMessage(QoS.AT_MOST_ONCE, true, "foo", 0, new byte[200]);
+		assertTrue(clientChannel.sendFrame(msg1.buffer));
+		assertTrue(clientChannel.sendFrame(msg2.buffer));
+		assertTrue(clientChannel.sendFrame(msg3.buffer));
+		assertEquals(0, msg2.buffer.position());
+
+		assertEquals(3, clientChannel.sendQueueDepth());
+		assertEquals(Arrays.<MqttMessage> asList(msg1, msg2, msg3), clientChannel.getUnsentMessages());
+
+		readWrite(0, 3);
+		brokerHandler.assertMessages(msg1, msg2, msg3);
+		assertEquals(0, clientChannel.sendQueueDepth());
+		assertEquals(3, clientChannel.getStats(false).getMessagesSent());
+
+		// written buffers are reused
+		assertTrue(clientChannel.sendFrame(msg2.buffer));
+		assertTrue(clientChannel.sendFrame(msg1.buffer));
+		readWrite(0, 2);
+		brokerHandler.assertMessages(msg2, msg1);
+	}
+
+	@Test
+	public void testSendFrame_SendQueueLimit_DropQos0() throws Exception {
+
+		establishConnection();
+		clientChannel.setSendQueueLimits(1, 0, SlowConsumerPolicy.DROP_QOS0);
+
+		PubMessage msg1 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		PubMessage msg2 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 2 });
+		PubMessage msg3 = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 3 });
+		assertTrue(clientChannel.sendFrame(msg1.buffer));
+		assertTrue(clientChannel.sendFrame(msg2.buffer));
+		assertTrue(clientChannel.isSendQueueFull());
+		assertTrue(clientChannel.sendFrame(msg3.buffer));
+		assertEquals(2, clientChannel.sendQueueDepth());
+		assertEquals(1, clientChannel.getStats(false).getMessagesDropped());
+
+		readWrite(0, 2);
+		brokerHandler.assertMessages(msg1, msg2);
+		assertFalse(clientChannel.isSendQueueFull());
+	}
+
+	@Test
+	public void testSendFrame_SendQueueLimit_Disconnect() throws Exception {
+
+		establishConnection();
+		clientChannel.setSendQueueLimits(1, 0, SlowConsumerPolicy.DISCONNECT);
+
+		PubMessage msg = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[] { 1 });
+		assertTrue(clientChannel.sendFrame(msg.buffer));
+		assertTrue(clientChannel.sendFrame(msg.buffer));
+		assertFalse(clientChannel.sendFrame(msg.buffer));
+		assertFalse(clientChannel.send(msg, null));
+
+		assertTrue(clientChannel.houseKeeping(System.currentTimeMillis()) < 0);
+		assertFalse(clientChannel.isOpen());
+		assertTrue(clientHandler.lastChannelClosedCause() instanceof MqttException);
+	}
+
 	@Test
 	public void testHouseKeeping_ResendMessage_qos1() throws Exception {
 
@@ -841,6 +1418,41 @@ public class AbstractMqttChannelTest extends MqttChannelTestBase<MqttChannelTest
 		assertTrue(brokerChannel.disconnectedCalled);
 	}
 
+	@Test
+	public void testReadWriteSend_WireCapture() throws Exception {
+
+		File file = File.createTempFile("wirecapture", ".bin");
+		WireCapture capture = new WireCapture(file, 1024, 100);
+		try {
+			establishConnection();
+			clientChannel.setWireCapture(capture.nextRing());
+
+			PingReqMessage pingReqMsg = new PingReqMessage();
+			assertTrue(clientChannel.send(pingReqMsg, null));
+			readWrite(0, 1);
+
+			PingRespMessage pingRespMsg = new PingRespMessage();
+			assertTrue(brokerChannel.send(pingRespMsg, null));
+			readWrite(1, 0);
+
+			clientChannel.close();
+			brokerChannel.close();
+			capture.close();
+
+			List<CapturedFrame> frames = WireCapture.read(file);
+			assertEquals(2, frames.size());
+			assertEquals(MessageType.PINGREQ, frames.get(0).getMessageType());
+			assertTrue(frames.get(0).isSent());
+			assertEquals(MessageType.PINGRESP, frames.get(1).getMessageType());
+			assertFalse(frames.get(1).isSent());
+			assertEquals(frames.get(0).getLocalPort(), frames.get(1).getLocalPort());
+			assertEquals(port, frames.get(1).getRemotePort());
+		} finally {
+			capture.close();
+			file.delete();
+		}
+	}
+
 	@Test
 	public void testReadWriteSend_PingReqResp() throws Exception {
 
@@ -1249,4 +1861,62 @@ public class AbstractMqttChannelTest extends MqttChannelTestBase<MqttChannelTest
 
 		closeConnection();
 	}
+
+	private static final class ForwardingMessageHandler extends MockMessageHandler implements PublishForwardingHandler {
+
+		private final List<String> topics = new ArrayList<String>();
+		private boolean pauseAfterForward;
+
+		@Override
+		public boolean forwardPublish(MqttChannel channel, String topicName, ByteBuffer frame) throws Exception {
+
+			topics.add(topicName);
+			if (topicName.equals("local")) {
+				return false;
+			}
+
+			channel.sendFrame(frame);
+			if (pauseAfterForward) {
+				channel.pauseRead();
+			}
+			return true;
+		}
+	}
+
+	private static final class StreamingMessageHandler extends MockMessageHandler implements PayloadStreamHandler {
+
+		private final int threshold;
+		private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		private PubMessage started;
+		private int chunkCount;
+
+		StreamingMessageHandler(int threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		public int getStreamingThreshold() {
+			return threshold;
+		}
+
+		@Override
+		public void publishStarted(MqttChannel channel, PubMessage message) throws Exception {
+			started = message;
+		}
+
+		@Override
+		public void payloadReceived(MqttChannel channel, PubMessage message, ByteBuffer chunk) throws Exception {
+			assertSame(started, message);
+			byte[] bytes = new byte[chunk.remaining()];
+			chunk.get(bytes);
+			payload.write(bytes);
+			chunkCount++;
+		}
+
+		@Override
+		public void publishCompleted(MqttChannel channel, PubMessage message) throws Exception {
+			assertSame(started, message);
+			publish(channel, message);
+		}
+	}
 }
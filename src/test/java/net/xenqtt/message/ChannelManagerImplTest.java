@@ -439,6 +439,80 @@ public class ChannelManagerImplTest {
 		assertEquals(0, manager.getStats(false).getMessagesSent());
 	}
 
+	@Test
+	public void testIoLoopProfiling() throws Exception {
+
+		manager = new ChannelManagerImpl(2);
+		manager.init();
+
+		CountDownLatch trigger = new CountDownLatch(1);
+		brokerHandler.onMessage(MessageType.PUBACK, trigger);
+
+		clientChannel = manager.newClientChannel("localhost", server.getPort(), clientHandler);
+		brokerChannel = manager.newBrokerChannel(server.nextClient(1000), brokerHandler);
+
+		assertNull(manager.send(clientChannel, new PubAckMessage(1)));
+		assertTrue(trigger.await(1, TimeUnit.SECONDS));
+
+		assertEquals(2, manager.getOpenChannelCount());
+
+		long loopCount = manager.getSelectorLoopCount();
+		long loops = 0;
+		for (long count : manager.getCommandsPerLoopHistogram()) {
+			loops += count;
+		}
+		assertTrue(loopCount > 0);
+		// the IO thread may complete another loop between the 2 reads
+		assertTrue(loops >= loopCount);
+
+		long[] readyKeys = manager.getReadyKeysPerLoopHistogram();
+		long loopsWithReadyKeys = loops - readyKeys[0];
+		assertTrue(loopsWithReadyKeys > 0);
+	}
+
+	@Test
+	public void testIoLoopListener() throws Exception {
+
+		final CountDownLatch trigger = new CountDownLatch(1);
+		final List<IoLoopProfile> profiles = new ArrayList<IoLoopProfile>();
+
+		manager = new ChannelManagerImpl(2);
+		manager.setIoLoopListener(new IoLoopListener() {
+
+			@Override
+			public void loopOverBudget(IoLoopProfile profile) {
+				if (profile.getCommandCount() > 0) {
+					profiles.add(profile);
+					trigger.countDown();
+				}
+			}
+		}, 0);
+		manager.init();
+
+		clientChannel = manager.newClientChannel("localhost", server.getPort(), clientHandler);
+
+		assertTrue(trigger.await(1, TimeUnit.SECONDS));
+		IoLoopProfile profile = profiles.get(0);
+		assertTrue(profile.getExecuteCommandsNanos() > 0);
+		assertEquals(profile.getBusyNanos(),
+				profile.getExecuteCommandsNanos() + profile.getConnectNanos() + profile.getReadNanos() + profile.getWriteNanos() + profile.getHouseKeepingNanos());
+	}
+
+	@Test
+	public void testIoLoopListener_UnderBudget() throws Exception {
+
+		IoLoopListener listener = mock(IoLoopListener.class);
+
+		manager = new ChannelManagerImpl(2);
+		manager.setIoLoopListener(listener, 60000);
+		manager.init();
+
+		clientChannel = manager.newClientChannel("localhost", server.getPort(), clientHandler);
+		brokerChannel = manager.newBrokerChannel(server.nextClient(1000), brokerHandler);
+
+		verifyZeroInteractions(listener);
+	}
+
 	@Test
 	public void testSend_Blocking_NonAckableMessage() throws Exception {
 
@@ -460,6 +534,32 @@ public class ChannelManagerImplTest {
 		assertEquals(1, manager.getStats(false).getMessagesSent());
 	}
 
+	@Test
+	public void testSend_DirectFrames_HeapMessageCopied() throws Exception {
+
+		manager = new ChannelManagerImpl(2, 0);
+		manager.setDirectFrames(true);
+		manager.init();
+
+		CountDownLatch trigger = new CountDownLatch(1);
+		brokerHandler.onMessage(MessageType.PUBLISH, trigger);
+
+		clientChannel = manager.newClientChannel("localhost", server.getPort(), clientHandler);
+		brokerChannel = manager.newBrokerChannel(server.nextClient(1000), brokerHandler);
+
+		byte[] payload = new byte[FrameBuffers.MIN_DIRECT_FRAME_SIZE];
+		payload[payload.length - 1] = 1;
+		PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, payload);
+		assertFalse(message.buffer.isDirect());
+
+		assertNull(manager.send(clientChannel, message));
+		assertTrue(trigger.await(1, TimeUnit.SECONDS));
+
+		brokerHandler.assertMessages(message);
+		assertArrayEquals(payload, ((PubMessage) brokerHandler.message(0)).getPayload());
+		assertSame(message.buffer, message.frame());
+	}
+
 	@Test
 	public void testSend_Blocking_AckableMessage() throws Exception {
 
@@ -636,6 +736,87 @@ public class ChannelManagerImplTest {
 		manager2.shutdown();
 	}
 
+	@Test
+	public void testAttachChannelAsync() throws Exception {
+
+		ChannelManagerImpl manager2 = new ChannelManagerImpl(2);
+		manager2.init();
+
+		manager = new ChannelManagerImpl(2);
+		manager.init();
+
+		clientChannel = manager.newClientChannel("localhost", server.getPort(), clientHandler);
+		brokerChannel = manager.newBrokerChannel(server.nextClient(1000), brokerHandler);
+
+		assertFalse(manager.isIoThread());
+
+		CountDownLatch trigger = new CountDownLatch(1);
+		clientHandler.onChannelDetached(trigger);
+		manager.detachChannel(clientChannel);
+		assertTrue(trigger.await(1, TimeUnit.SECONDS));
+
+		trigger = new CountDownLatch(1);
+		clientHandler.onChannelAttached(trigger);
+		manager2.attachChannelAsync(clientChannel, clientHandler);
+		assertTrue(trigger.await(1, TimeUnit.SECONDS));
+
+		trigger = new CountDownLatch(1);
+		brokerHandler.onMessage(MessageType.PUBACK, trigger);
+		manager2.send(clientChannel, new PubAckMessage(1));
+		assertTrue(trigger.await(1, TimeUnit.SECONDS));
+
+		manager2.shutdown();
+	}
+
+	@Test
+	public void testAttachChannelAsync_Fails_ChannelClosed() throws Exception {
+
+		ChannelManagerImpl manager2 = new ChannelManagerImpl(2);
+		manager2.init();
+
+		manager = new ChannelManagerImpl(2);
+		manager.init();
+
+		clientChannel = manager.newClientChannel("localhost", server.getPort(), clientHandler);
+		brokerChannel = manager.newBrokerChannel(server.nextClient(1000), brokerHandler);
+
+		// the channel is still registered with the first manager so attaching it to the second fails
+		CountDownLatch trigger = new CountDownLatch(1);
+		clientHandler.onChannelClosed(trigger);
+		manager2.attachChannelAsync(clientChannel, clientHandler);
+		assertTrue(trigger.await(1, TimeUnit.SECONDS));
+
+		clientHandler.assertLastChannelClosedCause(IllegalStateException.class);
+
+		manager2.shutdown();
+	}
+
+	@Test
+	public void testNewClientChannel_OnIoThread_NonBlocking() throws Exception {
+
+		manager = new ChannelManagerImpl(2);
+		manager.init();
+
+		final CountDownLatch trigger = new CountDownLatch(1);
+		final MockMessageHandler clientHandler2 = new MockMessageHandler();
+		clientHandler2.onChannelOpened(trigger);
+
+		MessageHandler handler = mock(MessageHandler.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				assertTrue(manager.isIoThread());
+				manager.newClientChannel("localhost", server.getPort(), clientHandler2);
+				return null;
+			}
+		}).when(handler).channelOpened(any(MqttChannel.class));
+
+		clientChannel = manager.newClientChannel("localhost", server.getPort(), handler);
+
+		assertTrue(trigger.await(1, TimeUnit.SECONDS));
+		clientHandler2.assertChannelClosedCount(0);
+	}
+
 	@Test
 	public void testClose_NoCause_NonBlocking() throws Exception {
 
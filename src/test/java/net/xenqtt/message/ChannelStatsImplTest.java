@@ -0,0 +1,98 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChannelStatsImplTest {
+
+	MqttChannel channel = mock(MqttChannel.class);
+	ChannelStatsImpl stats = new ChannelStatsImpl();
+
+	@Before
+	public void setup() {
+		when(channel.getLocalAddress()).thenReturn("local:1234");
+		when(channel.getRemoteAddress()).thenReturn("remote:1883");
+		when(channel.sendQueueDepth()).thenReturn(7);
+		when(channel.inFlightMessageCount()).thenReturn(3);
+	}
+
+	@Test
+	public void testSnapshot() {
+
+		stats.bytesReceived(10);
+		stats.bytesReceived(5);
+		stats.bytesSent(20);
+		stats.messageReceived();
+		stats.messageSent(false);
+		stats.messageSent(true);
+		stats.writeBlocked(12);
+		stats.writeBlocked(8);
+
+		ChannelStatsImpl snapshot = stats.snapshot(channel, false);
+		assertEquals("local:1234", snapshot.getLocalAddress());
+		assertEquals("remote:1883", snapshot.getRemoteAddress());
+		assertEquals(15, snapshot.getBytesReceived());
+		assertEquals(20, snapshot.getBytesSent());
+		assertEquals(1, snapshot.getMessagesReceived());
+		assertEquals(2, snapshot.getMessagesSent());
+		assertEquals(1, snapshot.getMessagesResent());
+		assertEquals(7, snapshot.getSendQueueDepth());
+		assertEquals(3, snapshot.getMessagesInFlight());
+		assertEquals(20, snapshot.getWriteBlockedMillis());
+
+		assertEquals(15, stats.getBytesReceived());
+	}
+
+	@Test
+	public void testSnapshot_IsNotAffectedByLaterUpdates() {
+
+		stats.bytesSent(20);
+		ChannelStatsImpl snapshot = stats.snapshot(channel, false);
+		stats.bytesSent(20);
+
+		assertEquals(20, snapshot.getBytesSent());
+		assertEquals(40, stats.getBytesSent());
+	}
+
+	@Test
+	public void testSnapshot_Reset() {
+
+		stats.bytesReceived(10);
+		stats.bytesSent(20);
+		stats.messageReceived();
+		stats.messageSent(true);
+		stats.writeBlocked(12);
+
+		ChannelStatsImpl snapshot = stats.snapshot(channel, true);
+		assertEquals(10, snapshot.getBytesReceived());
+		assertEquals(20, snapshot.getBytesSent());
+
+		snapshot = stats.snapshot(channel, false);
+		assertEquals(0, snapshot.getBytesReceived());
+		assertEquals(0, snapshot.getBytesSent());
+		assertEquals(0, snapshot.getMessagesReceived());
+		assertEquals(0, snapshot.getMessagesSent());
+		assertEquals(0, snapshot.getMessagesResent());
+		assertEquals(0, snapshot.getWriteBlockedMillis());
+		assertEquals(7, snapshot.getSendQueueDepth());
+		assertEquals(3, snapshot.getMessagesInFlight());
+	}
+}
@@ -0,0 +1,99 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class EncodedTopicTest {
+
+	@Test
+	public void testCtor() {
+
+		EncodedTopic topic = new EncodedTopic("a/b");
+
+		assertEquals("a/b", topic.getTopicName());
+		assertEquals("a/b", topic.toString());
+		assertEquals(5, topic.size());
+
+		ByteBuffer buffer = ByteBuffer.allocate(5);
+		topic.put(buffer);
+		assertArrayEquals(new byte[] { 0, 3, 97, 47, 98 }, buffer.array());
+	}
+
+	@Test
+	public void testCtor_Empty() {
+
+		EncodedTopic topic = new EncodedTopic("");
+
+		assertEquals(2, topic.size());
+		ByteBuffer buffer = ByteBuffer.allocate(2);
+		topic.put(buffer);
+		assertArrayEquals(new byte[] { 0, 0 }, buffer.array());
+	}
+
+	@Test
+	public void testCtor_LongTopic() {
+
+		char[] chars = new char[300];
+		Arrays.fill(chars, 'x');
+		EncodedTopic topic = new EncodedTopic(new String(chars));
+
+		ByteBuffer buffer = ByteBuffer.allocate(topic.size());
+		topic.put(buffer);
+		assertEquals(300, buffer.getShort(0) & 0xffff);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_Null() {
+		new EncodedTopic(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_TooLong() {
+		new EncodedTopic(new String(new char[0x10000]));
+	}
+
+	@Test
+	public void testEqualsAndHashCode() {
+
+		assertEquals(new EncodedTopic("a/b"), new EncodedTopic("a/b"));
+		assertEquals(new EncodedTopic("a/b").hashCode(), new EncodedTopic("a/b").hashCode());
+		assertFalse(new EncodedTopic("a/b").equals(new EncodedTopic("a/c")));
+		assertFalse(new EncodedTopic("a/b").equals("a/b"));
+	}
+
+	@Test
+	public void testPubMessage_SameAsStringTopic() {
+
+		EncodedTopic topic = new EncodedTopic("net.sf/message/topic");
+		byte[] payload = new byte[] { 1, 2, 3 };
+
+		for (QoS qos : QoS.values()) {
+			PubMessage expected = new PubMessage(qos, true, "net.sf/message/topic", 7, payload);
+			PubMessage message = new PubMessage(qos, true, topic, 7, payload);
+
+			assertArrayEquals(expected.buffer.array(), message.buffer.array());
+			assertSame(topic.getTopicName(), message.getTopicName());
+			assertEquals(qos == QoS.AT_MOST_ONCE ? 0 : 7, message.getMessageId());
+			assertArrayEquals(payload, message.getPayload());
+		}
+	}
+}
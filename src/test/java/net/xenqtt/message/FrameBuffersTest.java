@@ -0,0 +1,140 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class FrameBuffersTest {
+
+	FrameBuffers heap = new FrameBuffers(false);
+	FrameBuffers direct = new FrameBuffers(true);
+
+	@Test
+	public void testTake() {
+
+		ByteBuffer buffer = heap.take(FrameBuffers.MIN_DIRECT_FRAME_SIZE + 1);
+		assertTrue(buffer.isDirect());
+		assertEquals(0, buffer.position());
+		assertEquals(FrameBuffers.MIN_DIRECT_FRAME_SIZE + 1, buffer.limit());
+		assertEquals(FrameBuffers.MIN_DIRECT_FRAME_SIZE * 2, buffer.capacity());
+
+		assertEquals(FrameBuffers.MIN_DIRECT_FRAME_SIZE, heap.take(FrameBuffers.MIN_DIRECT_FRAME_SIZE).capacity());
+		assertEquals(FrameBuffers.MAX_POOLED_FRAME_SIZE, heap.take(FrameBuffers.MAX_POOLED_FRAME_SIZE).capacity());
+	}
+
+	@Test
+	public void testTake_Released() {
+
+		ByteBuffer buffer = direct.take(FrameBuffers.MIN_DIRECT_FRAME_SIZE + 1);
+		buffer.position(10);
+		direct.release(buffer);
+
+		ByteBuffer taken = direct.take(FrameBuffers.MIN_DIRECT_FRAME_SIZE * 2);
+		assertSame(buffer, taken);
+		assertEquals(0, taken.position());
+		assertEquals(FrameBuffers.MIN_DIRECT_FRAME_SIZE * 2, taken.limit());
+
+		assertNotSame(buffer, direct.take(FrameBuffers.MIN_DIRECT_FRAME_SIZE * 2));
+	}
+
+	@Test
+	public void testRelease_PoolBounded() {
+
+		int maxPooled = FrameBuffers.MAX_POOLED_BYTES_PER_SIZE / FrameBuffers.MIN_DIRECT_FRAME_SIZE;
+		List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+		for (int i = 0; i <= maxPooled; i++) {
+			buffers.add(direct.take(FrameBuffers.MIN_DIRECT_FRAME_SIZE));
+		}
+		for (ByteBuffer buffer : buffers) {
+			direct.release(buffer);
+		}
+
+		Set<ByteBuffer> taken = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+		for (int i = 0; i < maxPooled; i++) {
+			taken.add(direct.take(FrameBuffers.MIN_DIRECT_FRAME_SIZE));
+		}
+		assertEquals(maxPooled, taken.size());
+		assertFalse(taken.contains(buffers.get(maxPooled)));
+		assertFalse(taken.contains(direct.take(FrameBuffers.MIN_DIRECT_FRAME_SIZE)));
+	}
+
+	@Test
+	public void testCopyToDirectFrame() {
+
+		byte[] payload = new byte[FrameBuffers.MIN_DIRECT_FRAME_SIZE];
+		payload[payload.length - 1] = 2;
+		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, payload);
+
+		message.copyToDirectFrame(heap);
+		assertSame(message.buffer, message.frame());
+
+		message.copyToDirectFrame(direct);
+		ByteBuffer frame = message.frame();
+		assertTrue(frame.isDirect());
+		assertFalse(message.buffer.isDirect());
+		assertEquals(message.buffer, frame);
+
+		message.setDuplicateFlag();
+		assertTrue(message.isDuplicate());
+		assertEquals(message.buffer, frame);
+
+		message.releaseDirectFrame();
+		assertSame(message.buffer, message.frame());
+		assertSame(frame, direct.take(frame.capacity()));
+	}
+
+	@Test
+	public void testCopyToDirectFrame_SmallFrame() {
+
+		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[10]);
+		message.copyToDirectFrame(direct);
+		assertSame(message.buffer, message.frame());
+	}
+
+	@Test
+	public void testCopyToDirectFrame_LargerThanPooled() {
+
+		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[FrameBuffers.MAX_POOLED_FRAME_SIZE]);
+		message.copyToDirectFrame(direct);
+		assertSame(message.buffer, message.frame());
+	}
+
+	@Test
+	public void testSetDirect() {
+
+		PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "grand/foo/bar", 0, new byte[FrameBuffers.MIN_DIRECT_FRAME_SIZE]);
+
+		heap.setDirect(true);
+		assertTrue(heap.isDirect());
+		message.copyToDirectFrame(heap);
+		assertTrue(message.frame().isDirect());
+		message.releaseDirectFrame();
+
+		heap.setDirect(false);
+		assertFalse(heap.isDirect());
+		message.copyToDirectFrame(heap);
+		assertSame(message.buffer, message.frame());
+	}
+}
@@ -119,6 +119,17 @@ public class MqttMessageTest {
 		assertArrayEquals(PAYLOAD, message.buffer.array());
 	}
 
+	@Test
+	public void testCopyCtor_ReadOnlyBuffer() {
+		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[] { 1, 2, 3 });
+		MqttMessage copy = new MqttMessage(message);
+
+		assertTrue(copy.buffer.isReadOnly());
+		assertArrayEquals(message.getBytes(0), copy.getBytes(0));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, copy.getBytes(copy.buffer.limit() - 3));
+		assertEquals(message.toString().substring(message.toString().indexOf(':')), copy.toString().substring(copy.toString().indexOf(':')));
+	}
+
 	@Test
 	public void testIsAckable() throws Exception {
 
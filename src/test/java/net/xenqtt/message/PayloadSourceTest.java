@@ -0,0 +1,122 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PayloadSourceTest {
+
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	WritableByteChannel target = Channels.newChannel(out);
+
+	byte[] payload = new byte[150000];
+	{
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+	}
+
+	@Test
+	public void testFromStream() throws Exception {
+
+		PayloadSource source = PayloadSource.fromStream(new ByteArrayInputStream(payload), payload.length - 10);
+		assertEquals(payload.length - 10, source.length());
+		assertFalse(source.isRepeatable());
+
+		transferAll(source);
+
+		assertArrayEquals(Arrays.copyOf(payload, payload.length - 10), out.toByteArray());
+	}
+
+	@Test(expected = EOFException.class)
+	public void testFromStream_EndsEarly() throws Exception {
+
+		transferAll(PayloadSource.fromStream(new ByteArrayInputStream(payload), payload.length + 1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFromStream_SentTwice() throws Exception {
+
+		PayloadSource source = PayloadSource.fromStream(new ByteArrayInputStream(payload), payload.length);
+		transferAll(source);
+		source.transferTo(0, target);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFromStream_NegativeLength() throws Exception {
+
+		PayloadSource.fromStream(new ByteArrayInputStream(payload), -1);
+	}
+
+	@Test
+	public void testFromFile() throws Exception {
+
+		File file = File.createTempFile("xenqtt", ".payload");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.write(payload);
+
+			PayloadSource source = PayloadSource.fromFile(raf.getChannel(), 100, 1000);
+			assertEquals(1000, source.length());
+			assertTrue(source.isRepeatable());
+
+			transferAll(source);
+			transferAll(source);
+
+			byte[] expected = Arrays.copyOfRange(payload, 100, 1100);
+			byte[] actual = out.toByteArray();
+			assertArrayEquals(expected, Arrays.copyOfRange(actual, 0, 1000));
+			assertArrayEquals(expected, Arrays.copyOfRange(actual, 1000, 2000));
+		} finally {
+			raf.close();
+			file.delete();
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void testFromFile_Truncated() throws Exception {
+
+		File file = File.createTempFile("xenqtt", ".payload");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.write(payload, 0, 100);
+
+			transferAll(PayloadSource.fromFile(raf.getChannel(), 50, 100));
+		} finally {
+			raf.close();
+			file.delete();
+		}
+	}
+
+	private void transferAll(PayloadSource source) throws Exception {
+
+		int position = 0;
+		while (position < source.length()) {
+			position += source.transferTo(position, target);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PowerOfTwoHistogramTest {
+
+	PowerOfTwoHistogram histogram = new PowerOfTwoHistogram(5);
+
+	@Test
+	public void testRecord() {
+
+		histogram.record(0);
+		histogram.record(1);
+		histogram.record(2);
+		histogram.record(3);
+		histogram.record(4);
+		histogram.record(7);
+		histogram.record(8);
+		histogram.record(15);
+
+		assertArrayEquals(new long[] { 1, 1, 2, 2, 2 }, histogram.snapshot());
+	}
+
+	@Test
+	public void testRecord_LargeValuesGoInLastBucket() {
+
+		histogram.record(16);
+		histogram.record(1000);
+		histogram.record(Integer.MAX_VALUE);
+
+		assertArrayEquals(new long[] { 0, 0, 0, 0, 3 }, histogram.snapshot());
+	}
+
+	@Test
+	public void testSnapshot_IsACopy() {
+
+		long[] snapshot = histogram.snapshot();
+		histogram.record(1);
+
+		assertEquals(0, snapshot[1]);
+		assertEquals(1, histogram.snapshot()[1]);
+	}
+}
@@ -16,6 +16,7 @@
 package net.xenqtt.message;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -40,6 +41,41 @@ public class PubMessageTest {
 			108, 117, 116, 105, 111, 110, 32, 116, 111, 44, 32, 97, 108, 108, 32, 111, 102, 32, 108, 105, 102, 101, 39, 115, 32, 112, 114, 111, 98, 108, 101,
 			109, 115 };
 
+	@Test
+	public void testSetPayload() {
+		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "net.sf/message/topic", 1, new byte[] { 1, 2, 3 });
+
+		message.setPayload(new byte[] { 4, 5, 6 });
+
+		assertArrayEquals(new byte[] { 4, 5, 6 }, message.getPayload());
+		assertEquals("net.sf/message/topic", message.getTopicName());
+		assertEquals(1, message.getMessageId());
+		assertEquals(0, message.buffer.position());
+		assertEquals(message.buffer.capacity(), message.buffer.limit());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetPayload_DifferentLength() {
+		PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "net.sf/message/topic", 0, new byte[] { 1, 2, 3 });
+		message.setPayload(new byte[] { 4, 5 });
+	}
+
+	@Test
+	public void testSetRecycler_Qos0() {
+		PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "net.sf/message/topic", 0, new byte[] { 1, 2, 3 });
+		MessageRecycler recycler = mock(MessageRecycler.class);
+
+		message.setRecycler(recycler);
+
+		assertSame(recycler, message.getRecycler());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSetRecycler_Qos1() {
+		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "net.sf/message/topic", 1, new byte[] { 1, 2, 3 });
+		message.setRecycler(mock(MessageRecycler.class));
+	}
+
 	@Test
 	public void testOutboundCtor_EmptyPayload() {
 		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "net.sf/message/topic", 1, new byte[] {});
@@ -0,0 +1,140 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TopicCursorTest {
+
+	SubscribeMessage subscribe = new SubscribeMessage(1, new String[] { "a/b", "a/+", "\u00e9/#" }, new QoS[] { QoS.AT_MOST_ONCE, QoS.AT_LEAST_ONCE,
+			QoS.EXACTLY_ONCE });
+	UnsubscribeMessage unsubscribe = new UnsubscribeMessage(2, new String[] { "x", "y/z" });
+
+	@Test
+	public void testSubscribe() {
+
+		TopicCursor cursor = subscribe.getTopicCursor();
+		assertEquals(3, cursor.getTopicCount());
+
+		assertTrue(cursor.next());
+		assertEquals("a/b", cursor.getTopicName());
+		assertEquals(3, cursor.getTopicLength());
+		assertSame(QoS.AT_MOST_ONCE, cursor.getRequestedQoS());
+		assertFalse(cursor.isWildcard());
+
+		assertTrue(cursor.next());
+		assertEquals("a/+", cursor.getTopicName());
+		assertSame(QoS.AT_LEAST_ONCE, cursor.getRequestedQoS());
+		assertTrue(cursor.isWildcard());
+
+		assertTrue(cursor.next());
+		assertEquals("\u00e9/#", cursor.getTopicName());
+		assertEquals(4, cursor.getTopicLength());
+		assertSame(QoS.EXACTLY_ONCE, cursor.getRequestedQoS());
+		assertTrue(cursor.isWildcard());
+
+		assertFalse(cursor.next());
+		assertEquals(3, cursor.getTopicCount());
+	}
+
+	@Test
+	public void testUnsubscribe() {
+
+		TopicCursor cursor = unsubscribe.getTopicCursor();
+		assertEquals(2, cursor.getTopicCount());
+
+		assertTrue(cursor.next());
+		assertEquals("x", cursor.getTopicName());
+		assertTrue(cursor.next());
+		assertEquals("y/z", cursor.getTopicName());
+		assertFalse(cursor.next());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testUnsubscribe_RequestedQoS() {
+
+		TopicCursor cursor = unsubscribe.getTopicCursor();
+		cursor.next();
+		cursor.getRequestedQoS();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNotPositioned() {
+		subscribe.getTopicCursor().getTopicName();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPastEnd() {
+
+		TopicCursor cursor = unsubscribe.getTopicCursor();
+		while (cursor.next()) {
+		}
+		cursor.getTopicName();
+	}
+
+	@Test
+	public void testWrapAndReset() {
+
+		TopicCursor cursor = new TopicCursor().wrap(unsubscribe);
+		assertTrue(cursor.next());
+		assertEquals("x", cursor.getTopicName());
+
+		cursor.reset();
+		assertTrue(cursor.next());
+		assertEquals("x", cursor.getTopicName());
+
+		assertSame(cursor, cursor.wrap(subscribe));
+		assertTrue(cursor.next());
+		assertEquals("a/b", cursor.getTopicName());
+	}
+
+	@Test
+	public void testGetTopicName_Shared() {
+
+		TopicCursor cursor = new SubscribeMessage(1, new String[] { "shared/topic" }, new QoS[] { QoS.AT_MOST_ONCE }).getTopicCursor();
+		cursor.next();
+		String first = cursor.getTopicName();
+
+		cursor = new UnsubscribeMessage(1, new String[] { "shared/topic" }).getTopicCursor();
+		cursor.next();
+		assertSame(first, cursor.getTopicName());
+	}
+
+	@Test
+	public void testTopicEquals() {
+
+		TopicCursor cursor = subscribe.getTopicCursor();
+		cursor.next();
+
+		assertTrue(cursor.topicEquals(new EncodedTopic("a/b")));
+		assertFalse(cursor.topicEquals(new EncodedTopic("a/c")));
+		assertFalse(cursor.topicEquals(new EncodedTopic("a/bc")));
+		assertFalse(cursor.topicEquals(new EncodedTopic("")));
+	}
+
+	@Test
+	public void testTopicHashCode() throws Exception {
+
+		TopicCursor cursor = subscribe.getTopicCursor();
+		while (cursor.next()) {
+			assertEquals(Arrays.hashCode(cursor.getTopicName().getBytes("UTF-8")), cursor.topicHashCode());
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class TopicNameCacheTest {
+
+	TopicNameCache cache = new TopicNameCache(16, 32);
+
+	@Test
+	public void testGet_SameTopicReturnsSameInstance() {
+
+		String first = cache.get(buffer("abc/def"), 3, 7);
+		String second = cache.get(buffer("abc/def"), 3, 7);
+
+		assertEquals("abc/def", first);
+		assertSame(first, second);
+	}
+
+	@Test
+	public void testGet_DifferentTopics() {
+
+		assertEquals("abc/def", cache.get(buffer("abc/def"), 3, 7));
+		assertEquals("abc/deg", cache.get(buffer("abc/deg"), 3, 7));
+		assertEquals("abc/defg", cache.get(buffer("abc/defg"), 3, 8));
+		assertEquals("abc/def", cache.get(buffer("abc/def"), 3, 7));
+	}
+
+	@Test
+	public void testGet_EmptyTopic() {
+
+		assertEquals("", cache.get(buffer(""), 3, 0));
+	}
+
+	@Test
+	public void testGet_MultiByteCharacters() {
+
+		String topic = "gr\u00fc\u00dfe/\u4e16\u754c";
+		int length = topic.getBytes(Charset.forName("UTF-8")).length;
+
+		String first = cache.get(buffer(topic), 3, length);
+		assertEquals(topic, first);
+		assertSame(first, cache.get(buffer(topic), 3, length));
+	}
+
+	@Test
+	public void testGet_TopicTooLongToCache() {
+
+		String topic = "abcdefghijklmnopqrstuvwxyz/abcdefghijklmnopqrstuvwxyz";
+
+		String first = cache.get(buffer(topic), 3, topic.length());
+		String second = cache.get(buffer(topic), 3, topic.length());
+
+		assertEquals(topic, first);
+		assertEquals(topic, second);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void testGet_EvictedTopicDecodedAgain() {
+
+		cache = new TopicNameCache(1, 32);
+
+		String first = cache.get(buffer("abc/def"), 3, 7);
+		assertEquals("abc/ghi", cache.get(buffer("abc/ghi"), 3, 7));
+		String second = cache.get(buffer("abc/def"), 3, 7);
+
+		assertEquals("abc/def", second);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void testGet_BufferPositionNotChanged() {
+
+		ByteBuffer buffer = buffer("abc/def");
+		buffer.position(1);
+
+		cache.get(buffer, 3, 7);
+
+		assertEquals(1, buffer.position());
+		assertEquals(buffer.capacity(), buffer.limit());
+	}
+
+	@Test
+	public void testPubMessageGetTopicName_ReceivedMessagesShareTopic() {
+
+		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "net.sf/message/topic", 1, new byte[] { 1, 2, 3 });
+		byte[] bytes = message.buffer.array();
+
+		PubMessage received1 = new PubMessage(ByteBuffer.wrap(bytes.clone()), bytes.length - 2, 0);
+		PubMessage received2 = new PubMessage(ByteBuffer.wrap(bytes.clone()), bytes.length - 2, 0);
+
+		assertEquals("net.sf/message/topic", received1.getTopicName());
+		assertSame(received1.getTopicName(), received2.getTopicName());
+	}
+
+	/**
+	 * @return A buffer with the topic as an MQTT string preceded by a single byte
+	 */
+	private ByteBuffer buffer(String topic) {
+
+		byte[] utf8 = topic.getBytes(Charset.forName("UTF-8"));
+		ByteBuffer buffer = ByteBuffer.allocate(utf8.length + 3);
+		buffer.put((byte) 0x30);
+		buffer.putShort((short) utf8.length);
+		buffer.put(utf8);
+		buffer.clear();
+
+		return buffer;
+	}
+}
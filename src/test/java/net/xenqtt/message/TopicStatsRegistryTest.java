@@ -0,0 +1,177 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import net.xenqtt.client.TopicStats;
+
+import org.junit.Test;
+
+public class TopicStatsRegistryTest {
+
+	TopicStatsRegistry registry = new TopicStatsRegistry(3);
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_MaxTopicsZero() {
+		new TopicStatsRegistry(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_ConcurrencyZero() {
+		new TopicStatsRegistry(3, 0);
+	}
+
+	@Test
+	public void testMessagePublished_CountsFromAllThreads() throws Exception {
+
+		registry = new TopicStatsRegistry(4 * TopicStatsRegistry.MIN_TOPICS_PER_STRIPE, 4);
+
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					publish("a", 1000);
+					publish("b", 10);
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(2, registry.getTopicCount());
+		List<TopicStats> stats = registry.getTopicStats(10, true);
+		assertTopic(stats.get(0), "a", 8000);
+		assertTopic(stats.get(1), "b", 80);
+		assertEquals(0, registry.getTopicCount());
+	}
+
+	@Test
+	public void testMessagePublished_MaxTopicsSplitAcrossStripes() {
+
+		registry = new TopicStatsRegistry(4 * TopicStatsRegistry.MIN_TOPICS_PER_STRIPE + 3, 4);
+		publish("hot", 1000);
+		for (int i = 0; i < 10000; i++) {
+			publish("cold" + i, 1);
+		}
+
+		assertEquals(4 * TopicStatsRegistry.MIN_TOPICS_PER_STRIPE + 3, registry.getTopicCount());
+		assertEquals(4 * TopicStatsRegistry.MIN_TOPICS_PER_STRIPE + 3, registry.getTopicStats(10000, false).size());
+		assertEquals("hot", registry.getTopicStats(1, false).get(0).getTopicName());
+	}
+
+	@Test
+	public void testMessagePublished_FewTopicsUseOneStripe() {
+
+		registry = new TopicStatsRegistry(TopicStatsRegistry.MIN_TOPICS_PER_STRIPE * 2 - 1, 8);
+		for (int i = 0; i < 1000; i++) {
+			publish("topic" + i, 1);
+		}
+
+		assertEquals(TopicStatsRegistry.MIN_TOPICS_PER_STRIPE * 2 - 1, registry.getTopicCount());
+	}
+
+	@Test
+	public void testGetTopicStats_NoMessages() {
+		assertTrue(registry.getTopicStats(10, false).isEmpty());
+		assertEquals(0, registry.getTopicCount());
+	}
+
+	@Test
+	public void testGetTopicStats_OrderedByCount() {
+
+		publish("a", 1);
+		publish("b", 3);
+		publish("c", 2);
+
+		List<TopicStats> stats = registry.getTopicStats(10, false);
+		assertEquals(3, stats.size());
+		assertTopic(stats.get(0), "b", 3);
+		assertTopic(stats.get(1), "c", 2);
+		assertTopic(stats.get(2), "a", 1);
+		assertTrue(stats.get(0).getMessagesPerSecond() > 0);
+	}
+
+	@Test
+	public void testGetTopicStats_MaxResults() {
+
+		publish("a", 1);
+		publish("b", 3);
+		publish("c", 2);
+
+		List<TopicStats> stats = registry.getTopicStats(2, false);
+		assertEquals(2, stats.size());
+		assertTopic(stats.get(0), "b", 3);
+		assertTopic(stats.get(1), "c", 2);
+	}
+
+	@Test
+	public void testMessagePublished_EvictsLeastActiveTopic() {
+
+		publish("a", 1);
+		publish("b", 5);
+		publish("c", 4);
+		publish("d", 1);
+
+		assertEquals(3, registry.getTopicCount());
+		List<TopicStats> stats = registry.getTopicStats(10, false);
+		assertTopic(stats.get(0), "b", 5);
+		assertTopic(stats.get(1), "c", 4);
+		// the new topic inherits the evicted topic's count so the count is an upper bound
+		assertTopic(stats.get(2), "d", 2);
+	}
+
+	@Test
+	public void testMessagePublished_HotTopicSurvivesEviction() {
+
+		publish("hot", 100);
+		for (int i = 0; i < 100; i++) {
+			publish("cold" + i, 1);
+		}
+
+		assertEquals(3, registry.getTopicCount());
+		assertTopic(registry.getTopicStats(1, false).get(0), "hot", 100);
+	}
+
+	@Test
+	public void testGetTopicStats_Reset() {
+
+		publish("a", 2);
+		assertEquals(1, registry.getTopicStats(10, true).size());
+
+		assertEquals(0, registry.getTopicCount());
+		assertTrue(registry.getTopicStats(10, false).isEmpty());
+
+		publish("a", 1);
+		assertTopic(registry.getTopicStats(10, false).get(0), "a", 1);
+	}
+
+	private void publish(String topic, int count) {
+		for (int i = 0; i < count; i++) {
+			registry.messagePublished(topic);
+		}
+	}
+
+	private void assertTopic(TopicStats stats, String topicName, long count) {
+		assertEquals(topicName, stats.getTopicName());
+		assertEquals(count, stats.getMessageCount());
+	}
+}
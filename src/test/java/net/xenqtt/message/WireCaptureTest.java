@@ -0,0 +1,256 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.message;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WireCaptureTest {
+
+	File file;
+	WireCapture capture;
+
+	@Before
+	public void before() throws Exception {
+		file = File.createTempFile("wirecapture", ".bin");
+	}
+
+	@After
+	public void after() throws Exception {
+		if (capture != null) {
+			capture.close();
+		}
+		file.delete();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_CapacityTooSmall() throws Exception {
+		capture = new WireCapture(file, 1023, 100);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_MaxFrameBytesTooLarge() throws Exception {
+		capture = new WireCapture(file, 1024, 1024);
+	}
+
+	@Test(expected = IOException.class)
+	public void testRead_NotACaptureFile() throws Exception {
+		WireCapture.read(file);
+	}
+
+	@Test
+	public void testRead_Empty() throws Exception {
+
+		capture = new WireCapture(file, 1024, 100);
+		assertTrue(WireCapture.read(file).isEmpty());
+	}
+
+	@Test
+	public void testRecordAndRead() throws Exception {
+
+		capture = new WireCapture(file, 1024, 100);
+
+		PubMessage publish = new PubMessage(QoS.AT_LEAST_ONCE, false, "a/b", 7, new byte[] { 1, 2, 3 });
+		PubAckMessage ack = new PubAckMessage(7);
+		capture.record(1000, false, 1883, 50000, publish.buffer, publish.buffer.limit());
+		capture.record(2000, true, 1883, 50000, ack.buffer, ack.buffer.limit());
+		capture.close();
+
+		List<CapturedFrame> frames = WireCapture.read(file);
+		assertEquals(2, frames.size());
+
+		CapturedFrame frame = frames.get(0);
+		assertEquals(1000, frame.getTimestamp());
+		assertFalse(frame.isSent());
+		assertEquals(1883, frame.getLocalPort());
+		assertEquals(50000, frame.getRemotePort());
+		assertEquals(MessageType.PUBLISH, frame.getMessageType());
+		assertEquals("a/b", frame.getTopicName());
+		assertEquals(publish.buffer.limit(), frame.getFrameLength());
+		assertFalse(frame.isTruncated());
+		assertArrayEquals(bytes(publish.buffer), frame.getFrame());
+		assertTrue(frame.toString().contains(" RCVD 1883 <- 50000 PUBLISH "));
+		assertTrue(frame.toString().contains("topic=a/b"));
+
+		frame = frames.get(1);
+		assertEquals(2000, frame.getTimestamp());
+		assertTrue(frame.isSent());
+		assertEquals(MessageType.PUBACK, frame.getMessageType());
+		assertNull(frame.getTopicName());
+		assertArrayEquals(bytes(ack.buffer), frame.getFrame());
+	}
+
+	@Test
+	public void testRecord_DoesNotChangeBuffer() throws Exception {
+
+		capture = new WireCapture(file, 1024, 100);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+		buffer.put(new byte[] { 0x40, 2, 0, 1 });
+		buffer.flip();
+		buffer.position(2);
+		capture.record(1000, true, 1, 2, buffer, 4);
+
+		assertEquals(2, buffer.position());
+		assertEquals(4, buffer.limit());
+		assertArrayEquals(new byte[] { 0x40, 2, 0, 1 }, WireCapture.read(file).get(0).getFrame());
+	}
+
+	@Test
+	public void testRecord_Truncated() throws Exception {
+
+		capture = new WireCapture(file, 1024, 10);
+
+		PubMessage publish = new PubMessage(QoS.AT_MOST_ONCE, false, "a/b", 0, new byte[100]);
+		capture.record(1000, true, 1, 2, publish.buffer, publish.buffer.limit());
+
+		CapturedFrame frame = WireCapture.read(file).get(0);
+		assertTrue(frame.isTruncated());
+		assertEquals(publish.buffer.limit(), frame.getFrameLength());
+		assertEquals(10, frame.getFrame().length);
+		assertEquals("a/b", frame.getTopicName());
+	}
+
+	@Test
+	public void testRecord_FrameLengthLessThanBuffer() throws Exception {
+
+		capture = new WireCapture(file, 1024, 100);
+
+		ByteBuffer buffer = ByteBuffer.wrap(new byte[] { (byte) 0xc0, 0, 1, 2, 3 });
+		capture.record(1000, true, 1, 2, buffer, 2);
+
+		CapturedFrame frame = WireCapture.read(file).get(0);
+		assertEquals(2, frame.getFrameLength());
+		assertArrayEquals(new byte[] { (byte) 0xc0, 0 }, frame.getFrame());
+		assertEquals(MessageType.PINGREQ, frame.getMessageType());
+	}
+
+	@Test
+	public void testRecord_Wraps() throws Exception {
+
+		capture = new WireCapture(file, 1024, 200);
+
+		// each record is 21 bytes of header plus a 102 byte frame so the ring wraps mid record
+		for (int i = 0; i < 50; i++) {
+			byte[] payload = new byte[97];
+			payload[0] = (byte) i;
+			PubMessage publish = new PubMessage(QoS.AT_MOST_ONCE, false, "t", 0, payload);
+			capture.record(i, i % 2 == 0, i, i + 1, publish.buffer, publish.buffer.limit());
+		}
+
+		List<CapturedFrame> frames = WireCapture.read(file);
+		assertEquals(1024 / 123, frames.size());
+
+		int first = 50 - frames.size();
+		for (int i = 0; i < frames.size(); i++) {
+			CapturedFrame frame = frames.get(i);
+			int n = first + i;
+			assertEquals(n, frame.getTimestamp());
+			assertEquals(n % 2 == 0, frame.isSent());
+			assertEquals(n, frame.getLocalPort());
+			assertEquals(n + 1, frame.getRemotePort());
+			assertEquals("t", frame.getTopicName());
+			assertEquals(102, frame.getFrame().length);
+			assertEquals(n, frame.getFrame()[5]);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_RingTooSmall() throws Exception {
+		capture = new WireCapture(file, 2047, 100, 2);
+	}
+
+	@Test
+	public void testNextRing_RoundRobin() throws Exception {
+
+		capture = new WireCapture(file, 2048, 100, 2);
+
+		WireCapture.Ring ring1 = capture.nextRing();
+		WireCapture.Ring ring2 = capture.nextRing();
+		assertNotSame(ring1, ring2);
+		assertSame(ring1, capture.nextRing());
+		assertSame(ring2, capture.nextRing());
+	}
+
+	@Test
+	public void testRecord_MultipleRings() throws Exception {
+
+		capture = new WireCapture(file, 3072, 100, 3);
+
+		WireCapture.Ring ring1 = capture.nextRing();
+		WireCapture.Ring ring2 = capture.nextRing();
+		ring2.record(1000, true, 1, 2, new PingReqMessage().buffer, 2);
+		ring1.record(2000, false, 1, 2, new PingRespMessage().buffer, 2);
+		ring2.record(3000, true, 1, 2, new DisconnectMessage().buffer, 2);
+		capture.close();
+
+		List<CapturedFrame> frames = WireCapture.read(file);
+		assertEquals(3, frames.size());
+		assertEquals(MessageType.PINGREQ, frames.get(0).getMessageType());
+		assertEquals(MessageType.PINGRESP, frames.get(1).getMessageType());
+		assertEquals(MessageType.DISCONNECT, frames.get(2).getMessageType());
+	}
+
+	@Test
+	public void testRecord_Direct_Wraps() throws Exception {
+
+		capture = new WireCapture(file, 1024, 200);
+
+		for (int i = 0; i < 50; i++) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(102);
+			buffer.put(0, (byte) 0x30);
+			buffer.put(1, (byte) 100);
+			buffer.put(5, (byte) i);
+			capture.record(i, true, 1, 2, buffer, 102);
+		}
+
+		List<CapturedFrame> frames = WireCapture.read(file);
+		int first = 50 - frames.size();
+		for (int i = 0; i < frames.size(); i++) {
+			assertEquals(first + i, frames.get(i).getTimestamp());
+			assertEquals(102, frames.get(i).getFrame().length);
+			assertEquals(first + i, frames.get(i).getFrame()[5]);
+		}
+	}
+
+	@Test
+	public void testRecord_AfterClose() throws Exception {
+
+		capture = new WireCapture(file, 1024, 100);
+		capture.close();
+
+		capture.record(1000, true, 1, 2, ByteBuffer.wrap(new byte[] { (byte) 0xc0, 0 }), 2);
+
+		assertTrue(WireCapture.read(file).isEmpty());
+	}
+
+	private byte[] bytes(ByteBuffer buffer) {
+
+		byte[] bytes = new byte[buffer.limit()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(i);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,169 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.management.ObjectName;
+
+import net.xenqtt.message.ChannelManagerImpl;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsExporterTest {
+
+	MetricsExporter exporter = new MetricsExporter(0);
+	ChannelManagerImpl manager = new ChannelManagerImpl(0);
+
+	@After
+	public void after() {
+		exporter.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_InvalidPort() {
+		new MetricsExporter(65536);
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+
+		exporter.register("ChannelManager", "test", manager);
+
+		ObjectName name = new ObjectName("net.xenqtt:type=ChannelManager,name=\"test\"");
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+		assertEquals(0, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CommandQueueDepth"));
+	}
+
+	@Test
+	public void testRegister_ReplacesExisting() throws Exception {
+
+		exporter.register("ChannelManager", "test", manager);
+		exporter.register("ChannelManager", "test", new ChannelManagerImpl(0));
+
+		assertEquals(1, countOccurrences(exporter.scrape(), "xenqtt_channel_manager_command_queue_depth{"));
+	}
+
+	@Test
+	public void testRegister_NotAnMBean() throws Exception {
+
+		exporter.register("Foo", "test", new Object());
+
+		assertEquals("", exporter.scrape());
+	}
+
+	@Test
+	public void testUnregister() throws Exception {
+
+		exporter.register("ChannelManager", "test", manager);
+		exporter.unregister("ChannelManager", "test");
+
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("net.xenqtt:type=ChannelManager,name=\"test\"")));
+		assertEquals("", exporter.scrape());
+	}
+
+	@Test
+	public void testShutdown_UnregistersAll() throws Exception {
+
+		exporter.register("ChannelManager", "test1", manager);
+		exporter.register("ChannelManager", "test2", new ChannelManagerImpl(0));
+		exporter.shutdown();
+
+		assertTrue(ManagementFactory.getPlatformMBeanServer().queryNames(new ObjectName("net.xenqtt:*"), null).isEmpty());
+	}
+
+	@Test
+	public void testScrape() throws Exception {
+
+		exporter.register("ChannelManager", "test", manager);
+		exporter.register("ChannelManager", "te\"st2", new ChannelManagerImpl(0));
+
+		String text = exporter.scrape();
+		assertTrue(text.contains("# TYPE xenqtt_channel_manager_command_queue_depth untyped\n"));
+		assertTrue(text.contains("xenqtt_channel_manager_command_queue_depth{name=\"test\"} 0\n"));
+		assertTrue(text.contains("xenqtt_channel_manager_command_queue_depth{name=\"te\\\"st2\"} 0\n"));
+		assertTrue(text.contains("xenqtt_channel_manager_open_channel_count{name=\"test\"} 0\n"));
+		assertTrue(text.contains("xenqtt_channel_manager_selector_loop_count{name=\"test\"} 0\n"));
+		assertEquals(1, countOccurrences(text, "# TYPE xenqtt_channel_manager_command_queue_depth "));
+	}
+
+	@Test
+	public void testScrape_Histogram() throws Exception {
+
+		exporter.register("ChannelManager", "test", manager);
+
+		String text = exporter.scrape();
+		assertTrue(text.contains("xenqtt_channel_manager_commands_per_loop_histogram{name=\"test\",bucket=\"0\"} 0\n"));
+		assertTrue(text.contains("xenqtt_channel_manager_commands_per_loop_histogram{name=\"test\",bucket=\"15\"} 0\n"));
+	}
+
+	@Test
+	public void testHttpEndpoint() throws Exception {
+
+		exporter.register("ChannelManager", "test", manager);
+		exporter.init();
+
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + exporter.getPort() + "/metrics").openConnection();
+		assertEquals(200, connection.getResponseCode());
+		assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+		assertEquals(exporter.scrape(), read(connection.getInputStream()));
+	}
+
+	@Test
+	public void testHttpEndpoint_NotFound() throws Exception {
+
+		exporter.init();
+
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + exporter.getPort() + "/foo").openConnection();
+		assertEquals(404, connection.getResponseCode());
+		try {
+			connection.getInputStream();
+			fail("Expected exception");
+		} catch (FileNotFoundException expected) {
+		}
+	}
+
+	private String read(InputStream in) throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int len;
+		while ((len = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, len);
+		}
+		in.close();
+
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	private int countOccurrences(String text, String substring) {
+
+		int count = 0;
+		for (int i = text.indexOf(substring); i >= 0; i = text.indexOf(substring, i + 1)) {
+			count++;
+		}
+
+		return count;
+	}
+}
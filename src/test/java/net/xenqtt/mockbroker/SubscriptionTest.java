@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Queue;
 
 import net.xenqtt.message.BlockingCommand;
+import net.xenqtt.message.EncodedTopic;
 import net.xenqtt.message.MessageType;
 import net.xenqtt.message.MqttChannel;
 import net.xenqtt.message.PubMessage;
@@ -40,6 +41,7 @@ public class SubscriptionTest {
 
 	Subscription subscription = new Subscription("clientId");
 	Map<String, Client> clientById = new HashMap<String, Client>();
+	EncodedTopic topic = new EncodedTopic("grand/foo/bar");
 
 	MqttChannel channel = mock(MqttChannel.class);
 	BrokerEventsImpl events = new BrokerEventsImpl();
@@ -58,7 +60,7 @@ public class SubscriptionTest {
 	public void testConnected_PendingMessage() {
 		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[] { 97, 98, 99 });
 		subscription.subscribe("grand/foo/bar", QoS.AT_LEAST_ONCE);
-		subscription.publish(message, clientById);
+		subscription.publish(message, topic, clientById);
 		verifyZeroInteractions(channel);
 
 		subscription.connected(client);
@@ -76,7 +78,7 @@ public class SubscriptionTest {
 	public void testPubAcked_MessageInQueue() {
 		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[] { 97, 98, 99 });
 		subscription.subscribe("grand/foo/bar", QoS.AT_LEAST_ONCE);
-		subscription.publish(message, clientById);
+		subscription.publish(message, topic, clientById);
 
 		assertTrue(subscription.pubAcked(0));
 	}
@@ -85,7 +87,7 @@ public class SubscriptionTest {
 	public void testPublish_SubscribedQoSZero_MessageQoSZero_MessageNotAddedToQueue() {
 		PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "grand/foo/bar", 7, new byte[] { 97, 98, 99 });
 		clientById.put("clientId", client);
-		subscription.publish(message, clientById);
+		subscription.publish(message, topic, clientById);
 
 		verify(channel).send(message, null);
 		assertEquals(0, getMessageQueueSize());
@@ -94,7 +96,7 @@ public class SubscriptionTest {
 	@Test
 	public void testPublish_SubscribedQoSZero_MessageQoSZero_MessageNotAddedToQueue_NoClient() {
 		PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "grand/foo/bar", 7, new byte[] { 97, 98, 99 });
-		subscription.publish(message, clientById);
+		subscription.publish(message, topic, clientById);
 
 		verifyZeroInteractions(channel);
 		assertEquals(0, getMessageQueueSize());
@@ -105,7 +107,7 @@ public class SubscriptionTest {
 	public void testPublish_SubscribedQoSZero_MessageQoSOne_MessageNotAddedToQueue() {
 		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[] { 97, 98, 99 });
 		clientById.put("clientId", client);
-		subscription.publish(message, clientById);
+		subscription.publish(message, topic, clientById);
 
 		ArgumentCaptor<PubMessage> messageCaptor = ArgumentCaptor.forClass(PubMessage.class);
 		verify(channel).send(messageCaptor.capture(), any(BlockingCommand.class));
@@ -120,7 +122,7 @@ public class SubscriptionTest {
 	@Test
 	public void testPublish_SubscribedQoSZero_MessageQoSOne_MessageNotAddedToQueue_NoClient() {
 		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[] { 97, 98, 99 });
-		subscription.publish(message, clientById);
+		subscription.publish(message, topic, clientById);
 
 		verifyZeroInteractions(channel);
 	}
@@ -130,7 +132,7 @@ public class SubscriptionTest {
 		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[] { 97, 98, 99 });
 		clientById.put("clientId", client);
 		subscription.subscribe("grand/foo/bar", QoS.AT_LEAST_ONCE);
-		subscription.publish(message, clientById);
+		subscription.publish(message, topic, clientById);
 
 		PubMessage expected = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 1, new byte[] { 97, 98, 99 });
 		verify(channel).send(expected, null);
@@ -141,7 +143,7 @@ public class SubscriptionTest {
 	public void testPublish_SubscribedQoSOne_MessageQoSOne_MessageAddedToQueue_NoClient() {
 		PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "grand/foo/bar", 7, new byte[] { 97, 98, 99 });
 		subscription.subscribe("grand/foo/bar", QoS.AT_LEAST_ONCE);
-		subscription.publish(message, clientById);
+		subscription.publish(message, topic, clientById);
 
 		verifyZeroInteractions(channel);
 		assertEquals(1, getMessageQueueSize());
@@ -0,0 +1,107 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.xenqtt.message.ChannelManager;
+import net.xenqtt.metrics.MetricsExporter;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ChannelManagerPoolTest {
+
+	ChannelManagerPool pool = new ChannelManagerPool(3);
+
+	@After
+	public void after() {
+		pool.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCtor_ZeroSize() {
+		new ChannelManagerPool(0);
+	}
+
+	@Test
+	public void testNext_RoundRobin() {
+
+		assertEquals(3, pool.size());
+
+		ChannelManager first = pool.next();
+		ChannelManager second = pool.next();
+		ChannelManager third = pool.next();
+
+		assertNotSame(first, second);
+		assertNotSame(first, third);
+		assertNotSame(second, third);
+
+		assertSame(first, pool.next());
+		assertSame(second, pool.next());
+		assertSame(third, pool.next());
+	}
+
+	@Test
+	public void testInitAndShutdown() {
+
+		pool.init();
+		for (int i = 0; i < pool.size(); i++) {
+			assertTrue(pool.next().isRunning());
+		}
+
+		pool.shutdown();
+		for (int i = 0; i < pool.size(); i++) {
+			assertFalse(pool.next().isRunning());
+		}
+	}
+
+	@Test
+	public void testCurrent_NotAnIoThread() {
+
+		pool.init();
+		assertNull(pool.current());
+	}
+
+	@Test
+	public void testGetChannelStats_NoChannels() {
+
+		pool.init();
+		assertTrue(pool.getChannelStats(null, false).isEmpty());
+	}
+
+	@Test
+	public void testExportMetrics() throws Exception {
+
+		MetricsExporter exporter = new MetricsExporter(0);
+		try {
+			pool.exportMetrics(exporter, "pooltest");
+
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertTrue(server.isRegistered(new ObjectName("net.xenqtt:type=ChannelManager,name=\"pooltest-io-0\"")));
+			assertTrue(server.isRegistered(new ObjectName("net.xenqtt:type=ChannelManager,name=\"pooltest-io-1\"")));
+			assertTrue(server.isRegistered(new ObjectName("net.xenqtt:type=ChannelManager,name=\"pooltest-io-2\"")));
+			assertFalse(server.isRegistered(new ObjectName("net.xenqtt:type=ChannelManager,name=\"pooltest-io-3\"")));
+		} finally {
+			exporter.shutdown();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.xenqtt.message.MqttChannel;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class DistributionStrategyTest {
+
+	@Mock MqttChannel channel1;
+	@Mock MqttChannel channel2;
+	@Mock MqttChannel channel3;
+
+	List<MqttChannel> channels;
+	String topicName = "foo";
+
+	@Before
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		channels = new ArrayList<MqttChannel>(Arrays.asList(channel1, channel2, channel3));
+	}
+
+	@Test
+	public void testGetStrategy() {
+
+		assertSame(DistributionStrategy.LEAST_BUSY, DistributionStrategy.getStrategy("leastbusy"));
+		assertSame(DistributionStrategy.ROUND_ROBIN, DistributionStrategy.getStrategy("RoundRobin"));
+		assertSame(DistributionStrategy.TWO_CHOICES, DistributionStrategy.getStrategy("twochoices"));
+		assertSame(DistributionStrategy.TOPIC_HASH, DistributionStrategy.getStrategy("TOPICHASH"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetStrategy_Unknown() {
+		DistributionStrategy.getStrategy("random");
+	}
+
+	@Test
+	public void testSelect_NoChannels() {
+
+		for (DistributionStrategy strategy : DistributionStrategy.values()) {
+			assertNull(strategy.newDistributor().select(new ArrayList<MqttChannel>(), topicName));
+		}
+	}
+
+	@Test
+	public void testSelect_LeastBusy() {
+
+		MessageDistributor distributor = DistributionStrategy.LEAST_BUSY.newDistributor();
+
+		when(channel1.inFlightMessageCount()).thenReturn(2);
+		when(channel2.sendQueueDepth()).thenReturn(1);
+		when(channel3.inFlightMessageCount()).thenReturn(1);
+		when(channel3.sendQueueDepth()).thenReturn(1);
+
+		assertSame(channel2, distributor.select(channels, topicName));
+		assertSame(channel2, distributor.select(channels, topicName));
+	}
+
+	@Test
+	public void testSelect_LeastBusy_TiesRotate() {
+
+		MessageDistributor distributor = DistributionStrategy.LEAST_BUSY.newDistributor();
+
+		assertSame(channel1, distributor.select(channels, topicName));
+		assertSame(channel2, distributor.select(channels, topicName));
+		assertSame(channel3, distributor.select(channels, topicName));
+		assertSame(channel1, distributor.select(channels, topicName));
+	}
+
+	@Test
+	public void testSelect_RoundRobin() {
+
+		MessageDistributor distributor = DistributionStrategy.ROUND_ROBIN.newDistributor();
+
+		when(channel2.inFlightMessageCount()).thenReturn(100);
+
+		assertSame(channel1, distributor.select(channels, topicName));
+		assertSame(channel2, distributor.select(channels, topicName));
+		assertSame(channel3, distributor.select(channels, topicName));
+
+		channels.remove(channel3);
+		assertSame(channel1, distributor.select(channels, topicName));
+		assertSame(channel2, distributor.select(channels, topicName));
+		assertSame(channel1, distributor.select(channels, topicName));
+	}
+
+	@Test
+	public void testSelect_TwoChoices_PicksLessBusy() {
+
+		MessageDistributor distributor = DistributionStrategy.TWO_CHOICES.newDistributor();
+
+		channels.remove(channel3);
+		when(channel1.sendQueueDepth()).thenReturn(5);
+
+		for (int i = 0; i < 20; i++) {
+			assertSame(channel2, distributor.select(channels, topicName));
+		}
+	}
+
+	@Test
+	public void testSelect_TwoChoices_NeverPicksMostBusy() {
+
+		MessageDistributor distributor = DistributionStrategy.TWO_CHOICES.newDistributor();
+
+		when(channel1.inFlightMessageCount()).thenReturn(1);
+		when(channel2.inFlightMessageCount()).thenReturn(2);
+		when(channel3.inFlightMessageCount()).thenReturn(3);
+
+		for (int i = 0; i < 100; i++) {
+			assertNotSame(channel3, distributor.select(channels, topicName));
+		}
+	}
+
+	@Test
+	public void testSelect_TwoChoices_SingleChannel() {
+
+		channels.retainAll(Arrays.asList(channel2));
+		assertSame(channel2, DistributionStrategy.TWO_CHOICES.newDistributor().select(channels, topicName));
+	}
+
+	@Test
+	public void testSelect_TopicHash() {
+
+		MessageDistributor distributor = DistributionStrategy.TOPIC_HASH.newDistributor();
+
+		MqttChannel expected = channels.get(("foo".hashCode() & Integer.MAX_VALUE) % 3);
+		for (int i = 0; i < 5; i++) {
+			assertSame(expected, distributor.select(channels, "foo"));
+		}
+	}
+
+	@Test
+	public void testSelect_TopicHash_NotPublish() {
+
+		MessageDistributor distributor = DistributionStrategy.TOPIC_HASH.newDistributor();
+
+		assertSame(channel1, distributor.select(channels, null));
+		assertSame(channel2, distributor.select(channels, null));
+		assertSame(channel3, distributor.select(channels, null));
+	}
+}
@@ -0,0 +1,270 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Arrays;
+
+import net.xenqtt.message.MqttChannel;
+
+import org.junit.Test;
+
+public class MessageIdTableTest {
+
+	MqttChannel channel1 = mock(MqttChannel.class);
+	MqttChannel channel2 = mock(MqttChannel.class);
+
+	MessageIdTable table = new MessageIdTable(3);
+
+	@Test
+	public void testAdd() {
+
+		assertEquals(0, table.size());
+		assertFalse(table.isFull());
+
+		assertEquals(1, table.add(100, channel1, 10));
+		assertEquals(2, table.add(200, channel2, 10));
+		assertEquals(2, table.size());
+
+		assertSame(channel1, table.getSourceChannel(1));
+		assertEquals(100, table.getSourceMessageId(1));
+		assertSame(channel2, table.getSourceChannel(2));
+		assertEquals(200, table.getSourceMessageId(2));
+		assertNull(table.getSourceChannel(3));
+	}
+
+	@Test
+	public void testAdd_Full() {
+
+		assertEquals(1, table.add(100, channel1, 10));
+		assertEquals(2, table.add(101, channel1, 10));
+		assertEquals(3, table.add(102, channel1, 10));
+		assertTrue(table.isFull());
+
+		assertEquals(0, table.add(103, channel1, 10));
+		assertEquals(3, table.size());
+	}
+
+	@Test
+	public void testAdd_ZeroCapacity() {
+
+		table = new MessageIdTable(0);
+		assertTrue(table.isFull());
+		assertEquals(0, table.add(100, channel1, 10));
+	}
+
+	@Test
+	public void testRemove_FreedIdReusedLast() {
+
+		assertEquals(1, table.add(100, channel1, 10));
+		assertEquals(2, table.add(101, channel1, 10));
+		table.remove(1);
+		assertNull(table.getSourceChannel(1));
+		assertEquals(1, table.size());
+
+		assertEquals(3, table.add(102, channel1, 10));
+		assertEquals(1, table.add(103, channel1, 10));
+		assertTrue(table.isFull());
+
+		table.remove(2);
+		assertEquals(2, table.add(104, channel2, 10));
+		assertSame(channel2, table.getSourceChannel(2));
+		assertEquals(104, table.getSourceMessageId(2));
+	}
+
+	@Test
+	public void testRemove_IdNotInUse() {
+
+		table.add(100, channel1, 10);
+
+		table.remove(2);
+		table.remove(0);
+		table.remove(4);
+		table.remove(-1);
+
+		assertEquals(1, table.size());
+		assertSame(channel1, table.getSourceChannel(1));
+	}
+
+	@Test
+	public void testGetSourceChannel_OutOfRange() {
+
+		assertNull(table.getSourceChannel(0));
+		assertNull(table.getSourceChannel(4));
+		assertNull(table.getSourceChannel(-1));
+	}
+
+	@Test
+	public void testRemoveAll() {
+
+		table.add(100, channel1, 10);
+		table.add(200, channel2, 10);
+		table.add(101, channel1, 10);
+
+		assertEquals(2, table.removeAll(channel1));
+		assertEquals(1, table.size());
+		assertNull(table.getSourceChannel(1));
+		assertSame(channel2, table.getSourceChannel(2));
+		assertNull(table.getSourceChannel(3));
+
+		assertEquals(0, table.removeAll(channel1));
+		assertEquals(1, table.removeAll(channel2));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testRemoveAll_AfterRemovingFromMiddleOfChannelEntries() {
+
+		table.add(100, channel1, 10);
+		table.add(101, channel1, 10);
+		table.add(102, channel1, 10);
+
+		table.remove(2);
+		assertEquals(2, table.removeAll(channel1));
+		assertEquals(0, table.size());
+
+		int id = table.add(103, channel1, 10);
+		table.remove(id);
+		table.remove(id);
+		assertEquals(0, table.removeAll(channel1));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testRemoveAll_IdsReusable() {
+
+		table.add(100, channel1, 10);
+		table.add(101, channel1, 10);
+		table.add(102, channel1, 10);
+		assertTrue(table.isFull());
+
+		assertEquals(3, table.removeAll(channel1));
+		assertFalse(table.isFull());
+
+		assertTrue(table.add(200, channel2, 10) > 0);
+		assertTrue(table.add(201, channel2, 10) > 0);
+		assertTrue(table.add(202, channel2, 10) > 0);
+		assertTrue(table.isFull());
+		assertEquals(3, table.removeAll(channel2));
+	}
+
+	@Test
+	public void testSizeAndBytes_PerChannel() {
+
+		int id1 = table.add(100, channel1, 10);
+		table.add(101, channel1, 20);
+		table.add(200, channel2, 5);
+
+		assertEquals(2, table.size(channel1));
+		assertEquals(1, table.size(channel2));
+		assertEquals(35, table.bytes());
+
+		table.remove(id1);
+		assertEquals(1, table.size(channel1));
+		assertEquals(25, table.bytes());
+
+		table.removeAll(channel1);
+		assertEquals(0, table.size(channel1));
+		assertEquals(5, table.bytes());
+
+		table.remove(id1);
+		assertEquals(5, table.bytes());
+	}
+
+	@Test
+	public void testRestore() {
+
+		assertArrayEquals(new int[0], table.restore(new int[] { 2, 100 }));
+		assertEquals(1, table.restoredSize());
+		assertEquals(1, table.size());
+
+		// the restored ID is not handed out to new messages
+		assertEquals(1, table.add(101, channel1, 10));
+		assertEquals(3, table.add(102, channel1, 10));
+		assertEquals(0, table.add(103, channel1, 10));
+
+		assertEquals(0, table.takeRestored(999));
+		assertEquals(2, table.takeRestored(100));
+		assertEquals(0, table.restoredSize());
+		assertEquals(0, table.takeRestored(100));
+
+		table.addRestored(2, 100, channel2, 5);
+		assertSame(channel2, table.getSourceChannel(2));
+		assertEquals(100, table.getSourceMessageId(2));
+		assertEquals(3, table.size());
+		assertEquals(25, table.bytes());
+		assertArrayEquals(new int[] { 2 }, table.ids(channel2));
+	}
+
+	@Test
+	public void testRestore_Release() {
+
+		table.restore(new int[] { 3, 100 });
+		assertEquals(3, table.takeRestored(100));
+		table.release(3);
+
+		assertEquals(1, table.add(101, channel1, 10));
+		assertEquals(2, table.add(102, channel1, 10));
+		assertEquals(3, table.add(103, channel1, 10));
+	}
+
+	@Test
+	public void testRestore_Rejected() {
+
+		int[] rejected = table.restore(new int[] { 0, 100, 4, 101, 1, 102, 2, 102, 3, 103 });
+		assertArrayEquals(new int[] { 0, 4, 1, 2 }, rejected);
+		assertEquals(1, table.restoredSize());
+
+		assertEquals(0, table.takeRestored(102));
+		assertEquals(3, table.takeRestored(103));
+	}
+
+	@Test
+	public void testReleaseRestored() {
+
+		assertArrayEquals(new int[0], table.releaseRestored());
+
+		table.restore(new int[] { 1, 100, 2, 101 });
+		assertEquals(3, table.add(102, channel1, 10));
+
+		int[] released = table.releaseRestored();
+		Arrays.sort(released);
+		assertArrayEquals(new int[] { 1, 2 }, released);
+		assertEquals(0, table.restoredSize());
+		assertEquals(0, table.takeRestored(100));
+
+		assertEquals(1, table.add(103, channel1, 10));
+		assertEquals(2, table.add(104, channel1, 10));
+		assertTrue(table.isFull());
+	}
+
+	@Test
+	public void testIds() {
+
+		assertArrayEquals(new int[0], table.ids(channel1));
+
+		table.add(100, channel1, 10);
+		table.add(200, channel2, 10);
+		table.add(101, channel1, 10);
+
+		int[] ids = table.ids(channel1);
+		Arrays.sort(ids);
+		assertArrayEquals(new int[] { 1, 3 }, ids);
+		assertArrayEquals(new int[] { 2 }, table.ids(channel2));
+	}
+}
@@ -0,0 +1,138 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import net.xenqtt.message.ChannelManagerImpl;
+import net.xenqtt.message.ConnAckMessage;
+import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.MessageHandler;
+import net.xenqtt.message.MqttChannel;
+import net.xenqtt.message.PubMessage;
+import net.xenqtt.message.QoS;
+import net.xenqtt.mockbroker.Client;
+import net.xenqtt.mockbroker.MockBroker;
+import net.xenqtt.mockbroker.MockBrokerHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ProxyBrokerPooledIoTest {
+
+	@Mock MockBrokerHandler brokerHandler;
+
+	MockBroker broker;
+	ProxyBroker proxy;
+	ChannelManagerImpl clientManager = new ChannelManagerImpl(0);
+
+	@Before
+	public void before() throws Exception {
+
+		MockitoAnnotations.initMocks(this);
+
+		broker = new MockBroker(brokerHandler, 15, 0, true, false, true, 50);
+		broker.init();
+
+		proxy = new ProxyBroker("tcp://127.0.0.1:" + broker.getPort(), 0, 100);
+		proxy.setIoThreads(4);
+		proxy.init();
+
+		clientManager.init();
+	}
+
+	@After
+	public void after() throws Exception {
+
+		clientManager.shutdown();
+		proxy.shutdown(5000);
+		broker.shutdown(5000);
+	}
+
+	@Test
+	public void testConnectAndPublish() throws Exception {
+
+		MessageHandler client = newClient("client1", new PubMessage(QoS.AT_LEAST_ONCE, false, "topic", 7, new byte[] { 1 }));
+
+		verify(client, timeout(5000)).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+		verify(brokerHandler, timeout(5000)).publish(any(Client.class), any(PubMessage.class));
+		verify(brokerHandler, times(1)).connect(any(Client.class), any(ConnectMessage.class));
+	}
+
+	@Test
+	public void testConnect_ClusterAcrossIoThreads() throws Exception {
+
+		// connections are accepted round robin so the clients arrive on different IO threads at about the same time
+		MessageHandler[] clients = new MessageHandler[8];
+		for (int i = 0; i < clients.length; i++) {
+			clients[i] = newClient("client1", null);
+		}
+
+		for (MessageHandler client : clients) {
+			verify(client, timeout(5000)).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+		}
+		Thread.sleep(200);
+		verify(brokerHandler, times(1)).connect(any(Client.class), any(ConnectMessage.class));
+	}
+
+	@Test
+	public void testConnect_ManySessions() throws Exception {
+
+		MessageHandler[] clients = new MessageHandler[8];
+		for (int i = 0; i < clients.length; i++) {
+			clients[i] = newClient("client" + i, null);
+		}
+
+		for (MessageHandler client : clients) {
+			verify(client, timeout(5000)).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+		}
+		verify(brokerHandler, times(clients.length)).connect(any(Client.class), any(ConnectMessage.class));
+	}
+
+	/**
+	 * Connects a client to the proxy. The client publishes the specified message once it is connected.
+	 */
+	private MessageHandler newClient(final String clientId, final PubMessage message) throws Exception {
+
+		MessageHandler handler = mock(MessageHandler.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((MqttChannel) invocation.getArguments()[0]).send(new ConnectMessage(clientId, false, 60));
+				return null;
+			}
+		}).when(handler).channelOpened(any(MqttChannel.class));
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				if (message != null) {
+					((MqttChannel) invocation.getArguments()[0]).send(message);
+				}
+				return null;
+			}
+		}).when(handler).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+
+		clientManager.newClientChannel("127.0.0.1", proxy.getPort(), handler);
+
+		return handler;
+	}
+}
@@ -147,7 +147,7 @@ public class ProxyBrokerTest {
 
 		broker.connect(channel2, message2);
 
-		verify(channel2, times(2)).deregister();
+		verify(channel2).deregister();
 		verify(session1).newConnection(channel2, message2);
 		verify(session1).isClosed();
 		verify(session1).shutdown();
@@ -201,6 +201,16 @@ public class ProxyBrokerTest {
 		verifyNoMoreInteractions(session1);
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetIoThreads_Negative() {
+		broker.setIoThreads(-1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetPublishConnections_Negative() {
+		broker.setPublishConnections(-1);
+	}
+
 	private ConnectMessage newConnectMessage(String clientId) {
 		return new ConnectMessage(clientId, false, 1000);
 	}
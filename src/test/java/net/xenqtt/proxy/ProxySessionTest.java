@@ -19,16 +19,18 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
-import java.lang.reflect.Field;
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.xenqtt.client.ChannelStats;
 import net.xenqtt.message.ChannelManager;
 import net.xenqtt.message.ConnAckMessage;
 import net.xenqtt.message.ConnectMessage;
 import net.xenqtt.message.ConnectReturnCode;
 import net.xenqtt.message.DisconnectMessage;
+import net.xenqtt.message.MessageHandler;
 import net.xenqtt.message.MqttChannel;
 import net.xenqtt.message.MqttMessage;
 import net.xenqtt.message.PubAckMessage;
@@ -54,6 +56,8 @@ public class ProxySessionTest {
 	@Mock MqttChannel channelToBroker;
 	@Mock MqttChannel channelToClient1;
 	@Mock MqttChannel channelToClient2;
+	@Mock MqttChannel publishChannel1;
+	@Mock MqttChannel publishChannel2;
 	@Mock ChannelManager manager;
 	@Captor ArgumentCaptor<MqttMessage> messageCaptor;
 
@@ -86,6 +90,50 @@ public class ProxySessionTest {
 		verifyNoMoreInteractions(manager);
 	}
 
+	@Test
+	public void testInit_SharedChannelManager() {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.init();
+
+		verify(manager).newClientChannel(brokerUri, session);
+		verifyNoMoreInteractions(manager);
+	}
+
+	@Test
+	public void testShutdown_SharedChannelManager() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		when(manager.newClientChannel(brokerUri, session)).thenReturn(channelToBroker);
+		session.init();
+
+		session.shutdown();
+		assertTrue(session.isClosed());
+		session.shutdown();
+
+		verify(manager).newClientChannel(brokerUri, session);
+		verify(manager).close(channelToBroker);
+		verifyNoMoreInteractions(manager);
+	}
+
+	@Test
+	public void testGetChannelStats() throws Exception {
+
+		session.getChannelStats(true);
+		verify(manager).getChannelStats(true);
+	}
+
+	@Test
+	public void testGetChannelStats_SharedChannelManager() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.getChannelStats(true);
+		verify(manager).getChannelStats(session, true);
+	}
+
 	@Test
 	public void testNewConnection_SessionClosed() throws Exception {
 
@@ -97,7 +145,7 @@ public class ProxySessionTest {
 	public void testNewConnection_SessionNotClosed() throws Exception {
 
 		assertTrue(session.newConnection(channelToClient1, connectMessage));
-		verify(manager).attachChannel(channelToClient1, session);
+		verify(manager).attachChannelAsync(channelToClient1, session);
 		verifyNoMoreInteractions(manager);
 	}
 
@@ -214,6 +262,69 @@ public class ProxySessionTest {
 		assertEquals(654, message.getMessageId());
 	}
 
+	@Test
+	public void testPublish_FromBrokerConnection_TopicHash_MutipleClientsInCluster() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setDistributionStrategy(DistributionStrategy.TOPIC_HASH);
+		connectClientAndBroker();
+		assertTrue(session.newConnection(channelToClient2, connectMessage));
+		session.channelAttached(channelToClient2);
+
+		MqttChannel expected = ("foo".hashCode() & Integer.MAX_VALUE) % 2 == 0 ? channelToClient1 : channelToClient2;
+		for (int i = 0; i < 3; i++) {
+			PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[1]);
+			session.publish(channelToBroker, message);
+			verify(expected).send(same(message));
+		}
+	}
+
+	@Test
+	public void testPublish_FromBrokerConnection_PickedClientQueueFull() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setDistributionStrategy(DistributionStrategy.ROUND_ROBIN);
+		connectClientAndBroker();
+		assertTrue(session.newConnection(channelToClient2, connectMessage));
+		session.channelAttached(channelToClient2);
+
+		when(channelToClient1.isSendQueueFull()).thenReturn(true);
+
+		PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[1]);
+		session.publish(channelToBroker, message);
+		verify(channelToClient2).send(same(message));
+		verify(channelToClient1, never()).send(same(message));
+		verify(channelToBroker, never()).pauseRead();
+	}
+
+	@Test
+	public void testPublish_FromBrokerConnection_AllClientQueuesFull() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setDistributionStrategy(DistributionStrategy.ROUND_ROBIN);
+		connectClientAndBroker();
+		assertTrue(session.newConnection(channelToClient2, connectMessage));
+		session.channelAttached(channelToClient2);
+
+		when(channelToClient1.isSendQueueFull()).thenReturn(true);
+		when(channelToClient2.isSendQueueFull()).thenReturn(true);
+
+		PubMessage message = new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[1]);
+		session.publish(channelToBroker, message);
+		verify(channelToClient1).send(same(message));
+		verify(channelToBroker).pauseRead();
+
+		session.messageSent(channelToClient2, message);
+		verify(channelToBroker, never()).resumeRead();
+
+		when(channelToClient2.isSendQueueFull()).thenReturn(false);
+		session.messageSent(channelToClient2, message);
+		verify(channelToBroker).resumeRead();
+
+		session.messageSent(channelToClient2, message);
+		verify(channelToBroker).resumeRead();
+	}
+
 	@Test
 	public void testPublish_FromClientConnection_Qos0() throws Exception {
 
@@ -225,6 +336,63 @@ public class ProxySessionTest {
 		assertEquals(0, message.getMessageId());
 	}
 
+	@Test
+	public void testForwardPublish_FromBrokerConnection_TopicHash() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setDistributionStrategy(DistributionStrategy.TOPIC_HASH);
+		connectClientAndBroker();
+		assertTrue(session.newConnection(channelToClient2, connectMessage));
+		session.channelAttached(channelToClient2);
+
+		MqttChannel expected = ("foo".hashCode() & Integer.MAX_VALUE) % 2 == 0 ? channelToClient1 : channelToClient2;
+		MqttChannel other = expected == channelToClient1 ? channelToClient2 : channelToClient1;
+		ByteBuffer frame = ByteBuffer.allocate(8);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(session.forwardPublish(channelToBroker, "foo", frame));
+		}
+
+		verify(expected, times(3)).sendFrame(same(frame));
+		verify(other, never()).sendFrame(any(ByteBuffer.class));
+		verify(expected, never()).send(isA(PubMessage.class));
+	}
+
+	@Test
+	public void testForwardPublish_FromBrokerConnection_AllClientQueuesFull() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setDistributionStrategy(DistributionStrategy.ROUND_ROBIN);
+		connectClientAndBroker();
+		assertTrue(session.newConnection(channelToClient2, connectMessage));
+		session.channelAttached(channelToClient2);
+
+		when(channelToClient1.isSendQueueFull()).thenReturn(true);
+
+		ByteBuffer frame = ByteBuffer.allocate(8);
+		assertTrue(session.forwardPublish(channelToBroker, "foo", frame));
+		verify(channelToClient2).sendFrame(same(frame));
+		verify(channelToBroker, never()).pauseRead();
+
+		when(channelToClient2.isSendQueueFull()).thenReturn(true);
+		assertTrue(session.forwardPublish(channelToBroker, "foo", frame));
+		verify(channelToBroker).pauseRead();
+
+		when(channelToClient2.isSendQueueFull()).thenReturn(false);
+		session.messageSent(channelToClient2, new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[1]));
+		verify(channelToBroker).resumeRead();
+	}
+
+	@Test
+	public void testForwardPublish_FromClientConnection() throws Exception {
+
+		connectClientAndBroker();
+
+		ByteBuffer frame = ByteBuffer.allocate(8);
+		assertTrue(session.forwardPublish(channelToClient1, "foo", frame));
+		verify(channelToBroker).sendFrame(same(frame));
+		verify(channelToBroker, never()).send(isA(PubMessage.class));
+	}
+
 	@Test
 	public void testPublish_FromClientConnection_Qos1() throws Exception {
 
@@ -240,18 +408,12 @@ public class ProxySessionTest {
 		verify(channelToBroker).send(same(message));
 		assertEquals(2, message.getMessageId());
 
-		Field field = ProxySession.class.getDeclaredField("nextIdToBroker");
-		field.setAccessible(true);
-		field.set(session, 0xffff);
+		// an acked ID goes to the back of the free IDs
+		session.pubAck(channelToBroker, new PubAckMessage(1));
 
 		message = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 125, new byte[1]);
 		session.publish(channelToClient1, message);
 		verify(channelToBroker).send(same(message));
-		assertEquals(0xffff, message.getMessageId());
-
-		message = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 126, new byte[1]);
-		session.publish(channelToClient1, message);
-		verify(channelToBroker).send(same(message));
 		assertEquals(3, message.getMessageId());
 	}
 
@@ -398,6 +560,7 @@ public class ProxySessionTest {
 	@Test
 	public void testUnackedMessageIdNotReused() throws Exception {
 
+		session = new ProxySession(brokerUri, connectMessage, manager, 3);
 		connectClientAndBroker();
 
 		UnsubscribeMessage message = new UnsubscribeMessage(123, new String[0]);
@@ -405,11 +568,17 @@ public class ProxySessionTest {
 		verify(channelToBroker).send(same(message));
 		assertEquals(1, message.getMessageId());
 
-		Field field = ProxySession.class.getDeclaredField("nextIdToBroker");
-		field.setAccessible(true);
-		field.set(session, 1);
+		message = new UnsubscribeMessage(124, new String[0]);
+		session.unsubscribe(channelToClient1, message);
+		assertEquals(2, message.getMessageId());
+
+		session.unsubAck(channelToBroker, new UnsubAckMessage(2));
+
+		message = new UnsubscribeMessage(125, new String[0]);
+		session.unsubscribe(channelToClient1, message);
+		assertEquals(3, message.getMessageId());
 
-		message = new UnsubscribeMessage(123, new String[0]);
+		message = new UnsubscribeMessage(126, new String[0]);
 		session.unsubscribe(channelToClient1, message);
 		verify(channelToBroker).send(same(message));
 		assertEquals(2, message.getMessageId());
@@ -814,6 +983,385 @@ public class ProxySessionTest {
 		assertEquals(message, messageCaptor.getValue());
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetFlowControl_ResumePercentZero() throws Exception {
+		session.setFlowControl(0, 0, false);
+	}
+
+	@Test
+	public void testFlowControl_ResumePercent() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 4);
+		session.setFlowControl(50, 0, false);
+		connectClientAndBroker();
+
+		for (int i = 0; i < 4; i++) {
+			session.publish(channelToClient1, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 100 + i, new byte[1]));
+		}
+		verify(channelToClient1).pauseRead();
+
+		session.pubAck(channelToBroker, new PubAckMessage(1));
+		verify(channelToClient1, never()).resumeRead();
+
+		session.pubAck(channelToBroker, new PubAckMessage(2));
+		verify(channelToClient1).resumeRead();
+		assertEquals(1, session.getPauseCount());
+		assertEquals(1, session.getResumeCount());
+	}
+
+	@Test
+	public void testFlowControl_MaxInFlightBytes() throws Exception {
+
+		session.setFlowControl(100, 20, false);
+		connectClientAndBroker();
+
+		session.publish(channelToClient1, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 100, new byte[5]));
+		verify(channelToClient1, never()).pauseRead();
+
+		// QoS 0 messages are never in-flight so they do not count
+		session.publish(channelToClient1, new PubMessage(QoS.AT_MOST_ONCE, false, "foo", 0, new byte[50]));
+		verify(channelToClient1, never()).pauseRead();
+
+		session.publish(channelToClient1, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 101, new byte[5]));
+		verify(channelToClient1).pauseRead();
+
+		session.pubAck(channelToBroker, new PubAckMessage(1));
+		verify(channelToClient1).resumeRead();
+	}
+
+	@Test
+	public void testFlowControl_FairShare() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 4);
+		session.setFlowControl(100, 0, true);
+		connectClientAndBroker();
+		assertTrue(session.newConnection(channelToClient2, connectMessage));
+		session.channelAttached(channelToClient2);
+
+		session.publish(channelToClient1, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 100, new byte[1]));
+		verify(channelToClient1, never()).pauseRead();
+		session.publish(channelToClient1, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 101, new byte[1]));
+		verify(channelToClient1).pauseRead();
+		verify(channelToClient2, never()).pauseRead();
+		assertEquals(0, session.getPauseCount());
+
+		session.pubAck(channelToBroker, new PubAckMessage(1));
+		verify(channelToClient1).resumeRead();
+	}
+
+	@Test
+	public void testFlowControl_FairShare_ClientStaysPausedOnSessionResume() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 4);
+		session.setFlowControl(100, 0, true);
+		connectClientAndBroker();
+		assertTrue(session.newConnection(channelToClient2, connectMessage));
+		session.channelAttached(channelToClient2);
+
+		session.publish(channelToClient1, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 100, new byte[1]));
+		session.publish(channelToClient1, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 101, new byte[1]));
+		session.publish(channelToClient2, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 200, new byte[1]));
+		session.publish(channelToClient2, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 201, new byte[1]));
+		assertEquals(1, session.getPauseCount());
+
+		// client 2's ack frees an ID so the session resumes but client 1 is still over its share
+		session.pubAck(channelToBroker, new PubAckMessage(4));
+		assertEquals(1, session.getResumeCount());
+		verify(channelToClient1, never()).resumeRead();
+		verify(channelToClient2).resumeRead();
+	}
+
+	@Test
+	public void testInit_PublishConnections() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		session.init();
+
+		ArgumentCaptor<MessageHandler> handlerCaptor = ArgumentCaptor.forClass(MessageHandler.class);
+		verify(manager, times(3)).newClientChannel(eq(brokerUri), handlerCaptor.capture());
+		assertSame(session, handlerCaptor.getAllValues().get(0));
+		assertNotSame(session, handlerCaptor.getAllValues().get(1));
+		assertNotSame(session, handlerCaptor.getAllValues().get(2));
+		assertNotSame(handlerCaptor.getAllValues().get(1), handlerCaptor.getAllValues().get(2));
+		verifyNoMoreInteractions(manager);
+	}
+
+	@Test
+	public void testGetChannelStats_SharedChannelManager_PublishConnections() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		List<MessageHandler> handlers = initPublishConnections();
+
+		when(manager.getChannelStats(any(MessageHandler.class), anyBoolean())).thenReturn(new ArrayList<ChannelStats>());
+		session.getChannelStats(true);
+		verify(manager).getChannelStats(session, true);
+		verify(manager).getChannelStats(handlers.get(0), true);
+		verify(manager).getChannelStats(handlers.get(1), true);
+	}
+
+	@Test
+	public void testConnAck_PublishConnections_ClientsWaitForAllConnections() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		List<MessageHandler> handlers = initPublishConnections();
+
+		verify(publishChannel1).send(messageCaptor.capture());
+		ConnectMessage connect = (ConnectMessage) messageCaptor.getValue();
+		assertEquals("client1-pub-1", connect.getClientId());
+		assertTrue(connect.isCleanSession());
+		verify(publishChannel2).send(messageCaptor.capture());
+		assertEquals("client1-pub-2", ((ConnectMessage) messageCaptor.getValue()).getClientId());
+
+		attachClientAndBroker();
+		session.connAck(channelToBroker, new ConnAckMessage(ConnectReturnCode.ACCEPTED));
+		handlers.get(0).connAck(publishChannel1, new ConnAckMessage(ConnectReturnCode.ACCEPTED));
+		verify(channelToClient1, never()).send(any(MqttMessage.class));
+
+		handlers.get(1).connAck(publishChannel2, new ConnAckMessage(ConnectReturnCode.ACCEPTED));
+		verify(channelToClient1).send(messageCaptor.capture());
+		assertEquals(ConnectReturnCode.ACCEPTED, ((ConnAckMessage) messageCaptor.getValue()).getReturnCode());
+	}
+
+	@Test
+	public void testConnAck_PublishConnections_PublishConnectionRejected() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		List<MessageHandler> handlers = initPublishConnections();
+
+		attachClientAndBroker();
+		handlers.get(1).connAck(publishChannel2, new ConnAckMessage(ConnectReturnCode.NOT_AUTHORIZED));
+		session.connAck(channelToBroker, new ConnAckMessage(ConnectReturnCode.ACCEPTED));
+		handlers.get(0).connAck(publishChannel1, new ConnAckMessage(ConnectReturnCode.ACCEPTED));
+
+		verify(channelToClient1).send(messageCaptor.capture());
+		assertEquals(ConnectReturnCode.NOT_AUTHORIZED, ((ConnAckMessage) messageCaptor.getValue()).getReturnCode());
+	}
+
+	@Test
+	public void testPublish_FromClientConnection_PublishConnections() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		List<MessageHandler> handlers = initPublishConnections();
+		connectClientAndPublishConnections(handlers);
+
+		int index = ("foo".hashCode() & Integer.MAX_VALUE) % 2;
+		MqttChannel publishChannel = index == 0 ? publishChannel1 : publishChannel2;
+
+		PubMessage message1 = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 123, new byte[1]);
+		session.publish(channelToClient1, message1);
+		PubMessage message2 = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 124, new byte[1]);
+		session.publish(channelToClient1, message2);
+
+		verify(publishChannel).send(same(message1));
+		verify(publishChannel).send(same(message2));
+		assertEquals(1, message1.getMessageId());
+		assertEquals(2, message2.getMessageId());
+		verify(channelToBroker, never()).send(isA(PubMessage.class));
+		assertEquals(2, session.getInFlightBrokerMessageCount());
+
+		PubAckMessage ack = new PubAckMessage(2);
+		handlers.get(index).pubAck(publishChannel, ack);
+		verify(channelToClient1).send(same(ack));
+		assertEquals(124, ack.getMessageId());
+		assertEquals(1, session.getInFlightBrokerMessageCount());
+
+		SubscribeMessage subscribe = new SubscribeMessage(7, new String[] { "foo" }, new QoS[] { QoS.AT_LEAST_ONCE });
+		session.subscribe(channelToClient1, subscribe);
+		verify(channelToBroker).send(same(subscribe));
+		assertEquals(1, subscribe.getMessageId());
+	}
+
+	@Test
+	public void testForwardPublish_FromClientConnection_PublishConnections() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		List<MessageHandler> handlers = initPublishConnections();
+		connectClientAndPublishConnections(handlers);
+
+		int index = ("foo".hashCode() & Integer.MAX_VALUE) % 2;
+		MqttChannel publishChannel = index == 0 ? publishChannel1 : publishChannel2;
+
+		ByteBuffer frame = ByteBuffer.allocate(8);
+		assertTrue(session.forwardPublish(channelToClient1, "foo", frame));
+
+		verify(publishChannel).sendFrame(same(frame));
+		verify(channelToBroker, never()).sendFrame(any(ByteBuffer.class));
+		assertEquals(0, session.getInFlightBrokerMessageCount());
+	}
+
+	@Test
+	public void testPublish_FromClientConnection_PublishConnections_IdSpaceFull() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 1);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		List<MessageHandler> handlers = initPublishConnections();
+		connectClientAndPublishConnections(handlers);
+
+		int index = ("foo".hashCode() & Integer.MAX_VALUE) % 2;
+		MqttChannel publishChannel = index == 0 ? publishChannel1 : publishChannel2;
+
+		session.publish(channelToClient1, new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 123, new byte[1]));
+		verify(channelToClient1).pauseRead();
+		assertEquals(1, session.getPauseCount());
+
+		handlers.get(index).pubAck(publishChannel, new PubAckMessage(1));
+		verify(channelToClient1).resumeRead();
+		assertEquals(1, session.getResumeCount());
+	}
+
+	@Test
+	public void testChannelClosed_PublishConnection() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		List<MessageHandler> handlers = initPublishConnections();
+		connectClientAndPublishConnections(handlers);
+
+		handlers.get(0).channelClosed(publishChannel1, null);
+
+		assertTrue(session.isClosed());
+		verify(channelToBroker).close();
+	}
+
+	@Test
+	public void testChannelClosed_ChannelToBroker_ClosesPublishConnections() throws Exception {
+
+		session = new ProxySession(brokerUri, connectMessage, manager, 0xffff);
+		session.setSharedChannelManager();
+		session.setPublishConnections(2);
+		List<MessageHandler> handlers = initPublishConnections();
+		connectClientAndPublishConnections(handlers);
+
+		session.channelClosed(channelToBroker, null);
+
+		assertTrue(session.isClosed());
+		verify(channelToClient1).close();
+		verify(publishChannel1).close();
+		verify(publishChannel2).close();
+	}
+
+	private List<MessageHandler> initPublishConnections() {
+
+		session.init();
+
+		ArgumentCaptor<MessageHandler> handlerCaptor = ArgumentCaptor.forClass(MessageHandler.class);
+		verify(manager, times(3)).newClientChannel(eq(brokerUri), handlerCaptor.capture());
+		List<MessageHandler> handlers = handlerCaptor.getAllValues().subList(1, 3);
+		handlers.get(0).channelOpened(publishChannel1);
+		handlers.get(1).channelOpened(publishChannel2);
+
+		return handlers;
+	}
+
+	private void connectClientAndPublishConnections(List<MessageHandler> handlers) throws Exception {
+
+		connectClientAndBroker();
+		handlers.get(0).connAck(publishChannel1, new ConnAckMessage(ConnectReturnCode.ACCEPTED));
+		handlers.get(1).connAck(publishChannel2, new ConnAckMessage(ConnectReturnCode.ACCEPTED));
+	}
+
+	@Test
+	public void testJournal_RestoredIdsReusedForResentMessages() throws Exception {
+
+		File file = File.createTempFile("journal", ".bin");
+		SessionJournal journal = new SessionJournal(file);
+		try {
+			SessionJournal.Handle handle = journal.openSession(connectMessage);
+			journal.idAdded(handle, 5, 123);
+			journal.idAdded(handle, 6, 124);
+			journal.closeSession(handle);
+
+			session.setJournal(journal);
+			connectClientAndBroker();
+
+			PubMessage resent = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 123, new byte[1]);
+			resent.setDuplicateFlag();
+			session.publish(channelToClient1, resent);
+			verify(channelToBroker).send(same(resent));
+			assertEquals(5, resent.getMessageId());
+
+			// a new message with the same client ID as an unacknowledged one does not reuse the broker ID
+			PubMessage message = new PubMessage(QoS.AT_LEAST_ONCE, false, "foo", 124, new byte[1]);
+			session.publish(channelToClient1, message);
+			verify(channelToBroker).send(same(message));
+			assertEquals(1, message.getMessageId());
+			assertEquals(2, journal.size());
+
+			PubAckMessage ack = new PubAckMessage(5);
+			session.pubAck(channelToBroker, ack);
+			verify(channelToClient1).send(same(ack));
+			assertEquals(123, ack.getMessageId());
+			assertEquals(1, journal.size());
+
+			session.pubAck(channelToBroker, new PubAckMessage(1));
+			assertEquals(0, journal.size());
+		} finally {
+			journal.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testJournal_RestoredIdsReleasedWhenLastClientLeaves() throws Exception {
+
+		File file = File.createTempFile("journal", ".bin");
+		SessionJournal journal = new SessionJournal(file);
+		try {
+			SessionJournal.Handle handle = journal.openSession(connectMessage);
+			journal.idAdded(handle, 5, 123);
+			journal.closeSession(handle);
+
+			session.setJournal(journal);
+			connectClientAndBroker();
+			assertEquals(1, journal.size());
+
+			session.channelClosed(channelToClient1, null);
+			assertEquals(0, journal.size());
+			assertTrue(journal.getActiveSessions().isEmpty());
+		} finally {
+			journal.close();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testJournal_SessionStaysActiveOnShutdown() throws Exception {
+
+		SessionJournal journal = new SessionJournal();
+		session.setJournal(journal);
+		connectClientAndBroker();
+		assertEquals(1, journal.getActiveSessions().size());
+
+		session.shutdown();
+		session.channelClosed(channelToBroker, null);
+		assertEquals(1, journal.getActiveSessions().size());
+	}
+
+	@Test
+	public void testJournal_SessionEndsWhenBrokerConnectionCloses() throws Exception {
+
+		SessionJournal journal = new SessionJournal();
+		session.setJournal(journal);
+		connectClientAndBroker();
+
+		session.channelClosed(channelToBroker, null);
+		assertTrue(journal.getActiveSessions().isEmpty());
+	}
+
 	private void connectClientAndBroker() throws Exception {
 
 		attachClientAndBroker();
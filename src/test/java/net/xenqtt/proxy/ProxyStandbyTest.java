@@ -0,0 +1,298 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+
+import net.xenqtt.message.ChannelManagerImpl;
+import net.xenqtt.message.ConnAckMessage;
+import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.MessageHandler;
+import net.xenqtt.message.MqttChannel;
+import net.xenqtt.message.PubMessage;
+import net.xenqtt.message.QoS;
+import net.xenqtt.mockbroker.Client;
+import net.xenqtt.mockbroker.MockBroker;
+import net.xenqtt.mockbroker.MockBrokerHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ProxyStandbyTest {
+
+	@Mock MockBrokerHandler brokerHandler;
+	@Captor ArgumentCaptor<ConnectMessage> connectCaptor;
+	@Captor ArgumentCaptor<PubMessage> pubCaptor;
+
+	MockBroker broker;
+	String brokerUri;
+
+	SessionJournal primaryJournal = new SessionJournal();
+	ProxyBroker primary;
+	SessionReplicator replicator;
+
+	SessionJournal standbyJournal = new SessionJournal();
+	ProxyBroker standbyBroker;
+	ProxyStandby standby;
+
+	ChannelManagerImpl clientManager = new ChannelManagerImpl(0);
+
+	@Before
+	public void before() throws Exception {
+
+		MockitoAnnotations.initMocks(this);
+
+		// the broker never acknowledges so published messages stay in-flight
+		when(brokerHandler.publish(any(Client.class), any(PubMessage.class))).thenReturn(true);
+		broker = new MockBroker(brokerHandler, 15, 0, true, false, true, 50);
+		broker.init();
+		brokerUri = "tcp://127.0.0.1:" + broker.getPort();
+
+		primary = new ProxyBroker(brokerUri, 0, 100);
+		primary.setSessionJournal(primaryJournal);
+		primary.init();
+		replicator = new SessionReplicator(primaryJournal, 0, 20);
+		replicator.init();
+
+		standbyBroker = new ProxyBroker(brokerUri, 0, 100);
+		standby = new ProxyStandby("127.0.0.1", replicator.getPort(), standbyBroker, standbyJournal, 500);
+
+		clientManager.init();
+	}
+
+	@After
+	public void after() throws Exception {
+
+		clientManager.shutdown();
+		standby.shutdown();
+		if (standby.isActive()) {
+			standbyBroker.shutdown(5000);
+		}
+		replicator.close();
+		primary.shutdown(5000);
+		broker.shutdown(5000);
+	}
+
+	@Test
+	public void testTakeOver() throws Exception {
+
+		standby.init();
+
+		MessageHandler client1 = newClient(primary.getPort(), new PubMessage(QoS.AT_LEAST_ONCE, false, "topic", 7, new byte[] { 1 }));
+		verify(brokerHandler, timeout(5000)).publish(any(Client.class), pubCaptor.capture());
+		int brokerMessageId = pubCaptor.getValue().getMessageId();
+		verify(client1, timeout(5000)).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+
+		awaitReplicatedSize(1);
+		assertFalse(standby.isActive());
+		verify(brokerHandler, times(1)).connect(any(Client.class), any(ConnectMessage.class));
+
+		// the primary fails
+		long start = System.currentTimeMillis();
+		replicator.close();
+		primary.shutdown(5000);
+
+		assertTrue(standby.awaitTakeover(5000));
+		verify(brokerHandler, timeout(5000).times(2)).connect(any(Client.class), connectCaptor.capture());
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		List<ConnectMessage> connects = connectCaptor.getAllValues();
+		assertEquals("client1", connects.get(1).getClientId());
+		assertFalse(connects.get(1).isCleanSession());
+
+		// the client reconnects to the standby and resends the unacknowledged message
+		PubMessage resent = new PubMessage(QoS.AT_LEAST_ONCE, false, "topic", 7, new byte[] { 1 });
+		resent.setDuplicateFlag();
+		newClient(standbyBroker.getPort(), resent);
+
+		verify(brokerHandler, timeout(5000).times(2)).publish(any(Client.class), pubCaptor.capture());
+		PubMessage atBroker = pubCaptor.getValue();
+		assertEquals(brokerMessageId, atBroker.getMessageId());
+		assertTrue(atBroker.isDuplicate());
+	}
+
+	@Test
+	public void testTakeOver_EndedSessionsNotOpened() throws Exception {
+
+		standby.init();
+
+		MessageHandler client1 = newClient(primary.getPort(), null);
+		verify(client1, timeout(5000)).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+		awaitActiveSessions(1);
+
+		clientManager.shutdown();
+		awaitActiveSessions(0);
+
+		replicator.close();
+		primary.shutdown(5000);
+
+		assertTrue(standby.awaitTakeover(5000));
+		Thread.sleep(500);
+		verify(brokerHandler, times(1)).connect(any(Client.class), any(ConnectMessage.class));
+	}
+
+	@Test
+	public void testSecret_Matches() throws Exception {
+
+		newReplicator(SessionReplicator.DEFAULT_MAX_PENDING_BYTES, "s3cret");
+		standby.setSecret("s3cret");
+		standby.init();
+
+		MessageHandler client1 = newClient(primary.getPort(), null);
+		verify(client1, timeout(5000)).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+		awaitActiveSessions(1);
+	}
+
+	@Test
+	public void testSecret_WrongSecretRejected() throws Exception {
+
+		newReplicator(SessionReplicator.DEFAULT_MAX_PENDING_BYTES, "s3cret");
+		standby.setSecret("wrong");
+		standby.init();
+
+		MessageHandler client1 = newClient(primary.getPort(), null);
+		verify(client1, timeout(5000)).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+
+		Thread.sleep(1500);
+		assertTrue(standbyJournal.getActiveSessions().isEmpty());
+		assertFalse(standby.isActive());
+	}
+
+	@Test
+	public void testPendingLimit_StandbyResyncsWithoutTakingOver() throws Exception {
+
+		// every record overflows so every change drops the link and the standby only gets it from the next snapshot
+		newReplicator(1, null);
+		standby.init();
+		Thread.sleep(500);
+
+		MessageHandler client1 = newClient(primary.getPort(), new PubMessage(QoS.AT_LEAST_ONCE, false, "topic", 7, new byte[] { 1 }));
+		verify(client1, timeout(5000)).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+
+		awaitActiveSessions(1);
+		awaitReplicatedSize(1);
+		Thread.sleep(1000);
+		assertFalse(standby.isActive());
+	}
+
+	@Test
+	public void testInvalidBatchLength_Reconnects() throws Exception {
+
+		ServerSocket fakePrimary = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		try {
+			fakePrimary.setSoTimeout(5000);
+			standby = new ProxyStandby("127.0.0.1", fakePrimary.getLocalPort(), standbyBroker, standbyJournal, 500);
+			standby.init();
+
+			Socket socket = fakePrimary.accept();
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.write(new byte[SessionReplicator.CHALLENGE_BYTES]);
+			new DataInputStream(socket.getInputStream()).readFully(new byte[32]);
+			out.writeInt(Integer.MAX_VALUE);
+			out.flush();
+
+			// the standby drops the link without allocating the batch and tries again
+			fakePrimary.accept().close();
+			socket.close();
+			assertFalse(standby.isActive());
+		} finally {
+			fakePrimary.close();
+		}
+	}
+
+	@Test
+	public void testNoTakeOverBeforeReplicating() throws Exception {
+
+		replicator.close();
+		standby.init();
+
+		assertFalse(standby.awaitTakeover(1500));
+	}
+
+	/**
+	 * Replaces the replicator and the standby with ones using the specified settings
+	 */
+	private void newReplicator(int maxPendingBytes, String secret) {
+
+		replicator.close();
+		replicator = new SessionReplicator(primaryJournal, 0, 20, maxPendingBytes);
+		replicator.setSecret(secret);
+		replicator.init();
+
+		standby = new ProxyStandby("127.0.0.1", replicator.getPort(), standbyBroker, standbyJournal, 500);
+	}
+
+	/**
+	 * Connects a client with client ID client1 to the specified port. The client publishes the specified message once it is connected.
+	 */
+	private MessageHandler newClient(int port, final PubMessage message) throws Exception {
+
+		MessageHandler handler = mock(MessageHandler.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((MqttChannel) invocation.getArguments()[0]).send(new ConnectMessage("client1", false, 60));
+				return null;
+			}
+		}).when(handler).channelOpened(any(MqttChannel.class));
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				if (message != null) {
+					((MqttChannel) invocation.getArguments()[0]).send(message);
+				}
+				return null;
+			}
+		}).when(handler).connAck(any(MqttChannel.class), any(ConnAckMessage.class));
+
+		clientManager.newClientChannel("127.0.0.1", port, handler);
+
+		return handler;
+	}
+
+	private void awaitReplicatedSize(int size) throws Exception {
+
+		long end = System.currentTimeMillis() + 5000;
+		while (standbyJournal.size() != size && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(size, standbyJournal.size());
+	}
+
+	private void awaitActiveSessions(int count) throws Exception {
+
+		long end = System.currentTimeMillis() + 5000;
+		while (standbyJournal.getActiveSessions().size() != count && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, standbyJournal.getActiveSessions().size());
+	}
+}
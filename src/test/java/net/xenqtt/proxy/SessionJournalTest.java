@@ -0,0 +1,418 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.proxy;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.QoS;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionJournalTest {
+
+	File file;
+	SessionJournal journal;
+
+	@Before
+	public void before() throws Exception {
+		file = File.createTempFile("journal", ".bin");
+		file.delete();
+	}
+
+	@After
+	public void after() throws Exception {
+		if (journal != null) {
+			journal.close();
+		}
+		file.delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+
+	@Test
+	public void testOpen_NewFile() throws Exception {
+
+		journal = new SessionJournal(file);
+		assertTrue(file.exists());
+		assertEquals(0, journal.size());
+
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		assertArrayEquals(new int[0], journal.getEntries(handle));
+	}
+
+	@Test
+	public void testReopen_RestoresEntries() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle1 = journal.openSession(connectMessage("client1"));
+		SessionJournal.Handle handle2 = journal.openSession(connectMessage("client2"));
+		journal.idAdded(handle1, 1, 100);
+		journal.idAdded(handle1, 2, 101);
+		journal.idAdded(handle2, 1, 200);
+		journal.idRemoved(handle1, 1);
+		journal.idRemoved(handle2, 1);
+		journal.close();
+
+		journal = new SessionJournal(file);
+		assertEquals(1, journal.size());
+
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		assertArrayEquals(new int[] { 2, 101 }, journal.getEntries(handle));
+		handle = journal.openSession(connectMessage("client2"));
+		assertArrayEquals(new int[0], journal.getEntries(handle));
+	}
+
+	@Test
+	public void testReopen_PartialRecordIgnored() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle, 1, 100);
+		journal.idAdded(handle, 2, 101);
+		journal.close();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		journal = new SessionJournal(file);
+		handle = journal.openSession(connectMessage("client1"));
+		assertArrayEquals(new int[] { 1, 100 }, journal.getEntries(handle));
+	}
+
+	@Test
+	public void testReopen_NotAJournal() throws Exception {
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		out.close();
+
+		try {
+			new SessionJournal(file);
+			fail("Expected exception");
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+
+		journal = new SessionJournal(file, 100);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		for (int i = 0; i < 100; i++) {
+			journal.idAdded(handle, 1, i);
+			journal.idRemoved(handle, 1);
+		}
+		journal.idAdded(handle, 2, 500);
+		journal.flush();
+
+		// header (8), session record (21), one ID record (9) and fewer than 100 bytes appended since the last compaction
+		assertTrue(file.length() < 138);
+
+		journal.close();
+		journal = new SessionJournal(file, 100);
+		handle = journal.openSession(connectMessage("client1"));
+		assertArrayEquals(new int[] { 2, 500 }, journal.getEntries(handle));
+	}
+
+	@Test
+	public void testCompact_DropsEmptyEndedSessions() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle, 1, 100);
+		journal.idRemoved(handle, 1);
+		journal.endSession(handle);
+		journal.close();
+
+		long length = file.length();
+		journal = new SessionJournal(file);
+		assertTrue(file.length() < length);
+		assertEquals(8, file.length());
+	}
+
+	@Test
+	public void testWriterThread_WritesRecords() throws Exception {
+
+		journal = new SessionJournal(file);
+		long length = file.length();
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle, 1, 100);
+
+		long end = System.currentTimeMillis() + 5000;
+		while (file.length() < length + 30 && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+
+		// session record (21) and ID record (9)
+		assertEquals(length + 30, file.length());
+	}
+
+	@Test
+	public void testIdAddedAndRemoved_ManyIds() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		for (int i = 1; i <= 65535; i++) {
+			journal.idAdded(handle, i, 65536 - i);
+		}
+		journal.idAdded(handle, 7, 1);
+		assertEquals(65535, journal.size());
+
+		for (int i = 1; i <= 65535; i += 2) {
+			journal.idRemoved(handle, i);
+		}
+		assertEquals(32767, journal.size());
+
+		int[] entries = journal.getEntries(handle);
+		assertEquals(65534, entries.length);
+		for (int i = 0; i < entries.length; i += 2) {
+			assertEquals(0, entries[i] % 2);
+			assertEquals(65536 - entries[i], entries[i + 1]);
+		}
+
+		journal.close();
+		journal = new SessionJournal(file);
+		assertEquals(32767, journal.size());
+	}
+
+	@Test
+	public void testOpenSession_TakesOverState() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle1 = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle1, 1, 100);
+
+		SessionJournal.Handle handle2 = journal.openSession(connectMessage("client1"));
+		assertTrue(handle1 != handle2);
+		assertArrayEquals(new int[] { 1, 100 }, journal.getEntries(handle2));
+
+		// the old handle no longer changes anything
+		journal.idAdded(handle1, 2, 101);
+		journal.idRemoved(handle1, 1);
+		assertArrayEquals(new int[0], journal.getEntries(handle1));
+		assertArrayEquals(new int[] { 1, 100 }, journal.getEntries(handle2));
+	}
+
+	@Test
+	public void testCloseSession() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle, 1, 100);
+		journal.closeSession(handle);
+
+		journal.idAdded(handle, 2, 101);
+		assertEquals(1, journal.size());
+
+		handle = journal.openSession(connectMessage("client1"));
+		assertArrayEquals(new int[] { 1, 100 }, journal.getEntries(handle));
+	}
+
+	@Test
+	public void testClose_ChangesIgnored() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle, 1, 100);
+		journal.close();
+
+		long length = file.length();
+		journal.idAdded(handle, 2, 101);
+		journal.close();
+		assertEquals(length, file.length());
+
+		journal = new SessionJournal(file);
+		handle = journal.openSession(connectMessage("client1"));
+		assertArrayEquals(new int[] { 1, 100 }, journal.getEntries(handle));
+	}
+
+	@Test
+	public void testCompact_KeepsClosedSessions() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.closeSession(handle);
+		journal.close();
+
+		journal = new SessionJournal(file);
+		assertEquals(1, journal.getActiveSessions().size());
+	}
+
+	@Test
+	public void testGetActiveSessions() throws Exception {
+
+		journal = new SessionJournal(file);
+		journal.setRecordPasswords(true);
+		ConnectMessage connectMessage = new ConnectMessage("client1", false, 30, "user", "pass", "will", "gone", QoS.AT_LEAST_ONCE, true);
+		journal.openSession(connectMessage);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client2"));
+		journal.openSession(connectMessage("client3"));
+		journal.endSession(handle);
+
+		List<ConnectMessage> active = journal.getActiveSessions();
+		assertEquals(2, active.size());
+		journal.close();
+
+		journal = new SessionJournal(file);
+		active = journal.getActiveSessions();
+		assertEquals(2, active.size());
+		ConnectMessage restored = active.get(0).getClientId().equals("client1") ? active.get(0) : active.get(1);
+		assertEquals(connectMessage, restored);
+	}
+
+	@Test
+	public void testGetActiveSessions_PasswordNotRecorded() throws Exception {
+
+		journal = new SessionJournal(file);
+		journal.openSession(new ConnectMessage("client1", false, 30, "user", "pass"));
+		journal.close();
+
+		journal = new SessionJournal(file);
+		List<ConnectMessage> active = journal.getActiveSessions();
+		assertEquals(1, active.size());
+		assertEquals("user", active.get(0).getUserName());
+		assertNull(active.get(0).getPassword());
+	}
+
+	@Test
+	public void testEndSession() throws Exception {
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle, 1, 100);
+		journal.endSession(handle);
+
+		journal.idRemoved(handle, 1);
+		assertEquals(1, journal.size());
+		assertTrue(journal.getActiveSessions().isEmpty());
+
+		handle = journal.openSession(connectMessage("client1"));
+		assertArrayEquals(new int[] { 1, 100 }, journal.getEntries(handle));
+		assertEquals(1, journal.getActiveSessions().size());
+	}
+
+	@Test
+	public void testInMemory() throws Exception {
+
+		journal = new SessionJournal();
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle, 1, 100);
+		assertEquals(1, journal.size());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testReplicate() throws Exception {
+
+		SessionJournal primary = new SessionJournal();
+		SessionReplicator replicator = new SessionReplicator(primary, 0, 1);
+
+		SessionJournal.Handle handle1 = primary.openSession(connectMessage("client1"));
+		primary.idAdded(handle1, 1, 100);
+		primary.replicateTo(replicator);
+		primary.flush();
+		byte[] snapshot = replicator.nextBatch().toByteArray();
+
+		primary.idAdded(handle1, 2, 101);
+		primary.idRemoved(handle1, 1);
+		SessionJournal.Handle handle2 = primary.openSession(connectMessage("client2"));
+		primary.idAdded(handle2, 1, 200);
+		primary.endSession(handle2);
+		primary.flush();
+		byte[] batch = replicator.nextBatch().toByteArray();
+
+		journal = new SessionJournal(file);
+		journal.replicateSnapshot(snapshot);
+		assertEquals(1, journal.size());
+		journal.replicate(batch);
+		assertEquals(2, journal.size());
+		assertEquals(1, journal.getActiveSessions().size());
+		assertEquals("client1", journal.getActiveSessions().get(0).getClientId());
+
+		// the replicated state is also recorded in the standby's own file
+		journal.close();
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		assertArrayEquals(new int[] { 2, 101 }, journal.getEntries(handle));
+		handle = journal.openSession(connectMessage("client2"));
+		assertArrayEquals(new int[] { 1, 200 }, journal.getEntries(handle));
+	}
+
+	@Test
+	public void testReplicateSnapshot_ReplacesState() throws Exception {
+
+		SessionJournal primary = new SessionJournal();
+		SessionReplicator replicator = new SessionReplicator(primary, 0, 1);
+		primary.replicateTo(replicator);
+
+		journal = new SessionJournal(file);
+		SessionJournal.Handle handle = journal.openSession(connectMessage("client1"));
+		journal.idAdded(handle, 1, 100);
+
+		journal.replicateSnapshot(replicator.nextBatch().toByteArray());
+		assertEquals(0, journal.size());
+		assertTrue(journal.getActiveSessions().isEmpty());
+	}
+
+	@Test
+	public void testReplicateTo_Stopped() throws Exception {
+
+		SessionJournal primary = new SessionJournal();
+		SessionReplicator replicator = new SessionReplicator(primary, 0, 1);
+		primary.replicateTo(replicator);
+		assertEquals(8, replicator.nextBatch().size());
+
+		primary.replicateTo(null);
+		primary.openSession(connectMessage("client1"));
+		assertEquals(0, replicator.nextBatch().size());
+	}
+
+	@Test
+	public void testReplicateTo_PendingLimitStopsReplication() throws Exception {
+
+		SessionJournal primary = new SessionJournal();
+		SessionReplicator replicator = new SessionReplicator(primary, 0, 1, 10);
+		primary.replicateTo(replicator);
+		assertEquals(8, replicator.nextBatch().size());
+
+		// the session record is more than 10 bytes
+		primary.openSession(connectMessage("client1"));
+		primary.flush();
+		assertEquals(0, replicator.nextBatch().size());
+
+		// nothing more is buffered until the standby starts again from a new snapshot
+		primary.openSession(connectMessage("client2"));
+		primary.flush();
+		assertEquals(0, replicator.nextBatch().size());
+
+		primary.replicateTo(replicator);
+		assertTrue(replicator.nextBatch().size() > 8);
+		primary.close();
+	}
+
+	private ConnectMessage connectMessage(String clientId) {
+		return new ConnectMessage(clientId, false, 60);
+	}
+}
@@ -0,0 +1,64 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ArrivalsTest {
+
+	Random random = new Random(1234);
+
+	@Test
+	public void testGetArrivals() {
+		assertSame(Arrivals.CONSTANT, Arrivals.getArrivals("constant"));
+		assertSame(Arrivals.POISSON, Arrivals.getArrivals("Poisson"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetArrivals_Unknown() {
+		Arrivals.getArrivals("bursty");
+	}
+
+	@Test
+	public void testNextIntervalNanos_Constant() {
+		assertEquals(1000000D, Arrivals.CONSTANT.nextIntervalNanos(1000, random), 0);
+		assertEquals(4000000000D, Arrivals.CONSTANT.nextIntervalNanos(0.25, random), 0);
+	}
+
+	@Test
+	public void testNextIntervalNanos_Poisson() {
+
+		double total = 0;
+		double min = Double.MAX_VALUE;
+		double max = 0;
+		for (int i = 0; i < 100000; i++) {
+			double interval = Arrivals.POISSON.nextIntervalNanos(1000, random);
+			assertTrue(interval >= 0);
+			total += interval;
+			min = Math.min(min, interval);
+			max = Math.max(max, interval);
+		}
+
+		// the mean is the constant interval but individual intervals vary widely
+		assertEquals(1000000D, total / 100000, 20000D);
+		assertTrue(min < 100000D);
+		assertTrue(max > 5000000D);
+	}
+}
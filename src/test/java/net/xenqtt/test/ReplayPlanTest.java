@@ -0,0 +1,179 @@
+/**
+    Copyright 2013 James McClure
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package net.xenqtt.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import net.xenqtt.message.CapturedFrame;
+import net.xenqtt.message.ConnectMessage;
+import net.xenqtt.message.MqttMessage;
+import net.xenqtt.message.PingReqMessage;
+import net.xenqtt.message.PubMessage;
+import net.xenqtt.message.QoS;
+import net.xenqtt.message.WireCapture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplayPlanTest {
+
+	File file;
+	WireCapture capture;
+
+	@Before
+	public void before() throws Exception {
+		file = File.createTempFile("replay", ".bin");
+		capture = new WireCapture(file, 4096, 1000);
+	}
+
+	@After
+	public void after() throws Exception {
+		capture.close();
+		file.delete();
+	}
+
+	@Test
+	public void testLoad_Empty() throws Exception {
+
+		ReplayPlan plan = load(-1);
+		assertEquals(0, plan.getMessageCount());
+		assertTrue(plan.getConnections().isEmpty());
+	}
+
+	@Test
+	public void testLoad_GroupsByConnection() throws Exception {
+
+		record(1000, false, 1883, 5000, new ConnectMessage("client1", true, 60));
+		record(1001, false, 1883, 5001, new ConnectMessage("client2", true, 60));
+		record(1100, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "a", 0, new byte[] { 1 }));
+		record(1200, false, 1883, 5001, new PubMessage(QoS.AT_LEAST_ONCE, true, "b", 7, new byte[] { 2, 3 }));
+		record(1300, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "c", 0, new byte[] { 4 }));
+
+		ReplayPlan plan = load(-1);
+		assertEquals(3, plan.getMessageCount());
+
+		List<ReplayPlan.Connection> connections = plan.getConnections();
+		assertEquals(2, connections.size());
+
+		assertEquals("client1", connections.get(0).getClientId());
+		List<CapturedFrame> publishes = connections.get(0).getPublishes();
+		assertEquals(2, publishes.size());
+		assertEquals("a", publishes.get(0).getTopicName());
+		assertEquals("c", publishes.get(1).getTopicName());
+
+		assertEquals("client2", connections.get(1).getClientId());
+		CapturedFrame frame = connections.get(1).getPublishes().get(0);
+		assertEquals("b", frame.getTopicName());
+		assertEquals(QoS.AT_LEAST_ONCE, frame.getQoS());
+		assertTrue(frame.isRetain());
+		assertArrayEquals(new byte[] { 2, 3 }, frame.getPayload());
+	}
+
+	@Test
+	public void testLoad_IgnoresSentAndNonPublishFrames() throws Exception {
+
+		record(1000, true, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "a", 0, new byte[] { 1 }));
+		record(1100, false, 1883, 5000, new PingReqMessage());
+		record(1200, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "b", 0, new byte[] { 1 }));
+
+		ReplayPlan plan = load(-1);
+		assertEquals(1, plan.getMessageCount());
+		assertEquals(1, plan.getConnections().size());
+		assertNull(plan.getConnections().get(0).getClientId());
+		assertEquals("b", plan.getConnections().get(0).getPublishes().get(0).getTopicName());
+	}
+
+	@Test
+	public void testLoad_ConnectionsWithoutPublishesAreDropped() throws Exception {
+
+		record(1000, false, 1883, 5000, new ConnectMessage("client1", true, 60));
+		record(1001, false, 1883, 5001, new ConnectMessage("client2", true, 60));
+		record(1100, false, 1883, 5001, new PubMessage(QoS.AT_MOST_ONCE, false, "a", 0, new byte[] { 1 }));
+
+		ReplayPlan plan = load(-1);
+		assertEquals(1, plan.getConnections().size());
+		assertEquals("client2", plan.getConnections().get(0).getClientId());
+	}
+
+	@Test
+	public void testLoad_ReusedPortsAreNewConnection() throws Exception {
+
+		record(1000, false, 1883, 5000, new ConnectMessage("client1", true, 60));
+		record(1100, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "a", 0, new byte[] { 1 }));
+		record(1200, false, 1883, 5000, new ConnectMessage("client2", true, 60));
+		record(1300, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "b", 0, new byte[] { 1 }));
+
+		ReplayPlan plan = load(-1);
+		assertEquals(2, plan.getConnections().size());
+		assertEquals("client1", plan.getConnections().get(0).getClientId());
+		assertEquals("client2", plan.getConnections().get(1).getClientId());
+	}
+
+	@Test
+	public void testLoad_FilterByPort() throws Exception {
+
+		record(1000, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "a", 0, new byte[] { 1 }));
+		record(1100, false, 6000, 1884, new PubMessage(QoS.AT_MOST_ONCE, false, "b", 0, new byte[] { 1 }));
+
+		ReplayPlan plan = load(1883);
+		assertEquals(1, plan.getMessageCount());
+		assertEquals("a", plan.getConnections().get(0).getPublishes().get(0).getTopicName());
+
+		plan = load(1884);
+		assertEquals(1, plan.getMessageCount());
+		assertEquals("b", plan.getConnections().get(0).getPublishes().get(0).getTopicName());
+	}
+
+	@Test
+	public void testGetReplayOffsetMillis() throws Exception {
+
+		record(1000, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "a", 0, new byte[] { 1 }));
+		record(3000, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "b", 0, new byte[] { 1 }));
+
+		ReplayPlan plan = load(-1);
+		List<CapturedFrame> publishes = plan.getConnections().get(0).getPublishes();
+
+		assertEquals(0, plan.getReplayOffsetMillis(publishes.get(0), 1));
+		assertEquals(2000, plan.getReplayOffsetMillis(publishes.get(1), 1));
+		assertEquals(200, plan.getReplayOffsetMillis(publishes.get(1), 10));
+		assertEquals(4000, plan.getReplayOffsetMillis(publishes.get(1), 0.5));
+		assertEquals(0, plan.getReplayOffsetMillis(publishes.get(1), 0));
+	}
+
+	@Test
+	public void testLoad_TruncatedPayloadKeepsLength() throws Exception {
+
+		capture.close();
+		capture = new WireCapture(file, 4096, 10);
+
+		record(1000, false, 1883, 5000, new PubMessage(QoS.AT_MOST_ONCE, false, "a", 0, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 }));
+
+		CapturedFrame frame = load(-1).getConnections().get(0).getPublishes().get(0);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 0, 0, 0, 0, 0 }, frame.getPayload());
+	}
+
+	private ReplayPlan load(int port) throws Exception {
+		return ReplayPlan.load(file.getPath(), port);
+	}
+
+	private void record(long timestamp, boolean sent, int localPort, int remotePort, MqttMessage message) {
+		capture.record(timestamp, sent, localPort, remotePort, message);
+	}
+}